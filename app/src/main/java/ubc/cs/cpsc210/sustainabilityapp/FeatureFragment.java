@@ -1,17 +1,13 @@
 package ubc.cs.cpsc210.sustainabilityapp;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import ubc.cs.cpsc210.sustainabilityapp.model.Feature;
-import ubc.cs.cpsc210.sustainabilityapp.model.POIRegistry;
-import ubc.cs.cpsc210.sustainabilityapp.model.SharedPreferencesKeyValueStore;
-import ubc.cs.cpsc210.sustainabilityapp.model.TourState;
+import ubc.cs.cpsc210.sustainabilityapp.poi.FeatureFilter;
+import ubc.cs.cpsc210.sustainabilityapp.poi.IndexedPOIRegistry;
+import ubc.cs.cpsc210.sustainabilityapp.poi.IndexedTourState;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
-import android.util.SparseBooleanArray;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
@@ -29,7 +25,14 @@ public class FeatureFragment extends ListFragment {
 	/**
 	 * Manages and stores selected features and POI's.
 	 */
-	private TourState tourState;
+	private IndexedTourState tourState;
+	
+	/**
+	 * POIs with any of the features checked in the list view, which selecting the features selects;
+	 * updated for the one feature checked or unchecked on each click, rather than found again from
+	 * every checked feature.
+	 */
+	private FeatureFilter featureFilter;
 	
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
@@ -39,7 +42,8 @@ public class FeatureFragment extends ListFragment {
         
 		features = Feature.values();
 		
-		tourState = new TourState(POIRegistry.getDefault(), new SharedPreferencesKeyValueStore(getActivity(), TourState.STORE_NAME));
+		tourState = new IndexedTourState(IndexedPOIRegistry.getDefault(), ((UBCSustainabilityAppActivity) getActivity()).getTourStore());
+		featureFilter = new FeatureFilter(IndexedPOIRegistry.getDefault(), FeatureFilter.Match.ANY);
 		
 		setListAdapter(new ArrayAdapter<Feature>(getActivity(), android.R.layout.simple_list_item_multiple_choice, features));
     }
@@ -53,6 +57,7 @@ public class FeatureFragment extends ListFragment {
 		itemClicked = false;
 		
 		List<Feature> selectedFeatures = tourState.getSelectedFeatures();
+		featureFilter.setSelectedFeatures(selectedFeatures);
 		
 		for (int i = 0; i < features.length; i++) {
 			if (selectedFeatures.contains(features[i])) {
@@ -76,23 +81,17 @@ public class FeatureFragment extends ListFragment {
 	
 	private void updateTour() {
 		if (itemClicked){
-			SparseBooleanArray checkedPositions = getListView().getCheckedItemPositions();
-			
-			Set<Feature> selectedFeatures = new HashSet<Feature>();
-			
-			for (int i = 0; i < checkedPositions.size(); i++) {
-				if (checkedPositions.valueAt(i)) {
-					selectedFeatures.add(features[checkedPositions.keyAt(i)]);
-				}
-			}
-			
-			tourState.setSelectedFeatures(new ArrayList<Feature>(selectedFeatures));
+			tourState.setSelectedFeatures(featureFilter);
 		}
 	}
 	
 	@Override
 	public void onListItemClick(ListView l, View v, int position, long id) {
 		itemClicked = true;
+		if (l.isItemChecked(position))
+			featureFilter.select(features[position]);
+		else
+			featureFilter.deselect(features[position]);
 		updateTour();
 		((ITourUpdate) getActivity()).updateMap();
 	}
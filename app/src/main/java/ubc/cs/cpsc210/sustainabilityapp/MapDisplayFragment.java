@@ -1,31 +1,57 @@
 package ubc.cs.cpsc210.sustainabilityapp;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.osmdroid.DefaultResourceProxyImpl;
 import org.osmdroid.ResourceProxy;
 import org.osmdroid.api.IGeoPoint;
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.util.BoundingBoxE6;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapController;
 import org.osmdroid.views.overlay.ItemizedIconOverlay;
 import org.osmdroid.views.overlay.ItemizedIconOverlay.OnItemGestureListener;
 import org.osmdroid.views.overlay.OverlayItem;
+import org.osmdroid.views.overlay.OverlayItem.HotspotPlace;
 import org.osmdroid.views.overlay.PathOverlay;
 import org.osmdroid.views.overlay.SimpleLocationOverlay;
 
+import ubc.cs.cpsc210.sustainabilityapp.geometry.GridClusterer.Cluster;
+import ubc.cs.cpsc210.sustainabilityapp.geometry.LocalProjection;
+import ubc.cs.cpsc210.sustainabilityapp.geometry.PointSet;
+import ubc.cs.cpsc210.sustainabilityapp.geometry.SpatialIndex;
+import ubc.cs.cpsc210.sustainabilityapp.geometry.TourOptimizer;
 import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
-import ubc.cs.cpsc210.sustainabilityapp.model.POIRegistry;
 import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
-import ubc.cs.cpsc210.sustainabilityapp.model.SharedPreferencesKeyValueStore;
-import ubc.cs.cpsc210.sustainabilityapp.model.TourState;
+import ubc.cs.cpsc210.sustainabilityapp.overlay.MarkerBitmapPool;
+import ubc.cs.cpsc210.sustainabilityapp.overlay.POIMarkerLayer;
+import ubc.cs.cpsc210.sustainabilityapp.overlay.RouteLayer;
+import ubc.cs.cpsc210.sustainabilityapp.poi.IndexedPOIRegistry;
+import ubc.cs.cpsc210.sustainabilityapp.poi.IndexedTourState;
+import ubc.cs.cpsc210.sustainabilityapp.routing.CancellationToken;
 import ubc.cs.cpsc210.sustainabilityapp.routing.RouteInfo;
+import ubc.cs.cpsc210.sustainabilityapp.routing.RouteLegListener;
+import ubc.cs.cpsc210.sustainabilityapp.routing.RouteTask;
 import ubc.cs.cpsc210.sustainabilityapp.routing.RoutingService;
+import ubc.cs.cpsc210.sustainabilityapp.routing.WalkingDistanceMatrix;
+import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.graphics.drawable.BitmapDrawable;
 
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
@@ -56,9 +82,10 @@ public class MapDisplayFragment extends Fragment {
 	private final static GeoPoint ICICS_GEOPOINT = new GeoPoint(49.260887,-123.24902);
 
 	/**
-	 * Overlay for POI markers.
+	 * Overlay for POI markers, and the markers near the screen shown on it.
 	 */
 	private ItemizedIconOverlay<OverlayItem> poiOverlay;
+	private POIMarkerLayer poiLayer;
 	
 	/**
 	 * Overlay for the user's current location.
@@ -66,20 +93,20 @@ public class MapDisplayFragment extends Fragment {
 	private SimpleLocationOverlay myLocationOverlay;
 	
 	/**
-	 * Overlay for the route connecting the selected POI's. 
+	 * Route connecting the selected POI's, drawn on a path overlay. 
 	 */
-	private PathOverlay tourOverlay;
+	private RouteLayer tourLayer;
 	
 	/**
-	 * Overlay for the route connecting the user's current location to the nearest 
-	 * selected POI.
+	 * Route connecting the user's current location to the nearest selected POI, drawn on a 
+	 * path overlay.
 	 */
-	private PathOverlay routeToTourOverlay;
+	private RouteLayer routeToTourLayer;
 
 	/**
 	 * Manages and stores selected features and POI's.
 	 */
-	private TourState tourState;
+	private IndexedTourState tourState;
 	
 	/**
 	 * Currently selected POI's.
@@ -98,16 +125,37 @@ public class MapDisplayFragment extends Fragment {
 	private MyMapView mapView;
 	
 	/**
-	 * Route retriever services
+	 * Keys under which routes are requested from the route scheduler; a new request for an overlay 
+	 * supersedes the previous one
 	 */
-	private RouteRetriever poiRouteRetriever;
-	private RouteRetriever toTourRouteRetriever;
+	private final static String TOUR_ROUTE = "tourRoute";
+	private final static String ROUTE_TO_TOUR = "routeToTour";
 	
 	/**
-	 * Map Markers
+	 * Tokens cancelling the routes last requested for each overlay
 	 */
-	private static BitmapDrawable poiMarker;
-	private static BitmapDrawable customMarker;
+	private CancellationToken tourRouteToken;
+	private CancellationToken routeToTourToken;
+	
+	/**
+	 * Map Markers; their bitmaps are shared with other instances through the marker bitmap pool
+	 */
+	private BitmapDrawable poiMarker;
+	private BitmapDrawable customMarker;
+	
+	/**
+	 * Size of cluster markers, and the distance within which POIs are merged into a cluster, in 
+	 * density-independent pixels
+	 */
+	private final static float CLUSTER_MARKER_DP = 36;
+	private final static float CLUSTER_DISTANCE_DP = 56;
+	
+	/**
+	 * Cluster markers by the number shown on them; the counts of clusters over 99 are shown as 99+.  
+	 * Their bitmaps are kept in the marker bitmap pool.
+	 */
+	private final static int MAX_CLUSTER_LABEL = 99;
+	private final Map<Integer, BitmapDrawable> clusterMarkers = new HashMap<Integer, BitmapDrawable>();
 	
 	/**
 	 * To find the current location
@@ -129,6 +177,37 @@ public class MapDisplayFragment extends Fragment {
 	 */
 	private List<PointOfInterest> customPOIs;
 	
+	/**
+	 * Side of a cell of the POI index, in metres: about the spacing of buildings on campus
+	 */
+	private final static double POI_INDEX_CELL_SIZE = 100;
+	
+	/**
+	 * Index of the selected and custom POIs by location, kept up to date as POIs are selected and 
+	 * custom POIs are added or cleared, so that the POI closest to the user is found quickly
+	 */
+	private SpatialIndex<PointOfInterest> poiIndex;
+	
+	/**
+	 * Selected POIs currently in poiIndex
+	 */
+	private Set<PointOfInterest> indexedSelectedPOIs;
+	
+	/**
+	 * Orders the tour's POIs to make the tour short; runs on a route scheduler thread before the 
+	 * tour's route is requested, so its time is bounded
+	 */
+	private final static long TOUR_OPTIMIZER_BUDGET_MILLIS = 20;
+	private final TourOptimizer tourOptimizer = new TourOptimizer(TOUR_OPTIMIZER_BUDGET_MILLIS);
+	
+	/**
+	 * Walking distances between the tour's POIs, kept between updates so that only the distances to 
+	 * newly added POIs need to be retrieved, after the tour has been drawn.  Each tour retriever 
+	 * works on a copy of its own, as a superseded retriever may still be running, and replaces this 
+	 * one with its copy once it is filled in.
+	 */
+	private volatile WalkingDistanceMatrix tourDistances = new WalkingDistanceMatrix();
+	
 	/**
 	 * Get routing service, current state of tour and
 	 * initialize location services.
@@ -140,8 +219,8 @@ public class MapDisplayFragment extends Fragment {
 		
 		routingService = ((UBCSustainabilityAppActivity) getActivity()).getRoutingService();
 		
-		tourState = new TourState(POIRegistry.getDefault(), 
-				new SharedPreferencesKeyValueStore(getActivity(), TourState.STORE_NAME));
+		tourState = new IndexedTourState(IndexedPOIRegistry.getDefault(), 
+				((UBCSustainabilityAppActivity) getActivity()).getTourStore());
 		
 		// gets Location manager to access gps information
 		locationManager = (LocationManager) getActivity().getSystemService(Context.LOCATION_SERVICE);
@@ -150,6 +229,13 @@ public class MapDisplayFragment extends Fragment {
 		
 		if(customPOIs == null)
 			customPOIs = new ArrayList<PointOfInterest>();
+		
+		if(poiIndex == null) {
+			poiIndex = new SpatialIndex<PointOfInterest>(LocalProjection.CAMPUS, POI_INDEX_CELL_SIZE);
+			indexedSelectedPOIs = new HashSet<PointOfInterest>();
+			for (PointOfInterest poi : customPOIs)
+				indexPOI(poi);
+		}
 	}
 	
 	/**
@@ -230,20 +316,48 @@ public class MapDisplayFragment extends Fragment {
 				mapController.setCenter(cntr);
 			}
 				
+			// only the markers and the parts of routes near the screen are put on the overlays
+			int zoomLevel = mapView.getZoomLevel();
 			poiOverlay = createPOIOverlay();
-			tourOverlay = createTourOverlay();
-			routeToTourOverlay = createRouteToTourOverlay();
+			float density = getResources().getDisplayMetrics().density;
+			poiLayer = new POIMarkerLayer(poiOverlay, zoomLevel, CLUSTER_DISTANCE_DP * density) {
+				@Override
+				protected OverlayItem createItem(PointOfInterest poi) {
+					return createPOIItem(poi);
+				}
+				
+				@Override
+				protected OverlayItem createClusterItem(Cluster<PointOfInterest> cluster) {
+					return createPOIClusterItem(cluster);
+				}
+			};
+			tourLayer = new RouteLayer(createTourOverlay(), zoomLevel);
+			routeToTourLayer = new RouteLayer(createRouteToTourOverlay(), zoomLevel);
 			myLocationOverlay = createMyLocationOverlay();
 			
 			// gets special markers
-			poiMarker = new BitmapDrawable(getResources().openRawResource(R.drawable.poimarker));
-			customMarker = new BitmapDrawable(getResources().openRawResource(R.drawable.usermarker));
+			poiMarker = getMarker(R.drawable.poimarker);
+			customMarker = getMarker(R.drawable.usermarker);
 			
 			// Order matters: overlays added later are displayed on top of overlays added earlier.
-			mapView.getOverlays().add(tourOverlay);
-			mapView.getOverlays().add(routeToTourOverlay);
+			mapView.getOverlays().add(tourLayer.getOverlay());
+			mapView.getOverlays().add(routeToTourLayer.getOverlay());
 			mapView.getOverlays().add(poiOverlay);
 			mapView.getOverlays().add(myLocationOverlay);
+			
+			mapView.setMapListener(new MapListener() {
+				@Override
+				public boolean onScroll(ScrollEvent event) {
+					updateViewport();
+					return false;
+				}
+				
+				@Override
+				public boolean onZoom(ZoomEvent event) {
+					updateViewport();
+					return false;
+				}
+			});
 		}
 
 		return mapView;
@@ -251,25 +365,31 @@ public class MapDisplayFragment extends Fragment {
 	
 	/**
 	 * When view is destroyed, remove map view from its parent so that it can be added
-	 * again when view is re-created.  Stop route retriever threads as the view is about
+	 * again when view is re-created.  Cancel route requests as the view is about
 	 * to be destroyed.
 	 */
 	@Override
 	public void onDestroyView() {
 		Log.d(LOG_TAG, "onDestroyView");
 		
-		// interrupt the RouteRetrieverThreads
-		if (poiRouteRetriever != null)
-			poiRouteRetriever.interrupt();  
-		
-		if (toTourRouteRetriever != null)
-			toTourRouteRetriever.interrupt();
+		cancelRoute(tourRouteToken);
+		cancelRoute(routeToTourToken);
 		
 		((ViewGroup) mapView.getParent()).removeView(mapView);
+		Log.d(LOG_TAG, MarkerBitmapPool.getInstance().getStats().toString());
 		
 		super.onDestroyView();
 	}
 	
+	/**
+	 * Drop the pooled marker bitmaps; those still in use are kept by their markers.
+	 */
+	@Override
+	public void onLowMemory() {
+		MarkerBitmapPool.getInstance().clear();
+		super.onLowMemory();
+	}
+	
 	
 	@Override 
 	public void onDestroy() {	
@@ -325,7 +445,9 @@ public class MapDisplayFragment extends Fragment {
 	}
 	
 	/**
-	 * Selected POIs has changed so update tour, location and repaint.
+	 * Selected POIs has changed so update tour, location and repaint.  Selecting features selects
+	 * the POIs with them (see {@link IndexedTourState#setSelectedFeatures(List)}), so the selected 
+	 * POIs are those to show.
 	 */
 	void update() {
 		Log.d(LOG_TAG, "update");
@@ -334,6 +456,7 @@ public class MapDisplayFragment extends Fragment {
 		selectedPOIs = tourState.getSelectedPOIs();
 		allPOIs.addAll(selectedPOIs);
 		allPOIs.addAll(customPOIs);
+		updatePOIIndex(selectedPOIs);
 		
 		if(currentLocation != null)
 			updateUserLocation(allPOIs);
@@ -350,11 +473,13 @@ public class MapDisplayFragment extends Fragment {
 	private void updateUserLocation(List<PointOfInterest> pois){
 		Log.d(LOG_TAG, "updateUserLocation");
 
-		// clear the current path
-		routeToTourOverlay.clearPath();
+		// the current path is kept until the new one replaces it, in case it is unchanged
+		cancelRoute(routeToTourToken);
 
 		// only make a route to a POI if at least one exists
-		if(!pois.isEmpty()) {
+		if(pois.isEmpty()) {
+			routeToTourLayer.clear();
+		} else {
 
 			// put current location on myLocationOverlay
 			myLocationOverlay.setLocation(new GeoPoint(currentLocation));
@@ -363,10 +488,10 @@ public class MapDisplayFragment extends Fragment {
 			ArrayList<LatLong> userToClosestPOI = new ArrayList<LatLong>();
 
 			userToClosestPOI.add(new LatLong(currentLocation.getLatitude(), currentLocation.getLongitude()));
-			PointOfInterest closestPOI = findClosestPOI(currentLocation, pois);
+			PointOfInterest closestPOI = findClosestPOI(currentLocation);
 			userToClosestPOI.add(closestPOI.getLatLong());
 
-			findRouteAndUpdateOverlay(toTourRouteRetriever, routeToTourOverlay, userToClosestPOI, false);
+			routeToTourToken = findRouteAndUpdateOverlay(ROUTE_TO_TOUR, routeToTourLayer, userToClosestPOI, false);
 		}
 	}
 
@@ -376,36 +501,36 @@ public class MapDisplayFragment extends Fragment {
 	private void updateTour(List<PointOfInterest> pois) {		
 		Log.d(LOG_TAG, "updateTour");
 		
-		// clear overlays and map
-		poiOverlay.removeAllItems();
-		tourOverlay.clearPath();	
+		// markers are only added and removed for the POIs selected or deselected, and the route is 
+		// kept until the new one replaces it, so that unchanged legs need not be retrieved again
+		cancelRoute(tourRouteToken);
 		
 		List<LatLong> waypoints = new ArrayList<LatLong>();
 		
 		// plots all selected points of interest
+		poiLayer.setPOIs(pois);
 		for(PointOfInterest poi : pois){
-			plotPOI(poiOverlay, poi);
-			
 			// store latitude/longitude
 			waypoints.add(poi.getLatLong());			
 		}
 		
 		// don't draw path unless there are multiple points of interest
 		if(waypoints.size() > 1){
-			// add first waypoint so route loops around
-			waypoints.add(pois.get(0).getLatLong());
-			
-			// create route
-			findRouteAndUpdateOverlay(poiRouteRetriever, tourOverlay, waypoints, true);
+			// create route, visiting the POIs in a short order rather than the order they were 
+			// selected in
+			tourRouteToken = routingService.getRouteScheduler().submit(TOUR_ROUTE, new TourRetriever(waypoints));
+		} else {
+			tourLayer.clear();
 		}
 	}
 	
 	/**
-	 * Plot a POI on the specified overlay.
+	 * Create the marker for a POI, which the POI layer puts on the POI overlay when it comes near 
+	 * the screen.
 	 */
-	private void plotPOI(ItemizedIconOverlay<OverlayItem> overlay, PointOfInterest poi) {
+	private OverlayItem createPOIItem(PointOfInterest poi) {
 		
-		//adds a POI to the given overlay at correct latitude/longitude with display name and description
+		//creates an item at correct latitude/longitude with display name and description
 		GeoPoint poiGeoPoint = new GeoPoint(poi.getLatLong().getLatitude(), poi.getLatLong().getLongitude());
 		OverlayItem item = new OverlayItem(poi.getDisplayName(), poi.getDescription(), poiGeoPoint);
 		if(poi.getDisplayName() == "Custom point")
@@ -413,47 +538,129 @@ public class MapDisplayFragment extends Fragment {
 		else
 			item.setMarker(poiMarker);
 
-		overlay.addItem(item);			
+		return item;
 	}
-
-	/** 
-	 * Given a location and a list of POI's, find the POI closest to the specified location.
-	 * 
-	 * This is based on "line-of-sight" distance between points, using an approximation which works
-	 * okay for short distances (surface of the earth is approximated by a plane).
+	
+	/**
+	 * Create the marker for a cluster of POIs too close together to tell apart at the current zoom 
+	 * level.  It shows how many POIs it stands for, and is placed at their centre; tapping it lists 
+	 * their names.
 	 */
-	private PointOfInterest findClosestPOI(Location location, List<PointOfInterest> pois) {
-		double approxLatitude = pois.get(0).getLatLong().getLatitude();
-		
-		PointOfInterest closest = null;
-		double minDistValue = Double.MAX_VALUE;
+	private OverlayItem createPOIClusterItem(Cluster<PointOfInterest> cluster) {
+		StringBuilder names = new StringBuilder();
+		for (PointOfInterest poi : cluster.getItems()) {
+			if (names.length() > 0)
+				names.append('\n');
+			names.append(poi.getDisplayName());
+		}
 		
-		LatLong locationLatLong = new LatLong(location.getLatitude(), location.getLongitude());
+		GeoPoint centre = new GeoPoint(cluster.getLatitude(), cluster.getLongitude());
+		OverlayItem item = new OverlayItem(getString(R.string.cluster_title, cluster.getCount()), 
+				names.toString(), centre);
+		item.setMarker(getClusterMarker(cluster.getCount()));
+		item.setMarkerHotspot(HotspotPlace.CENTER);
+		return item;
+	}
+	
+	/**
+	 * Get a marker drawable, decoded for the screen density, whose bitmap is shared through the 
+	 * marker bitmap pool.
+	 */
+	private BitmapDrawable getMarker(int id) {
+		Bitmap bitmap = MarkerBitmapPool.getInstance().getResource(getResources(), id);
+		return new BitmapDrawable(getResources(), bitmap);
+	}
+	
+	/**
+	 * Get the marker for a cluster of the given number of POIs: a disc labelled with the number.
+	 */
+	private BitmapDrawable getClusterMarker(int count) {
+		int label = Math.min(count, MAX_CLUSTER_LABEL + 1);
+		BitmapDrawable marker = clusterMarkers.get(label);
+		if (marker != null)
+			return marker;
 		
-		for (PointOfInterest poi: pois) {
-			double distValue = getDistanceValue(approxLatitude, locationLatLong, poi.getLatLong());
-			if (distValue < minDistValue) {
-				minDistValue = distValue;
-				closest = poi;
-			}
+		int size = Math.round(CLUSTER_MARKER_DP * getResources().getDisplayMetrics().density);
+		MarkerBitmapPool pool = MarkerBitmapPool.getInstance();
+		String key = "cluster/" + label + "/" + size;
+		Bitmap bitmap = pool.get(key);
+		if (bitmap == null) {
+			bitmap = drawClusterMarker(label, size);
+			pool.put(key, bitmap);
 		}
 		
-		return closest;
+		marker = new BitmapDrawable(getResources(), bitmap);
+		clusterMarkers.put(label, marker);
+		return marker;
+	}
+	
+	/**
+	 * Draw a cluster marker of the given size, in pixels, labelled with the given number.
+	 */
+	private Bitmap drawClusterMarker(int label, int size) {
+		Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bitmap);
+		Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setColor(Color.rgb(0x1f, 0x5f, 0xa8));
+		canvas.drawCircle(size / 2f, size / 2f, size / 2f, paint);
+		
+		paint.setColor(Color.WHITE);
+		paint.setTextSize(size * 0.45f);
+		paint.setTextAlign(Paint.Align.CENTER);
+		String text = label > MAX_CLUSTER_LABEL ? MAX_CLUSTER_LABEL + "+" : Integer.toString(label);
+		canvas.drawText(text, size / 2f, size / 2f - (paint.ascent() + paint.descent()) / 2, paint);
+		return bitmap;
 	}
 	
 	/**
-	 * Get a value representing the "line-of-sight" distance between two points, using an approximation which works
-	 * okay for short distances (surface of the earth is approximated by a plane).
+	 * Bring the markers and routes on the overlays up to date with the part of the map on screen, 
+	 * as it is scrolled, zoomed or laid out.
+	 */
+	void updateViewport() {
+		BoundingBoxE6 visible = mapView.getProjection().getBoundingBox();
+		int zoomLevel = mapView.getZoomLevel();
+		
+		boolean changed = poiLayer.setViewport(visible, zoomLevel);
+		changed |= tourLayer.setViewport(visible, zoomLevel);
+		changed |= routeToTourLayer.setViewport(visible, zoomLevel);
+		
+		if (changed)
+			mapView.invalidate();
+	}
+
+	/** 
+	 * Given a location, find the selected or custom POI closest to it.
 	 * 
-	 * The value returned is only usable for comparison purposes (i.e. it has a nonlinear relationship to the actual
-	 * distance).
+	 * This is based on "line-of-sight" distance between points, using a planar approximation which
+	 * works well over the campus (see {@link LocalProjection}).
+	 */
+	private PointOfInterest findClosestPOI(Location location) {
+		return poiIndex.nearest(location.getLatitude(), location.getLongitude());
+	}
+	
+	/**
+	 * Bring the POI index up to date with the selected POIs, adding newly selected POIs and removing
+	 * those no longer selected.
 	 */
-	private double getDistanceValue(double approxLatitude, LatLong pointA, LatLong pointB) {
-		double latAdjust = Math.cos(Math.PI * approxLatitude / 180.0);
-		double latDiff = pointA.getLatitude() - pointB.getLatitude();
-		double longDiff = pointA.getLongitude() - pointB.getLongitude();
+	private void updatePOIIndex(List<PointOfInterest> selected) {
+		Set<PointOfInterest> nowSelected = new HashSet<PointOfInterest>(selected);
 		
-		return Math.pow(latDiff, 2) + Math.pow(latAdjust * longDiff, 2);
+		for (Iterator<PointOfInterest> it = indexedSelectedPOIs.iterator(); it.hasNext(); ) {
+			PointOfInterest poi = it.next();
+			if (!nowSelected.contains(poi)) {
+				poiIndex.remove(poi);
+				it.remove();
+			}
+		}
+		
+		for (PointOfInterest poi : selected) {
+			if (indexedSelectedPOIs.add(poi))
+				indexPOI(poi);
+		}
+	}
+	
+	private void indexPOI(PointOfInterest poi) {
+		poiIndex.add(poi, poi.getLatLong().getLatitude(), poi.getLatLong().getLongitude());
 	}
 
 	/**
@@ -488,8 +695,7 @@ public class MapDisplayFragment extends Fragment {
 		};
 		
 		return new ItemizedIconOverlay<OverlayItem>(new ArrayList<OverlayItem>(), 
-				getResources().getDrawable(R.drawable.map_pin_blue), 
-				gestureListener, rp);
+				getMarker(R.drawable.map_pin_blue), gestureListener, rp);
 	}
 
 	/**
@@ -527,115 +733,277 @@ public class MapDisplayFragment extends Fragment {
 	}
 
 	/**
-	 * Halts current route retriever service if it's running.  Creates new route retriever and
-	 * calls the routing service to obtain a route which connects the specified list of lat/long points.
+	 * Requests a route which connects the specified list of lat/long points from the routing service's
+	 * route scheduler, superseding the route last requested with the same key.  Legs which the layer
+	 * already holds are kept rather than retrieved again.
 	 * 
-	 * @param retriever current route retriever
-	 * @param overlay The way overlay which will be updated with the resulting route.
+	 * @param key Identifies the layer; the route last requested with this key is cancelled.
+	 * @param layer The route layer which will be updated with the resulting route.
 	 * @param points Points which the route must pass through.
 	 * @param useCache If set to true, the routing service will return a cached route if one is available 
 	 *                 (and will cache the result if no cached route is found).
-	 * @return new route retriever instance
+	 * @return token which cancels the request
 	 */
-	private RouteRetriever findRouteAndUpdateOverlay(RouteRetriever retriever, PathOverlay overlay, List<LatLong> points, boolean useCache) {
-		// Retrieve routes in a separate thread, as it can take some time and we do not want to 
+	private CancellationToken findRouteAndUpdateOverlay(String key, RouteLayer layer, List<LatLong> points, boolean useCache) {
+		// Retrieve routes on the scheduler's threads, as it can take some time and we do not want to 
 	    // block the UI thread.
-		if (retriever != null && retriever.isAlive()) { // thread is still running so interrupt it 
-			retriever.interrupt();
-			overlay.clearPath();
+		return routingService.getRouteScheduler().submit(key, new RouteRetriever(layer, points, useCache));
+	}
+	
+	/**
+	 * Cancel a route request, if one has been made.
+	 */
+	private void cancelRoute(CancellationToken token) {
+		if (token != null)
+			token.cancel();
+	}
+	
+	/**
+	 * Orders the tour's stops, then retrieves the route visiting them and returning to the first stop.  
+	 * If the walking distances between the stops are all known, the stops are ordered by them.  
+	 * Otherwise the tour is routed at once in straight-line order, so that its legs are drawn as they 
+	 * arrive, and the walking distances are then filled in; the tour is routed again only if they 
+	 * give a different order.  Runs on a route scheduler thread, so that ordering never holds up the 
+	 * UI thread.
+	 */
+	private class TourRetriever implements RouteTask {
+		private List<LatLong> stops;
+		
+		public TourRetriever(List<LatLong> stops) {
+			this.stops = stops;
+		}
+		
+		@Override
+		public void run(CancellationToken token) {
+			// with three stops or fewer, every order is equally long
+			if (stops.size() <= 3) {
+				routeTour(stops, token);
+				return;
+			}
+			
+			WalkingDistanceMatrix distances = new WalkingDistanceMatrix(tourDistances);
+			if (distances.setStops(stops) == 0) {
+				routeTour(walkingOrder(distances), token);
+				return;
+			}
+			
+			List<LatLong> straightLineOrder = tourOptimizer.reorder(stops, PointSet.of(LocalProjection.CAMPUS, stops));
+			routeTour(straightLineOrder, token);
+			if (token.isCancelled())
+				return;
+			
+			// the legs just retrieved are cached, so only the other pairs of stops are fetched
+			try {
+				routingService.updateDistanceMatrix(distances, token);
+			} catch (IOException e) {
+				if (!token.isCancelled())
+					Log.w(LOG_TAG, "Walking distances not available, keeping tour in straight-line order");
+				return;
+			}
+			tourDistances = distances;
+			
+			List<LatLong> walkingOrder = walkingOrder(distances);
+			if (!isSameTour(walkingOrder, straightLineOrder))
+				routeTour(walkingOrder, token);
 		}
 		
-		retriever = new RouteRetriever(overlay, points, useCache);
-		retriever.start();
-		return retriever;
+		/**
+		 * @return The stops ordered by the walking distances between them.
+		 */
+		private List<LatLong> walkingOrder(WalkingDistanceMatrix distances) {
+			int[] order = tourOptimizer.optimize(distances.getDistances(), stops.size());
+			List<LatLong> waypoints = new ArrayList<LatLong>(stops.size());
+			for (int stop : order)
+				waypoints.add(stops.get(stop));
+			return waypoints;
+		}
+		
+		/**
+		 * Retrieve the route visiting the given stops in order, and returning to the first.
+		 */
+		private void routeTour(List<LatLong> order, CancellationToken token) {
+			// add first waypoint so route loops around
+			List<LatLong> waypoints = new ArrayList<LatLong>(order);
+			waypoints.add(waypoints.get(0));
+			
+			new RouteRetriever(tourLayer, waypoints, true).run(token);
+		}
 	}
 	
 	/**
-	 * Add a route to the specified overlay.
+	 * @return Whether two orders of the same stops, starting with the same stop, visit them in the 
+	 *         same loop, in either direction.
 	 */
-	private void addRouteToOverlay(PathOverlay overlay, List<LatLong> waypoints) {
-
-		for(LatLong point: waypoints) {
-			GeoPoint geoPoint= new GeoPoint(point.getLatitude(), point.getLongitude());
-			overlay.addPoint(geoPoint);
-		}
+	private static boolean isSameTour(List<LatLong> first, List<LatLong> second) {
+		if (first.equals(second))
+			return true;
 		
+		int n = first.size();
+		for (int i = 1; i < n; i++) {
+			if (!first.get(i).equals(second.get(n - i)))
+				return false;
+		}
+		return true;
 	}
 	
 	/**
 	 * Calls the routing service to obtain a route which connects the specified list of lat/long points,
-	 * and updates the overlay provided with the resulting route.
+	 * and updates the layer provided with the resulting route.  Legs of the layer's current route 
+	 * which join the same points are kept, and only the other legs are retrieved; each is set on the 
+	 * layer as soon as it has been retrieved.
 	 * 
-	 * Routes are retrieved in a separate thread, as it can take some time and we do not want to 
-	 * block the UI thread.
+	 * Routes are retrieved on a thread of the route scheduler, as it can take some time and we do not 
+	 * want to block the UI thread.
 	 */
-	private class RouteRetriever extends Thread {
-		private PathOverlay overlay;
+	private class RouteRetriever implements RouteTask, RouteLegListener {
+		private RouteLayer layer;
 		private List<LatLong> points;
 		private boolean useCache;
 		private boolean routeRetrieved;
 		
-		public RouteRetriever(PathOverlay overlay, List<LatLong> points, boolean useCache) {
-			this.overlay = overlay;
+		/**
+		 * Cancelled when this retriever is superseded; set when it starts running.
+		 */
+		private volatile CancellationToken token;
+		
+		/**
+		 * Index in points of the first point of the legs being retrieved from the routing service.
+		 */
+		private int legOffset;
+		
+		/**
+		 * Legs retrieved but not yet set on the layer, by index, and whether a task to set them is 
+		 * already waiting to run on the UI thread.  Legs retrieved while a task is waiting are set by 
+		 * that task, so that at most one task is queued on the UI thread at a time.  Guarded by 
+		 * pendingLegs.
+		 */
+		private final Map<Integer, RouteInfo> pendingLegs = new TreeMap<Integer, RouteInfo>();
+		private boolean addLegsPosted;
+		
+		/**
+		 * Sets the pending legs on the layer; runs on the UI thread.
+		 */
+		private final Runnable addPendingLegs = new Runnable() {
+			
+			@Override
+			public void run() {
+				Map<Integer, RouteInfo> legs;
+				synchronized (pendingLegs) {
+					legs = new TreeMap<Integer, RouteInfo>(pendingLegs);
+					pendingLegs.clear();
+					addLegsPosted = false;
+				}
+				
+				// a retriever which has been superseded must not add to the new route
+				if (token.isCancelled())
+					return;
+				
+				for (Map.Entry<Integer, RouteInfo> leg : legs.entrySet())
+					layer.setLeg(leg.getKey(), leg.getValue());
+				mapView.invalidate();
+			}
+		};
+		
+		public RouteRetriever(RouteLayer layer, List<LatLong> points, boolean useCache) {
+			this.layer = layer;
 			this.points = points;
 			this.useCache = useCache;
 			this.routeRetrieved = false;
 		}
 		
 		@Override
-		public void run() {
+		public void run(CancellationToken token) {
+			this.token = token;
 			
 			try {
 				if (points.size() > 1) {
-					int i = 1;
-					final List<LatLong> waypoints = new ArrayList<LatLong>();
-					
-					while ( i < points.size() && !isInterrupted() ) {
-						LatLong currPoint = points.get(i-1);
-						LatLong nextPoint = points.get(i);
-						RouteInfo info = routingService.getRoute(currPoint, nextPoint, useCache);
+					final List<RouteInfo> legs = layer.getLegs(points);
+					boolean posted = postToUiThread(new Runnable() {
 						
-						if (info != null) {
-							waypoints.add(currPoint);
-							waypoints.addAll(info.getWaypoints());
-							waypoints.add(nextPoint);
-						}
-												
-						i++;
-					}
-					
-					if (!isInterrupted()) {
-						// Updates to the UI must run on the UI thread.
-						getActivity().runOnUiThread(new Runnable() {
-	
-							@Override
-							public void run() {
-								addRouteToOverlay(overlay, waypoints);
+						@Override
+						public void run() {
+							if (!RouteRetriever.this.token.isCancelled()) {
+								layer.setRoute(points, legs);
 								mapView.invalidate();
 							}
-							
-						});
+						}
+					});
+					
+					// the fragment has been detached, or this route superseded
+					if (!posted)
+						return;
+					
+					// each run of legs the layer does not hold is fetched concurrently, and passed to 
+					// legRetrieved in order
+					for (int from = 0; from < legs.size(); from++) {
+						if (legs.get(from) != null)
+							continue;
+						
+						int to = from;
+						while (to < legs.size() && legs.get(to) == null)
+							to++;
 						
-						routeRetrieved = true;
+						legOffset = from;
+						routingService.getRoutes(points.subList(from, to + 1), useCache, this, token);
+						from = to;
 					}
+					routeRetrieved = true;
 				}
 			} catch (Exception e) { 
-				Log.e(LOG_TAG, "Error retrieving route from route service");
-				
-			} finally {
-				getActivity().runOnUiThread(new Runnable() {
+				if (!token.isCancelled())
+					Log.e(LOG_TAG, "Error retrieving route from route service");
+			}
+			
+			// a superseded route is not an error, and the fragment may no longer be attached
+			final Activity activity = getActivity();
+			if (!routeRetrieved && activity != null && !token.isCancelled()) {
+				activity.runOnUiThread(new Runnable() {
 					
 					@Override
 					public void run() {
 						// display message to user
-						if (!routeRetrieved) {
-							Toast toast = Toast.makeText(getActivity(), R.string.rs_na_label, Toast.LENGTH_SHORT);
-							toast.show();
-						}
+						Toast toast = Toast.makeText(activity, R.string.rs_na_label, Toast.LENGTH_SHORT);
+						toast.show();
 					}
 				});
 			}
 		}
+		
+		@Override
+		public void legRetrieved(int index, RouteInfo leg) {
+			if (token.isCancelled())
+				return;
+			
+			synchronized (pendingLegs) {
+				pendingLegs.put(legOffset + index, leg);
+				if (addLegsPosted)
+					return;
+				addLegsPosted = true;
+			}
+			
+			// Updates to the UI must run on the UI thread.
+			if (!postToUiThread(addPendingLegs)) {
+				synchronized (pendingLegs) {
+					addLegsPosted = false;
+				}
+			}
+		}
+		
+		/**
+		 * Run a task on the UI thread, unless this retriever has been superseded or the fragment is no 
+		 * longer attached to an activity.  This is called from threads of the route scheduler, on which 
+		 * the fragment may be detached at any time, so the activity is read only once.
+		 * 
+		 * @return Whether the task was posted.
+		 */
+		private boolean postToUiThread(Runnable task) {
+			Activity activity = getActivity();
+			if (activity == null || token.isCancelled())
+				return false;
+			
+			activity.runOnUiThread(task);
+			return true;
+		}
 	}
 	
 	/**
@@ -654,6 +1022,7 @@ public class MapDisplayFragment extends Fragment {
 	 */
 	public void addPOIToTour(PointOfInterest poi) {		 
 		customPOIs.add(poi);
+		indexPOI(poi);
 		update();
    	}
 	
@@ -661,6 +1030,8 @@ public class MapDisplayFragment extends Fragment {
 	 * clears custom points
 	 */
 	public void clearCustomPoints() {		 
+		for (PointOfInterest poi : customPOIs)
+			poiIndex.remove(poi);
 		customPOIs = new ArrayList<PointOfInterest>();
 		update();
    	}
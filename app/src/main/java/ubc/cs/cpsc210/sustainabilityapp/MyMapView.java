@@ -2,11 +2,13 @@ package ubc.cs.cpsc210.sustainabilityapp;
 
 import java.util.ArrayList;
 
+import org.osmdroid.DefaultResourceProxyImpl;
 import org.osmdroid.views.MapView;
 
 import ubc.cs.cpsc210.sustainabilityapp.model.Feature;
 import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
 import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+import ubc.cs.cpsc210.sustainabilityapp.tiles.CampusTileProvider;
 import android.content.Context;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -44,8 +46,14 @@ public class MyMapView extends MapView{
 	 */
 	private long startDownTime;
 	
+	/**
+	 * Size of map tiles, in pixels
+	 */
+	private final static int TILE_SIZE_PIXELS = 256;
+	
 	public MyMapView(Context context, MapDisplayFragment mapFrag) {
-		super(context, null);
+		// tiles come from the offline campus tile pack where possible
+		super(context, TILE_SIZE_PIXELS, new DefaultResourceProxyImpl(context), new CampusTileProvider(context));
 		map = mapFrag;
 		currentId = 0;	
 		
@@ -94,6 +102,17 @@ public class MyMapView extends MapView{
         return super.onTouchEvent(e);
 	}
 	
+	/**
+	 * Method is called when the size of this MapView changes, including when it is first laid out
+	 */
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		
+		// the part of the map on screen is only known once the view has a size
+		map.updateViewport();
+	}
+	
 	/**
 	 * Creates a new custom POI at given LatLong
 	 */
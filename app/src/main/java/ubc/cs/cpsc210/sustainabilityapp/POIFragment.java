@@ -1,68 +1,149 @@
 package ubc.cs.cpsc210.sustainabilityapp;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
-import ubc.cs.cpsc210.sustainabilityapp.model.POIRegistry;
 import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
-import ubc.cs.cpsc210.sustainabilityapp.model.SharedPreferencesKeyValueStore;
-import ubc.cs.cpsc210.sustainabilityapp.model.TourState;
+import ubc.cs.cpsc210.sustainabilityapp.poi.IndexedPOIRegistry;
+import ubc.cs.cpsc210.sustainabilityapp.poi.IndexedTourState;
+import ubc.cs.cpsc210.sustainabilityapp.poi.POISearchIndex;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
-import android.util.SparseBooleanArray;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.ListView;
 
 public class POIFragment extends ListFragment {
 	/**
-	 * All of the available points of interest.
+	 * The points of interest shown: all of them, or those matching the search.
 	 */
 	private PointOfInterest[] points;
 
+	/**
+	 * Index of the available points of interest.
+	 */
+	private IndexedPOIRegistry registry;
+
+	/**
+	 * Full-text index of the available points of interest, searched as the user types; null until it
+	 * has been loaded, off the UI thread.
+	 */
+	private POISearchIndex searchIndex;
+
+	/**
+	 * Field the search is typed in.
+	 */
+	private EditText searchField;
+
+	/**
+	 * Points of interest selected, whether or not they are shown.
+	 */
+	private Set<PointOfInterest> selected = new HashSet<PointOfInterest>();
+
 	/**
 	 * Manages and stores selected features and POI's.
 	 */
-	private TourState tourState;
-	
+	private IndexedTourState tourState;
+
 	/**
 	 * Has an item been clicked since the activity was resumed?
 	 */
 	private boolean itemClicked;
-	
+
+
+	@Override
+	public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+		View view = inflater.inflate(R.layout.poi_list, container, false);
+
+		searchField = (EditText) view.findViewById(R.id.poi_search);
+		searchField.addTextChangedListener(new TextWatcher() {
+			@Override
+			public void afterTextChanged(Editable s) {
+				if (searchIndex != null)
+					showPoints(s.toString());
+			}
+
+			@Override
+			public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+			}
+
+			@Override
+			public void onTextChanged(CharSequence s, int start, int before, int count) {
+			}
+		});
+
+		return view;
+	}
 
 	@Override
 	public void onActivityCreated(Bundle savedInstanceState) {
 		super.onActivityCreated(savedInstanceState);
-		
-		// Points are displayed in alphabetical order in the list view.
-		points = POIRegistry.getDefault().getPointsAlphabetical().toArray(new PointOfInterest[]{});
-		
-		tourState = new TourState(POIRegistry.getDefault(), new SharedPreferencesKeyValueStore(getActivity(), TourState.STORE_NAME));
-		
-		setListAdapter(new ArrayAdapter<PointOfInterest>(getActivity(), android.R.layout.simple_list_item_multiple_choice, 
-				points));
-		
+
+		// Points are displayed in alphabetical order in the list view; the order is built once, by the
+		// indexed registry, rather than sorted every time the view is created.  The search index is
+		// memory-mapped from the cache, where it is written when first built; either takes a while, so
+		// it is done in the background, and the search field is enabled once it is done.
+		registry = IndexedPOIRegistry.getDefault();
+		searchIndex = POISearchIndex.getDefaultIfLoaded();
+		if (searchIndex == null) {
+			searchField.setEnabled(false);
+			new LoadSearchIndexTask(new File(getActivity().getCacheDir(), POISearchIndex.DEFAULT_FILE_NAME)).execute();
+		}
+
+		tourState = new IndexedTourState(registry, ((UBCSustainabilityAppActivity) getActivity()).getTourStore());
+
 		getListView().setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
+		showPoints(searchField.getText().toString());
+	}
+
+	/**
+	 * Show the points matching a search, best first, or all of them, alphabetically, if the search is
+	 * blank or the search index is not loaded yet.
+	 */
+	private void showPoints(String query) {
+		List<PointOfInterest> shown;
+		if (query.trim().length() == 0 || searchIndex == null)
+			shown = registry.getPointsAlphabetical();
+		else
+			shown = searchIndex.search(query);
+		points = shown.toArray(new PointOfInterest[shown.size()]);
+
+		setListAdapter(new ArrayAdapter<PointOfInterest>(getActivity(), android.R.layout.simple_list_item_multiple_choice,
+				points));
+		showSelected();
+	}
+
+	/**
+	 * Check the shown points which are selected.
+	 */
+	private void showSelected() {
+		ListView listView = getListView();
+		listView.clearChoices();
+		for (int i = 0; i < points.length; i++) {
+			if (selected.contains(points[i]))
+				listView.setItemChecked(i, true);
+		}
 	}
 
-    
 	/**
 	 * Update the list of selected points, based on what is found in storage.
 	 */
 	@Override
 	public void onResume() {
 		itemClicked = false;
-		
-		List<PointOfInterest> selectedPoints = tourState.getSelectedPOIs();
-		for (int i = 0; i < points.length; i++) {
-			if (selectedPoints.contains(points[i])) {
-				getListView().setItemChecked(i, true);
-			} else {
-				getListView().setItemChecked(i, false);
-			}
-		}
-		
+
+		selected = new HashSet<PointOfInterest>(tourState.getSelectedPOIs());
+		showSelected();
+
 		super.onResume();
 	}
 
@@ -77,25 +158,53 @@ public class POIFragment extends ListFragment {
 
 	private void updateTour() {
 		if (itemClicked) {
-			SparseBooleanArray checkedPositions = getListView().getCheckedItemPositions();
-			
+			// selected points are stored alphabetically, whatever order they are shown in
 			List<PointOfInterest> selectedPOIs = new ArrayList<PointOfInterest>();
-			
-			for (int i = 0; i < checkedPositions.size(); i++) {
-				if (checkedPositions.valueAt(i)) {
-					selectedPOIs.add(points[checkedPositions.keyAt(i)]);
-				}
+			for (PointOfInterest poi : registry.getPointsAlphabetical()) {
+				if (selected.contains(poi))
+					selectedPOIs.add(poi);
 			}
-			
+
 			tourState.setSelectedPOIs(selectedPOIs);
 		}
 	}
-	
-	
+
+
 	@Override
 	public void onListItemClick(ListView l, View v, int position, long id) {
 		itemClicked = true;
+		if (l.isItemChecked(position))
+			selected.add(points[position]);
+		else
+			selected.remove(points[position]);
 		updateTour();
 		((ITourUpdate) getActivity()).updateMap();
 	}
+
+	/**
+	 * Opens or builds the search index in the background, then enables the search field, if the 
+	 * fragment is still attached.
+	 */
+	private class LoadSearchIndexTask extends AsyncTask<Void, Void, POISearchIndex> {
+		private final File file;
+
+		LoadSearchIndexTask(File file) {
+			this.file = file;
+		}
+
+		@Override
+		protected POISearchIndex doInBackground(Void... params) {
+			return POISearchIndex.getDefault(file);
+		}
+
+		@Override
+		protected void onPostExecute(POISearchIndex index) {
+			if (!isAdded())
+				return;
+
+			searchIndex = index;
+			searchField.setEnabled(true);
+			showPoints(searchField.getText().toString());
+		}
+	}
 }
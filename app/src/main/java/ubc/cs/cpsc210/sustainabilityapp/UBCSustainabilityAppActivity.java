@@ -1,9 +1,26 @@
 package ubc.cs.cpsc210.sustainabilityapp;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import ubc.cs.cpsc210.sustainabilityapp.model.KeyValueStore;
+import ubc.cs.cpsc210.sustainabilityapp.model.SharedPreferencesKeyValueStore;
+import ubc.cs.cpsc210.sustainabilityapp.poi.IndexedTourState;
+import ubc.cs.cpsc210.sustainabilityapp.poi.WriteBehindKeyValueStore;
+import ubc.cs.cpsc210.sustainabilityapp.routing.ContractionHierarchy;
+import ubc.cs.cpsc210.sustainabilityapp.routing.ContractionHierarchyRouter;
+import ubc.cs.cpsc210.sustainabilityapp.routing.DiskRouteCache;
+import ubc.cs.cpsc210.sustainabilityapp.routing.LocalRoutingBackend;
+import ubc.cs.cpsc210.sustainabilityapp.routing.RoutingBackend;
 import ubc.cs.cpsc210.sustainabilityapp.routing.RoutingService;
+import ubc.cs.cpsc210.sustainabilityapp.routing.WalkingGraph;
+import ubc.cs.cpsc210.sustainabilityapp.tiles.CampusTileProvider;
 import android.content.Context;
+import android.content.res.AssetManager;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.os.Bundle;
@@ -37,6 +54,52 @@ public class UBCSustainabilityAppActivity extends FragmentActivity implements IT
 	private final static String MAP = "map";
 	private final static String FEATURE = "feature";
 	private final static String POI = "poi";
+	
+	/**
+	 * File, in the application's cache directory, in which routes are persisted, and its size cap
+	 */
+	private final static String ROUTE_CACHE_FILE = "routes.bin";
+	private final static long ROUTE_CACHE_MAX_BYTES = 2 * 1024 * 1024;
+	
+	/**
+	 * Assets holding the campus walking graph used to route on the device: the contraction
+	 * hierarchy built from it by ContractionHierarchyBuilder, which answers queries fastest, and the
+	 * graph itself, used if the hierarchy is not bundled; until one of them is bundled, routes are
+	 * retrieved from the online service
+	 */
+	private final static String CONTRACTION_HIERARCHY_ASSET = "ubc_walking.ch";
+	private final static String WALKING_GRAPH_ASSET = "ubc_walking.graph";
+	
+	/**
+	 * Asset holding the campus tile pack, written by TilePackWriter, which is installed alongside
+	 * osmdroid's tile cache for CampusTileProvider; until it is bundled, tiles are downloaded
+	 */
+	private final static String TILE_PACK_ASSET = "ubc_campus.tilepack";
+	
+	/**
+	 * Loads and installs the data bundled with the application off the UI thread, one item at a time;
+	 * shared by all instances of the activity, so an item is never loaded twice at once.
+	 */
+	private final static ExecutorService assetLoader = Executors.newSingleThreadExecutor();
+	
+	/**
+	 * Backend routing on the device, once its data is loaded by the asset loader; shared by all
+	 * instances of the activity, so the data is only loaded once per process.
+	 */
+	private static volatile RoutingBackend localBackend;
+	
+	/**
+	 * Store of the tour's selections, shared by the tabs so that each sees the others' changes before
+	 * they are written; written in the background, and shared by all instances of the activity.
+	 */
+	private static WriteBehindKeyValueStore tourStore;
+	
+	/**
+	 * Routing service, shared by all instances of the activity, so that its cache of routes, its
+	 * route scheduler's threads and its connections to the online service outlive configuration
+	 * changes; created by the first instance.
+	 */
+	private static RoutingService routingService;
 			
 	
 	/**
@@ -49,30 +112,43 @@ public class UBCSustainabilityAppActivity extends FragmentActivity implements IT
      */
     private TabManager mTabManager;
     
-    /**
-     * Routing service.
-     */
-    private RoutingService routingService;
-    
     /**
      * The tag of the tab to be displayed when this activity is (re)created.
      */
     private String initialTabTag;
     
     /**
-     * Constructor - initialize routing service
+     * Constructor - initialize routing service, unless an earlier instance already has
      */
     public UBCSustainabilityAppActivity() {
-    	routingService = new RoutingService();
+    	synchronized (UBCSustainabilityAppActivity.class) {
+    		if (routingService == null)
+    			routingService = new RoutingService();
+    	}
     	initialTabTag = null;
     }
     
     /**
      * Accessor for routing service
-     * @return routing service
+     * @return routing service, shared by all instances of the activity
      */
     public RoutingService getRoutingService() {
-    	return routingService;
+    	synchronized (UBCSustainabilityAppActivity.class) {
+    		return routingService;
+    	}
+    }
+    
+    /**
+     * Accessor for the store of the tour's selections
+     * @return store, to be used with IndexedTourState
+     */
+    public KeyValueStore getTourStore() {
+    	synchronized (UBCSustainabilityAppActivity.class) {
+    		if (tourStore == null)
+    			tourStore = new WriteBehindKeyValueStore(new SharedPreferencesKeyValueStore(getApplicationContext(), 
+    					IndexedTourState.STORE_NAME));
+    		return tourStore;
+    	}
     }
     
     @Override
@@ -88,6 +164,12 @@ public class UBCSustainabilityAppActivity extends FragmentActivity implements IT
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         Log.d(LOG_TAG, "onCreate");
+        
+        // routes fetched in earlier runs are read from here instead of the network
+        getRoutingService().setDiskCache(DiskRouteCache.open(new File(getCacheDir(), ROUTE_CACHE_FILE), 
+        		ROUTE_CACHE_MAX_BYTES));
+        useLocalRouting();
+        installTilePack();
              
         Resources res = getResources();
 
@@ -107,6 +189,90 @@ public class UBCSustainabilityAppActivity extends FragmentActivity implements IT
         	mTabHost.setCurrentTabByTag(POI);
     }
 
+    /**
+     * Switch the routing service to route on the device, using the contraction hierarchy or walking
+     * graph bundled with the application.  The data is loaded in the background, by the asset loader
+     * shared by all instances of the activity, so it is loaded once however often the activity is
+     * recreated meanwhile; until it is loaded, or if it is not available, routes are retrieved from
+     * the online service.
+     */
+    private void useLocalRouting() {
+    	final RoutingService service = getRoutingService();
+    	if (localBackend != null) {
+    		service.setBackend(localBackend);
+    		return;
+    	}
+    	
+    	final AssetManager assets = getAssets();
+    	assetLoader.execute(new Runnable() {
+    		@Override
+    		public void run() {
+    			// an earlier instance of the activity may have loaded the backend since this one was created
+    			if (localBackend == null) {
+    				try {
+    					localBackend = loadLocalBackend(assets);
+    				} catch (IOException e) {
+    					Log.i(LOG_TAG, "Walking graph not available, routing with online service");
+    					return;
+    				}
+    			}
+    			service.setBackend(localBackend);
+    		}
+    	});
+    }
+    
+    /**
+     * Load the routing backend from the bundled contraction hierarchy if there is one, otherwise from
+     * the bundled walking graph.
+     * 
+     * @throws IOException  if neither asset can be read
+     */
+    private static RoutingBackend loadLocalBackend(AssetManager assets) throws IOException {
+    	InputStream in;
+    	try {
+    		in = assets.open(CONTRACTION_HIERARCHY_ASSET);
+    	} catch (IOException e) {
+    		in = null;
+    	}
+    	
+    	if (in != null) {
+    		try {
+    			ContractionHierarchy hierarchy = ContractionHierarchy.read(in);
+    			Log.i(LOG_TAG, "Routing on device with contraction hierarchy of " + hierarchy.getNodeCount() + " nodes");
+    			return new ContractionHierarchyRouter(hierarchy);
+    		} finally {
+    			in.close();
+    		}
+    	}
+    	
+    	in = assets.open(WALKING_GRAPH_ASSET);
+    	try {
+    		WalkingGraph graph = WalkingGraph.read(in);
+    		Log.i(LOG_TAG, "Routing on device with " + graph.getNodeCount() + " nodes");
+    		return new LocalRoutingBackend(graph);
+    	} finally {
+    		in.close();
+    	}
+    }
+
+    /**
+     * Install the bundled campus tile pack, if there is one and it is not installed yet, in the
+     * background.  Maps created before it is installed download their tiles.
+     */
+    private void installTilePack() {
+    	final AssetManager assets = getAssets();
+    	assetLoader.execute(new Runnable() {
+    		@Override
+    		public void run() {
+    			try {
+    				CampusTileProvider.installPack(assets, TILE_PACK_ASSET, CampusTileProvider.DEFAULT_PACK_FILE);
+    			} catch (IOException e) {
+    				Log.i(LOG_TAG, "Tile pack not available, downloading tiles: " + e.getMessage());
+    			}
+    		}
+    	});
+    }
+
     /**
      * Determine tag for first tab to be displayed - restore from previous instance, if available.
      * 
@@ -199,6 +365,16 @@ public class UBCSustainabilityAppActivity extends FragmentActivity implements IT
     		mTabHost.setCurrentTabByTag(initialTabTag);
     }
     
+    @Override
+    protected void onPause() {
+    	// the tabs store their selections as they pause, so write them after
+    	super.onPause();
+    	synchronized (UBCSustainabilityAppActivity.class) {
+    		if (tourStore != null)
+    			tourStore.flush();
+    	}
+    }
+    
     @Override
     protected void onSaveInstanceState(Bundle outState) {
     	Log.d(LOG_TAG, "onSaveInstanceState");
@@ -0,0 +1,262 @@
+package ubc.cs.cpsc210.sustainabilityapp.geometry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups items into clusters of nearby items, for each of several levels of coarseness, such as the
+ * zoom levels of a map.  At each level, the plane is divided into a grid of square cells and the
+ * items in a cell form a cluster, placed at their centroid.  The clusters of every level are kept
+ * up to date as items are added and removed, at a cost proportional to the number of levels, so
+ * switching between levels costs nothing.  This class is not thread-safe.
+ *
+ * Locations are projected onto a plane, with distances in metres, by a {@link LocalProjection}.
+ * Items are compared with equals, and each item is held at most once.
+ *
+ * @param <T> Type of the items.
+ */
+public class GridClusterer<T> {
+	private final LocalProjection projection;
+
+	/**
+	 * Side of a cell at each level, in metres.
+	 */
+	private final double[] cellSizes;
+
+	/**
+	 * Clusters at each level, by cell.
+	 */
+	private final List<Map<Long, Cluster<T>>> levels;
+
+	/**
+	 * Projected location of each item, as {x, y}.
+	 */
+	private final Map<T, double[]> locations = new HashMap<T, double[]>();
+
+	/**
+	 * @param projection Projects locations onto the plane; centred on the area covered.
+	 * @param cellSizes Side of a cell at each level, in metres.
+	 */
+	public GridClusterer(LocalProjection projection, double[] cellSizes) {
+		this.projection = projection;
+		this.cellSizes = cellSizes.clone();
+		this.levels = new ArrayList<Map<Long, Cluster<T>>>(cellSizes.length);
+		for (int level = 0; level < cellSizes.length; level++) {
+			if (cellSizes[level] <= 0)
+				throw new IllegalArgumentException("Cell sizes must be positive");
+			levels.add(new HashMap<Long, Cluster<T>>());
+		}
+	}
+
+	/**
+	 * Create a clusterer with a level for each map zoom level from 0 up to the given one, clustering
+	 * the items within a given number of pixels of each other on the map.
+	 *
+	 * @param maxZoomLevel The greatest zoom level at which items are clustered.
+	 * @param cellPixels Side of a cell, in pixels at each zoom level.
+	 */
+	public static <T> GridClusterer<T> forZoomLevels(LocalProjection projection, int maxZoomLevel,
+			double cellPixels) {
+		double[] cellSizes = new double[maxZoomLevel + 1];
+		for (int zoom = 0; zoom <= maxZoomLevel; zoom++)
+			cellSizes[zoom] = cellPixels * projection.metresPerPixel(zoom);
+		return new GridClusterer<T>(projection, cellSizes);
+	}
+
+	public int getLevelCount() {
+		return cellSizes.length;
+	}
+
+	public int size() {
+		return locations.size();
+	}
+
+	/**
+	 * Add an item at the given location, moving it if it is already held.
+	 */
+	public void add(T item, double latitude, double longitude) {
+		remove(item);
+
+		double x = projection.toX(longitude);
+		double y = projection.toY(latitude);
+		locations.put(item, new double[] { x, y });
+
+		for (int level = 0; level < cellSizes.length; level++) {
+			Long cell = cellKey(level, x, y);
+			Map<Long, Cluster<T>> clusters = levels.get(level);
+			Cluster<T> cluster = clusters.get(cell);
+			if (cluster == null) {
+				cluster = new Cluster<T>(projection);
+				clusters.put(cell, cluster);
+			}
+			cluster.add(item, x, y);
+		}
+	}
+
+	/**
+	 * Remove an item.
+	 *
+	 * @return true if the item was held.
+	 */
+	public boolean remove(T item) {
+		double[] location = locations.remove(item);
+		if (location == null)
+			return false;
+
+		for (int level = 0; level < cellSizes.length; level++) {
+			Long cell = cellKey(level, location[0], location[1]);
+			Map<Long, Cluster<T>> clusters = levels.get(level);
+			Cluster<T> cluster = clusters.get(cell);
+			cluster.remove(item, location[0], location[1]);
+			if (cluster.getCount() == 0)
+				clusters.remove(cell);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove every item.
+	 */
+	public void clear() {
+		locations.clear();
+		for (Map<Long, Cluster<T>> clusters : levels)
+			clusters.clear();
+	}
+
+	/**
+	 * @return Every cluster at the given level, in no particular order.
+	 */
+	public List<Cluster<T>> getClusters(int level) {
+		return new ArrayList<Cluster<T>>(levels.get(level).values());
+	}
+
+	/**
+	 * @return The clusters at the given level whose centroids are inside the given bounds, in degrees,
+	 *         in no particular order.
+	 */
+	public List<Cluster<T>> clustersWithinBounds(int level, double south, double west, double north, double east) {
+		Map<Long, Cluster<T>> clusters = levels.get(level);
+		List<Cluster<T>> found = new ArrayList<Cluster<T>>();
+
+		double minX = projection.toX(west);
+		double maxX = projection.toX(east);
+		double minY = projection.toY(south);
+		double maxY = projection.toY(north);
+		long fromX = cellCoordinate(level, minX);
+		long toX = cellCoordinate(level, maxX);
+		long fromY = cellCoordinate(level, minY);
+		long toY = cellCoordinate(level, maxY);
+
+		// a cluster's centroid is in its own cell, so only the cells overlapping the bounds can hold one
+		if ((toX - fromX + 1) * (toY - fromY + 1) > clusters.size()) {
+			for (Cluster<T> cluster : clusters.values()) {
+				if (cluster.isWithin(minX, minY, maxX, maxY))
+					found.add(cluster);
+			}
+		} else {
+			for (long cy = fromY; cy <= toY; cy++) {
+				for (long cx = fromX; cx <= toX; cx++) {
+					Cluster<T> cluster = clusters.get(pack(cx, cy));
+					if (cluster != null && cluster.isWithin(minX, minY, maxX, maxY))
+						found.add(cluster);
+				}
+			}
+		}
+
+		return found;
+	}
+
+	private Long cellKey(int level, double x, double y) {
+		return pack(cellCoordinate(level, x), cellCoordinate(level, y));
+	}
+
+	private long cellCoordinate(int level, double metres) {
+		return (long) Math.floor(metres / cellSizes[level]);
+	}
+
+	private static long pack(long cellX, long cellY) {
+		return (cellX << 32) ^ (cellY & 0xffffffffL);
+	}
+
+	/**
+	 * Items in one cell of a level, placed at their centroid.  A cluster stays the same object for as
+	 * long as its cell holds any item, so it can be used to recognise a marker already on the map.
+	 */
+	public static class Cluster<T> {
+		private final LocalProjection projection;
+		private final Set<T> items = new LinkedHashSet<T>(2);
+		private double sumX;
+		private double sumY;
+		private int version;
+
+		Cluster(LocalProjection projection) {
+			this.projection = projection;
+		}
+
+		public int getCount() {
+			return items.size();
+		}
+
+		/**
+		 * @return A read-only view of the items in the cluster, in the order they were added.
+		 */
+		public Collection<T> getItems() {
+			return Collections.unmodifiableCollection(items);
+		}
+
+		/**
+		 * @return The item added to the cluster first of those it holds.
+		 */
+		public T getFirstItem() {
+			return items.iterator().next();
+		}
+
+		/**
+		 * @return A number which changes whenever an item is added to or removed from the cluster, so
+		 *         that a marker made for the cluster can tell when its items or centroid have changed.
+		 */
+		public int getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return The latitude of the centroid of the items.
+		 */
+		public double getLatitude() {
+			return projection.toLatitude(sumY / items.size());
+		}
+
+		/**
+		 * @return The longitude of the centroid of the items.
+		 */
+		public double getLongitude() {
+			return projection.toLongitude(sumX / items.size());
+		}
+
+		void add(T item, double x, double y) {
+			items.add(item);
+			sumX += x;
+			sumY += y;
+			version++;
+		}
+
+		void remove(T item, double x, double y) {
+			items.remove(item);
+			sumX -= x;
+			sumY -= y;
+			version++;
+		}
+
+		boolean isWithin(double minX, double minY, double maxX, double maxY) {
+			double x = sumX / items.size();
+			double y = sumY / items.size();
+			return x >= minX && x <= maxX && y >= minY && y <= maxY;
+		}
+	}
+}
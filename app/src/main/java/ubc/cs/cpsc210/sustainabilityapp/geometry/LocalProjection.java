@@ -0,0 +1,105 @@
+package ubc.cs.cpsc210.sustainabilityapp.geometry;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+
+/**
+ * Equirectangular projection of latitude and longitude onto a plane tangent to the earth at an
+ * origin, with coordinates in metres: x increases to the east and y to the north.  Over an area the
+ * size of a campus, distances on the plane are within a fraction of a percent of distances on the
+ * earth's surface, and are far cheaper to calculate.  This class is immutable.
+ *
+ * Locations are projected once, for example into a {@link PointSet}; distances between projected
+ * locations then need no trigonometry.
+ */
+public class LocalProjection {
+	/**
+	 * Metres per degree of latitude, using the mean radius of the earth.
+	 */
+	private final static double METRES_PER_DEGREE = 111195.0;
+
+	/**
+	 * Distance covered by a pixel of a map at zoom level 0 (a single 256-pixel tile), at the equator,
+	 * in metres.
+	 */
+	private final static double EQUATOR_METRES_PER_PIXEL = 156543.034;
+
+	/**
+	 * Projection centred on the UBC Vancouver campus.
+	 */
+	public final static LocalProjection CAMPUS = new LocalProjection(49.2606, -123.2460);
+
+	private final double originLatitude;
+	private final double originLongitude;
+	private final double metresPerDegreeLongitude;
+
+	/**
+	 * @param originLatitude Latitude of the origin, in degrees; distances are most accurate near it.
+	 * @param originLongitude Longitude of the origin, in degrees.
+	 */
+	public LocalProjection(double originLatitude, double originLongitude) {
+		this.originLatitude = originLatitude;
+		this.originLongitude = originLongitude;
+		this.metresPerDegreeLongitude = METRES_PER_DEGREE * Math.cos(Math.toRadians(originLatitude));
+	}
+
+	public double getOriginLatitude() {
+		return originLatitude;
+	}
+
+	public double getOriginLongitude() {
+		return originLongitude;
+	}
+
+	/**
+	 * @return Distance east of the origin of the given longitude, in metres.
+	 */
+	public double toX(double longitude) {
+		return (longitude - originLongitude) * metresPerDegreeLongitude;
+	}
+
+	/**
+	 * @return Distance north of the origin of the given latitude, in metres.
+	 */
+	public double toY(double latitude) {
+		return (latitude - originLatitude) * METRES_PER_DEGREE;
+	}
+
+	public double toLongitude(double x) {
+		return originLongitude + x / metresPerDegreeLongitude;
+	}
+
+	public double toLatitude(double y) {
+		return originLatitude + y / METRES_PER_DEGREE;
+	}
+
+	/**
+	 * @return Distance covered by a pixel of the map at the given zoom level near the origin, in metres.
+	 */
+	public double metresPerPixel(int zoomLevel) {
+		return EQUATOR_METRES_PER_PIXEL * Math.cos(Math.toRadians(originLatitude)) / (1L << zoomLevel);
+	}
+
+	/**
+	 * @return Distance between two locations, in metres.
+	 */
+	public double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+		return Math.sqrt(distanceSq(toX(longitude1), toY(latitude1), toX(longitude2), toY(latitude2)));
+	}
+
+	/**
+	 * @return Distance between two locations, in metres.
+	 */
+	public double distance(LatLong from, LatLong to) {
+		return distance(from.getLatitude(), from.getLongitude(), to.getLatitude(), to.getLongitude());
+	}
+
+	/**
+	 * @return Square of the distance between two projected points; cheaper than the distance itself,
+	 *         and ordered the same way.
+	 */
+	public static double distanceSq(double x1, double y1, double x2, double y2) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		return dx * dx + dy * dy;
+	}
+}
@@ -0,0 +1,135 @@
+package ubc.cs.cpsc210.sustainabilityapp.geometry;
+
+import java.util.List;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+
+/**
+ * Locations projected once by a {@link LocalProjection} and stored as parallel arrays of planar
+ * coordinates, in metres.  Points are numbered from 0 in the order they were added.  The distance
+ * kernels neither allocate nor calculate trigonometric functions, so they can be run over many
+ * points, for example on every location fix.  This class is not thread-safe.
+ */
+public class PointSet {
+	private final LocalProjection projection;
+	private double[] xs;
+	private double[] ys;
+	private int size;
+
+	public PointSet(LocalProjection projection) {
+		this(projection, 16);
+	}
+
+	public PointSet(LocalProjection projection, int capacity) {
+		this.projection = projection;
+		this.xs = new double[Math.max(1, capacity)];
+		this.ys = new double[xs.length];
+	}
+
+	/**
+	 * @return Points projected from the given locations, in the same order.
+	 */
+	public static PointSet of(LocalProjection projection, List<LatLong> locations) {
+		PointSet points = new PointSet(projection, locations.size());
+		for (LatLong location : locations)
+			points.add(location.getLatitude(), location.getLongitude());
+		return points;
+	}
+
+	public LocalProjection getProjection() {
+		return projection;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Project a location and add it to the set.
+	 *
+	 * @return Index of the new point.
+	 */
+	public int add(double latitude, double longitude) {
+		if (size == xs.length) {
+			double[] grownXs = new double[size * 2];
+			double[] grownYs = new double[size * 2];
+			System.arraycopy(xs, 0, grownXs, 0, size);
+			System.arraycopy(ys, 0, grownYs, 0, size);
+			xs = grownXs;
+			ys = grownYs;
+		}
+
+		xs[size] = projection.toX(longitude);
+		ys[size] = projection.toY(latitude);
+		return size++;
+	}
+
+	/**
+	 * Remove all points.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	public double getX(int index) {
+		return xs[index];
+	}
+
+	public double getY(int index) {
+		return ys[index];
+	}
+
+	/**
+	 * @return Distance between two points of the set, in metres.
+	 */
+	public double distance(int from, int to) {
+		return Math.sqrt(LocalProjection.distanceSq(xs[from], ys[from], xs[to], ys[to]));
+	}
+
+	/**
+	 * @return Square of the distance between a point of the set and a projected point.
+	 */
+	public double distanceSq(int index, double x, double y) {
+		return LocalProjection.distanceSq(xs[index], ys[index], x, y);
+	}
+
+	/**
+	 * @return Index of the point closest to the given projected point, or -1 if the set is empty.
+	 */
+	public int nearest(double x, double y) {
+		int nearest = -1;
+		double minDistSq = Double.MAX_VALUE;
+
+		for (int i = 0; i < size; i++) {
+			double dx = xs[i] - x;
+			double dy = ys[i] - y;
+			double distSq = dx * dx + dy * dy;
+			if (distSq < minDistSq) {
+				minDistSq = distSq;
+				nearest = i;
+			}
+		}
+
+		return nearest;
+	}
+
+	/**
+	 * Fill a matrix with the distance between every pair of points, in metres.
+	 *
+	 * @param matrix Receives the distance from point i to point j at index i * size() + j; must hold
+	 *               at least size() * size() elements.
+	 */
+	public void distanceMatrix(float[] matrix) {
+		if (matrix.length < size * size)
+			throw new IllegalArgumentException("Matrix too small for " + size + " points");
+
+		for (int i = 0; i < size; i++) {
+			matrix[i * size + i] = 0;
+			for (int j = i + 1; j < size; j++) {
+				float distance = (float) distance(i, j);
+				matrix[i * size + j] = distance;
+				matrix[j * size + i] = distance;
+			}
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package ubc.cs.cpsc210.sustainabilityapp.geometry;
+
+/**
+ * Culls the parts of a polyline which lie outside a bounding box, such as the part of the map on
+ * screen plus a margin.  Segments which may cross the box are kept exactly.  Each run of segments
+ * outside the box is replaced by a detour around the box's boundary, which is never inside the box,
+ * so that the polyline stays connected without drawing a shortcut across the box.  A long route of
+ * which only a small part is in view then has only a few more points than that part.
+ *
+ * Polylines are packed as interleaved latitude/longitude pairs in millionths of a degree (E6), as
+ * in {@link ubc.cs.cpsc210.sustainabilityapp.routing.RouteInfo}.  This class is not thread-safe.
+ */
+public class PolylineCuller {
+	private final int south;
+	private final int west;
+	private final int north;
+	private final int east;
+
+	/**
+	 * Points of the culled polyline, packed.
+	 */
+	private int[] culled;
+	private int culledLength;
+
+	/**
+	 * @param south Bounds of the box, in millionths of a degree; the box must not be empty.
+	 */
+	public PolylineCuller(int south, int west, int north, int east) {
+		if (south >= north || west >= east)
+			throw new IllegalArgumentException("Bounds must not be empty");
+
+		this.south = south;
+		this.west = west;
+		this.north = north;
+		this.east = east;
+	}
+
+	/**
+	 * Cull the parts of a polyline outside the box.  The first and last points are always kept.
+	 *
+	 * @param latLongsE6 The points of the polyline, packed.
+	 * @return The points of the culled polyline, packed; the given array if no point was culled.
+	 */
+	public int[] cull(int[] latLongsE6) {
+		int n = latLongsE6.length / 2;
+		if (n < 3)
+			return latLongsE6;
+
+		culled = new int[16];
+		culledLength = 0;
+		add(latLongsE6[0], latLongsE6[1]);
+
+		// index of the last point added
+		int last = 0;
+		for (int i = 0; i < n - 1; i++) {
+			if (mayCross(latLongsE6, i, i + 1)) {
+				if (last != i)
+					connect(latLongsE6, last, i);
+				add(latLongsE6[2 * (i + 1)], latLongsE6[2 * (i + 1) + 1]);
+				last = i + 1;
+			}
+		}
+		if (last != n - 1)
+			connect(latLongsE6, last, n - 1);
+
+		if (culledLength == latLongsE6.length)
+			return latLongsE6;
+
+		int[] result = new int[culledLength];
+		System.arraycopy(culled, 0, result, 0, culledLength);
+		culled = null;
+		return result;
+	}
+
+	/**
+	 * @return Whether the segment between two points may cross the box: whether their bounding box
+	 *         intersects it.
+	 */
+	private boolean mayCross(int[] latLongsE6, int from, int to) {
+		int latFrom = latLongsE6[2 * from];
+		int lonFrom = latLongsE6[2 * from + 1];
+		int latTo = latLongsE6[2 * to];
+		int lonTo = latLongsE6[2 * to + 1];
+
+		return Math.max(latFrom, latTo) >= south && Math.min(latFrom, latTo) <= north
+				&& Math.max(lonFrom, lonTo) >= west && Math.min(lonFrom, lonTo) <= east;
+	}
+
+	/**
+	 * Add the point at index {@code to}, which together with the point at index {@code from} lies
+	 * outside the box, replacing the points between them.
+	 */
+	private void connect(int[] latLongsE6, int from, int to) {
+		int latTo = latLongsE6[2 * to];
+		int lonTo = latLongsE6[2 * to + 1];
+
+		if (to > from + 1 && mayCross(latLongsE6, from, to)) {
+			// go straight to the nearest point of the boundary, around the boundary, and out again
+			int latFrom = latLongsE6[2 * from];
+			int lonFrom = latLongsE6[2 * from + 1];
+			int latExit = clamp(latFrom, south, north);
+			int lonExit = clamp(lonFrom, west, east);
+			int latEntry = clamp(latTo, south, north);
+			int lonEntry = clamp(lonTo, west, east);
+
+			addIfNew(latExit, lonExit);
+			addCorners(perimeterPosition(latExit, lonExit), perimeterPosition(latEntry, lonEntry));
+			addIfNew(latEntry, lonEntry);
+		}
+
+		add(latTo, lonTo);
+	}
+
+	/**
+	 * Add the corners of the box passed going the shorter way around its boundary between two
+	 * positions on it.
+	 */
+	private void addCorners(double fromPosition, double toPosition) {
+		double forward = toPosition - fromPosition;
+		if (forward < 0)
+			forward += 4;
+
+		if (forward <= 2) {
+			for (int corner = (int) Math.floor(fromPosition) + 1; corner < fromPosition + forward; corner++)
+				addCorner(corner % 4);
+		} else {
+			double backward = 4 - forward;
+			for (int corner = (int) Math.ceil(fromPosition) - 1; corner > fromPosition - backward; corner--)
+				addCorner((corner % 4 + 4) % 4);
+		}
+	}
+
+	/**
+	 * Add a corner of the box: 0 is south-west, then anticlockwise, 1 is south-east, 2 north-east
+	 * and 3 north-west.
+	 */
+	private void addCorner(int corner) {
+		int lat = corner < 2 ? south : north;
+		int lon = corner == 0 || corner == 3 ? west : east;
+		addIfNew(lat, lon);
+	}
+
+	/**
+	 * @return The position of a point on the boundary of the box, going anticlockwise from the
+	 *         south-west corner: the south side runs from 0 to 1, the east side from 1 to 2, the north
+	 *         side from 2 to 3 and the west side from 3 to 4.
+	 */
+	private double perimeterPosition(int lat, int lon) {
+		if (lat == south)
+			return (double) (lon - west) / (east - west);
+		if (lon == east)
+			return 1 + (double) (lat - south) / (north - south);
+		if (lat == north)
+			return 2 + (double) (east - lon) / (east - west);
+		return 3 + (double) (north - lat) / (north - south);
+	}
+
+	private void addIfNew(int lat, int lon) {
+		if (culled[culledLength - 2] != lat || culled[culledLength - 1] != lon)
+			add(lat, lon);
+	}
+
+	private void add(int lat, int lon) {
+		if (culledLength == culled.length) {
+			int[] grown = new int[culled.length * 2];
+			System.arraycopy(culled, 0, grown, 0, culledLength);
+			culled = grown;
+		}
+		culled[culledLength++] = lat;
+		culled[culledLength++] = lon;
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+}
@@ -0,0 +1,124 @@
+package ubc.cs.cpsc210.sustainabilityapp.geometry;
+
+/**
+ * Douglas-Peucker simplification of polylines in the plane.  Rather than simplifying once for a
+ * given tolerance, {@link #significance(double[], double[], int)} ranks every point by the largest
+ * tolerance at which Douglas-Peucker would keep it, so that the simplification for any tolerance
+ * is then a single scan: keep the points whose significance exceeds the tolerance.  This suits
+ * levels of detail, which simplify the same line with many tolerances.
+ */
+public class PolylineSimplifier {
+	private PolylineSimplifier() {
+	}
+
+	/**
+	 * Rank the points of a polyline by significance.  The first and last points have infinite
+	 * significance, as every simplification keeps them.  Runs in O(n log n) time for typical lines,
+	 * and O(n^2) at worst.
+	 *
+	 * @param xs Planar x coordinates of the points, in order.
+	 * @param ys Planar y coordinates of the points, in order.
+	 * @param n Number of points.
+	 * @return The significance of each point: Douglas-Peucker keeps the point for any tolerance, in the
+	 *         units of the coordinates, less than its significance.
+	 */
+	public static double[] significance(double[] xs, double[] ys, int n) {
+		double[] significance = new double[n];
+		if (n == 0)
+			return significance;
+
+		significance[0] = Double.POSITIVE_INFINITY;
+		significance[n - 1] = Double.POSITIVE_INFINITY;
+
+		// pending segments (first, last, significance of the point they were split at); a point is
+		// only kept if the segment containing it was split, so it is no more significant than that
+		int[] firsts = new int[32];
+		int[] lasts = new int[32];
+		double[] limits = new double[32];
+		firsts[0] = 0;
+		lasts[0] = n - 1;
+		limits[0] = Double.POSITIVE_INFINITY;
+		int stackSize = 1;
+
+		while (stackSize > 0) {
+			stackSize--;
+			int first = firsts[stackSize];
+			int last = lasts[stackSize];
+			double limit = limits[stackSize];
+			if (last - first < 2)
+				continue;
+
+			int farthest = -1;
+			double farthestDistanceSq = -1;
+			for (int i = first + 1; i < last; i++) {
+				double distanceSq = segmentDistanceSq(xs[i], ys[i], xs[first], ys[first], xs[last], ys[last]);
+				if (distanceSq > farthestDistanceSq) {
+					farthest = i;
+					farthestDistanceSq = distanceSq;
+				}
+			}
+
+			double pointSignificance = Math.min(limit, Math.sqrt(farthestDistanceSq));
+			significance[farthest] = pointSignificance;
+
+			if (stackSize + 2 > firsts.length) {
+				firsts = grow(firsts);
+				lasts = grow(lasts);
+				limits = grow(limits);
+			}
+			firsts[stackSize] = first;
+			lasts[stackSize] = farthest;
+			limits[stackSize] = pointSignificance;
+			stackSize++;
+			firsts[stackSize] = farthest;
+			lasts[stackSize] = last;
+			limits[stackSize] = pointSignificance;
+			stackSize++;
+		}
+
+		return significance;
+	}
+
+	/**
+	 * @return The number of points whose significance exceeds the tolerance: the number of points
+	 *         Douglas-Peucker with that tolerance keeps.
+	 */
+	public static int countKept(double[] significance, double tolerance) {
+		int kept = 0;
+		for (int i = 0; i < significance.length; i++) {
+			if (significance[i] > tolerance)
+				kept++;
+		}
+		return kept;
+	}
+
+	/**
+	 * @return Square of the distance from a point to the segment between two others.
+	 */
+	public static double segmentDistanceSq(double x, double y, double x1, double y1, double x2, double y2) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double lengthSq = dx * dx + dy * dy;
+		if (lengthSq == 0)
+			return LocalProjection.distanceSq(x, y, x1, y1);
+
+		double t = ((x - x1) * dx + (y - y1) * dy) / lengthSq;
+		if (t <= 0)
+			return LocalProjection.distanceSq(x, y, x1, y1);
+		if (t >= 1)
+			return LocalProjection.distanceSq(x, y, x2, y2);
+		return LocalProjection.distanceSq(x, y, x1 + t * dx, y1 + t * dy);
+	}
+
+	private static int[] grow(int[] array) {
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static double[] grow(double[] array) {
+		double[] grown = new double[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
@@ -0,0 +1,500 @@
+package ubc.cs.cpsc210.sustainabilityapp.geometry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of items by location, answering nearest, k-nearest, radius and bounds queries without
+ * examining every item.  Items are bucketed in a uniform grid of square cells; a query examines the
+ * cells around the query point, ring by ring, until no unexamined cell can hold a closer item.  Items can
+ * be added and removed at any time.  This class is not thread-safe.
+ *
+ * Locations are projected onto a plane, with distances in metres, by a {@link LocalProjection}.
+ * Items are compared with equals, and each item is held at most once.
+ *
+ * @param <T> Type of the items.
+ */
+public class SpatialIndex<T> {
+	private final LocalProjection projection;
+	private final double cellSize;
+
+	/**
+	 * Cells holding at least one item, or which once did, by cell coordinates.
+	 */
+	private final CellTable cells = new CellTable();
+
+	/**
+	 * Cell holding each item.
+	 */
+	private final Map<T, Cell> cellOf = new HashMap<T, Cell>();
+
+	/**
+	 * Range of the cell coordinates of all cells in the table.
+	 */
+	private int minCellX = Integer.MAX_VALUE;
+	private int maxCellX = Integer.MIN_VALUE;
+	private int minCellY = Integer.MAX_VALUE;
+	private int maxCellY = Integer.MIN_VALUE;
+
+	/**
+	 * @param projection Projects locations onto the plane; centred on the area covered.
+	 * @param cellSize Side of a grid cell, in metres; around the typical distance between items works
+	 *                 best.
+	 */
+	public SpatialIndex(LocalProjection projection, double cellSize) {
+		if (cellSize <= 0)
+			throw new IllegalArgumentException("Cell size must be positive");
+
+		this.projection = projection;
+		this.cellSize = cellSize;
+	}
+
+	public int size() {
+		return cellOf.size();
+	}
+
+	/**
+	 * Add an item at the given location, moving it if it is already in the index.
+	 */
+	public void add(T item, double latitude, double longitude) {
+		remove(item);
+
+		double x = projection.toX(longitude);
+		double y = projection.toY(latitude);
+		int cellX = cellCoordinate(x);
+		int cellY = cellCoordinate(y);
+
+		Cell cell = cells.get(cellX, cellY);
+		if (cell == null) {
+			cell = new Cell();
+			cells.put(cellX, cellY, cell);
+			minCellX = Math.min(minCellX, cellX);
+			maxCellX = Math.max(maxCellX, cellX);
+			minCellY = Math.min(minCellY, cellY);
+			maxCellY = Math.max(maxCellY, cellY);
+		}
+
+		cell.add(item, x, y);
+		cellOf.put(item, cell);
+	}
+
+	/**
+	 * Remove an item from the index.
+	 *
+	 * @return true if the item was in the index.
+	 */
+	public boolean remove(T item) {
+		Cell cell = cellOf.remove(item);
+		if (cell == null)
+			return false;
+
+		cell.remove(item);
+		return true;
+	}
+
+	/**
+	 * Remove all items from the index.
+	 */
+	public void clear() {
+		cellOf.clear();
+		cells.clear();
+		minCellX = minCellY = Integer.MAX_VALUE;
+		maxCellX = maxCellY = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * @return The item closest to the given location, or null if the index is empty.
+	 */
+	public T nearest(double latitude, double longitude) {
+		List<T> nearest = nearest(latitude, longitude, 1);
+		return nearest.isEmpty() ? null : nearest.get(0);
+	}
+
+	/**
+	 * @return The k items closest to the given location, closest first; fewer if the index holds fewer
+	 *         items.
+	 */
+	public List<T> nearest(double latitude, double longitude, int k) {
+		if (k <= 0 || cellOf.isEmpty())
+			return Collections.emptyList();
+
+		double x = projection.toX(longitude);
+		double y = projection.toY(latitude);
+		int cellX = cellCoordinate(x);
+		int cellY = cellCoordinate(y);
+		Candidates candidates = new Candidates(k);
+
+		// once the rings searched cover more cells than are occupied, examine the occupied cells instead
+		int maxRing = Math.max(Math.max(cellX - minCellX, maxCellX - cellX),
+				Math.max(cellY - minCellY, maxCellY - cellY));
+		for (int ring = 0; ring <= maxRing; ring++) {
+			long side = 2L * ring + 1;
+			if (side * side > cells.size()) {
+				for (int i = 0; i < cells.capacity(); i++) {
+					Cell cell = cells.cellAt(i);
+					if (cell != null && ringOf(cells.xAt(i), cells.yAt(i), cellX, cellY) >= ring)
+						cell.offer(candidates, x, y);
+				}
+				break;
+			}
+
+			examineRing(candidates, cellX, cellY, ring, x, y);
+
+			// every item in a further ring is more than ring * cellSize away
+			if (candidates.isFull() && candidates.worstDistanceSq() <= sq(ring * cellSize))
+				break;
+		}
+
+		return candidates.<T>toSortedList();
+	}
+
+	/**
+	 * @return The items within the given distance, in metres, of the given location, in no particular
+	 *         order.
+	 */
+	public List<T> withinRadius(double latitude, double longitude, double radius) {
+		List<T> found = new ArrayList<T>();
+		if (cellOf.isEmpty())
+			return found;
+
+		double x = projection.toX(longitude);
+		double y = projection.toY(latitude);
+		double radiusSq = radius * radius;
+
+		int fromX = Math.max(minCellX, cellCoordinate(x - radius));
+		int toX = Math.min(maxCellX, cellCoordinate(x + radius));
+		int fromY = Math.max(minCellY, cellCoordinate(y - radius));
+		int toY = Math.min(maxCellY, cellCoordinate(y + radius));
+
+		if (fromX > toX || fromY > toY)
+			return found;
+
+		if ((long) (toX - fromX + 1) * (toY - fromY + 1) > cells.size()) {
+			for (int i = 0; i < cells.capacity(); i++) {
+				Cell cell = cells.cellAt(i);
+				if (cell != null)
+					cell.collectWithin(found, x, y, radiusSq);
+			}
+		} else {
+			for (int cy = fromY; cy <= toY; cy++) {
+				for (int cx = fromX; cx <= toX; cx++) {
+					Cell cell = cells.get(cx, cy);
+					if (cell != null)
+						cell.collectWithin(found, x, y, radiusSq);
+				}
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * @return The items inside the given bounds, in degrees, in no particular order.
+	 */
+	public List<T> withinBounds(double south, double west, double north, double east) {
+		List<T> found = new ArrayList<T>();
+		if (cellOf.isEmpty())
+			return found;
+
+		double minX = projection.toX(west);
+		double maxX = projection.toX(east);
+		double minY = projection.toY(south);
+		double maxY = projection.toY(north);
+
+		int fromX = Math.max(minCellX, cellCoordinate(minX));
+		int toX = Math.min(maxCellX, cellCoordinate(maxX));
+		int fromY = Math.max(minCellY, cellCoordinate(minY));
+		int toY = Math.min(maxCellY, cellCoordinate(maxY));
+
+		if (fromX > toX || fromY > toY)
+			return found;
+
+		if ((long) (toX - fromX + 1) * (toY - fromY + 1) > cells.size()) {
+			for (int i = 0; i < cells.capacity(); i++) {
+				Cell cell = cells.cellAt(i);
+				if (cell != null)
+					cell.collectWithinBounds(found, minX, minY, maxX, maxY);
+			}
+		} else {
+			for (int cy = fromY; cy <= toY; cy++) {
+				for (int cx = fromX; cx <= toX; cx++) {
+					Cell cell = cells.get(cx, cy);
+					if (cell != null)
+						cell.collectWithinBounds(found, minX, minY, maxX, maxY);
+				}
+			}
+		}
+
+		return found;
+	}
+
+	private void examineRing(Candidates candidates, int cellX, int cellY, int ring, double x, double y) {
+		if (ring == 0) {
+			Cell cell = cells.get(cellX, cellY);
+			if (cell != null)
+				cell.offer(candidates, x, y);
+			return;
+		}
+
+		// top and bottom rows, then the columns between them
+		for (int cx = cellX - ring; cx <= cellX + ring; cx++) {
+			offerCell(candidates, cx, cellY - ring, x, y);
+			offerCell(candidates, cx, cellY + ring, x, y);
+		}
+		for (int cy = cellY - ring + 1; cy <= cellY + ring - 1; cy++) {
+			offerCell(candidates, cellX - ring, cy, x, y);
+			offerCell(candidates, cellX + ring, cy, x, y);
+		}
+	}
+
+	private void offerCell(Candidates candidates, int cellX, int cellY, double x, double y) {
+		if (cellX < minCellX || cellX > maxCellX || cellY < minCellY || cellY > maxCellY)
+			return;
+
+		Cell cell = cells.get(cellX, cellY);
+		if (cell != null)
+			cell.offer(candidates, x, y);
+	}
+
+	private int cellCoordinate(double metres) {
+		return (int) Math.floor(metres / cellSize);
+	}
+
+	private static int ringOf(int cellX, int cellY, int centreX, int centreY) {
+		return Math.max(Math.abs(cellX - centreX), Math.abs(cellY - centreY));
+	}
+
+	private static double sq(double value) {
+		return value * value;
+	}
+
+	/**
+	 * Items in one grid cell, with their projected coordinates in parallel arrays.
+	 */
+	private static class Cell {
+		private Object[] items = new Object[4];
+		private double[] xs = new double[4];
+		private double[] ys = new double[4];
+		private int count;
+
+		void add(Object item, double x, double y) {
+			if (count == items.length) {
+				Object[] grownItems = new Object[count * 2];
+				double[] grownXs = new double[count * 2];
+				double[] grownYs = new double[count * 2];
+				System.arraycopy(items, 0, grownItems, 0, count);
+				System.arraycopy(xs, 0, grownXs, 0, count);
+				System.arraycopy(ys, 0, grownYs, 0, count);
+				items = grownItems;
+				xs = grownXs;
+				ys = grownYs;
+			}
+
+			items[count] = item;
+			xs[count] = x;
+			ys[count] = y;
+			count++;
+		}
+
+		void remove(Object item) {
+			for (int i = 0; i < count; i++) {
+				if (items[i].equals(item)) {
+					// move the last item into the gap
+					count--;
+					items[i] = items[count];
+					xs[i] = xs[count];
+					ys[i] = ys[count];
+					items[count] = null;
+					return;
+				}
+			}
+		}
+
+		void offer(Candidates candidates, double x, double y) {
+			for (int i = 0; i < count; i++)
+				candidates.offer(items[i], LocalProjection.distanceSq(xs[i], ys[i], x, y));
+		}
+
+		@SuppressWarnings("unchecked")
+		<E> void collectWithin(List<E> found, double x, double y, double radiusSq) {
+			for (int i = 0; i < count; i++) {
+				if (LocalProjection.distanceSq(xs[i], ys[i], x, y) <= radiusSq)
+					found.add((E) items[i]);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		<E> void collectWithinBounds(List<E> found, double minX, double minY, double maxX, double maxY) {
+			for (int i = 0; i < count; i++) {
+				if (xs[i] >= minX && xs[i] <= maxX && ys[i] >= minY && ys[i] <= maxY)
+					found.add((E) items[i]);
+			}
+		}
+	}
+
+	/**
+	 * The k closest items found so far, in a binary max-heap on squared distance, so that the
+	 * furthest candidate can be replaced cheaply.
+	 */
+	private static class Candidates {
+		private final Object[] items;
+		private final double[] distancesSq;
+		private int count;
+
+		Candidates(int k) {
+			items = new Object[k];
+			distancesSq = new double[k];
+		}
+
+		boolean isFull() {
+			return count == items.length;
+		}
+
+		double worstDistanceSq() {
+			return distancesSq[0];
+		}
+
+		void offer(Object item, double distanceSq) {
+			if (count < items.length) {
+				int i = count++;
+				while (i > 0 && distancesSq[(i - 1) / 2] < distanceSq) {
+					items[i] = items[(i - 1) / 2];
+					distancesSq[i] = distancesSq[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				items[i] = item;
+				distancesSq[i] = distanceSq;
+			} else if (distanceSq < distancesSq[0]) {
+				items[0] = item;
+				distancesSq[0] = distanceSq;
+				siftDown();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		<E> List<E> toSortedList() {
+			// repeatedly move the furthest candidate to the end of the heap
+			Object[] sorted = new Object[count];
+			for (int n = count; n > 0; n--) {
+				sorted[n - 1] = items[0];
+				Object last = items[n - 1];
+				double lastDistanceSq = distancesSq[n - 1];
+				count = n - 1;
+				if (count > 0) {
+					items[0] = last;
+					distancesSq[0] = lastDistanceSq;
+					siftDown();
+				}
+			}
+
+			List<E> list = new ArrayList<E>(sorted.length);
+			for (Object item : sorted)
+				list.add((E) item);
+			return list;
+		}
+
+		private void siftDown() {
+			Object item = items[0];
+			double distanceSq = distancesSq[0];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= count)
+					break;
+				if (child + 1 < count && distancesSq[child + 1] > distancesSq[child])
+					child++;
+				if (distancesSq[child] <= distanceSq)
+					break;
+				items[i] = items[child];
+				distancesSq[i] = distancesSq[child];
+				i = child;
+			}
+			items[i] = item;
+			distancesSq[i] = distanceSq;
+		}
+	}
+
+	/**
+	 * Open-addressing hash table of cells by cell coordinates, avoiding a boxed key per lookup.
+	 */
+	private static class CellTable {
+		private int[] keyXs = new int[64];
+		private int[] keyYs = new int[64];
+		private Cell[] values = new Cell[64];
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		int capacity() {
+			return values.length;
+		}
+
+		Cell cellAt(int slot) {
+			return values[slot];
+		}
+
+		int xAt(int slot) {
+			return keyXs[slot];
+		}
+
+		int yAt(int slot) {
+			return keyYs[slot];
+		}
+
+		Cell get(int x, int y) {
+			int mask = values.length - 1;
+			for (int slot = hash(x, y) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+				if (keyXs[slot] == x && keyYs[slot] == y)
+					return values[slot];
+			}
+			return null;
+		}
+
+		void put(int x, int y, Cell cell) {
+			if (2 * (size + 1) > values.length)
+				resize(values.length * 2);
+
+			int mask = values.length - 1;
+			int slot = hash(x, y) & mask;
+			while (values[slot] != null)
+				slot = (slot + 1) & mask;
+
+			keyXs[slot] = x;
+			keyYs[slot] = y;
+			values[slot] = cell;
+			size++;
+		}
+
+		void clear() {
+			keyXs = new int[64];
+			keyYs = new int[64];
+			values = new Cell[64];
+			size = 0;
+		}
+
+		private void resize(int capacity) {
+			int[] oldXs = keyXs;
+			int[] oldYs = keyYs;
+			Cell[] oldValues = values;
+
+			keyXs = new int[capacity];
+			keyYs = new int[capacity];
+			values = new Cell[capacity];
+			size = 0;
+			for (int i = 0; i < oldValues.length; i++) {
+				if (oldValues[i] != null)
+					put(oldXs[i], oldYs[i], oldValues[i]);
+			}
+		}
+
+		private int hash(int x, int y) {
+			int h = x * 0x9E3779B1 + y * 0x85EBCA77;
+			return h ^ (h >>> 16);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package ubc.cs.cpsc210.sustainabilityapp.geometry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Orders the stops of a closed tour, which returns to its first stop, to make it short.  A tour is
+ * built by visiting the nearest unvisited stop each time, then improved by 2-opt moves (reversing a
+ * stretch of the tour, which removes crossings) and Or-opt moves (moving a run of up to three stops
+ * elsewhere, possibly reversed) until no move shortens it or the time budget runs out.  The result is
+ * not guaranteed to be optimal, but is usually within a few percent for tours of up to a few hundred
+ * stops.  This class is immutable.
+ *
+ * Distances are given as a flat matrix, with the distance from stop i to stop j at index
+ * i * n + j; they are assumed to be symmetric.
+ */
+public class TourOptimizer {
+	/**
+	 * Longest run of stops moved by an Or-opt move.
+	 */
+	private final static int MAX_SEGMENT = 3;
+
+	/**
+	 * Smallest improvement acted on, so that rounding errors cannot cause endless moves.
+	 */
+	private final static float EPSILON = 1e-3f;
+
+	private final long timeBudgetNanos;
+
+	/**
+	 * @param timeBudgetMillis Time after which improvement stops and the best tour so far is returned.
+	 */
+	public TourOptimizer(long timeBudgetMillis) {
+		this.timeBudgetNanos = timeBudgetMillis * 1000000L;
+	}
+
+	/**
+	 * Reorder the given stops, keeping the first stop first.
+	 *
+	 * @param stops The stops, in their current order.
+	 * @param points Projected location of each stop, in the same order.
+	 * @return A new list of the stops in tour order.
+	 */
+	public <T> List<T> reorder(List<T> stops, PointSet points) {
+		int n = stops.size();
+		float[] distances = new float[n * n];
+		points.distanceMatrix(distances);
+
+		int[] order = optimize(distances, n);
+		List<T> reordered = new ArrayList<T>(n);
+		for (int stop : order)
+			reordered.add(stops.get(stop));
+		return reordered;
+	}
+
+	/**
+	 * @param distances Distance between every pair of stops, as described above.
+	 * @param n Number of stops.
+	 * @return The stops in tour order, starting with stop 0.
+	 */
+	public int[] optimize(float[] distances, int n) {
+		int[] tour = nearestNeighbourTour(distances, n);
+		if (n < 4)
+			return tour;
+
+		long deadline = System.nanoTime() + timeBudgetNanos;
+		boolean improved = true;
+		while (improved && System.nanoTime() < deadline) {
+			improved = improveTwoOpt(tour, distances, n, deadline);
+			improved |= improveOrOpt(tour, distances, n, deadline);
+		}
+
+		return startAtZero(tour);
+	}
+
+	/**
+	 * @return Length of the closed tour visiting the stops in the given order.
+	 */
+	public static double tourLength(int[] tour, float[] distances, int n) {
+		double length = 0;
+		for (int i = 0; i < tour.length; i++)
+			length += distances[tour[i] * n + tour[(i + 1) % tour.length]];
+		return length;
+	}
+
+	private static int[] nearestNeighbourTour(float[] distances, int n) {
+		int[] tour = new int[n];
+		boolean[] visited = new boolean[n];
+		if (n == 0)
+			return tour;
+
+		visited[0] = true;
+		for (int i = 1; i < n; i++) {
+			int from = tour[i - 1];
+			int nearest = -1;
+			for (int to = 0; to < n; to++) {
+				if (!visited[to] && (nearest == -1 || distances[from * n + to] < distances[from * n + nearest]))
+					nearest = to;
+			}
+			tour[i] = nearest;
+			visited[nearest] = true;
+		}
+		return tour;
+	}
+
+	/**
+	 * Apply every improving 2-opt move found in one pass over the tour.
+	 *
+	 * @return true if the tour was improved.
+	 */
+	private static boolean improveTwoOpt(int[] tour, float[] distances, int n, long deadline) {
+		boolean improved = false;
+
+		for (int i = 0; i < n - 2; i++) {
+			if (System.nanoTime() >= deadline)
+				break;
+
+			int a = tour[i];
+			int b = tour[i + 1];
+			for (int j = i + 2; j < n; j++) {
+				int c = tour[j];
+				int d = tour[(j + 1) % n];
+				if (d == a)
+					continue;
+
+				// replace edges a-b and c-d by a-c and b-d, reversing the stretch from b to c
+				float delta = distances[a * n + c] + distances[b * n + d] - distances[a * n + b] - distances[c * n + d];
+				if (delta < -EPSILON) {
+					reverse(tour, i + 1, j);
+					b = tour[i + 1];
+					improved = true;
+				}
+			}
+		}
+
+		return improved;
+	}
+
+	/**
+	 * Apply every improving Or-opt move found in one pass over the tour.
+	 *
+	 * @return true if the tour was improved.
+	 */
+	private static boolean improveOrOpt(int[] tour, float[] distances, int n, long deadline) {
+		boolean improved = false;
+
+		for (int length = 1; length <= MAX_SEGMENT && length <= n - 3; length++) {
+			for (int start = 0; start < n; start++) {
+				if (System.nanoTime() >= deadline)
+					return improved;
+
+				// the segment is tour[start .. start + length - 1], wrapping around, between p and q
+				int first = tour[start];
+				int last = tour[(start + length - 1) % n];
+				int p = tour[(start + n - 1) % n];
+				int q = tour[(start + length) % n];
+				float removeGain = distances[p * n + first] + distances[last * n + q] - distances[p * n + q];
+
+				// try inserting the segment between each other pair of consecutive stops x-y
+				for (int k = 1; k < n - length; k++) {
+					int xPos = (start + length - 1 + k) % n;
+					int x = tour[xPos];
+					int y = tour[(xPos + 1) % n];
+
+					float forward = distances[x * n + first] + distances[last * n + y] - distances[x * n + y];
+					float reversed = distances[x * n + last] + distances[first * n + y] - distances[x * n + y];
+					if (forward - removeGain < -EPSILON || reversed - removeGain < -EPSILON) {
+						moveSegment(tour, start, length, xPos, reversed < forward);
+						improved = true;
+						break;
+					}
+				}
+			}
+		}
+
+		return improved;
+	}
+
+	/**
+	 * Move the segment of the given length at the given start to just after the stop at position
+	 * xPos, optionally reversing it.  Positions wrap around the tour.
+	 */
+	private static void moveSegment(int[] tour, int start, int length, int xPos, boolean reverse) {
+		int n = tour.length;
+		int[] segment = new int[length];
+		for (int i = 0; i < length; i++)
+			segment[i] = tour[(start + i) % n];
+
+		// the stops from just after the segment up to x, which close the gap the segment leaves
+		int between = (xPos - (start + length - 1) + n) % n;
+		for (int i = 0; i < between; i++)
+			tour[(start + i) % n] = tour[(start + length + i) % n];
+
+		for (int i = 0; i < length; i++)
+			tour[(start + between + i) % n] = reverse ? segment[length - 1 - i] : segment[i];
+	}
+
+	private static void reverse(int[] tour, int from, int to) {
+		while (from < to) {
+			int swap = tour[from];
+			tour[from] = tour[to];
+			tour[to] = swap;
+			from++;
+			to--;
+		}
+	}
+
+	/**
+	 * @return The tour rotated so that stop 0 comes first.
+	 */
+	private static int[] startAtZero(int[] tour) {
+		int n = tour.length;
+		int offset = 0;
+		while (tour[offset] != 0)
+			offset++;
+
+		int[] rotated = new int[n];
+		for (int i = 0; i < n; i++)
+			rotated[i] = tour[(offset + i) % n];
+		return rotated;
+	}
+}
@@ -0,0 +1,142 @@
+package ubc.cs.cpsc210.sustainabilityapp.overlay;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Bounded pool of the bitmaps drawn as map markers, shared by the whole process, so that markers
+ * are decoded or drawn once rather than every time a map is created, as on every rotation.  This
+ * class is thread-safe.
+ *
+ * Bitmaps are held by key: resources are keyed by their id and the screen density they were
+ * decoded for, and other bitmaps, such as markers drawn in code, by a key chosen by the caller.
+ * Once the bitmaps held take up more than the maximum number of bytes, the least recently used
+ * are dropped from the pool.  They are not recycled, as a map may still be drawing them; they are
+ * freed once no marker uses them.
+ *
+ * A bitmap may be drawn by several markers at once, but each map should wrap it in its own
+ * drawable, as drawables keep state such as their bounds.
+ */
+public class MarkerBitmapPool {
+	/**
+	 * Default bound of the pool: enough for the markers of several screen densities, and every
+	 * cluster marker.
+	 */
+	public final static long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+	private static MarkerBitmapPool instance;
+
+	private final long maxBytes;
+
+	/**
+	 * Bitmaps by key, from least to most recently used.
+	 */
+	private final LinkedHashMap<String, Bitmap> bitmaps = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+	private long sizeInBytes;
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	/**
+	 * @param maxBytes The maximum size, in bytes, of the bitmaps held by the pool.
+	 */
+	public MarkerBitmapPool(long maxBytes) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Invalid bitmap pool bound");
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return The pool shared by the process, created with the default bound on first use.
+	 */
+	public static synchronized MarkerBitmapPool getInstance() {
+		if (instance == null)
+			instance = new MarkerBitmapPool(DEFAULT_MAX_BYTES);
+		return instance;
+	}
+
+	/**
+	 * Get a drawable resource as a bitmap, decoding it if it is not in the pool.  The bitmap is
+	 * scaled for the screen density of the given resources, as a drawable loaded from them would be.
+	 *
+	 * @param resources Resources holding the drawable.
+	 * @param id Identifier of the drawable.
+	 * @return The bitmap, or null if the resource could not be decoded.
+	 */
+	public synchronized Bitmap getResource(Resources resources, int id) {
+		String key = "resource/" + id + "/" + resources.getDisplayMetrics().densityDpi;
+		Bitmap bitmap = get(key);
+		if (bitmap == null) {
+			bitmap = BitmapFactory.decodeResource(resources, id);
+			if (bitmap != null)
+				put(key, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Look up a bitmap, counting the lookup as a hit or a miss.
+	 *
+	 * @return The bitmap, or null if it is not in the pool.
+	 */
+	public synchronized Bitmap get(String key) {
+		Bitmap bitmap = bitmaps.get(key);
+		if (bitmap == null)
+			missCount++;
+		else
+			hitCount++;
+		return bitmap;
+	}
+
+	/**
+	 * Add a bitmap to the pool, replacing any held with the same key.  A bitmap larger than the
+	 * pool is not held.
+	 */
+	public synchronized void put(String key, Bitmap bitmap) {
+		Bitmap previous = bitmaps.put(key, bitmap);
+		if (previous != null)
+			sizeInBytes -= sizeOf(previous);
+		sizeInBytes += sizeOf(bitmap);
+		trimToSize(maxBytes);
+	}
+
+	/**
+	 * Drop every bitmap from the pool, for example when memory is low.
+	 */
+	public synchronized void clear() {
+		trimToSize(0);
+	}
+
+	/**
+	 * @return A snapshot of the pool's size and hit, miss and eviction counters.
+	 */
+	public synchronized MarkerBitmapPoolStats getStats() {
+		return new MarkerBitmapPoolStats(bitmaps.size(), sizeInBytes, maxBytes, hitCount, missCount,
+				evictionCount);
+	}
+
+	/**
+	 * Drop the least recently used bitmaps until those left take up at most the given size.
+	 */
+	private void trimToSize(long bytes) {
+		for (Iterator<Map.Entry<String, Bitmap>> it = bitmaps.entrySet().iterator(); it.hasNext()
+				&& sizeInBytes > bytes; ) {
+			sizeInBytes -= sizeOf(it.next().getValue());
+			it.remove();
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * @return The number of bytes taken up by a bitmap's pixels.
+	 */
+	private static long sizeOf(Bitmap bitmap) {
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();
+	}
+}
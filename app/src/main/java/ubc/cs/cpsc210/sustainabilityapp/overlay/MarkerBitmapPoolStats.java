@@ -0,0 +1,62 @@
+package ubc.cs.cpsc210.sustainabilityapp.overlay;
+
+/**
+ * Snapshot of the size and usage counters of a {@link MarkerBitmapPool}.
+ */
+public class MarkerBitmapPoolStats {
+	private final int entryCount;
+	private final long sizeInBytes;
+	private final long maxBytes;
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+
+	public MarkerBitmapPoolStats(int entryCount, long sizeInBytes, long maxBytes, long hitCount,
+			long missCount, long evictionCount) {
+		this.entryCount = entryCount;
+		this.sizeInBytes = sizeInBytes;
+		this.maxBytes = maxBytes;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	public long getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return Fraction of lookups that found a bitmap in the pool, or 0 if there were no lookups.
+	 */
+	public double getHitRate() {
+		long lookups = hitCount + missCount;
+		return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "MarkerBitmapPoolStats [entries=" + entryCount + ", bytes=" + sizeInBytes + ", maxBytes="
+				+ maxBytes + ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+				+ "]";
+	}
+}
@@ -0,0 +1,269 @@
+package ubc.cs.cpsc210.sustainabilityapp.overlay;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.osmdroid.util.BoundingBoxE6;
+import org.osmdroid.views.overlay.ItemizedIconOverlay;
+import org.osmdroid.views.overlay.OverlayItem;
+
+import ubc.cs.cpsc210.sustainabilityapp.geometry.GridClusterer;
+import ubc.cs.cpsc210.sustainabilityapp.geometry.GridClusterer.Cluster;
+import ubc.cs.cpsc210.sustainabilityapp.geometry.LocalProjection;
+import ubc.cs.cpsc210.sustainabilityapp.geometry.SpatialIndex;
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+
+/**
+ * Markers for a set of POIs on an itemized overlay.  Only the POIs near the screen have an
+ * {@link OverlayItem} in the overlay; the others are kept in a spatial index, from which the
+ * markers coming into view are found as the map scrolls.  The overlay draws and hit-tests every
+ * item it holds, so this keeps it fast with large sets of POIs.
+ *
+ * When zoomed out, POIs whose markers would overlap are merged into a single cluster marker, which
+ * splits into the markers of its POIs as the map is zoomed in.  The clusters for every zoom level
+ * are kept up to date as POIs are added and removed (see {@link GridClusterer}).
+ */
+public abstract class POIMarkerLayer extends ViewportLayer {
+	/**
+	 * Side of a cell of the spatial index, in metres; around the distance between neighbouring POIs
+	 * on campus.
+	 */
+	private final static double INDEX_CELL_SIZE = 100;
+
+	/**
+	 * Greatest zoom level at which POIs are clustered; at greater zoom levels, every POI has its own
+	 * marker.
+	 */
+	public final static int MAX_CLUSTER_ZOOM_LEVEL = 17;
+
+	private final ItemizedIconOverlay<OverlayItem> overlay;
+
+	private final Set<PointOfInterest> pois = new HashSet<PointOfInterest>();
+	private final SpatialIndex<PointOfInterest> index =
+			new SpatialIndex<PointOfInterest>(LocalProjection.CAMPUS, INDEX_CELL_SIZE);
+	private final GridClusterer<PointOfInterest> clusterer;
+
+	/**
+	 * Marker in the overlay for each POI or cluster which is materialized.
+	 */
+	private final Map<Object, Marker> markers = new HashMap<Object, Marker>();
+
+	/**
+	 * @param overlay The overlay to show the markers on; its items are replaced.
+	 * @param zoomLevel Zoom level of the map.
+	 * @param clusterPixels Distance, in pixels, within which POIs may be merged into a cluster.
+	 */
+	public POIMarkerLayer(ItemizedIconOverlay<OverlayItem> overlay, int zoomLevel, double clusterPixels) {
+		super(zoomLevel);
+		this.overlay = overlay;
+		this.clusterer = GridClusterer.forZoomLevels(LocalProjection.CAMPUS, MAX_CLUSTER_ZOOM_LEVEL, clusterPixels);
+		overlay.removeAllItems();
+	}
+
+	/**
+	 * @return The overlay item for a POI.
+	 */
+	protected abstract OverlayItem createItem(PointOfInterest poi);
+
+	/**
+	 * @return The overlay item for a cluster of several POIs.
+	 */
+	protected abstract OverlayItem createClusterItem(Cluster<PointOfInterest> cluster);
+
+	/**
+	 * Add a POI's marker, if it is not already shown.
+	 */
+	public void add(PointOfInterest poi) {
+		addAll(Collections.singletonList(poi));
+	}
+
+	/**
+	 * Add the markers of several POIs; those already shown are left as they are.
+	 */
+	public void addAll(Collection<PointOfInterest> added) {
+		boolean changed = false;
+		for (PointOfInterest poi : added) {
+			if (pois.add(poi)) {
+				locate(poi);
+				changed = true;
+			}
+		}
+
+		if (changed)
+			refresh();
+	}
+
+	/**
+	 * Remove a POI's marker.
+	 */
+	public void remove(PointOfInterest poi) {
+		if (!pois.remove(poi))
+			return;
+
+		unlocate(poi);
+		refresh();
+	}
+
+	/**
+	 * Show the markers of exactly the given POIs.  Only the POIs which were not shown before are
+	 * added, and only those no longer wanted are removed; the overlay is refreshed once.
+	 */
+	public void setPOIs(Collection<PointOfInterest> wanted) {
+		Set<PointOfInterest> wantedSet = new HashSet<PointOfInterest>(wanted);
+		boolean changed = false;
+
+		for (Iterator<PointOfInterest> it = pois.iterator(); it.hasNext(); ) {
+			PointOfInterest poi = it.next();
+			if (!wantedSet.contains(poi)) {
+				it.remove();
+				unlocate(poi);
+				changed = true;
+			}
+		}
+
+		for (PointOfInterest poi : wantedSet) {
+			if (pois.add(poi)) {
+				locate(poi);
+				changed = true;
+			}
+		}
+
+		if (changed)
+			refresh();
+	}
+
+	/**
+	 * Add a POI to the spatial index and the clusters.
+	 */
+	private void locate(PointOfInterest poi) {
+		LatLong location = poi.getLatLong();
+		index.add(poi, location.getLatitude(), location.getLongitude());
+		clusterer.add(poi, location.getLatitude(), location.getLongitude());
+	}
+
+	private void unlocate(PointOfInterest poi) {
+		index.remove(poi);
+		clusterer.remove(poi);
+	}
+
+	/**
+	 * Remove every marker.
+	 */
+	public void clear() {
+		pois.clear();
+		index.clear();
+		clusterer.clear();
+		markers.clear();
+		overlay.removeAllItems();
+	}
+
+	/**
+	 * @return The number of markers in the overlay.
+	 */
+	public int getMaterializedCount() {
+		return markers.size();
+	}
+
+	/**
+	 * Bring the markers in the overlay up to date with the POIs and clusters within the bounds at the
+	 * current zoom level.  Markers which are still wanted are kept, and only the others are created
+	 * or removed; the marker of a cluster whose POIs have changed is made again, as its place, title
+	 * and snippet have changed, even if the number of POIs has not.
+	 */
+	@Override
+	protected void refresh() {
+		Map<Object, Integer> wanted = findMarkers();
+
+		boolean removed = false;
+		for (Iterator<Map.Entry<Object, Marker>> it = markers.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Object, Marker> entry = it.next();
+			Integer version = wanted.get(entry.getKey());
+			if (version == null || version.intValue() != entry.getValue().version) {
+				it.remove();
+				removed = true;
+			}
+		}
+
+		List<OverlayItem> addedItems = new ArrayList<OverlayItem>();
+		for (Map.Entry<Object, Integer> entry : wanted.entrySet()) {
+			Object key = entry.getKey();
+			if (!markers.containsKey(key)) {
+				OverlayItem item = createMarkerItem(key);
+				markers.put(key, new Marker(item, entry.getValue()));
+				addedItems.add(item);
+			}
+		}
+
+		// the overlay rebuilds its list of items on every change, so after a removal, put back the
+		// remaining items together with the new ones
+		if (removed) {
+			addedItems.clear();
+			for (Marker marker : markers.values())
+				addedItems.add(marker.item);
+			overlay.removeAllItems(addedItems.isEmpty());
+		}
+		if (!addedItems.isEmpty())
+			overlay.addItems(addedItems);
+	}
+
+	@SuppressWarnings("unchecked")
+	private OverlayItem createMarkerItem(Object key) {
+		if (key instanceof Cluster)
+			return createClusterItem((Cluster<PointOfInterest>) key);
+		return createItem((PointOfInterest) key);
+	}
+
+	/**
+	 * @return The POIs, and the clusters of several POIs, which should have a marker, with the version
+	 *         of each cluster, or 0 for a POI.
+	 */
+	private Map<Object, Integer> findMarkers() {
+		BoundingBoxE6 bounds = getBounds();
+		int zoomLevel = getZoomLevel();
+		Map<Object, Integer> wanted = new HashMap<Object, Integer>();
+
+		if (zoomLevel > MAX_CLUSTER_ZOOM_LEVEL) {
+			Collection<PointOfInterest> inView = bounds == null ? pois : index.withinBounds(
+					bounds.getLatSouthE6() / 1E6, bounds.getLonWestE6() / 1E6,
+					bounds.getLatNorthE6() / 1E6, bounds.getLonEastE6() / 1E6);
+			for (PointOfInterest poi : inView)
+				wanted.put(poi, 0);
+			return wanted;
+		}
+
+		int level = Math.max(0, zoomLevel);
+		List<Cluster<PointOfInterest>> clusters = bounds == null ? clusterer.getClusters(level)
+				: clusterer.clustersWithinBounds(level, bounds.getLatSouthE6() / 1E6, bounds.getLonWestE6() / 1E6,
+						bounds.getLatNorthE6() / 1E6, bounds.getLonEastE6() / 1E6);
+		for (Cluster<PointOfInterest> cluster : clusters) {
+			// a POI on its own has its own marker
+			if (cluster.getCount() == 1)
+				wanted.put(cluster.getFirstItem(), 0);
+			else
+				wanted.put(cluster, cluster.getVersion());
+		}
+		return wanted;
+	}
+
+	/**
+	 * An item in the overlay, and the version of the cluster it stood for when it was created, or 0
+	 * for a POI.
+	 */
+	private static class Marker {
+		final OverlayItem item;
+		final int version;
+
+		Marker(OverlayItem item, int version) {
+			this.item = item;
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package ubc.cs.cpsc210.sustainabilityapp.overlay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osmdroid.util.BoundingBoxE6;
+import org.osmdroid.views.overlay.PathOverlay;
+
+import ubc.cs.cpsc210.sustainabilityapp.geometry.PolylineCuller;
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+import ubc.cs.cpsc210.sustainabilityapp.routing.RouteEndpoints;
+import ubc.cs.cpsc210.sustainabilityapp.routing.RouteInfo;
+
+/**
+ * Route drawn on a path overlay, one leg after another.  The overlay holds only the part of the
+ * route near the screen (see {@link PolylineCuller}), simplified for the zoom level (see
+ * {@link RouteInfo#computeLevelsOfDetail()}).  The path overlay re-projects every point it holds as
+ * the map moves, so this keeps the cost of drawing a long route down to that of the part in view.
+ * The simplified legs are kept by the layer, for as long as the legs are on its route, rather than
+ * with the legs, which may be held by the route cache.
+ *
+ * When the route changes, the legs whose endpoints are unchanged can be carried over to the new
+ * route (see {@link #getLegs(List)}), so that only the others need to be retrieved.  A leg which has
+ * not been retrieved yet is pending; the route is drawn up to its first pending leg.
+ */
+public class RouteLayer extends ViewportLayer {
+	private final PathOverlay overlay;
+
+	/**
+	 * Legs of the route, in order; null for pending legs.
+	 */
+	private final List<RouteInfo> legs = new ArrayList<RouteInfo>();
+
+	/**
+	 * Endpoints of the legs of the route, in order.
+	 */
+	private final List<RouteEndpoints> endpoints = new ArrayList<RouteEndpoints>();
+
+	/**
+	 * Number of legs drawn on the overlay: those before the first pending leg.
+	 */
+	private int drawnLegs;
+
+	/**
+	 * Each retrieved leg simplified for each zoom level, by leg, computed when the leg is first drawn.
+	 */
+	private final Map<RouteInfo, RouteInfo[]> levelsOfDetail = new IdentityHashMap<RouteInfo, RouteInfo[]>();
+
+	/**
+	 * Read-only copy of the retrieved legs, by endpoints, for use from other threads.
+	 */
+	private volatile Map<RouteEndpoints, RouteInfo> retrievedLegs = Collections.emptyMap();
+
+	/**
+	 * Culls the legs to the materialized bounds, or null if they all are.
+	 */
+	private PolylineCuller culler;
+
+	/**
+	 * @param overlay The overlay to draw the route on; its path is replaced.
+	 * @param zoomLevel Zoom level of the map.
+	 */
+	public RouteLayer(PathOverlay overlay, int zoomLevel) {
+		super(zoomLevel);
+		this.overlay = overlay;
+		overlay.clearPath();
+	}
+
+	public PathOverlay getOverlay() {
+		return overlay;
+	}
+
+	/**
+	 * Get the legs of this layer's route which join consecutive waypoints of another route.  May be
+	 * called on any thread; the legs are those of the route as last set on the UI thread.
+	 *
+	 * @param waypoints The points the other route visits, in order.
+	 * @return For each pair of consecutive waypoints, the leg joining them, or null if the route has
+	 *         no such leg or it is pending.
+	 */
+	public List<RouteInfo> getLegs(List<LatLong> waypoints) {
+		Map<RouteEndpoints, RouteInfo> retrieved = retrievedLegs;
+		List<RouteInfo> found = new ArrayList<RouteInfo>();
+		for (int i = 0; i + 1 < waypoints.size(); i++)
+			found.add(retrieved.get(new RouteEndpoints(waypoints.get(i), waypoints.get(i + 1))));
+		return found;
+	}
+
+	/**
+	 * Replace the route.  Nothing is redrawn if the route is unchanged.
+	 *
+	 * @param waypoints The points the route visits, in order.
+	 * @param legs The leg joining each pair of consecutive waypoints, or null for legs which are
+	 *             pending until set with {@link #setLeg(int, RouteInfo)}.
+	 */
+	public void setRoute(List<LatLong> waypoints, List<RouteInfo> legs) {
+		if (legs.size() != Math.max(0, waypoints.size() - 1))
+			throw new IllegalArgumentException("Expected a leg between each pair of waypoints");
+
+		List<RouteEndpoints> newEndpoints = new ArrayList<RouteEndpoints>(legs.size());
+		for (int i = 0; i < legs.size(); i++)
+			newEndpoints.add(new RouteEndpoints(waypoints.get(i), waypoints.get(i + 1)));
+		if (newEndpoints.equals(endpoints) && legs.equals(this.legs))
+			return;
+
+		endpoints.clear();
+		endpoints.addAll(newEndpoints);
+		this.legs.clear();
+		this.legs.addAll(legs);
+		publishLegs();
+		redraw();
+	}
+
+	/**
+	 * Set a pending leg of the route, once it has been retrieved.
+	 *
+	 * @param index Index of the leg, from 0 for the leg starting at the first waypoint.
+	 */
+	public void setLeg(int index, RouteInfo leg) {
+		legs.set(index, leg);
+		publishLegs();
+
+		// legs drawn already are unchanged; the legs from here to the next pending leg are appended
+		if (index == drawnLegs)
+			drawLegs();
+		else if (index < drawnLegs)
+			redraw();
+	}
+
+	/**
+	 * Remove every leg of the route.
+	 */
+	public void clear() {
+		setRoute(Collections.<LatLong> emptyList(), Collections.<RouteInfo> emptyList());
+	}
+
+	@Override
+	protected void refresh() {
+		BoundingBoxE6 bounds = getBounds();
+		culler = bounds == null ? null : new PolylineCuller(bounds.getLatSouthE6(), bounds.getLonWestE6(),
+				bounds.getLatNorthE6(), bounds.getLonEastE6());
+		redraw();
+	}
+
+	private void publishLegs() {
+		Map<RouteEndpoints, RouteInfo> retrieved = new HashMap<RouteEndpoints, RouteInfo>();
+		for (int i = 0; i < legs.size(); i++) {
+			if (legs.get(i) != null)
+				retrieved.put(endpoints.get(i), legs.get(i));
+		}
+		retrievedLegs = Collections.unmodifiableMap(retrieved);
+
+		// the simplified legs of legs carried over are kept, and those of legs removed dropped
+		Map<RouteInfo, RouteInfo[]> kept = new IdentityHashMap<RouteInfo, RouteInfo[]>();
+		for (RouteInfo leg : legs) {
+			RouteInfo[] levels = leg == null ? null : levelsOfDetail.get(leg);
+			if (levels != null)
+				kept.put(leg, levels);
+		}
+		levelsOfDetail.clear();
+		levelsOfDetail.putAll(kept);
+	}
+
+	private void redraw() {
+		overlay.clearPath();
+		drawnLegs = 0;
+		drawLegs();
+	}
+
+	/**
+	 * Append the legs after those drawn, up to the next pending leg.
+	 */
+	private void drawLegs() {
+		while (drawnLegs < legs.size() && legs.get(drawnLegs) != null) {
+			addPoints(legs.get(drawnLegs));
+			drawnLegs++;
+		}
+	}
+
+	private void addPoints(RouteInfo leg) {
+		RouteInfo drawn = getLevelOfDetail(leg, getZoomLevel());
+		if (culler != null)
+			drawn = drawn.cull(culler);
+
+		for (int i = 0; i < drawn.size(); i++)
+			overlay.addPoint(drawn.getLatitudeE6(i), drawn.getLongitudeE6(i));
+	}
+
+	/**
+	 * @return The leg simplified for drawing at the given zoom level.
+	 */
+	private RouteInfo getLevelOfDetail(RouteInfo leg, int zoomLevel) {
+		if (zoomLevel > RouteInfo.MAX_DETAIL_ZOOM_LEVEL)
+			return leg;
+
+		RouteInfo[] levels = levelsOfDetail.get(leg);
+		if (levels == null) {
+			levels = leg.computeLevelsOfDetail();
+			levelsOfDetail.put(leg, levels);
+		}
+		return levels[Math.max(0, zoomLevel)];
+	}
+}
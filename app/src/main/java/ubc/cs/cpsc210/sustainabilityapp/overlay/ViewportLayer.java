@@ -0,0 +1,78 @@
+package ubc.cs.cpsc210.sustainabilityapp.overlay;
+
+import org.osmdroid.util.BoundingBoxE6;
+
+/**
+ * Contents of a map overlay which are only materialized near the part of the map on screen.  The
+ * layer materializes its contents within a margin around the visible part of the map, so that it
+ * need not be refreshed until the map has scrolled past the margin or been zoomed.  Until the map
+ * has been laid out, and the visible part is unknown, every item is materialized.  Layers are used
+ * on the UI thread only.
+ */
+public abstract class ViewportLayer {
+	/**
+	 * Size of the materialized bounds relative to the visible bounds: half a screen of margin on
+	 * every side.
+	 */
+	private final static float MARGIN_SCALE = 2.0f;
+
+	/**
+	 * Bounds within which the contents are materialized, or null if they all are.
+	 */
+	private BoundingBoxE6 bounds;
+
+	private int zoomLevel;
+
+	/**
+	 * @param zoomLevel Zoom level of the map.
+	 */
+	protected ViewportLayer(int zoomLevel) {
+		this.zoomLevel = zoomLevel;
+	}
+
+	/**
+	 * Bring the materialized contents up to date with the part of the map on screen, if it has moved
+	 * past the margin or the zoom level has changed.
+	 *
+	 * @param visible Bounds of the part of the map on screen.
+	 * @param zoomLevel Zoom level of the map.
+	 * @return Whether the overlay has changed.
+	 */
+	public boolean setViewport(BoundingBoxE6 visible, int zoomLevel) {
+		boolean laidOut = visible.getLatitudeSpanE6() > 0 && visible.getLongitudeSpanE6() > 0;
+
+		if (zoomLevel == this.zoomLevel) {
+			if (!laidOut && bounds == null)
+				return false;
+			if (laidOut && bounds != null && contains(bounds, visible))
+				return false;
+		}
+
+		this.zoomLevel = zoomLevel;
+		this.bounds = laidOut ? visible.increaseByScale(MARGIN_SCALE) : null;
+		refresh();
+		return true;
+	}
+
+	/**
+	 * @return Bounds within which the contents are materialized, or null if they all are.
+	 */
+	protected BoundingBoxE6 getBounds() {
+		return bounds;
+	}
+
+	protected int getZoomLevel() {
+		return zoomLevel;
+	}
+
+	/**
+	 * Materialize the contents within the current bounds, at the current zoom level, and remove
+	 * those outside them.
+	 */
+	protected abstract void refresh();
+
+	private static boolean contains(BoundingBoxE6 outer, BoundingBoxE6 inner) {
+		return inner.getLatNorthE6() <= outer.getLatNorthE6() && inner.getLatSouthE6() >= outer.getLatSouthE6()
+				&& inner.getLonEastE6() <= outer.getLonEastE6() && inner.getLonWestE6() >= outer.getLonWestE6();
+	}
+}
@@ -0,0 +1,203 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.Feature;
+import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+
+/**
+ * The POIs of an {@link IndexedPOIRegistry} which match a selection of features, kept up to date
+ * as features are selected and deselected.  This class is not thread-safe.
+ *
+ * The filter keeps an inverted index from each feature to the sorted numbers of the POIs with it.
+ * Selecting or deselecting a feature updates the matching POIs from the previous matches and that
+ * feature's POIs, by a union, intersection or difference of sorted arrays, rather than testing
+ * every POI against the whole selection again.
+ */
+public class FeatureFilter {
+	/**
+	 * How the selected features are combined.
+	 */
+	public enum Match {
+		/**
+		 * POIs with at least one of the selected features match.
+		 */
+		ANY,
+
+		/**
+		 * POIs with every one of the selected features match.
+		 */
+		ALL
+	}
+
+	private final static Feature[] FEATURES = Feature.values();
+
+	private final IndexedPOIRegistry registry;
+	private final Match match;
+
+	/**
+	 * Numbers of the POIs with each feature, in ascending order, by feature ordinal.
+	 */
+	private final int[][] postings;
+
+	/**
+	 * Bitmask of the selected features.
+	 */
+	private long selected;
+
+	/**
+	 * Numbers of the matching POIs, in ascending order.
+	 */
+	private int[] matches = SortedIntArrays.EMPTY;
+
+	public FeatureFilter(IndexedPOIRegistry registry, Match match) {
+		this.registry = registry;
+		this.match = match;
+
+		int[] counts = new int[FEATURES.length];
+		for (int number = 0; number < registry.size(); number++) {
+			long mask = registry.getFeatureMask(number);
+			for (int feature = 0; feature < FEATURES.length; feature++) {
+				if ((mask & (1L << feature)) != 0)
+					counts[feature]++;
+			}
+		}
+
+		postings = new int[FEATURES.length][];
+		for (int feature = 0; feature < FEATURES.length; feature++)
+			postings[feature] = new int[counts[feature]];
+
+		int[] next = new int[FEATURES.length];
+		for (int number = 0; number < registry.size(); number++) {
+			long mask = registry.getFeatureMask(number);
+			for (int feature = 0; feature < FEATURES.length; feature++) {
+				if ((mask & (1L << feature)) != 0)
+					postings[feature][next[feature]++] = number;
+			}
+		}
+	}
+
+	public Match getMatch() {
+		return match;
+	}
+
+	/**
+	 * @return The bitmask of the selected features.
+	 */
+	public long getSelectedFeatures() {
+		return selected;
+	}
+
+	/**
+	 * Change the selected features, updating the matches for each feature selected or deselected.
+	 *
+	 * @return Whether the matching POIs have changed.
+	 */
+	public boolean setSelectedFeatures(Collection<Feature> features) {
+		long wanted = IndexedPOIRegistry.mask(features);
+		int[] before = matches;
+
+		long toggled = selected ^ wanted;
+		while (toggled != 0) {
+			int feature = Long.numberOfTrailingZeros(toggled);
+			toggled &= toggled - 1;
+			if ((wanted & (1L << feature)) != 0)
+				select(feature);
+			else
+				deselect(feature);
+		}
+
+		return matches != before && !Arrays.equals(matches, before);
+	}
+
+	/**
+	 * Select a feature, if it is not already selected.
+	 *
+	 * @return Whether the matching POIs have changed.
+	 */
+	public boolean select(Feature feature) {
+		if ((selected & (1L << feature.ordinal())) != 0)
+			return false;
+		int[] before = matches;
+		select(feature.ordinal());
+		return !Arrays.equals(matches, before);
+	}
+
+	/**
+	 * Deselect a feature, if it is selected.
+	 *
+	 * @return Whether the matching POIs have changed.
+	 */
+	public boolean deselect(Feature feature) {
+		if ((selected & (1L << feature.ordinal())) == 0)
+			return false;
+		int[] before = matches;
+		deselect(feature.ordinal());
+		return !Arrays.equals(matches, before);
+	}
+
+	/**
+	 * @return The POIs matching the selected features, in location order; with no features
+	 *         selected, none match.
+	 */
+	public List<PointOfInterest> getMatches() {
+		return registry.getPoints(matches);
+	}
+
+	/**
+	 * @return The number of POIs matching the selected features.
+	 */
+	public int getMatchCount() {
+		return matches.length;
+	}
+
+	private void select(int feature) {
+		boolean first = selected == 0;
+		selected |= 1L << feature;
+
+		if (match == Match.ANY)
+			matches = SortedIntArrays.union(matches, postings[feature]);
+		else
+			matches = first ? postings[feature] : SortedIntArrays.intersect(matches, postings[feature]);
+	}
+
+	private void deselect(int feature) {
+		selected &= ~(1L << feature);
+
+		if (match == Match.ANY) {
+			// only the feature's POIs which have none of the remaining features stop matching
+			int[] featurePOIs = postings[feature];
+			int[] dropped = new int[featurePOIs.length];
+			int n = 0;
+			for (int number : featurePOIs) {
+				if ((registry.getFeatureMask(number) & selected) == 0)
+					dropped[n++] = number;
+			}
+			int[] trimmed = new int[n];
+			System.arraycopy(dropped, 0, trimmed, 0, n);
+			matches = SortedIntArrays.difference(matches, trimmed);
+		} else {
+			// the matches are those with every remaining feature, found from the rarest feature up
+			matches = selected == 0 ? SortedIntArrays.EMPTY : intersectSelected();
+		}
+	}
+
+	private int[] intersectSelected() {
+		int[] result = null;
+		long remaining = selected;
+		while (remaining != 0) {
+			// the rarest remaining feature
+			int rarest = -1;
+			for (long bits = remaining; bits != 0; bits &= bits - 1) {
+				int feature = Long.numberOfTrailingZeros(bits);
+				if (rarest < 0 || postings[feature].length < postings[rarest].length)
+					rarest = feature;
+			}
+			remaining &= ~(1L << rarest);
+			result = result == null ? postings[rarest] : SortedIntArrays.intersect(result, postings[rarest]);
+		}
+		return result;
+	}
+}
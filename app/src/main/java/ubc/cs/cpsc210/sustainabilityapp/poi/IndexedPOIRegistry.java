@@ -0,0 +1,430 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.Feature;
+import ubc.cs.cpsc210.sustainabilityapp.model.POIRegistry;
+import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+
+/**
+ * Immutable index of a set of POIs, built once so that listing and querying them costs no sorting
+ * and no searching of feature lists.  This class is thread-safe.
+ *
+ * Each POI is numbered by its position in the registry's location order, and its features are
+ * held as a bitmask of {@link Feature} ordinals.  For each order the POIs can be listed in, and
+ * each feature, there is also a bitset of the POIs with that feature, so that a query for the POIs
+ * with all, or any, of several features is a scan over the bitsets, a word of 64 POIs at a time.
+ * Lists returned are read-only views backed by arrays.
+ *
+ * An index may be built from a list of POIs, or loaded from a {@link POISnapshot}, which holds the
+ * features and alphabetical order of the POIs so that loading it decodes none of their text.
+ */
+public class IndexedPOIRegistry {
+	/**
+	 * Order in which POIs are listed.
+	 */
+	public enum Order {
+		/**
+		 * The order of the POI registry's {@link POIRegistry#getPointsByLocation()}.
+		 */
+		LOCATION,
+
+		/**
+		 * By display name, as {@link POIRegistry#getPointsAlphabetical()}.
+		 */
+		ALPHABETICAL
+	}
+
+	private final static Feature[] FEATURES = Feature.values();
+
+	static {
+		// a mask has a bit for each feature
+		if (FEATURES.length > Long.SIZE)
+			throw new IllegalStateException("Too many features for a feature mask");
+	}
+
+	private static IndexedPOIRegistry instance;
+	private static POISnapshot defaultSnapshot;
+
+	/**
+	 * POIs, in location order.
+	 */
+	private final PointOfInterest[] points;
+
+	/**
+	 * Features of each POI, as a bitmask of feature ordinals.
+	 */
+	private final long[] featureMasks;
+
+	/**
+	 * Number of each POI, by the POI and, once a POI has been looked up by id, by its id.
+	 */
+	private final Map<PointOfInterest, Integer> numbers;
+	private Map<String, Integer> numbersById;
+
+	/**
+	 * Hash of the POIs' ids and text, once found.
+	 */
+	private Integer fingerprint;
+
+	/**
+	 * Listing of the POIs in each order, by the order's ordinal.
+	 */
+	private final Listing[] listings;
+
+	/**
+	 * @param pointsByLocation The POIs, in location order.
+	 */
+	public IndexedPOIRegistry(List<PointOfInterest> pointsByLocation) {
+		this(pointsByLocation.toArray(new PointOfInterest[pointsByLocation.size()]), null);
+	}
+
+	/**
+	 * Index the POIs of a snapshot.
+	 */
+	public IndexedPOIRegistry(POISnapshot snapshot) {
+		this(snapshot.getPoints(), snapshot);
+	}
+
+	private IndexedPOIRegistry(PointOfInterest[] pointsByLocation, POISnapshot snapshot) {
+		int n = pointsByLocation.length;
+		points = pointsByLocation;
+		featureMasks = new long[n];
+		numbers = new HashMap<PointOfInterest, Integer>(n * 2);
+
+		for (int i = 0; i < n; i++) {
+			featureMasks[i] = snapshot != null ? snapshot.getFeatureMask(i) : mask(points[i].getFeatures());
+			numbers.put(points[i], i);
+		}
+
+		int[] alphabeticalNumbers;
+		if (snapshot != null) {
+			alphabeticalNumbers = snapshot.getAlphabeticalNumbers();
+			fingerprint = snapshot.getFingerprint();
+		} else {
+			Integer[] alphabetical = new Integer[n];
+			for (int i = 0; i < n; i++)
+				alphabetical[i] = i;
+			Arrays.sort(alphabetical, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return points[a].getDisplayName().compareTo(points[b].getDisplayName());
+				}
+			});
+			alphabeticalNumbers = new int[n];
+			for (int i = 0; i < n; i++)
+				alphabeticalNumbers[i] = alphabetical[i];
+		}
+
+		int[] locationNumbers = new int[n];
+		for (int i = 0; i < n; i++)
+			locationNumbers[i] = i;
+
+		listings = new Listing[Order.values().length];
+		listings[Order.LOCATION.ordinal()] = new Listing(locationNumbers);
+		listings[Order.ALPHABETICAL.ordinal()] = new Listing(alphabeticalNumbers);
+	}
+
+	/**
+	 * Have the default index, when first used, load the POIs from a snapshot of the default POI
+	 * registry rather than from the registry itself, which builds every POI when it is loaded.  Has
+	 * no effect once the default index has been built.
+	 */
+	public static synchronized void setDefaultSnapshot(POISnapshot snapshot) {
+		defaultSnapshot = snapshot;
+	}
+
+	/**
+	 * @return The index of the default POI registry, built on first use.
+	 */
+	public static synchronized IndexedPOIRegistry getDefault() {
+		if (instance == null) {
+			if (defaultSnapshot != null)
+				instance = new IndexedPOIRegistry(defaultSnapshot);
+			else
+				instance = new IndexedPOIRegistry(POIRegistry.getDefault().getPointsByLocation());
+		}
+		return instance;
+	}
+
+	/**
+	 * @return The bitmask of the given features.
+	 */
+	public static long mask(Feature... features) {
+		long mask = 0;
+		for (Feature feature : features)
+			mask |= 1L << feature.ordinal();
+		return mask;
+	}
+
+	/**
+	 * @return The bitmask of the given features; null stands for no features.
+	 */
+	public static long mask(Collection<Feature> features) {
+		long mask = 0;
+		if (features != null) {
+			for (Feature feature : features)
+				mask |= 1L << feature.ordinal();
+		}
+		return mask;
+	}
+
+	/**
+	 * @return The features in a bitmask.
+	 */
+	public static List<Feature> features(long mask) {
+		List<Feature> features = new ArrayList<Feature>(Long.bitCount(mask));
+		for (int feature = 0; feature < FEATURES.length; feature++) {
+			if ((mask & (1L << feature)) != 0)
+				features.add(FEATURES[feature]);
+		}
+		return Collections.unmodifiableList(features);
+	}
+
+	public int size() {
+		return points.length;
+	}
+
+	/**
+	 * @return The POI with the given id, or null if there is none.
+	 */
+	public PointOfInterest lookupPoint(String id) {
+		Integer number = getNumbersById().get(id);
+		return number == null ? null : points[number];
+	}
+
+	private synchronized Map<String, Integer> getNumbersById() {
+		if (numbersById == null) {
+			Map<String, Integer> byId = new HashMap<String, Integer>(points.length * 2);
+			for (int i = 0; i < points.length; i++)
+				byId.put(points[i].getId(), i);
+			numbersById = byId;
+		}
+		return numbersById;
+	}
+
+	/**
+	 * @return A hash of the POIs' ids and text, in location order, which changes when they do.
+	 */
+	public synchronized int getFingerprint() {
+		if (fingerprint == null) {
+			int hash = 1;
+			for (PointOfInterest poi : points) {
+				hash = hash * 31 + hashCode(poi.getId());
+				hash = hash * 31 + hashCode(poi.getDisplayName());
+				hash = hash * 31 + hashCode(poi.getAddress());
+				hash = hash * 31 + hashCode(poi.getDescription());
+			}
+			fingerprint = hash;
+		}
+		return fingerprint;
+	}
+
+	private static int hashCode(String s) {
+		return s == null ? 0 : s.hashCode();
+	}
+
+	/**
+	 * @param number Number of a POI: its position in location order.
+	 */
+	public PointOfInterest get(int number) {
+		return points[number];
+	}
+
+	/**
+	 * @param number Number of a POI: its position in location order.
+	 * @return The bitmask of the POI's features.
+	 */
+	public long getFeatureMask(int number) {
+		return featureMasks[number];
+	}
+
+	/**
+	 * @return The bitmask of a POI's features, or 0 if the POI is not in the registry.
+	 */
+	public long getFeatureMask(PointOfInterest poi) {
+		Integer number = numbers.get(poi);
+		return number == null ? 0 : featureMasks[number];
+	}
+
+	/**
+	 * @return The position of a POI in the given order, or -1 if it is not in the registry.
+	 */
+	public int getPosition(PointOfInterest poi, Order order) {
+		Integer number = numbers.get(poi);
+		return number == null ? -1 : listings[order.ordinal()].positions[number];
+	}
+
+	/**
+	 * @param number Number of a POI: its position in location order.
+	 * @return The position of the POI in the given order.
+	 */
+	public int getPosition(int number, Order order) {
+		return listings[order.ordinal()].positions[number];
+	}
+
+	/**
+	 * @return Every POI, in the given order.
+	 */
+	public List<PointOfInterest> getPoints(Order order) {
+		return new PointList(listings[order.ordinal()].numbers, points.length);
+	}
+
+	/**
+	 * @param numbers Numbers of POIs; the array is not copied, and must not be modified.
+	 * @return The POIs with the given numbers, in the same order.
+	 */
+	public List<PointOfInterest> getPoints(int[] numbers) {
+		return new PointList(numbers, numbers.length);
+	}
+
+	public List<PointOfInterest> getPointsByLocation() {
+		return getPoints(Order.LOCATION);
+	}
+
+	public List<PointOfInterest> getPointsAlphabetical() {
+		return getPoints(Order.ALPHABETICAL);
+	}
+
+	/**
+	 * @return The POIs with the given feature, in location order.
+	 */
+	public List<PointOfInterest> getPointsWithFeature(Feature feature) {
+		return getPointsWithAllFeatures(mask(feature), Order.LOCATION);
+	}
+
+	/**
+	 * @param features Bitmask of features; with no features, every POI matches.
+	 * @return The POIs with every one of the given features, in the given order.
+	 */
+	public List<PointOfInterest> getPointsWithAllFeatures(long features, Order order) {
+		Listing listing = listings[order.ordinal()];
+		long[] matches = new long[listing.words()];
+		Arrays.fill(matches, -1L);
+		for (int feature = 0; feature < FEATURES.length; feature++) {
+			if ((features & (1L << feature)) == 0)
+				continue;
+			long[] bits = listing.featureBits[feature];
+			for (int word = 0; word < matches.length; word++)
+				matches[word] &= bits[word];
+		}
+		return listing.select(matches);
+	}
+
+	/**
+	 * @param features Bitmask of features; with no features, no POI matches.
+	 * @return The POIs with at least one of the given features, in the given order.
+	 */
+	public List<PointOfInterest> getPointsWithAnyFeature(long features, Order order) {
+		Listing listing = listings[order.ordinal()];
+		long[] matches = new long[listing.words()];
+		for (int feature = 0; feature < FEATURES.length; feature++) {
+			if ((features & (1L << feature)) == 0)
+				continue;
+			long[] bits = listing.featureBits[feature];
+			for (int word = 0; word < matches.length; word++)
+				matches[word] |= bits[word];
+		}
+		return listing.select(matches);
+	}
+
+	/**
+	 * The POIs in one order, with a bitset for each feature of the positions of the POIs with it.
+	 */
+	private class Listing {
+		/**
+		 * Number of the POI at each position.
+		 */
+		final int[] numbers;
+
+		/**
+		 * Position of each POI, by number.
+		 */
+		final int[] positions;
+
+		/**
+		 * For each feature ordinal, a bitset of positions.
+		 */
+		final long[][] featureBits;
+
+		Listing(int[] numbers) {
+			this.numbers = numbers;
+			this.positions = new int[numbers.length];
+			this.featureBits = new long[FEATURES.length][(numbers.length + 63) >>> 6];
+
+			for (int position = 0; position < numbers.length; position++) {
+				int number = numbers[position];
+				positions[number] = position;
+
+				long mask = featureMasks[number];
+				while (mask != 0) {
+					int feature = Long.numberOfTrailingZeros(mask);
+					featureBits[feature][position >>> 6] |= 1L << position;
+					mask &= mask - 1;
+				}
+			}
+		}
+
+		int words() {
+			return (numbers.length + 63) >>> 6;
+		}
+
+		/**
+		 * @return The POIs at the positions in a bitset, in order.
+		 */
+		List<PointOfInterest> select(long[] bits) {
+			int count = 0;
+			for (int word = 0; word < bits.length; word++) {
+				// positions past the last POI are not set
+				if (word == bits.length - 1 && (numbers.length & 63) != 0)
+					bits[word] &= (1L << numbers.length) - 1;
+				count += Long.bitCount(bits[word]);
+			}
+
+			int[] selected = new int[count];
+			int next = 0;
+			for (int word = 0; word < bits.length; word++) {
+				long w = bits[word];
+				while (w != 0) {
+					selected[next++] = numbers[(word << 6) + Long.numberOfTrailingZeros(w)];
+					w &= w - 1;
+				}
+			}
+			return new PointList(selected, count);
+		}
+	}
+
+	/**
+	 * Read-only list of POIs given by their numbers.
+	 */
+	private class PointList extends AbstractList<PointOfInterest> implements RandomAccess {
+		private final int[] numbers;
+		private final int size;
+
+		PointList(int[] numbers, int size) {
+			this.numbers = numbers;
+			this.size = size;
+		}
+
+		@Override
+		public PointOfInterest get(int index) {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+			return points[numbers[index]];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
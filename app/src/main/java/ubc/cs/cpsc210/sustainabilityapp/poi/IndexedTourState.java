@@ -0,0 +1,143 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.Feature;
+import ubc.cs.cpsc210.sustainabilityapp.model.KeyValueStore;
+import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+import ubc.cs.cpsc210.sustainabilityapp.model.TourState;
+
+/**
+ * The POIs and features selected for the tour, kept in a key-value store.  This behaves as
+ * {@link TourState}, and keeps the same entries in the same store, but looks POIs up in an
+ * {@link IndexedPOIRegistry}; so the POI registry, which builds every POI when it is loaded, need
+ * not be loaded when the index is loaded from a snapshot.
+ */
+public class IndexedTourState {
+	/**
+	 * Name of the store the selections are kept in: the same as TourState's.
+	 */
+	public final static String STORE_NAME = TourState.STORE_NAME;
+
+	private final static String SELECTED_POIS = "SelectedPOIs";
+	private final static String SELECTED_FEATURES = "SelectedFeatures";
+
+	private final static Feature[] FEATURES = Feature.values();
+
+	private final IndexedPOIRegistry registry;
+	private final KeyValueStore store;
+
+	public IndexedTourState(IndexedPOIRegistry registry, KeyValueStore store) {
+		this.registry = registry;
+		this.store = store;
+	}
+
+	/**
+	 * @return The selected POIs, in location order; if none have ever been selected, every POI.
+	 */
+	public List<PointOfInterest> getSelectedPOIs() {
+		List<String> ids = store.getStringList(SELECTED_POIS);
+		if (ids == null)
+			return new ArrayList<PointOfInterest>(registry.getPointsByLocation());
+
+		int[] numbers = new int[ids.size()];
+		int n = 0;
+		for (String id : ids) {
+			PointOfInterest poi = registry.lookupPoint(id);
+			if (poi != null)
+				numbers[n++] = registry.getPosition(poi, IndexedPOIRegistry.Order.LOCATION);
+		}
+
+		// numbers are positions in location order, so sorting them puts the POIs in location order
+		Arrays.sort(numbers, 0, n);
+		List<PointOfInterest> selected = new ArrayList<PointOfInterest>(n);
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || numbers[i] != numbers[i - 1])
+				selected.add(registry.get(numbers[i]));
+		}
+		return selected;
+	}
+
+	/**
+	 * @return The selected features; if none have ever been selected, every feature.
+	 */
+	public List<Feature> getSelectedFeatures() {
+		List<String> names = store.getStringList(SELECTED_FEATURES);
+		if (names == null)
+			return new ArrayList<Feature>(Arrays.asList(FEATURES));
+
+		List<Feature> selected = new ArrayList<Feature>();
+		for (String name : names) {
+			try {
+				selected.add(Feature.valueOf(name));
+			} catch (IllegalArgumentException e) {
+				// a feature which no longer exists
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Select POIs, and with them the features every POI of which is selected.
+	 */
+	public void setSelectedPOIs(List<PointOfInterest> pois) {
+		putSelectedPOIs(pois);
+
+		int[] selectedCounts = new int[FEATURES.length];
+		for (PointOfInterest poi : new HashSet<PointOfInterest>(pois)) {
+			long mask = registry.getFeatureMask(poi);
+			while (mask != 0) {
+				selectedCounts[Long.numberOfTrailingZeros(mask)]++;
+				mask &= mask - 1;
+			}
+		}
+
+		List<Feature> features = new ArrayList<Feature>();
+		for (Feature feature : FEATURES) {
+			int count = registry.getPointsWithFeature(feature).size();
+			if (count > 0 && selectedCounts[feature.ordinal()] == count)
+				features.add(feature);
+		}
+		putSelectedFeatures(features);
+	}
+
+	/**
+	 * Select features, and with them the POIs with any of them.
+	 */
+	public void setSelectedFeatures(List<Feature> features) {
+		putSelectedFeatures(features);
+		putSelectedPOIs(registry.getPointsWithAnyFeature(IndexedPOIRegistry.mask(features),
+				IndexedPOIRegistry.Order.LOCATION));
+	}
+
+	/**
+	 * Select the features selected in a filter, and with them the POIs it matches: the same as
+	 * {@link #setSelectedFeatures(List)}, with the POIs the filter has already found.
+	 *
+	 * @param filter Filter matching POIs with {@link FeatureFilter.Match#ANY any} of its features.
+	 */
+	public void setSelectedFeatures(FeatureFilter filter) {
+		if (filter.getMatch() != FeatureFilter.Match.ANY)
+			throw new IllegalArgumentException("Selected features select the POIs with any of them");
+		putSelectedFeatures(IndexedPOIRegistry.features(filter.getSelectedFeatures()));
+		putSelectedPOIs(filter.getMatches());
+	}
+
+	private void putSelectedPOIs(Collection<PointOfInterest> pois) {
+		List<String> ids = new ArrayList<String>(pois.size());
+		for (PointOfInterest poi : pois)
+			ids.add(poi.getId());
+		store.putStringList(SELECTED_POIS, ids);
+	}
+
+	private void putSelectedFeatures(Collection<Feature> features) {
+		List<String> names = new ArrayList<String>(features.size());
+		for (Feature feature : features)
+			names.add(feature.name());
+		store.putStringList(SELECTED_FEATURES, names);
+	}
+}
@@ -0,0 +1,651 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+
+/**
+ * Full-text index of the names, addresses and descriptions of the POIs of an
+ * {@link IndexedPOIRegistry}, for searching as the user types.  This class is thread-safe.
+ *
+ * Text is split into terms: runs of letters and digits, in lower case.  A query is split the same
+ * way, and a POI matches it if each of the query's terms is found in one of the POI's fields: as a
+ * whole term, as the start of a term or, for query terms of three or more characters, anywhere
+ * within a term.  Matches are ranked by the fields they are found in, the name counting most and
+ * the description least, and by how well they match; ties are listed alphabetically.
+ *
+ * Terms within which a query term might be found are those containing each of its trigrams (runs
+ * of three characters), found by intersecting the sorted lists of terms containing each trigram.
+ *
+ * The index is held in a single buffer, laid out as its serialized form, so that an index written
+ * to a file is memory-mapped and searched without being decoded:
+ * <pre>
+ *   int    magic number, "UBCS"
+ *   int    format version
+ *   int    number of POIs, and a hash of their ids and text, in location order
+ *   int    number of terms, term chars, postings, trigrams and trigram entries
+ *   int[]  start of each term in the term chars, followed by the end of the last term
+ *   char[] terms, in ascending order, padded to an even number of chars
+ *   int[]  start of each term's postings, followed by the end of the last term's
+ *   int[]  postings: for each term, the POIs it is found in, ascending, as number << 3 | fields
+ *   int[]  trigrams, ascending, each packed into an int
+ *   int[]  start of each trigram's entries, followed by the end of the last trigram's
+ *   int[]  entries: for each trigram, the terms containing it, ascending
+ * </pre>
+ */
+public class POISearchIndex {
+	/**
+	 * Name of the file the default index is kept in.
+	 */
+	public final static String DEFAULT_FILE_NAME = "poi-search.idx";
+
+	final static int MAGIC = 0x55424353; // "UBCS"
+	final static int VERSION = 1;
+
+	private final static int HEADER_INTS = 9;
+
+	/**
+	 * Fields of a POI, as bits of a posting.
+	 */
+	private final static int NAME = 1;
+	private final static int ADDRESS = 2;
+	private final static int DESCRIPTION = 4;
+
+	/**
+	 * Score of a match in each combination of fields, by the bits of a posting.
+	 */
+	private final static int[] FIELD_SCORES = { 0, 4, 2, 6, 1, 5, 3, 7 };
+
+	/**
+	 * Multipliers of the field score for a query term found as a whole term, as the start of a
+	 * term, and within a term.
+	 */
+	private final static int WHOLE_TERM = 3;
+	private final static int TERM_PREFIX = 2;
+	private final static int WITHIN_TERM = 1;
+
+	/**
+	 * Query terms past this many are ignored, which bounds the score of a POI.
+	 */
+	private final static int MAX_QUERY_TERMS = 16;
+	private final static int MAX_SCORE = MAX_QUERY_TERMS * 7 * WHOLE_TERM;
+
+	/**
+	 * The index of the default POI registry, once opened or built.  Set while holding the class lock,
+	 * which {@link #getDefault(File)} holds for as long as it takes to build the index, but read
+	 * without it by {@link #getDefaultIfLoaded()}.
+	 */
+	private static volatile POISearchIndex instance;
+
+	private final IndexedPOIRegistry registry;
+	private final ByteBuffer buffer;
+
+	private final IntBuffer termStarts;
+	private final CharBuffer terms;
+	private final IntBuffer postingStarts;
+	private final IntBuffer postings;
+	private final IntBuffer trigrams;
+	private final IntBuffer trigramStarts;
+	private final IntBuffer trigramEntries;
+	private final int termCount;
+	private final int trigramCount;
+
+	/**
+	 * Working space of a search, by POI number: the stamp of the last query term each POI matched,
+	 * its best score for that term, and its total score.  Searches are serialized to share it.
+	 */
+	private final int[] stamps;
+	private final int[] termScores;
+	private final int[] totals;
+	private final int[] matched;
+	private int matchCount;
+	private int stamp;
+
+	/**
+	 * Number of the POI at each alphabetical position; matches are ranked by walking them in this
+	 * order and then sorting them stably by score, which as scores are small is a counting sort.
+	 */
+	private final int[] alphabetical;
+	private final int[] scoreCounts = new int[MAX_SCORE + 2];
+
+	private POISearchIndex(IndexedPOIRegistry registry, ByteBuffer buffer) throws IOException {
+		this.registry = registry;
+		this.buffer = buffer;
+
+		if (buffer.capacity() < HEADER_INTS * 4 || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a POI search index");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported POI search index version");
+		if (buffer.getInt(8) != registry.size() || buffer.getInt(12) != registry.getFingerprint())
+			throw new IOException("POI search index is out of date");
+
+		termCount = buffer.getInt(16);
+		int charCount = buffer.getInt(20);
+		int postingCount = buffer.getInt(24);
+		trigramCount = buffer.getInt(28);
+		int trigramEntryCount = buffer.getInt(32);
+		if (termCount < 0 || charCount < 0 || (charCount & 1) != 0 || postingCount < 0 || trigramCount < 0
+				|| trigramEntryCount < 0)
+			throw new IOException("Invalid POI search index");
+
+		long size = HEADER_INTS * 4L + (termCount + 1) * 4L + charCount * 2L + (termCount + 1) * 4L
+				+ postingCount * 4L + trigramCount * 4L + (trigramCount + 1) * 4L + trigramEntryCount * 4L;
+		if (size > buffer.capacity())
+			throw new IOException("Truncated POI search index");
+
+		int offset = HEADER_INTS * 4;
+		termStarts = slice(offset, (termCount + 1) * 4).asIntBuffer();
+		offset += (termCount + 1) * 4;
+		terms = slice(offset, charCount * 2).asCharBuffer();
+		offset += charCount * 2;
+		postingStarts = slice(offset, (termCount + 1) * 4).asIntBuffer();
+		offset += (termCount + 1) * 4;
+		postings = slice(offset, postingCount * 4).asIntBuffer();
+		offset += postingCount * 4;
+		trigrams = slice(offset, trigramCount * 4).asIntBuffer();
+		offset += trigramCount * 4;
+		trigramStarts = slice(offset, (trigramCount + 1) * 4).asIntBuffer();
+		offset += (trigramCount + 1) * 4;
+		trigramEntries = slice(offset, trigramEntryCount * 4).asIntBuffer();
+
+		int n = registry.size();
+		stamps = new int[n];
+		termScores = new int[n];
+		totals = new int[n];
+		matched = new int[n];
+		alphabetical = new int[n];
+		for (int number = 0; number < n; number++)
+			alphabetical[registry.getPosition(number, IndexedPOIRegistry.Order.ALPHABETICAL)] = number;
+	}
+
+	private ByteBuffer slice(int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice();
+	}
+
+	/**
+	 * Build the index of a registry's POIs, in memory.
+	 */
+	public static POISearchIndex build(IndexedPOIRegistry registry) {
+		try {
+			return new POISearchIndex(registry, new Builder(registry).build());
+		} catch (IOException e) {
+			// the buffer was built for the registry, so it is valid
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Open an index written by {@link #write(File)}, memory-mapping the file.
+	 *
+	 * @throws IOException If the file cannot be read, is not a valid index, or is not an index of
+	 *         the registry's POIs as they are now.
+	 */
+	public static POISearchIndex open(File file, IndexedPOIRegistry registry) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// the mapping remains valid once the file is closed
+			ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return new POISearchIndex(registry, buffer);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param file File the default index is kept in.
+	 * @return The index of the default POI registry: opened from the file if it holds an index of the
+	 *         registry's POIs as they are now, or else built and written to the file for next time.
+	 */
+	public static synchronized POISearchIndex getDefault(File file) {
+		if (instance == null)
+			instance = openOrBuild(file, IndexedPOIRegistry.getDefault());
+		return instance;
+	}
+
+	/**
+	 * @return The index of the registry's POIs: opened from the file if it holds an index of them as
+	 *         they are now, or else built and written to the file for next time.
+	 */
+	static POISearchIndex openOrBuild(File file, IndexedPOIRegistry registry) {
+		try {
+			return open(file, registry);
+		} catch (IOException e) {
+			POISearchIndex index = build(registry);
+			try {
+				index.write(file);
+			} catch (IOException ignored) {
+				// the index is built again next time
+				file.delete();
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * @return The index of the default POI registry if it has been opened or built, or else null.
+	 *         Unlike {@link #getDefault(File)}, this never blocks, and may be called on the UI thread.
+	 */
+	public static POISearchIndex getDefaultIfLoaded() {
+		return instance;
+	}
+
+	/**
+	 * Write the index to a file, replacing the file if it exists.
+	 *
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void write(File file) throws IOException {
+		ByteBuffer contents = buffer.duplicate();
+		contents.clear();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			while (contents.hasRemaining())
+				channel.write(contents);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return The number of distinct terms in the POIs' text.
+	 */
+	public int getTermCount() {
+		return termCount;
+	}
+
+	/**
+	 * @return Every POI matching the query, best first; a query with no terms matches none.
+	 */
+	public List<PointOfInterest> search(String query) {
+		return search(query, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param limit The greatest number of POIs to return.
+	 * @return The POIs best matching the query, best first; a query with no terms matches none.
+	 */
+	public synchronized List<PointOfInterest> search(String query, int limit) {
+		List<String> queryTerms = tokenize(query);
+		if (queryTerms.isEmpty() || limit <= 0)
+			return Collections.emptyList();
+		if (queryTerms.size() > MAX_QUERY_TERMS)
+			queryTerms = queryTerms.subList(0, MAX_QUERY_TERMS);
+
+		if (stamp > Integer.MAX_VALUE - MAX_QUERY_TERMS) {
+			Arrays.fill(stamps, 0);
+			stamp = 0;
+		}
+
+		for (int i = 0; i < queryTerms.size(); i++) {
+			// POIs still matching have the stamp of the previous query term
+			int previous = i == 0 ? -1 : stamp;
+			stamp++;
+			matchTerm(queryTerms.get(i), previous);
+			if (matchCount == 0)
+				return Collections.emptyList();
+
+			for (int j = 0; j < matchCount; j++) {
+				int number = matched[j];
+				totals[number] = (i == 0 ? 0 : totals[number]) + termScores[number];
+			}
+		}
+
+		// count the matches with each score, then find where those with each score start, best first
+		Arrays.fill(scoreCounts, 0);
+		for (int j = 0; j < matchCount; j++)
+			scoreCounts[MAX_SCORE - totals[matched[j]] + 1]++;
+		for (int score = 1; score < scoreCounts.length; score++)
+			scoreCounts[score] += scoreCounts[score - 1];
+
+		int[] numbers = new int[Math.min(limit, matchCount)];
+		for (int number : alphabetical) {
+			if (stamps[number] != stamp)
+				continue;
+			int rank = scoreCounts[MAX_SCORE - totals[number]]++;
+			if (rank < numbers.length)
+				numbers[rank] = number;
+		}
+		return registry.getPoints(numbers);
+	}
+
+	/**
+	 * Find the POIs matching a query term, among those stamped as matching the previous query term
+	 * or, if there was none, among all POIs.  The POIs found are stamped, their scores for the term
+	 * set, and their numbers put in the first matchCount elements of the matched array.
+	 *
+	 * @param previous The stamp of the previous query term, or -1 for the first.
+	 */
+	private void matchTerm(String queryTerm, int previous) {
+		matchCount = 0;
+
+		// terms starting with the query term are together in the sorted terms
+		int term = lowerBound(queryTerm);
+		for (; term < termCount; term++) {
+			int length = termLength(term);
+			if (length < queryTerm.length() || compare(term, queryTerm, queryTerm.length()) != 0)
+				break;
+			scoreTerm(term, length == queryTerm.length() ? WHOLE_TERM : TERM_PREFIX, previous);
+		}
+
+		if (queryTerm.length() >= 3) {
+			for (int candidate : findTermsWithTrigrams(queryTerm)) {
+				if (!startsWith(candidate, queryTerm) && contains(candidate, queryTerm))
+					scoreTerm(candidate, WITHIN_TERM, previous);
+			}
+		}
+	}
+
+	private void scoreTerm(int term, int multiplier, int previous) {
+		int end = postingStarts.get(term + 1);
+		for (int i = postingStarts.get(term); i < end; i++) {
+			int posting = postings.get(i);
+			int number = posting >>> 3;
+			int score = FIELD_SCORES[posting & 7] * multiplier;
+
+			int last = stamps[number];
+			if (last == stamp) {
+				if (score > termScores[number])
+					termScores[number] = score;
+			} else if (previous < 0 || last == previous) {
+				stamps[number] = stamp;
+				termScores[number] = score;
+				matched[matchCount++] = number;
+			}
+		}
+	}
+
+	/**
+	 * @return The terms containing every trigram of a query term, in ascending order.
+	 */
+	private int[] findTermsWithTrigrams(String queryTerm) {
+		int[] found = null;
+		for (int i = 0; i + 3 <= queryTerm.length(); i++) {
+			int trigram = findTrigram(packTrigram(queryTerm, i));
+			if (trigram < 0)
+				return SortedIntArrays.EMPTY;
+
+			int start = trigramStarts.get(trigram);
+			int[] entries = new int[trigramStarts.get(trigram + 1) - start];
+			for (int j = 0; j < entries.length; j++)
+				entries[j] = trigramEntries.get(start + j);
+			found = found == null ? entries : SortedIntArrays.intersect(found, entries);
+			if (found.length == 0)
+				break;
+		}
+		return found;
+	}
+
+	/**
+	 * @return The index of a trigram, or -1 if no term contains it.
+	 */
+	private int findTrigram(int trigram) {
+		int low = 0;
+		int high = trigramCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int key = trigrams.get(mid);
+			if (key < trigram)
+				low = mid + 1;
+			else if (key > trigram)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The first term which is not less than the query term.
+	 */
+	private int lowerBound(String queryTerm) {
+		int low = 0;
+		int high = termCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(mid, queryTerm, Integer.MAX_VALUE) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Compare a term with a string, as String.compareTo, considering at most the given number of
+	 * characters of each.
+	 */
+	private int compare(int term, String s, int maxLength) {
+		int start = termStarts.get(term);
+		int termLength = Math.min(termStarts.get(term + 1) - start, maxLength);
+		int sLength = Math.min(s.length(), maxLength);
+		int n = Math.min(termLength, sLength);
+		for (int i = 0; i < n; i++) {
+			int c = terms.get(start + i) - s.charAt(i);
+			if (c != 0)
+				return c;
+		}
+		return termLength - sLength;
+	}
+
+	private int termLength(int term) {
+		return termStarts.get(term + 1) - termStarts.get(term);
+	}
+
+	private boolean startsWith(int term, String s) {
+		return termLength(term) >= s.length() && compare(term, s, s.length()) == 0;
+	}
+
+	private boolean contains(int term, String s) {
+		int start = termStarts.get(term);
+		int last = termStarts.get(term + 1) - s.length();
+		for (int from = start; from <= last; from++) {
+			int i = 0;
+			while (i < s.length() && terms.get(from + i) == s.charAt(i))
+				i++;
+			if (i == s.length())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Split text into terms: runs of letters and digits, in lower case.
+	 *
+	 * @param text The text, or null for none.
+	 */
+	static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<String>();
+		if (text == null)
+			return tokens;
+
+		StringBuilder token = new StringBuilder();
+		for (int i = 0; i <= text.length(); i++) {
+			char c = i < text.length() ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				token.append(Character.toLowerCase(c));
+			} else if (token.length() > 0) {
+				tokens.add(token.toString());
+				token.setLength(0);
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Pack the three characters of a term from the given index into an int: exactly, if each fits in
+	 * ten bits, or else as a hash with bit 30 set.  A hash may stand for more than one trigram, which
+	 * costs only the checking of more terms.
+	 */
+	static int packTrigram(CharSequence s, int index) {
+		char a = s.charAt(index);
+		char b = s.charAt(index + 1);
+		char c = s.charAt(index + 2);
+		if ((a | b | c) < 1024)
+			return a << 20 | b << 10 | c;
+		return 1 << 30 | (((a * 31 + b) * 31 + c) & ((1 << 30) - 1));
+	}
+
+	/**
+	 * Builds the buffer of an index.
+	 */
+	private static class Builder {
+		private final IndexedPOIRegistry registry;
+
+		/**
+		 * Postings of each term, by term, as they are found.
+		 */
+		private final Map<String, IntList> termPostings = new HashMap<String, IntList>();
+
+		Builder(IndexedPOIRegistry registry) {
+			this.registry = registry;
+		}
+
+		ByteBuffer build() {
+			// POIs are added in ascending order, so each term's postings are ascending
+			for (int number = 0; number < registry.size(); number++) {
+				PointOfInterest poi = registry.get(number);
+				add(number, NAME, poi.getDisplayName());
+				add(number, ADDRESS, poi.getAddress());
+				add(number, DESCRIPTION, poi.getDescription());
+			}
+
+			String[] sortedTerms = termPostings.keySet().toArray(new String[termPostings.size()]);
+			Arrays.sort(sortedTerms);
+
+			int charCount = 0;
+			int postingCount = 0;
+			for (String term : sortedTerms) {
+				charCount += term.length();
+				postingCount += termPostings.get(term).size;
+			}
+			charCount += charCount & 1;
+
+			// terms containing each trigram; terms are visited in order, so the lists are ascending
+			Map<Integer, IntList> trigramTerms = new HashMap<Integer, IntList>();
+			int trigramEntryCount = 0;
+			for (int term = 0; term < sortedTerms.length; term++) {
+				String s = sortedTerms[term];
+				for (int i = 0; i + 3 <= s.length(); i++) {
+					Integer trigram = packTrigram(s, i);
+					IntList list = trigramTerms.get(trigram);
+					if (list == null) {
+						list = new IntList();
+						trigramTerms.put(trigram, list);
+					}
+					if (list.size == 0 || list.values[list.size - 1] != term) {
+						list.add(term);
+						trigramEntryCount++;
+					}
+				}
+			}
+			Integer[] sortedTrigrams = trigramTerms.keySet().toArray(new Integer[trigramTerms.size()]);
+			Arrays.sort(sortedTrigrams);
+
+			int termCount = sortedTerms.length;
+			int trigramCount = sortedTrigrams.length;
+			int size = HEADER_INTS * 4 + (termCount + 1) * 4 + charCount * 2 + (termCount + 1) * 4
+					+ postingCount * 4 + trigramCount * 4 + (trigramCount + 1) * 4 + trigramEntryCount * 4;
+			ByteBuffer buffer = ByteBuffer.allocate(size);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(registry.size());
+			buffer.putInt(registry.getFingerprint());
+			buffer.putInt(termCount);
+			buffer.putInt(charCount);
+			buffer.putInt(postingCount);
+			buffer.putInt(trigramCount);
+			buffer.putInt(trigramEntryCount);
+
+			int start = 0;
+			for (String term : sortedTerms) {
+				buffer.putInt(start);
+				start += term.length();
+			}
+			buffer.putInt(start);
+			for (String term : sortedTerms) {
+				for (int i = 0; i < term.length(); i++)
+					buffer.putChar(term.charAt(i));
+			}
+			if (start < charCount)
+				buffer.putChar((char) 0);
+
+			start = 0;
+			for (String term : sortedTerms) {
+				buffer.putInt(start);
+				start += termPostings.get(term).size;
+			}
+			buffer.putInt(start);
+			for (String term : sortedTerms) {
+				IntList list = termPostings.get(term);
+				for (int i = 0; i < list.size; i++)
+					buffer.putInt(list.values[i]);
+			}
+
+			for (Integer trigram : sortedTrigrams)
+				buffer.putInt(trigram);
+			start = 0;
+			for (Integer trigram : sortedTrigrams) {
+				buffer.putInt(start);
+				start += trigramTerms.get(trigram).size;
+			}
+			buffer.putInt(start);
+			for (Integer trigram : sortedTrigrams) {
+				IntList list = trigramTerms.get(trigram);
+				for (int i = 0; i < list.size; i++)
+					buffer.putInt(list.values[i]);
+			}
+
+			buffer.clear();
+			return buffer;
+		}
+
+		private void add(int number, int field, String text) {
+			for (String term : tokenize(text)) {
+				IntList list = termPostings.get(term);
+				if (list == null) {
+					list = new IntList();
+					termPostings.put(term, list);
+				}
+				if (list.size > 0 && list.values[list.size - 1] >>> 3 == number)
+					list.values[list.size - 1] |= field;
+				else
+					list.add(number << 3 | field);
+			}
+		}
+	}
+
+	/**
+	 * Growable array of ints.
+	 */
+	private static class IntList {
+		int[] values = new int[4];
+		int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(values, 0, grown, 0, size);
+				values = grown;
+			}
+			values[size++] = value;
+		}
+	}
+}
@@ -0,0 +1,356 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.Feature;
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+
+/**
+ * Read-only snapshot of a set of POIs, in a compact binary form which is read where it lies, in a
+ * buffer memory-mapped from a file or the application package.  Loading a snapshot creates an
+ * object for each POI but decodes nothing else: each POI's text and location are read from the
+ * buffer when first asked for.  This class is thread-safe.
+ *
+ * Snapshots are written by {@link #write(List, OutputStream)}, from the POI registry, ahead of time.
+ * A snapshot only starts up faster than the registry once there are thousands of POIs: for the few
+ * POIs of the default registry, mapping the snapshot costs as much as building them (see
+ * POISnapshotBenchmark), so the application does not bundle one.
+ *
+ * The binary format is big-endian:
+ * <pre>
+ *   int    magic number, "UBCP"
+ *   int    format version
+ *   int    number of POIs N, number of strings S, number of string chars C (even)
+ *   int    hash of the POIs' ids and text, as {@link IndexedPOIRegistry#getFingerprint()}
+ *   int[]  (S + 1) x start of each string in the string chars, followed by the end of the last
+ *   char[] C x string chars; each distinct string is stored once
+ *   int[]  N x (id, display name, address, description, feature mask), in location order; strings
+ *          are given by their index, or -1 for none
+ *   double[] N x (latitude, longitude), in location order; a POI without a location has latitude NaN
+ *   int[]  N x number of the POI at each alphabetical position
+ * </pre>
+ * Locations are stored at full precision, so that a snapshot POI's location equals the location of
+ * the POI it was written from, and routes cached between such locations are found again.
+ */
+public class POISnapshot {
+	final static int MAGIC = 0x55424350; // "UBCP"
+	final static int VERSION = 2;
+
+	private final static int HEADER_INTS = 6;
+
+	/**
+	 * Fields of a POI's record.
+	 */
+	private final static int ID = 0;
+	private final static int DISPLAY_NAME = 1;
+	private final static int ADDRESS = 2;
+	private final static int DESCRIPTION = 3;
+	private final static int FEATURES = 4;
+	private final static int RECORD_INTS = 5;
+
+	private final static int NO_STRING = -1;
+
+	static {
+		// a record's feature mask has a bit for each feature
+		if (Feature.values().length > Integer.SIZE)
+			throw new IllegalStateException("Too many features for a POI snapshot");
+	}
+
+	private final int fingerprint;
+	private final IntBuffer stringStarts;
+	private final CharBuffer chars;
+	private final IntBuffer records;
+	private final DoubleBuffer locations;
+	private final IntBuffer alphabetical;
+	private final int stringCount;
+
+	/**
+	 * POIs, in location order.
+	 */
+	private final PointOfInterest[] points;
+
+	private POISnapshot(ByteBuffer buffer) throws IOException {
+		IntBuffer ints = buffer.duplicate().asIntBuffer();
+		if (ints.remaining() < HEADER_INTS || ints.get(0) != MAGIC)
+			throw new IOException("Not a POI snapshot");
+		if (ints.get(1) != VERSION)
+			throw new IOException("Unsupported POI snapshot version");
+
+		int size = ints.get(2);
+		stringCount = ints.get(3);
+		int charCount = ints.get(4);
+		fingerprint = ints.get(5);
+		if (size < 0 || stringCount < 0 || charCount < 0 || (charCount & 1) != 0)
+			throw new IOException("Invalid POI snapshot");
+		long length = HEADER_INTS * 4L + (stringCount + 1) * 4L + charCount * 2L + size * (RECORD_INTS + 1) * 4L
+				+ size * 2 * 8L;
+		if (length > buffer.remaining())
+			throw new IOException("Truncated POI snapshot");
+
+		int offset = buffer.position() + HEADER_INTS * 4;
+		stringStarts = slice(buffer, offset, (stringCount + 1) * 4).asIntBuffer();
+		offset += (stringCount + 1) * 4;
+		chars = slice(buffer, offset, charCount * 2).asCharBuffer();
+		offset += charCount * 2;
+		records = slice(buffer, offset, size * RECORD_INTS * 4).asIntBuffer();
+		offset += size * RECORD_INTS * 4;
+		locations = slice(buffer, offset, size * 2 * 8).asDoubleBuffer();
+		offset += size * 2 * 8;
+		alphabetical = slice(buffer, offset, size * 4).asIntBuffer();
+
+		points = new PointOfInterest[size];
+		for (int number = 0; number < size; number++)
+			points[number] = new SnapshotPOI(number);
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.limit(offset + length);
+		view.position(offset);
+		return view.slice();
+	}
+
+	/**
+	 * Load a snapshot from a buffer, from its position; the buffer is read, as POIs are used, for as
+	 * long as the snapshot is, and must not be modified.
+	 *
+	 * @throws IOException If the buffer does not hold a valid snapshot.
+	 */
+	public static POISnapshot wrap(ByteBuffer buffer) throws IOException {
+		return new POISnapshot(buffer);
+	}
+
+	/**
+	 * Load a snapshot from a file, memory-mapping it.
+	 *
+	 * @throws IOException If the file cannot be read or does not hold a valid snapshot.
+	 */
+	public static POISnapshot open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// the mapping remains valid once the file is closed
+			return new POISnapshot(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Write a snapshot of POIs in the binary format described above.  The stream is not closed.
+	 *
+	 * @param pointsByLocation The POIs, in location order.
+	 */
+	public static void write(List<PointOfInterest> pointsByLocation, OutputStream out) throws IOException {
+		IndexedPOIRegistry registry = new IndexedPOIRegistry(pointsByLocation);
+		int size = registry.size();
+
+		List<String> strings = new ArrayList<String>();
+		Map<String, Integer> stringIndices = new HashMap<String, Integer>();
+		int[] records = new int[size * RECORD_INTS];
+		double[] locations = new double[size * 2];
+		for (int number = 0; number < size; number++) {
+			PointOfInterest poi = registry.get(number);
+			int record = number * RECORD_INTS;
+			records[record + ID] = addString(poi.getId(), strings, stringIndices);
+			records[record + DISPLAY_NAME] = addString(poi.getDisplayName(), strings, stringIndices);
+			records[record + ADDRESS] = addString(poi.getAddress(), strings, stringIndices);
+			records[record + DESCRIPTION] = addString(poi.getDescription(), strings, stringIndices);
+			records[record + FEATURES] = (int) registry.getFeatureMask(number);
+
+			LatLong latLong = poi.getLatLong();
+			locations[number * 2] = latLong == null ? Double.NaN : latLong.getLatitude();
+			locations[number * 2 + 1] = latLong == null ? 0 : latLong.getLongitude();
+		}
+
+		int charCount = 0;
+		for (String s : strings)
+			charCount += s.length();
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(size);
+		data.writeInt(strings.size());
+		data.writeInt(charCount + (charCount & 1));
+		data.writeInt(registry.getFingerprint());
+
+		int start = 0;
+		for (String s : strings) {
+			data.writeInt(start);
+			start += s.length();
+		}
+		data.writeInt(start);
+		for (String s : strings)
+			data.writeChars(s);
+		if ((charCount & 1) != 0)
+			data.writeChar(0);
+
+		for (int value : records)
+			data.writeInt(value);
+		for (double value : locations)
+			data.writeDouble(value);
+		for (PointOfInterest poi : registry.getPointsAlphabetical())
+			data.writeInt(registry.getPosition(poi, IndexedPOIRegistry.Order.LOCATION));
+		data.flush();
+	}
+
+	private static int addString(String s, List<String> strings, Map<String, Integer> stringIndices) {
+		if (s == null)
+			return NO_STRING;
+		Integer index = stringIndices.get(s);
+		if (index == null) {
+			index = strings.size();
+			strings.add(s);
+			stringIndices.put(s, index);
+		}
+		return index;
+	}
+
+	public int size() {
+		return points.length;
+	}
+
+	/**
+	 * @return The POIs, in location order; the array is not copied, and must not be modified.
+	 */
+	PointOfInterest[] getPoints() {
+		return points;
+	}
+
+	/**
+	 * @param number Number of a POI: its position in location order.
+	 * @return The bitmask of the POI's features.
+	 */
+	public long getFeatureMask(int number) {
+		return records.get(number * RECORD_INTS + FEATURES) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return The number of the POI at each alphabetical position.
+	 */
+	public int[] getAlphabeticalNumbers() {
+		int[] numbers = new int[points.length];
+		alphabetical.duplicate().get(numbers);
+		return numbers;
+	}
+
+	/**
+	 * @return The hash of the POIs' ids and text the snapshot was written with.
+	 */
+	public int getFingerprint() {
+		return fingerprint;
+	}
+
+	private String getString(int number, int field) {
+		int index = records.get(number * RECORD_INTS + field);
+		if (index == NO_STRING)
+			return null;
+		if (index < 0 || index >= stringCount)
+			throw new IllegalStateException("Invalid POI snapshot string " + index);
+
+		int start = stringStarts.get(index);
+		char[] s = new char[stringStarts.get(index + 1) - start];
+		for (int i = 0; i < s.length; i++)
+			s[i] = chars.get(start + i);
+		return new String(s);
+	}
+
+	/**
+	 * A POI whose fields are read from the snapshot when first asked for.  The id, display name and
+	 * location, used to look up, list, sort and draw POIs, are kept once read; the rest are read each
+	 * time.
+	 */
+	private class SnapshotPOI extends PointOfInterest {
+		private final int number;
+		private volatile String id;
+		private volatile String displayName;
+		private volatile LatLong latLong;
+		private volatile boolean latLongRead;
+
+		SnapshotPOI(int number) {
+			super(null, null);
+			this.number = number;
+		}
+
+		@Override
+		public String getId() {
+			String s = id;
+			if (s == null)
+				id = s = getString(number, ID);
+			return s;
+		}
+
+		@Override
+		public String getDisplayName() {
+			String s = displayName;
+			if (s == null)
+				displayName = s = getString(number, DISPLAY_NAME);
+			return s;
+		}
+
+		@Override
+		public String getAddress() {
+			return getString(number, ADDRESS);
+		}
+
+		@Override
+		public String getDescription() {
+			return getString(number, DESCRIPTION);
+		}
+
+		@Override
+		public LatLong getLatLong() {
+			if (!latLongRead) {
+				double latitude = locations.get(number * 2);
+				if (!Double.isNaN(latitude))
+					latLong = new LatLong(latitude, locations.get(number * 2 + 1));
+				latLongRead = true;
+			}
+			return latLong;
+		}
+
+		@Override
+		public List<Feature> getFeatures() {
+			return IndexedPOIRegistry.features(getFeatureMask(number));
+		}
+
+		@Override
+		public void setLatLong(LatLong latLong) {
+			throw new UnsupportedOperationException("POIs of a snapshot are read-only");
+		}
+
+		@Override
+		public void setAddress(String address) {
+			throw new UnsupportedOperationException("POIs of a snapshot are read-only");
+		}
+
+		@Override
+		public void setDescription(String description) {
+			throw new UnsupportedOperationException("POIs of a snapshot are read-only");
+		}
+
+		@Override
+		public void setFeatures(Feature[] features) {
+			throw new UnsupportedOperationException("POIs of a snapshot are read-only");
+		}
+
+		@Override
+		public void setFeatures(List<Feature> features) {
+			throw new UnsupportedOperationException("POIs of a snapshot are read-only");
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+/**
+ * Set operations on sets of ints held as sorted arrays without duplicates, such as the posting
+ * lists of an inverted index.  The arrays given are not modified, and may be returned as results.
+ */
+public final class SortedIntArrays {
+	/**
+	 * When one set is this many times larger than the other, an intersection searches the larger
+	 * set for each element of the smaller rather than merging them.
+	 */
+	private final static int GALLOP_RATIO = 16;
+
+	public final static int[] EMPTY = new int[0];
+
+	private SortedIntArrays() {
+	}
+
+	/**
+	 * @return The elements in both sets.
+	 */
+	public static int[] intersect(int[] a, int[] b) {
+		if (a.length > b.length) {
+			int[] t = a;
+			a = b;
+			b = t;
+		}
+		if (a.length == 0)
+			return EMPTY;
+
+		int[] result = new int[a.length];
+		int n = 0;
+		if (b.length / a.length >= GALLOP_RATIO) {
+			// a is much smaller: search b for each element, starting after the last one found
+			int from = 0;
+			for (int value : a) {
+				from = gallop(b, from, value);
+				if (from == b.length)
+					break;
+				if (b[from] == value)
+					result[n++] = value;
+			}
+		} else {
+			int i = 0;
+			int j = 0;
+			while (i < a.length && j < b.length) {
+				if (a[i] < b[j])
+					i++;
+				else if (a[i] > b[j])
+					j++;
+				else {
+					result[n++] = a[i];
+					i++;
+					j++;
+				}
+			}
+		}
+		return trim(result, n);
+	}
+
+	/**
+	 * @return The elements in either set.
+	 */
+	public static int[] union(int[] a, int[] b) {
+		if (a.length == 0)
+			return b;
+		if (b.length == 0)
+			return a;
+
+		int[] result = new int[a.length + b.length];
+		int n = 0;
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j])
+				result[n++] = a[i++];
+			else if (a[i] > b[j])
+				result[n++] = b[j++];
+			else {
+				result[n++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length)
+			result[n++] = a[i++];
+		while (j < b.length)
+			result[n++] = b[j++];
+		return trim(result, n);
+	}
+
+	/**
+	 * @return The elements of a which are not in b.
+	 */
+	public static int[] difference(int[] a, int[] b) {
+		if (a.length == 0 || b.length == 0)
+			return a;
+
+		int[] result = new int[a.length];
+		int n = 0;
+		int j = 0;
+		for (int value : a) {
+			while (j < b.length && b[j] < value)
+				j++;
+			if (j == b.length || b[j] != value)
+				result[n++] = value;
+		}
+		return trim(result, n);
+	}
+
+	/**
+	 * @return The index of the first element of the array, from the given index, which is at least
+	 *         the given value, or the array's length if there is none.
+	 */
+	private static int gallop(int[] array, int from, int value) {
+		// double the step until the value is passed, then binary search the last step
+		int step = 1;
+		int high = from;
+		while (high < array.length && array[high] < value) {
+			from = high + 1;
+			high += step;
+			step <<= 1;
+		}
+		high = Math.min(high, array.length);
+
+		while (from < high) {
+			int mid = (from + high) >>> 1;
+			if (array[mid] < value)
+				from = mid + 1;
+			else
+				high = mid;
+		}
+		return from;
+	}
+
+	private static int[] trim(int[] array, int length) {
+		if (length == array.length)
+			return array;
+		int[] trimmed = new int[length];
+		System.arraycopy(array, 0, trimmed, 0, length);
+		return trimmed;
+	}
+}
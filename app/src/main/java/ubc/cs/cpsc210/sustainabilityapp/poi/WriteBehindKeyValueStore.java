@@ -0,0 +1,174 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.KeyValueStore;
+
+/**
+ * Key-value store which keeps values put in it in memory, and writes them to another store later, on
+ * a background thread.  This class is thread-safe.
+ *
+ * Values put in quick succession are written together, once changes stop for a while, or at the
+ * latest a few seconds after the first of them; a value put several times before it is written is
+ * written only once.  Values read are the latest put, whether or not they have been written.  Call
+ * {@link #flush()} to write values before the process may be stopped, as when the activity pauses.
+ */
+public class WriteBehindKeyValueStore implements KeyValueStore {
+	/**
+	 * Time after a value is put, with no more put, before the values are written.
+	 */
+	public final static long DEFAULT_DELAY_MILLIS = 500;
+
+	/**
+	 * Longest time a value is kept before it is written, however often values are put.
+	 */
+	public final static long DEFAULT_MAX_DELAY_MILLIS = 3000;
+
+	private final KeyValueStore store;
+	private final long delayMillis;
+	private final long maxDelayMillis;
+
+	/**
+	 * Values put and not yet written, by key, in the order first put.
+	 */
+	private final Map<String, List<String>> pending = new LinkedHashMap<String, List<String>>();
+
+	/**
+	 * Whether values have been put since the pending values were last taken to be written, the time
+	 * the first of them was put, by System.nanoTime, and the scheduled write, if any.
+	 */
+	private boolean batchOpen;
+	private long batchStartNanos;
+	private ScheduledFuture<?> scheduledFlush;
+
+	/**
+	 * Held while values are written, so that writes are made in the order the values were put.
+	 */
+	private final Object flushLock = new Object();
+
+	private final ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1, new WriterThreadFactory());
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * Create a store writing to another store with the default delays.
+	 */
+	public WriteBehindKeyValueStore(KeyValueStore store) {
+		this(store, DEFAULT_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+	}
+
+	/**
+	 * @param store Store the values are written to.
+	 * @param delayMillis Time after a value is put, with no more put, before the values are written.
+	 * @param maxDelayMillis Longest time a value is kept before it is written.
+	 */
+	public WriteBehindKeyValueStore(KeyValueStore store, long delayMillis, long maxDelayMillis) {
+		if (delayMillis < 0 || maxDelayMillis < delayMillis)
+			throw new IllegalArgumentException("Invalid delays");
+		this.store = store;
+		this.delayMillis = delayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	@Override
+	public synchronized List<String> getStringList(String key) {
+		List<String> value = pending.get(key);
+		if (value != null)
+			return new ArrayList<String>(value);
+		return store.getStringList(key);
+	}
+
+	/**
+	 * Put a value, to be written later.
+	 *
+	 * @throws IllegalArgumentException If an element of the value holds the reserved character, as
+	 *         the store would refuse to write it.
+	 */
+	@Override
+	public synchronized void putStringList(String key, List<String> value) {
+		for (String element : value) {
+			if (element.contains(RESERVED_CHAR_STRING))
+				throw new IllegalArgumentException("Value contains reserved character " + RESERVED_CHAR_STRING);
+		}
+
+		long now = System.nanoTime();
+		if (!batchOpen) {
+			batchOpen = true;
+			batchStartNanos = now;
+		}
+		// the value is replaced rather than updated, so that a write in progress can tell it has changed
+		pending.remove(key);
+		pending.put(key, Collections.unmodifiableList(new ArrayList<String>(value)));
+
+		// wait for the changes to stop, but not past the longest delay of the first change since the
+		// last write began
+		long delayNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(delayMillis),
+				batchStartNanos + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis) - now);
+		if (scheduledFlush != null)
+			scheduledFlush.cancel(false);
+		scheduledFlush = executor.schedule(flushTask, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Write the pending values now, on the calling thread, waiting for any write in progress.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			Map<String, List<String>> batch;
+			synchronized (this) {
+				if (pending.isEmpty())
+					return;
+				batch = new LinkedHashMap<String, List<String>>(pending);
+				batchOpen = false;
+				if (scheduledFlush != null) {
+					scheduledFlush.cancel(false);
+					scheduledFlush = null;
+				}
+			}
+
+			for (Map.Entry<String, List<String>> entry : batch.entrySet())
+				store.putStringList(entry.getKey(), entry.getValue());
+
+			// values put while the batch was written are still pending
+			synchronized (this) {
+				for (Map.Entry<String, List<String>> entry : batch.entrySet()) {
+					if (pending.get(entry.getKey()) == entry.getValue())
+						pending.remove(entry.getKey());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Whether there are values which have not been written.
+	 */
+	public synchronized boolean hasPendingWrites() {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Creates the daemon thread values are written on, so that it never keeps the process alive.
+	 */
+	private static class WriterThreadFactory implements ThreadFactory {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "KeyValueStoreWriter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Signals that the work a token was handed to is no longer wanted.  Unlike interrupting a thread,
+ * cancelling a token is observed by work which is waiting on other threads, such as the legs of a
+ * route being fetched concurrently.  This class is thread-safe.
+ */
+public class CancellationToken {
+	private boolean cancelled;
+
+	/**
+	 * Run when the token is cancelled; null once it has been.
+	 */
+	private List<Runnable> listeners = new ArrayList<Runnable>();
+
+	/**
+	 * Cancel the token and run its cancel listeners, on the calling thread.  Cancelling a token more
+	 * than once has no further effect.
+	 */
+	public void cancel() {
+		List<Runnable> toRun;
+		synchronized (this) {
+			if (cancelled)
+				return;
+			cancelled = true;
+			toRun = listeners;
+			listeners = null;
+		}
+
+		for (Runnable listener : toRun)
+			listener.run();
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @throws InterruptedIOException If the token has been cancelled.
+	 */
+	public void throwIfCancelled() throws InterruptedIOException {
+		if (isCancelled())
+			throw new InterruptedIOException("Route request cancelled");
+	}
+
+	/**
+	 * Run the given listener when the token is cancelled, or immediately, on the calling thread, if it
+	 * already has been.
+	 */
+	public void addCancelListener(Runnable listener) {
+		synchronized (this) {
+			if (!cancelled) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	public synchronized void removeCancelListener(Runnable listener) {
+		if (listeners != null)
+			listeners.remove(listener);
+	}
+}
@@ -0,0 +1,192 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.IntBuffer;
+
+/**
+ * Immutable contraction hierarchy over a {@link WalkingGraph}, built offline by
+ * {@link ContractionHierarchyBuilder} and queried by {@link ContractionHierarchyRouter}.
+ *
+ * Nodes are ranked by the order in which they were contracted.  Only upward arcs are stored: each
+ * arc leads from a node to a neighbour of higher rank.  As walking graphs are undirected, the same
+ * upward arcs serve both the forward and the backward search of a query.  An arc is either an arc
+ * of the original graph, or a shortcut standing for the two arcs through its middle node, which has
+ * lower rank than both its ends.
+ *
+ * The binary file format is a sequence of big-endian ints:
+ * <pre>
+ *   magic, version, node count N, arc count M,
+ *   N x (latitude E6, longitude E6),
+ *   (N + 1) x first upward arc,
+ *   M x arc head,
+ *   M x arc length (cm),
+ *   M x arc middle node (-1 for arcs of the original graph)
+ * </pre>
+ */
+public class ContractionHierarchy {
+	private final static int MAGIC = 0x55424348; // "UBCH"
+	private final static int VERSION = 1;
+
+	private final int[] latitudesE6;
+	private final int[] longitudesE6;
+	private final int[] firstArc;
+	private final int[] arcHead;
+	private final int[] arcLength;
+	private final int[] arcMiddle;
+
+	/**
+	 * Create a hierarchy from its arrays, which are not copied and must not be modified afterwards.
+	 */
+	public ContractionHierarchy(int[] latitudesE6, int[] longitudesE6, int[] firstArc, int[] arcHead,
+			int[] arcLength, int[] arcMiddle) {
+		int nodeCount = latitudesE6.length;
+		int arcCount = arcHead.length;
+
+		if (longitudesE6.length != nodeCount || firstArc.length != nodeCount + 1 || arcLength.length != arcCount
+				|| arcMiddle.length != arcCount || firstArc[0] != 0 || firstArc[nodeCount] != arcCount)
+			throw new IllegalArgumentException("Inconsistent hierarchy arrays");
+
+		for (int n = 0; n < nodeCount; n++) {
+			if (firstArc[n] > firstArc[n + 1])
+				throw new IllegalArgumentException("Arcs are not grouped by node");
+		}
+		for (int a = 0; a < arcCount; a++) {
+			if (arcHead[a] < 0 || arcHead[a] >= nodeCount || arcLength[a] < 0
+					|| arcMiddle[a] < -1 || arcMiddle[a] >= nodeCount)
+				throw new IllegalArgumentException("Invalid arc " + a);
+		}
+
+		this.latitudesE6 = latitudesE6;
+		this.longitudesE6 = longitudesE6;
+		this.firstArc = firstArc;
+		this.arcHead = arcHead;
+		this.arcLength = arcLength;
+		this.arcMiddle = arcMiddle;
+	}
+
+	/**
+	 * Read a hierarchy in the binary format described above.  The stream is not closed.
+	 *
+	 * @throws IOException If the stream cannot be read or does not hold a valid hierarchy.
+	 */
+	public static ContractionHierarchy read(InputStream in) throws IOException {
+		IntBuffer ints = WalkingGraph.readInts(in);
+
+		if (ints.remaining() < 4 || ints.get() != MAGIC || ints.get() != VERSION)
+			throw new IOException("Not a contraction hierarchy");
+
+		int nodeCount = ints.get();
+		int arcCount = ints.get();
+		if (nodeCount < 0 || arcCount < 0 || ints.remaining() != 3 * nodeCount + 1 + 3 * arcCount)
+			throw new IOException("Truncated contraction hierarchy");
+
+		int[] latitudesE6 = new int[nodeCount];
+		int[] longitudesE6 = new int[nodeCount];
+		for (int n = 0; n < nodeCount; n++) {
+			latitudesE6[n] = ints.get();
+			longitudesE6[n] = ints.get();
+		}
+
+		int[] firstArc = new int[nodeCount + 1];
+		int[] arcHead = new int[arcCount];
+		int[] arcLength = new int[arcCount];
+		int[] arcMiddle = new int[arcCount];
+		ints.get(firstArc);
+		ints.get(arcHead);
+		ints.get(arcLength);
+		ints.get(arcMiddle);
+
+		try {
+			return new ContractionHierarchy(latitudesE6, longitudesE6, firstArc, arcHead, arcLength, arcMiddle);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid contraction hierarchy: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Write the hierarchy in the binary format described above.  The stream is not closed.
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(getNodeCount());
+		data.writeInt(getArcCount());
+		for (int n = 0; n < getNodeCount(); n++) {
+			data.writeInt(latitudesE6[n]);
+			data.writeInt(longitudesE6[n]);
+		}
+		WalkingGraph.writeInts(data, firstArc);
+		WalkingGraph.writeInts(data, arcHead);
+		WalkingGraph.writeInts(data, arcLength);
+		WalkingGraph.writeInts(data, arcMiddle);
+		data.flush();
+	}
+
+	public int getNodeCount() {
+		return latitudesE6.length;
+	}
+
+	public int getArcCount() {
+		return arcHead.length;
+	}
+
+	public int getLatitudeE6(int node) {
+		return latitudesE6[node];
+	}
+
+	public int getLongitudeE6(int node) {
+		return longitudesE6[node];
+	}
+
+	/**
+	 * @return Index of the first upward arc leaving the given node.
+	 */
+	public int getFirstArc(int node) {
+		return firstArc[node];
+	}
+
+	public int getArcHead(int arc) {
+		return arcHead[arc];
+	}
+
+	/**
+	 * @return Length of the given arc, in centimetres.
+	 */
+	public int getArcLength(int arc) {
+		return arcLength[arc];
+	}
+
+	/**
+	 * @return The node a shortcut passes through, or -1 if the arc is an arc of the original graph.
+	 */
+	public int getArcMiddle(int arc) {
+		return arcMiddle[arc];
+	}
+
+	/**
+	 * Find the upward arc from one node to another.
+	 *
+	 * @return The shortest such arc, or -1 if there is none.
+	 */
+	public int findArc(int from, int to) {
+		int found = -1;
+		for (int arc = firstArc[from]; arc < firstArc[from + 1]; arc++) {
+			if (arcHead[arc] == to && (found == -1 || arcLength[arc] < arcLength[found]))
+				found = arc;
+		}
+		return found;
+	}
+
+	/**
+	 * Find the node closest to the given location.
+	 *
+	 * @return The closest node, or -1 if the hierarchy has no nodes.
+	 */
+	public int findNearestNode(int latitudeE6, int longitudeE6) {
+		return WalkingGraph.findNearest(latitudesE6, longitudesE6, latitudeE6, longitudeE6);
+	}
+}
@@ -0,0 +1,318 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Offline preprocessing tool which builds a {@link ContractionHierarchy} over a {@link WalkingGraph}.
+ * Building takes seconds to minutes for a campus-sized graph, so it is run on a development
+ * machine and the result is bundled with the application, as the asset the activity routes with:
+ * <pre>
+ *   java ubc.cs.cpsc210.sustainabilityapp.routing.ContractionHierarchyBuilder ubc_walking.graph app/src/main/assets/ubc_walking.ch
+ * </pre>
+ *
+ * Nodes are contracted in order of increasing priority, where the priority of a node is its edge
+ * difference (shortcuts added minus edges removed) plus the number of its neighbours already
+ * contracted, which spreads contraction evenly over the graph.  Priorities are updated lazily.
+ * Contracting a node adds a shortcut between each pair of its remaining neighbours, unless a
+ * bounded witness search finds a path between them which avoids the node and is no longer.
+ */
+public class ContractionHierarchyBuilder {
+	/**
+	 * Maximum number of nodes a witness search settles before giving up.  Giving up early only adds
+	 * unnecessary shortcuts; it never makes the hierarchy incorrect.
+	 */
+	private final static int WITNESS_SETTLE_LIMIT = 500;
+
+	private final WalkingGraph graph;
+	private final int nodeCount;
+
+	/**
+	 * Current edges of each node, to contracted and uncontracted neighbours: neighbour, length and
+	 * middle node (-1 for edges of the original graph).
+	 */
+	private final int[][] edgeTo;
+	private final int[][] edgeLength;
+	private final int[][] edgeMiddle;
+	private final int[] edgeCount;
+
+	private final boolean[] contracted;
+	private final int[] contractedNeighbours;
+	private final SearchSpace witnessSpace;
+
+	/**
+	 * Upward arcs of each contracted node (its edges to neighbours which were still uncontracted).
+	 */
+	private final int[][] upHead;
+	private final int[][] upLength;
+	private final int[][] upMiddle;
+
+	public ContractionHierarchyBuilder(WalkingGraph graph) {
+		this.graph = graph;
+		this.nodeCount = graph.getNodeCount();
+
+		edgeTo = new int[nodeCount][];
+		edgeLength = new int[nodeCount][];
+		edgeMiddle = new int[nodeCount][];
+		edgeCount = new int[nodeCount];
+		contracted = new boolean[nodeCount];
+		contractedNeighbours = new int[nodeCount];
+		witnessSpace = new SearchSpace(nodeCount);
+		upHead = new int[nodeCount][];
+		upLength = new int[nodeCount][];
+		upMiddle = new int[nodeCount][];
+
+		for (int n = 0; n < nodeCount; n++) {
+			int degree = graph.getFirstArc(n + 1) - graph.getFirstArc(n);
+			edgeTo[n] = new int[Math.max(4, degree)];
+			edgeLength[n] = new int[edgeTo[n].length];
+			edgeMiddle[n] = new int[edgeTo[n].length];
+
+			for (int arc = graph.getFirstArc(n); arc < graph.getFirstArc(n + 1); arc++) {
+				if (graph.getArcHead(arc) != n)
+					addOrShortenEdge(n, graph.getArcHead(arc), graph.getArcLength(arc), -1);
+			}
+		}
+	}
+
+	/**
+	 * Usage: ContractionHierarchyBuilder &lt;walking graph file&gt; &lt;hierarchy file&gt;
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: ContractionHierarchyBuilder <walking graph file> <hierarchy file>");
+			System.exit(1);
+		}
+
+		long start = System.currentTimeMillis();
+		InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+		WalkingGraph graph;
+		try {
+			graph = WalkingGraph.read(in);
+		} finally {
+			in.close();
+		}
+
+		ContractionHierarchy hierarchy = new ContractionHierarchyBuilder(graph).build();
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+		try {
+			hierarchy.write(out);
+		} finally {
+			out.close();
+		}
+
+		System.out.println("Contracted " + graph.getNodeCount() + " nodes and " + graph.getArcCount()
+				+ " arcs into " + hierarchy.getArcCount() + " upward arcs in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Contract every node and collect the upward arcs into a hierarchy.
+	 */
+	public ContractionHierarchy build() {
+		IntMinHeap queue = new IntMinHeap(nodeCount);
+		for (int n = 0; n < nodeCount; n++)
+			queue.add(n, priority(n));
+
+		while (!queue.isEmpty()) {
+			int node = queue.remove();
+			if (contracted[node])
+				continue;
+
+			// lazy update: if the node's priority has grown past the next node's, requeue it
+			long current = priority(node);
+			if (!queue.isEmpty() && current > queue.peekKey()) {
+				queue.add(node, current);
+				continue;
+			}
+
+			contract(node);
+		}
+
+		return toHierarchy();
+	}
+
+	/**
+	 * @return Edge difference of the node plus the number of its neighbours already contracted.
+	 */
+	private long priority(int node) {
+		int removed = 0;
+		for (int i = 0; i < edgeCount[node]; i++) {
+			if (!contracted[edgeTo[node][i]])
+				removed++;
+		}
+		int shortcuts = findShortcuts(node, false);
+		return (long) shortcuts - removed + contractedNeighbours[node];
+	}
+
+	/**
+	 * Contract a node: record its edges to uncontracted neighbours as its upward arcs, and add the
+	 * shortcuts needed to preserve shortest paths between those neighbours.
+	 */
+	private void contract(int node) {
+		int ups = 0;
+		for (int i = 0; i < edgeCount[node]; i++) {
+			if (!contracted[edgeTo[node][i]])
+				ups++;
+		}
+
+		upHead[node] = new int[ups];
+		upLength[node] = new int[ups];
+		upMiddle[node] = new int[ups];
+		int u = 0;
+		for (int i = 0; i < edgeCount[node]; i++) {
+			int neighbour = edgeTo[node][i];
+			if (!contracted[neighbour]) {
+				upHead[node][u] = neighbour;
+				upLength[node][u] = edgeLength[node][i];
+				upMiddle[node][u] = edgeMiddle[node][i];
+				u++;
+				contractedNeighbours[neighbour]++;
+			}
+		}
+
+		findShortcuts(node, true);
+		contracted[node] = true;
+	}
+
+	/**
+	 * Find the shortcuts needed to contract a node.
+	 *
+	 * @param add Whether to add the shortcuts to the graph, or only count them.
+	 * @return The number of shortcuts needed.
+	 */
+	private int findShortcuts(int node, boolean add) {
+		int shortcuts = 0;
+
+		for (int i = 0; i < edgeCount[node]; i++) {
+			int from = edgeTo[node][i];
+			if (contracted[from])
+				continue;
+
+			int lengthIn = edgeLength[node][i];
+			int maxLength = 0;
+			for (int j = 0; j < edgeCount[node]; j++) {
+				int to = edgeTo[node][j];
+				if (j != i && to > from && !contracted[to])
+					maxLength = Math.max(maxLength, lengthIn + edgeLength[node][j]);
+			}
+			if (maxLength == 0)
+				continue;
+
+			witnessSearch(from, node, maxLength);
+
+			for (int j = 0; j < edgeCount[node]; j++) {
+				int to = edgeTo[node][j];
+				if (j == i || to <= from || contracted[to])
+					continue;
+
+				int viaLength = lengthIn + edgeLength[node][j];
+				boolean witnessed = witnessSpace.isReached(to) && witnessSpace.distance[to] <= viaLength;
+				if (!witnessed) {
+					shortcuts++;
+					if (add) {
+						addOrShortenEdge(from, to, viaLength, node);
+						addOrShortenEdge(to, from, viaLength, node);
+					}
+				}
+			}
+		}
+
+		return shortcuts;
+	}
+
+	/**
+	 * Bounded Dijkstra search from a node over uncontracted nodes, avoiding the node being contracted.
+	 */
+	private void witnessSearch(int source, int avoid, int maxLength) {
+		SearchSpace space = witnessSpace;
+		space.reset();
+		space.reach(source, 0, -1);
+		space.heap.add(source, 0);
+		int settled = 0;
+
+		while (!space.heap.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+			int node = space.heap.remove();
+			if (space.isSettled(node))
+				continue;
+			space.settle(node);
+			settled++;
+
+			int dist = space.distance[node];
+			if (dist > maxLength)
+				break;
+
+			for (int i = 0; i < edgeCount[node]; i++) {
+				int head = edgeTo[node][i];
+				if (head == avoid || contracted[head] || space.isSettled(head))
+					continue;
+
+				int newDist = dist + edgeLength[node][i];
+				if (!space.isReached(head) || newDist < space.distance[head]) {
+					space.reach(head, newDist, node);
+					space.heap.add(head, newDist);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add an edge from one node to another, or shorten the existing edge between them.
+	 */
+	private void addOrShortenEdge(int from, int to, int length, int middle) {
+		for (int i = 0; i < edgeCount[from]; i++) {
+			if (edgeTo[from][i] == to) {
+				if (length < edgeLength[from][i]) {
+					edgeLength[from][i] = length;
+					edgeMiddle[from][i] = middle;
+				}
+				return;
+			}
+		}
+
+		if (edgeCount[from] == edgeTo[from].length) {
+			edgeTo[from] = grow(edgeTo[from]);
+			edgeLength[from] = grow(edgeLength[from]);
+			edgeMiddle[from] = grow(edgeMiddle[from]);
+		}
+		edgeTo[from][edgeCount[from]] = to;
+		edgeLength[from][edgeCount[from]] = length;
+		edgeMiddle[from][edgeCount[from]] = middle;
+		edgeCount[from]++;
+	}
+
+	private ContractionHierarchy toHierarchy() {
+		int[] firstArc = new int[nodeCount + 1];
+		for (int n = 0; n < nodeCount; n++)
+			firstArc[n + 1] = firstArc[n] + upHead[n].length;
+
+		int arcCount = firstArc[nodeCount];
+		int[] arcHead = new int[arcCount];
+		int[] arcLength = new int[arcCount];
+		int[] arcMiddle = new int[arcCount];
+		int[] latitudesE6 = new int[nodeCount];
+		int[] longitudesE6 = new int[nodeCount];
+
+		for (int n = 0; n < nodeCount; n++) {
+			System.arraycopy(upHead[n], 0, arcHead, firstArc[n], upHead[n].length);
+			System.arraycopy(upLength[n], 0, arcLength, firstArc[n], upLength[n].length);
+			System.arraycopy(upMiddle[n], 0, arcMiddle, firstArc[n], upMiddle[n].length);
+			latitudesE6[n] = graph.getLatitudeE6(n);
+			longitudesE6[n] = graph.getLongitudeE6(n);
+		}
+
+		return new ContractionHierarchy(latitudesE6, longitudesE6, firstArc, arcHead, arcLength, arcMiddle);
+	}
+
+	private static int[] grow(int[] array) {
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
@@ -0,0 +1,262 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.IOException;
+
+/**
+ * Routing backend which answers queries on the device with a {@link ContractionHierarchy}.  A query
+ * runs a bidirectional Dijkstra search which only follows upward arcs, so it settles a small
+ * fraction of the nodes a plain search would; shortcuts on the resulting path are then unpacked
+ * into arcs of the original graph.  This class is thread-safe.
+ *
+ * Each endpoint is snapped to the nearest node of the hierarchy; the waypoints of the route are the
+ * nodes on the shortest path between them.
+ */
+public class ContractionHierarchyRouter implements RoutingBackend {
+	private final ContractionHierarchy hierarchy;
+
+	/**
+	 * Per-thread query state, sized to the hierarchy.
+	 */
+	private final ThreadLocal<Query> query = new ThreadLocal<Query>() {
+		@Override
+		protected Query initialValue() {
+			return new Query(hierarchy.getNodeCount());
+		}
+	};
+
+	public ContractionHierarchyRouter(ContractionHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+	}
+
+	/**
+	 * Routes are calculated on the device in a few milliseconds, so a calculation once started is not
+	 * abandoned.
+	 */
+	@Override
+	public RouteInfo route(RouteEndpoints endpoints, CancellationToken token) throws IOException {
+		token.throwIfCancelled();
+
+		int source = hierarchy.findNearestNode(toE6(endpoints.getStart().getLatitude()),
+				toE6(endpoints.getStart().getLongitude()));
+		int target = hierarchy.findNearestNode(toE6(endpoints.getEnd().getLatitude()),
+				toE6(endpoints.getEnd().getLongitude()));
+
+		if (source < 0 || target < 0)
+			throw new IOException("Contraction hierarchy is empty");
+
+		return query.get().route(source, target);
+	}
+
+	@Override
+	public void shutdown() {
+		// nothing to release
+	}
+
+	private static int toE6(double degrees) {
+		return (int) Math.round(degrees * 1E6);
+	}
+
+	/**
+	 * State of a query: the forward search from the source, the backward search from the target, and
+	 * the buffers used to unpack the path.
+	 */
+	private class Query {
+		private final SearchSpace forward;
+		private final SearchSpace backward;
+
+		/**
+		 * Nodes on the unpacked path, in order.
+		 */
+		private int[] path = new int[64];
+		private int pathLength;
+
+		/**
+		 * Pending (node, arc) pairs while unpacking: walk along the arc to reach the node.
+		 */
+		private int[] stackNodes = new int[64];
+		private int[] stackArcs = new int[64];
+		private int stackSize;
+
+		Query(int nodeCount) {
+			forward = new SearchSpace(nodeCount);
+			backward = new SearchSpace(nodeCount);
+		}
+
+		RouteInfo route(int source, int target) throws IOException {
+			forward.reset();
+			backward.reset();
+			forward.reach(source, 0, -1);
+			forward.heap.add(source, 0);
+			backward.reach(target, 0, -1);
+			backward.heap.add(target, 0);
+
+			long best = Long.MAX_VALUE;
+			int meeting = -1;
+
+			while (!forward.heap.isEmpty() || !backward.heap.isEmpty()) {
+				// advance the search whose next node is closer
+				boolean isForward = backward.heap.isEmpty()
+						|| (!forward.heap.isEmpty() && forward.heap.peekKey() <= backward.heap.peekKey());
+				SearchSpace current = isForward ? forward : backward;
+				SearchSpace other = isForward ? backward : forward;
+
+				// once a search can no longer improve on the best path, it is finished
+				if (current.heap.peekKey() >= best) {
+					current.heap.clear();
+					continue;
+				}
+
+				int node = current.heap.remove();
+				if (current.isSettled(node))
+					continue;
+				current.settle(node);
+
+				int dist = current.distance[node];
+				if (other.isReached(node) && dist + (long) other.distance[node] < best) {
+					best = dist + (long) other.distance[node];
+					meeting = node;
+				}
+
+				if (isStalled(current, node, dist))
+					continue;
+
+				for (int arc = hierarchy.getFirstArc(node), end = hierarchy.getFirstArc(node + 1); arc < end; arc++) {
+					int head = hierarchy.getArcHead(arc);
+					int newDist = dist + hierarchy.getArcLength(arc);
+					if (!current.isReached(head) || newDist < current.distance[head]) {
+						current.reach(head, newDist, arc);
+						current.heap.add(head, newDist);
+					}
+				}
+			}
+
+			if (meeting == -1)
+				throw new IOException("No walking route between endpoints");
+
+			return unpackPath(source, meeting);
+		}
+
+		/**
+		 * Stall-on-demand: a node need not be expanded if a higher-ranked node already reached by the
+		 * search offers a shorter path to it, since no shortest path goes up through this node.
+		 */
+		private boolean isStalled(SearchSpace space, int node, int dist) {
+			for (int arc = hierarchy.getFirstArc(node), end = hierarchy.getFirstArc(node + 1); arc < end; arc++) {
+				int head = hierarchy.getArcHead(arc);
+				if (space.isReached(head) && space.distance[head] + (long) hierarchy.getArcLength(arc) < dist)
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Build the route from the source to the meeting node (along the forward search's arcs) and on
+		 * to the target (along the backward search's arcs), unpacking every shortcut.
+		 */
+		private RouteInfo unpackPath(int source, int meeting) {
+			pathLength = 0;
+
+			// collect the forward arcs from the meeting node back to the source, then walk them in order
+			stackSize = 0;
+			for (int node = meeting; node != source; ) {
+				int arc = forward.parent[node];
+				int tail = tailOf(arc);
+				push(node, arc);
+				node = tail;
+			}
+			addToPath(source);
+			int[] forwardArcs = new int[stackSize];
+			int[] forwardNodes = new int[stackSize];
+			for (int i = 0; i < stackSize; i++) {
+				forwardArcs[i] = stackArcs[stackSize - 1 - i];
+				forwardNodes[i] = stackNodes[stackSize - 1 - i];
+			}
+			int from = source;
+			for (int i = 0; i < forwardArcs.length; i++) {
+				unpackArc(from, forwardNodes[i], forwardArcs[i]);
+				from = forwardNodes[i];
+			}
+
+			// walk from the meeting node down the backward search's arcs to the target
+			for (int node = meeting; backward.parent[node] != -1; ) {
+				int arc = backward.parent[node];
+				int tail = tailOf(arc);
+				unpackArc(node, tail, arc);
+				node = tail;
+			}
+
+			int[] latLongsE6 = new int[pathLength * 2];
+			for (int i = 0; i < pathLength; i++) {
+				latLongsE6[2 * i] = hierarchy.getLatitudeE6(path[i]);
+				latLongsE6[2 * i + 1] = hierarchy.getLongitudeE6(path[i]);
+			}
+			return new RouteInfo(latLongsE6);
+		}
+
+		/**
+		 * Add the nodes after {@code from}, up to and including {@code to}, along the given arc between
+		 * them (in either direction) to the path, replacing shortcuts by the arcs they stand for.
+		 */
+		private void unpackArc(int from, int to, int arc) {
+			stackSize = 0;
+			push(to, arc);
+
+			while (stackSize > 0) {
+				stackSize--;
+				int next = stackNodes[stackSize];
+				int nextArc = stackArcs[stackSize];
+				int middle = hierarchy.getArcMiddle(nextArc);
+
+				if (middle == -1) {
+					addToPath(next);
+					from = next;
+				} else {
+					// the middle node has lower rank than both ends, so both halves are upward arcs from it;
+					// push the second half first so the first half is unpacked first
+					push(next, hierarchy.findArc(middle, next));
+					push(middle, hierarchy.findArc(middle, from));
+				}
+			}
+		}
+
+		/**
+		 * @return The node an upward arc leaves from.
+		 */
+		private int tailOf(int arc) {
+			int low = 0;
+			int high = hierarchy.getNodeCount() - 1;
+
+			// find the last node whose first arc is at or before the arc
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (hierarchy.getFirstArc(mid) <= arc)
+					low = mid;
+				else
+					high = mid - 1;
+			}
+			return low;
+		}
+
+		private void push(int node, int arc) {
+			if (stackSize == stackNodes.length) {
+				stackNodes = grow(stackNodes);
+				stackArcs = grow(stackArcs);
+			}
+			stackNodes[stackSize] = node;
+			stackArcs[stackSize] = arc;
+			stackSize++;
+		}
+
+		private void addToPath(int node) {
+			if (pathLength == path.length)
+				path = grow(path);
+			path[pathLength++] = node;
+		}
+
+		private int[] grow(int[] array) {
+			int[] grown = new int[array.length * 2];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+
+/**
+ * Persistent cache of routes, keyed by their endpoints, stored in a single file so that routes
+ * survive process restarts.  This class is thread-safe.
+ *
+ * The file starts with a header (magic number and format version) followed by records which are
+ * only ever appended.  Each record is laid out as:
+ * <pre>
+ *   int    payload length
+ *   byte[] payload: start lat/lon, end lat/lon (doubles), point count (int), lat/lon E6 per point (ints)
+ *   int    CRC32 of the payload
+ * </pre>
+ * A record that is truncated or fails its checksum (e.g. after a crash mid-write) ends the valid part
+ * of the file; it is discarded along with anything following it.  When the file grows beyond its
+ * size cap, it is compacted by rewriting only the newest record for each route, dropping the oldest
+ * routes if that is still not enough.
+ */
+public class DiskRouteCache {
+	private final static int MAGIC = 0x55424352; // "UBCR"
+	private final static int VERSION = 2;
+	private final static int HEADER_BYTES = 8;
+	private final static int KEY_BYTES = 4 * 8;
+
+	/**
+	 * After compaction, the file is trimmed to this fraction of its size cap, so that compaction
+	 * does not run again after every write.
+	 */
+	final static double COMPACTED_FILL = 0.75;
+
+	/**
+	 * Open caches by file, so that every RoutingService in the process appends through the same
+	 * instance.
+	 */
+	private final static Map<File, DiskRouteCache> openCaches = new HashMap<File, DiskRouteCache>();
+
+	private final File file;
+	private final long maxBytes;
+
+	/**
+	 * The open file, or null if the file has not been opened yet.
+	 */
+	private RandomAccessFile raf;
+
+	/**
+	 * Offset of the newest record for each route, oldest route first.
+	 */
+	private LinkedHashMap<RouteEndpoints, Long> index;
+
+	/**
+	 * Total length of the records referenced by the index.
+	 */
+	private long liveBytes;
+
+	private DiskRouteCache(File file, long maxBytes) {
+		this.file = file;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Get the cache stored in the given file.  The file is not read until the cache is first used,
+	 * so this may be called on the UI thread.
+	 *
+	 * @param file The file in which routes are stored; created if it does not exist.
+	 * @param maxBytes The size cap of the file.
+	 */
+	public static DiskRouteCache open(File file, long maxBytes) {
+		synchronized (openCaches) {
+			File key = file.getAbsoluteFile();
+			DiskRouteCache cache = openCaches.get(key);
+			if (cache == null) {
+				cache = new DiskRouteCache(key, maxBytes);
+				openCaches.put(key, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Look up a stored route.
+	 *
+	 * @param endpoints Endpoints of the route.
+	 * @return The stored route, or null if there is none.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	public synchronized RouteInfo get(RouteEndpoints endpoints) throws IOException {
+		ensureOpen();
+
+		Long offset = index.get(endpoints);
+		if (offset == null)
+			return null;
+
+		byte[] payload = readRecord(offset.longValue(), raf.length());
+		if (payload == null) {
+			// the record has been damaged since the file was opened; forget about it
+			index.remove(endpoints);
+			return null;
+		}
+
+		return decodeRoute(ByteBuffer.wrap(payload));
+	}
+
+	/**
+	 * Store a route, unless a route with the same endpoints is already stored.
+	 *
+	 * @throws IOException If an error occurs while writing the file.
+	 */
+	public synchronized void put(RouteEndpoints endpoints, RouteInfo route) throws IOException {
+		ensureOpen();
+
+		if (index.containsKey(endpoints))
+			return;
+
+		byte[] record = encodeRecord(endpoints, route);
+		long offset = raf.length();
+		raf.seek(offset);
+		raf.write(record);
+
+		index.put(endpoints, Long.valueOf(offset));
+		liveBytes += record.length;
+
+		if (raf.length() > maxBytes)
+			compact();
+	}
+
+	/**
+	 * @return The number of routes stored.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	public synchronized int size() throws IOException {
+		ensureOpen();
+		return index.size();
+	}
+
+	/**
+	 * Close the file.  It is reopened if the cache is used again.
+	 */
+	public synchronized void close() throws IOException {
+		if (raf != null) {
+			raf.close();
+			raf = null;
+			index = null;
+		}
+	}
+
+	/**
+	 * Open the file and index the records in it, discarding everything from the first invalid record on.
+	 */
+	private void ensureOpen() throws IOException {
+		if (raf != null)
+			return;
+
+		raf = new RandomAccessFile(file, "rw");
+		index = new LinkedHashMap<RouteEndpoints, Long>();
+		liveBytes = 0;
+
+		long length = raf.length();
+		if (length < HEADER_BYTES || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+			// new file, or a file in an unknown format: start again
+			raf.setLength(0);
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			return;
+		}
+
+		long offset = HEADER_BYTES;
+		while (offset < length) {
+			byte[] payload = readRecord(offset, length);
+			if (payload == null)
+				break;
+
+			RouteEndpoints endpoints = decodeEndpoints(ByteBuffer.wrap(payload));
+			Long previous = index.remove(endpoints);
+			if (previous != null)
+				liveBytes -= recordLength(previous.longValue());
+
+			index.put(endpoints, Long.valueOf(offset));
+			int recordLength = 8 + payload.length;
+			liveBytes += recordLength;
+			offset += recordLength;
+		}
+
+		if (offset < length)
+			raf.setLength(offset);
+	}
+
+	/**
+	 * Read and verify the payload of the record at the given offset.
+	 *
+	 * @return The payload, or null if the record is truncated or fails its checksum.
+	 */
+	private byte[] readRecord(long offset, long fileLength) throws IOException {
+		if (offset + 8 > fileLength)
+			return null;
+
+		raf.seek(offset);
+		int payloadLength = raf.readInt();
+		if (payloadLength < KEY_BYTES + 4 || offset + 8 + payloadLength > fileLength)
+			return null;
+
+		byte[] payload = new byte[payloadLength];
+		raf.readFully(payload);
+		int checksum = raf.readInt();
+
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		if ((int) crc.getValue() != checksum)
+			return null;
+
+		return payload;
+	}
+
+	private int recordLength(long offset) throws IOException {
+		raf.seek(offset);
+		return 8 + raf.readInt();
+	}
+
+	/**
+	 * Rewrite the file with only the newest record for each route.  If the file would still be over
+	 * its fill target, the oldest routes are dropped.
+	 */
+	private void compact() throws IOException {
+		long target = (long) (maxBytes * COMPACTED_FILL);
+
+		Iterator<Map.Entry<RouteEndpoints, Long>> it = index.entrySet().iterator();
+		while (HEADER_BYTES + liveBytes > target && it.hasNext()) {
+			liveBytes -= recordLength(it.next().getValue().longValue());
+			it.remove();
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+		LinkedHashMap<RouteEndpoints, Long> newIndex = new LinkedHashMap<RouteEndpoints, Long>();
+
+		try {
+			out.setLength(0);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			long fileLength = raf.length();
+			for (Map.Entry<RouteEndpoints, Long> entry : index.entrySet()) {
+				byte[] payload = readRecord(entry.getValue().longValue(), fileLength);
+				if (payload == null)
+					continue;
+
+				CRC32 crc = new CRC32();
+				crc.update(payload);
+				newIndex.put(entry.getKey(), Long.valueOf(out.getFilePointer()));
+				out.writeInt(payload.length);
+				out.write(payload);
+				out.writeInt((int) crc.getValue());
+			}
+		} finally {
+			out.close();
+		}
+
+		raf.close();
+		raf = null;
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Could not replace route cache file");
+		}
+
+		raf = new RandomAccessFile(file, "rw");
+		index = newIndex;
+		liveBytes = raf.length() - HEADER_BYTES;
+	}
+
+	private static byte[] encodeRecord(RouteEndpoints endpoints, RouteInfo route) throws IOException {
+		int size = route.size();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(KEY_BYTES + 4 + 8 * size);
+		DataOutputStream payload = new DataOutputStream(bytes);
+		payload.writeDouble(endpoints.getStart().getLatitude());
+		payload.writeDouble(endpoints.getStart().getLongitude());
+		payload.writeDouble(endpoints.getEnd().getLatitude());
+		payload.writeDouble(endpoints.getEnd().getLongitude());
+		payload.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			payload.writeInt(route.getLatitudeE6(i));
+			payload.writeInt(route.getLongitudeE6(i));
+		}
+		payload.flush();
+
+		byte[] payloadBytes = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(payloadBytes);
+
+		ByteBuffer record = ByteBuffer.allocate(8 + payloadBytes.length);
+		record.putInt(payloadBytes.length);
+		record.put(payloadBytes);
+		record.putInt((int) crc.getValue());
+		return record.array();
+	}
+
+	private static RouteEndpoints decodeEndpoints(ByteBuffer payload) {
+		LatLong start = new LatLong(payload.getDouble(), payload.getDouble());
+		LatLong end = new LatLong(payload.getDouble(), payload.getDouble());
+		return new RouteEndpoints(start, end);
+	}
+
+	private static RouteInfo decodeRoute(ByteBuffer payload) throws IOException {
+		payload.position(KEY_BYTES);
+		int count = payload.getInt();
+		if (count < 0 || payload.remaining() != count * 8)
+			throw new IOException("Malformed route record");
+
+		int[] latLongsE6 = new int[count * 2];
+		payload.asIntBuffer().get(latLongsE6);
+
+		return new RouteInfo(latLongsE6);
+	}
+}
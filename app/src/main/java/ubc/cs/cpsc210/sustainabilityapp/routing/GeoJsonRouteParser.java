@@ -0,0 +1,284 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming parser for the coordinates of a GeoJSON route, as returned by the routing service.
+ * This class is not thread-safe; use one instance per thread.
+ *
+ * The response is read directly from the stream, without building it as a String or a JSON object
+ * tree.  The parser skips ahead to the first "coordinates" member and decodes the numbers in its
+ * value into a primitive array.  No objects are created per point or per number.
+ *
+ * GeoJSON orders each position as [longitude, latitude]; the parsed coordinates are returned as
+ * interleaved latitude/longitude pairs.
+ */
+public class GeoJsonRouteParser {
+	private final static String COORDINATES_KEY = "coordinates";
+
+	/**
+	 * Exactly representable powers of ten, used to convert short decimal numbers exactly.
+	 */
+	private final static double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/**
+	 * Largest mantissa which can be converted exactly (2^53).
+	 */
+	private final static long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private final static int MAX_NUMBER_LENGTH = 64;
+
+	private final byte[] buffer = new byte[8192];
+	private int position;
+	private int limit;
+	private InputStream in;
+
+	/**
+	 * Characters of the number being parsed, kept for numbers which cannot be converted exactly.
+	 */
+	private final char[] numberChars = new char[MAX_NUMBER_LENGTH];
+
+	/**
+	 * Coordinates parsed so far, in the order they appear in the response.
+	 */
+	private double[] values = new double[256];
+	private int valueCount;
+
+	/**
+	 * Parse the coordinates of the route in a GeoJSON response.  The stream is not closed.
+	 *
+	 * @param in The response from the routing service.
+	 * @return The latitude and longitude of each point, interleaved; the array's length is twice the
+	 *         number of points.
+	 * @throws IOException If the response cannot be read, has no coordinates, or is malformed.
+	 */
+	public double[] parseLatLongs(InputStream in) throws IOException {
+		this.in = in;
+		this.position = 0;
+		this.limit = 0;
+		this.valueCount = 0;
+
+		try {
+			if (!skipToKey(COORDINATES_KEY))
+				throw new IOException("No coordinates in response");
+
+			int c = nextNonWhitespace();
+			if (c != ':')
+				throw new IOException("Malformed response");
+			c = nextNonWhitespace();
+			if (c != '[')
+				throw new IOException("Coordinates are not an array");
+
+			readNumbersInArray();
+
+			if (valueCount % 2 != 0)
+				throw new IOException("Odd number of coordinates");
+
+			// swap each [longitude, latitude] pair into latitude/longitude order
+			double[] latLongs = new double[valueCount];
+			for (int i = 0; i < valueCount; i += 2) {
+				latLongs[i] = values[i + 1];
+				latLongs[i + 1] = values[i];
+			}
+			return latLongs;
+		} finally {
+			this.in = null;
+		}
+	}
+
+	/**
+	 * Skip forward until just after a string equal to the given key.  Strings are compared byte by
+	 * byte, so the key must be ASCII without escapes.
+	 *
+	 * @return true if the key was found, false if the end of the stream was reached first.
+	 */
+	private boolean skipToKey(String key) throws IOException {
+		int c;
+		while ((c = read()) != -1) {
+			if (c != '"')
+				continue;
+
+			// compare the string with the key as it is read
+			int matched = 0;
+			boolean matches = true;
+			while ((c = read()) != '"') {
+				if (c == -1)
+					return false;
+				if (c == '\\') {
+					read();
+					matches = false;
+					continue;
+				}
+				if (matches && matched < key.length() && c == key.charAt(matched))
+					matched++;
+				else
+					matches = false;
+			}
+
+			if (matches && matched == key.length())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Read the numbers in the array whose opening bracket has just been read, including any nested
+	 * arrays, up to and including its closing bracket.
+	 */
+	private void readNumbersInArray() throws IOException {
+		int depth = 1;
+
+		while (depth > 0) {
+			int c = read();
+			switch (c) {
+			case -1:
+				throw new IOException("Unterminated coordinates array");
+			case '[':
+				depth++;
+				break;
+			case ']':
+				depth--;
+				break;
+			case ',': case ' ': case '\t': case '\r': case '\n':
+				break;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9'))
+					addValue(readNumber(c));
+				else
+					throw new IOException("Unexpected character in coordinates");
+			}
+		}
+	}
+
+	/**
+	 * Read a JSON number whose first character has just been read.  The character following the
+	 * number is left unread.
+	 */
+	private double readNumber(int first) throws IOException {
+		int length = 0;
+		boolean negative = false;
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean exact = true;
+
+		int c = first;
+		if (c == '-') {
+			negative = true;
+			numberChars[length++] = '-';
+			c = read();
+		}
+
+		// integer part
+		while (c >= '0' && c <= '9') {
+			length = appendChar(length, c);
+			if (digits < 18) {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa != 0)
+					digits++;
+			} else {
+				exponent++;
+				exact = false;
+			}
+			c = read();
+		}
+
+		// fractional part
+		if (c == '.') {
+			length = appendChar(length, c);
+			c = read();
+			while (c >= '0' && c <= '9') {
+				length = appendChar(length, c);
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (mantissa != 0)
+						digits++;
+					exponent--;
+				} else {
+					exact = false;
+				}
+				c = read();
+			}
+		}
+
+		// exponent
+		if (c == 'e' || c == 'E') {
+			exact = false;
+			length = appendChar(length, c);
+			c = read();
+			if (c == '+' || c == '-') {
+				length = appendChar(length, c);
+				c = read();
+			}
+			while (c >= '0' && c <= '9') {
+				length = appendChar(length, c);
+				c = read();
+			}
+		}
+
+		unread(c);
+
+		if (exact && mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+			// both operands are exact, so a single multiplication or division is correctly rounded
+			double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+
+		try {
+			return Double.parseDouble(new String(numberChars, 0, length));
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed number in coordinates");
+		}
+	}
+
+	private int appendChar(int length, int c) throws IOException {
+		if (length == MAX_NUMBER_LENGTH)
+			throw new IOException("Number too long in coordinates");
+		numberChars[length] = (char) c;
+		return length + 1;
+	}
+
+	private void addValue(double value) {
+		if (valueCount == values.length) {
+			double[] grown = new double[values.length * 2];
+			System.arraycopy(values, 0, grown, 0, valueCount);
+			values = grown;
+		}
+		values[valueCount++] = value;
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c == ' ' || c == '\t' || c == '\r' || c == '\n');
+		return c;
+	}
+
+	/**
+	 * @return The next byte of the stream, or -1 at the end of the stream.
+	 */
+	private int read() throws IOException {
+		if (position == limit) {
+			limit = in.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	/**
+	 * Push back the byte most recently returned by {@link #read()}.
+	 */
+	private void unread(int c) {
+		if (c != -1)
+			position--;
+	}
+}
@@ -0,0 +1,89 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+/**
+ * Binary min-heap of int items with long keys, stored in primitive arrays, for graph searches.
+ * An item may be added more than once; searches skip the stale copies when they are removed.
+ * This class is not thread-safe.
+ */
+class IntMinHeap {
+	private int[] items;
+	private long[] keys;
+	private int size;
+
+	IntMinHeap(int initialCapacity) {
+		items = new int[Math.max(1, initialCapacity)];
+		keys = new long[items.length];
+		size = 0;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return The smallest key in the heap.  The heap must not be empty.
+	 */
+	long peekKey() {
+		return keys[0];
+	}
+
+	void add(int item, long key) {
+		if (size == items.length)
+			grow();
+
+		// sift up
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (keys[parent] <= key)
+				break;
+			items[i] = items[parent];
+			keys[i] = keys[parent];
+			i = parent;
+		}
+		items[i] = item;
+		keys[i] = key;
+	}
+
+	/**
+	 * Remove the item with the smallest key.  The heap must not be empty.
+	 *
+	 * @return The item removed.
+	 */
+	int remove() {
+		int top = items[0];
+		int lastItem = items[--size];
+		long lastKey = keys[size];
+
+		// sift the last item down from the root
+		int i = 0;
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && keys[child + 1] < keys[child])
+				child++;
+			if (lastKey <= keys[child])
+				break;
+			items[i] = items[child];
+			keys[i] = keys[child];
+			i = child;
+		}
+		items[i] = lastItem;
+		keys[i] = lastKey;
+
+		return top;
+	}
+
+	private void grow() {
+		int[] newItems = new int[items.length * 2];
+		long[] newKeys = new long[keys.length * 2];
+		System.arraycopy(items, 0, newItems, 0, size);
+		System.arraycopy(keys, 0, newKeys, 0, size);
+		items = newItems;
+		keys = newKeys;
+	}
+}
@@ -0,0 +1,125 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.IOException;
+
+/**
+ * Routing backend which calculates routes on the device, with an A* search over a
+ * {@link WalkingGraph}.  No network connection is needed.  This class is thread-safe.
+ *
+ * Each endpoint is snapped to the nearest node of the graph; the waypoints of the route are the
+ * nodes on the shortest path between them.
+ */
+public class LocalRoutingBackend implements RoutingBackend {
+	/**
+	 * Scale applied to the straight-line distance estimate, so that it never overestimates the
+	 * walking distance even if arc lengths were measured slightly differently.
+	 */
+	private final static double HEURISTIC_SCALE = 0.95;
+
+	private final WalkingGraph graph;
+
+	/**
+	 * Per-thread search state, sized to the graph, so that searches neither allocate nor clear
+	 * arrays proportional to the graph.
+	 */
+	private final ThreadLocal<SearchSpace> searchSpace = new ThreadLocal<SearchSpace>() {
+		@Override
+		protected SearchSpace initialValue() {
+			return new SearchSpace(graph.getNodeCount());
+		}
+	};
+
+	public LocalRoutingBackend(WalkingGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Routes are calculated on the device in a few milliseconds, so a calculation once started is not
+	 * abandoned.
+	 */
+	@Override
+	public RouteInfo route(RouteEndpoints endpoints, CancellationToken token) throws IOException {
+		token.throwIfCancelled();
+
+		int source = graph.findNearestNode(toE6(endpoints.getStart().getLatitude()),
+				toE6(endpoints.getStart().getLongitude()));
+		int target = graph.findNearestNode(toE6(endpoints.getEnd().getLatitude()),
+				toE6(endpoints.getEnd().getLongitude()));
+
+		if (source < 0 || target < 0)
+			throw new IOException("Walking graph is empty");
+
+		SearchSpace space = searchSpace.get();
+		if (!search(space, source, target))
+			throw new IOException("No walking route between endpoints");
+
+		return pathTo(space, target);
+	}
+
+	@Override
+	public void shutdown() {
+		// nothing to release
+	}
+
+	/**
+	 * A* search from source to target.
+	 *
+	 * @return true if the target was reached, in which case the path can be read from the search space.
+	 */
+	private boolean search(SearchSpace space, int source, int target) {
+		space.reset();
+		space.reach(source, 0, -1);
+		space.heap.add(source, estimate(source, target));
+
+		while (!space.heap.isEmpty()) {
+			int node = space.heap.remove();
+			if (space.isSettled(node))
+				continue;
+			space.settle(node);
+
+			if (node == target)
+				return true;
+
+			int dist = space.distance[node];
+			for (int arc = graph.getFirstArc(node), end = graph.getFirstArc(node + 1); arc < end; arc++) {
+				int head = graph.getArcHead(arc);
+				if (space.isSettled(head))
+					continue;
+
+				int newDist = dist + graph.getArcLength(arc);
+				if (!space.isReached(head) || newDist < space.distance[head]) {
+					space.reach(head, newDist, node);
+					space.heap.add(head, newDist + estimate(head, target));
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private long estimate(int node, int target) {
+		return (long) (graph.straightLineDistance(node, target) * HEURISTIC_SCALE);
+	}
+
+	private static int toE6(double degrees) {
+		return (int) Math.round(degrees * 1E6);
+	}
+
+	/**
+	 * @return The route from the search's source to the given settled node.
+	 */
+	private RouteInfo pathTo(SearchSpace space, int target) {
+		int count = 0;
+		for (int n = target; n != -1; n = space.parent[n])
+			count++;
+
+		int[] latLongsE6 = new int[count * 2];
+		int i = latLongsE6.length;
+		for (int n = target; n != -1; n = space.parent[n]) {
+			latLongsE6[--i] = graph.getLongitudeE6(n);
+			latLongsE6[--i] = graph.getLatitudeE6(n);
+		}
+
+		return new RouteInfo(latLongsE6);
+	}
+}
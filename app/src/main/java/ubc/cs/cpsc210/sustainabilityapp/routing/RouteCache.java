@@ -0,0 +1,538 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of routes, keyed by their endpoints.  This class is thread-safe.
+ *
+ * Once the cache holds more than the maximum number of entries, or the estimated size of the
+ * cached routes exceeds the maximum number of bytes, the least recently used routes are evicted.
+ * Routes may also be given a time-to-live, after which they are treated as missing.
+ *
+ * The cache is split into independently locked segments, so threads looking up routes with
+ * different endpoints rarely contend.  The bounds apply to the cache as a whole: each route is
+ * stamped from a clock shared by the segments as it is used, and routes are evicted from whichever
+ * segment holds the least recently used one.  Concurrent misses on the same endpoints share a
+ * single load (see {@link #get(RouteEndpoints, RouteLoader)}), which is cancelled once every thread
+ * waiting for it has been cancelled (see
+ * {@link #load(RouteEndpoints, RouteLoader, CancellationToken)}).
+ */
+public class RouteCache {
+	/**
+	 * Time-to-live value indicating that cached routes never expire.
+	 */
+	public final static long NO_EXPIRY = 0;
+
+	/**
+	 * Number of segments; must be a power of two.
+	 */
+	private final static int SEGMENT_COUNT = 8;
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final long timeToLiveMillis;
+	private final Segment[] segments;
+
+	/**
+	 * Number of routes, and their estimated size, over all segments; updated by each segment as it
+	 * changes, while holding its lock.
+	 */
+	private final AtomicLong totalEntries = new AtomicLong();
+	private final AtomicLong totalBytes = new AtomicLong();
+
+	/**
+	 * Ticks each time a route is added or used, stamping it so that routes in different segments can
+	 * be compared by when they were last used.
+	 */
+	private final AtomicLong useClock = new AtomicLong();
+
+	/**
+	 * Loads currently in progress, by the endpoints of the route being loaded.
+	 */
+	private final ConcurrentHashMap<RouteEndpoints, Load> inFlight = new ConcurrentHashMap<RouteEndpoints, Load>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong loadCount = new AtomicLong();
+	private final AtomicLong totalLoadTimeNanos = new AtomicLong();
+
+	/**
+	 * @param maxEntries The maximum number of routes held by the cache.
+	 * @param maxBytes The maximum estimated size, in bytes, of the routes held by the cache.
+	 * @param timeToLiveMillis How long a route remains valid after it has been cached, or
+	 *                         {@link #NO_EXPIRY} if routes never expire.
+	 */
+	public RouteCache(int maxEntries, long maxBytes, long timeToLiveMillis) {
+		if (maxEntries <= 0 || maxBytes <= 0 || timeToLiveMillis < 0)
+			throw new IllegalArgumentException("Invalid route cache bounds");
+
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.timeToLiveMillis = timeToLiveMillis;
+		this.segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * Look up a cached route, counting the lookup as a hit or a miss.
+	 *
+	 * @param endpoints Endpoints of the route.
+	 * @return The cached route, or null if there is no cached route or it has expired.
+	 */
+	public RouteInfo get(RouteEndpoints endpoints) {
+		RouteInfo route = segmentFor(endpoints).get(endpoints);
+
+		if (route == null)
+			missCount.incrementAndGet();
+		else
+			hitCount.incrementAndGet();
+
+		return route;
+	}
+
+	/**
+	 * Look up a cached route without counting a hit or a miss, and without making the route more
+	 * recently used, for callers which only probe the cache and count the outcome themselves (see
+	 * {@link #recordLookup(boolean)}).
+	 *
+	 * @param endpoints Endpoints of the route.
+	 * @return The cached route, or null if there is no cached route or it has expired.
+	 */
+	public RouteInfo peek(RouteEndpoints endpoints) {
+		return segmentFor(endpoints).peek(endpoints);
+	}
+
+	/**
+	 * Count a lookup made with {@link #peek(RouteEndpoints)} as a hit or a miss.
+	 *
+	 * @param hit Whether a route was found.
+	 */
+	public void recordLookup(boolean hit) {
+		if (hit)
+			hitCount.incrementAndGet();
+		else
+			missCount.incrementAndGet();
+	}
+
+	/**
+	 * Look up a cached route, loading and caching it if it is not found.  If other threads miss on
+	 * the same endpoints while the route is being loaded, they wait for that load to complete
+	 * rather than starting their own, so each route is loaded only once.
+	 *
+	 * @param endpoints Endpoints of the route.
+	 * @param loader Used to load the route if it is not cached.
+	 * @return The cached or newly loaded route.
+	 * @throws IOException If an error occurs while loading the route.  Every thread waiting on the
+	 *                     failed load receives the error; nothing is cached.
+	 */
+	public RouteInfo get(RouteEndpoints endpoints, RouteLoader loader) throws IOException {
+		RouteInfo cached = get(endpoints);
+		if (cached != null)
+			return cached;
+
+		return load(endpoints, loader, null);
+	}
+
+	/**
+	 * Load and cache a route after a lookup missed, sharing the load with other threads which miss on
+	 * the same endpoints, as for {@link #get(RouteEndpoints, RouteLoader)}.  No hit or miss is
+	 * counted.
+	 *
+	 * The load is cancelled, through the token passed to the loader, once the tokens of every thread
+	 * waiting for it have been cancelled; a load another thread still waits for runs to completion.
+	 * A thread whose token is cancelled still waits until the load completes or is cancelled.
+	 *
+	 * @param endpoints Endpoints of the route.
+	 * @param loader Used to load the route.
+	 * @param token Cancels this thread's interest in the route; may be null.
+	 * @return The newly loaded route, or the route cached by another load which completed since the
+	 *         lookup missed.
+	 * @throws InterruptedIOException If the load was cancelled.
+	 * @throws IOException If an error occurs while loading the route.
+	 */
+	public RouteInfo load(final RouteEndpoints endpoints, final RouteLoader loader, CancellationToken token)
+			throws IOException {
+		final CancellationToken loadToken = new CancellationToken();
+		final Load load = new Load(loadToken, new Callable<RouteInfo>() {
+			@Override
+			public RouteInfo call() throws IOException {
+				// another load of the same route may have completed, and been removed from the loads
+				// in progress, between the lookup missing and this load being registered
+				RouteInfo cached = segmentFor(endpoints).get(endpoints);
+				if (cached != null)
+					return cached;
+
+				RouteInfo route = loader.load(endpoints, loadToken);
+				put(endpoints, route);
+				return route;
+			}
+		});
+
+		// this thread waits for the load from before it is registered, so that other threads cannot
+		// cancel it by joining and leaving before this thread has joined
+		load.join();
+		while (true) {
+			Load existing = inFlight.putIfAbsent(endpoints, load);
+			if (existing == null)
+				break;
+			if (existing.join())
+				return awaitLoad(existing, token);
+
+			// the load is being cancelled; start another rather than share its failure
+			inFlight.remove(endpoints, existing);
+		}
+
+		Runnable leave = new Runnable() {
+			@Override
+			public void run() {
+				load.leave();
+			}
+		};
+		if (token != null)
+			token.addCancelListener(leave);
+
+		try {
+			load.run();
+		} finally {
+			inFlight.remove(endpoints, load);
+			if (token != null)
+				token.removeCancelListener(leave);
+		}
+
+		return awaitLoad(load);
+	}
+
+	/**
+	 * As {@link #load(RouteEndpoints, RouteLoader, CancellationToken)}, for a thread which waits for
+	 * the route however long it takes.
+	 */
+	public RouteInfo load(RouteEndpoints endpoints, RouteLoader loader) throws IOException {
+		return load(endpoints, loader, null);
+	}
+
+	/**
+	 * Add a route to the cache, replacing any route already cached for the same endpoints, and
+	 * evict least recently used routes until the cache is within its bounds again.
+	 */
+	public void put(RouteEndpoints endpoints, RouteInfo route) {
+		segmentFor(endpoints).put(endpoints, route);
+		trimToBounds();
+	}
+
+	/**
+	 * Record the time taken to load a route which was not found in the cache.
+	 *
+	 * @param loadTimeNanos Time taken to load the route, in nanoseconds.
+	 */
+	public void recordLoad(long loadTimeNanos) {
+		loadCount.incrementAndGet();
+		totalLoadTimeNanos.addAndGet(loadTimeNanos);
+	}
+
+	/**
+	 * Remove all routes from the cache.  Counters are not reset.
+	 */
+	public void clear() {
+		for (Segment segment : segments)
+			segment.clear();
+	}
+
+	/**
+	 * @return A snapshot of the cache's size and counters.
+	 */
+	public RouteCacheStats getStats() {
+		int entries = 0;
+		long bytes = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				entries += segment.entries.size();
+				bytes += segment.currentBytes;
+			}
+		}
+
+		return new RouteCacheStats(entries, bytes, hitCount.get(), missCount.get(), evictionCount.get(),
+				loadCount.get(), totalLoadTimeNanos.get());
+	}
+
+	private Segment segmentFor(RouteEndpoints endpoints) {
+		int h = endpoints.hashCode();
+		// spread the higher bits down, as RouteEndpoints hash codes differ mostly in those bits
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return segments[h & (SEGMENT_COUNT - 1)];
+	}
+
+	/**
+	 * Evict the least recently used route in the cache until it is within its bounds.  Only one
+	 * segment is locked at a time: the segment holding the least recently used route is found from
+	 * the stamps of each segment's eldest route, and if that route has been used or evicted by
+	 * another thread before it can be evicted, the segments are searched again.
+	 */
+	private void trimToBounds() {
+		while (totalEntries.get() > maxEntries || totalBytes.get() > maxBytes) {
+			Segment eldestSegment = null;
+			long eldestStamp = Long.MAX_VALUE;
+			for (Segment segment : segments) {
+				long stamp = segment.eldestStamp();
+				if (stamp < eldestStamp) {
+					eldestSegment = segment;
+					eldestStamp = stamp;
+				}
+			}
+
+			if (eldestSegment == null)
+				return;
+			eldestSegment.evictEldest(eldestStamp);
+		}
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		return timeToLiveMillis != NO_EXPIRY && now - entry.createdMillis >= timeToLiveMillis;
+	}
+
+	/**
+	 * Wait for a load this thread has joined, leaving it if the token is cancelled meanwhile.
+	 */
+	private static RouteInfo awaitLoad(final Load load, CancellationToken token) throws IOException {
+		Runnable leave = new Runnable() {
+			@Override
+			public void run() {
+				load.leave();
+			}
+		};
+		if (token != null)
+			token.addCancelListener(leave);
+
+		try {
+			return awaitLoad(load);
+		} finally {
+			if (token != null)
+				token.removeCancelListener(leave);
+		}
+	}
+
+	/**
+	 * Wait for a load to complete and return its result, unwrapping any error it threw.
+	 */
+	private static RouteInfo awaitLoad(FutureTask<RouteInfo> load) throws IOException {
+		try {
+			return load.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for route");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			IOException ioe = new IOException("Error loading route");
+			ioe.initCause(cause);
+			throw ioe;
+		}
+	}
+
+	/**
+	 * One independently locked part of the cache, holding routes in access order (least recently
+	 * used first).  Routes are moved to the end as they are used, rather than by an access-ordered
+	 * map, so that they can also be looked up without being moved.  Routes are stamped while the
+	 * segment is locked, so their stamps increase in that order.  All access must be synchronized on
+	 * the segment.
+	 */
+	private class Segment {
+		private final LinkedHashMap<RouteEndpoints, Entry> entries;
+		private long currentBytes;
+
+		Segment() {
+			this.entries = new LinkedHashMap<RouteEndpoints, Entry>();
+			this.currentBytes = 0;
+		}
+
+		synchronized RouteInfo get(RouteEndpoints endpoints) {
+			Entry entry = liveEntry(endpoints);
+			if (entry == null)
+				return null;
+
+			// move the route to the most recently used end
+			entries.remove(endpoints);
+			entries.put(endpoints, entry);
+			entry.lastUsed = useClock.incrementAndGet();
+			return entry.route;
+		}
+
+		synchronized RouteInfo peek(RouteEndpoints endpoints) {
+			Entry entry = liveEntry(endpoints);
+			return entry == null ? null : entry.route;
+		}
+
+		/**
+		 * @return The entry for the endpoints, or null if there is none or it has expired, in which
+		 *         case it is evicted.
+		 */
+		private Entry liveEntry(RouteEndpoints endpoints) {
+			Entry entry = entries.get(endpoints);
+			if (entry == null)
+				return null;
+
+			if (isExpired(entry, System.currentTimeMillis())) {
+				entries.remove(endpoints);
+				removed(entry);
+				evictionCount.incrementAndGet();
+				return null;
+			}
+
+			return entry;
+		}
+
+		synchronized void put(RouteEndpoints endpoints, RouteInfo route) {
+			Entry entry = new Entry(route, System.currentTimeMillis(), useClock.incrementAndGet());
+			// removed first, so that the route is added at the most recently used end
+			Entry previous = entries.remove(endpoints);
+			entries.put(endpoints, entry);
+
+			if (previous != null)
+				removed(previous);
+			added(entry);
+
+			evictExpired();
+		}
+
+		/**
+		 * @return The stamp of the least recently used route, or Long.MAX_VALUE if the segment is
+		 *         empty.
+		 */
+		synchronized long eldestStamp() {
+			Iterator<Entry> it = entries.values().iterator();
+			return it.hasNext() ? it.next().lastUsed : Long.MAX_VALUE;
+		}
+
+		/**
+		 * Evict the least recently used route, if it is still the route with the given stamp.
+		 */
+		synchronized void evictEldest(long stamp) {
+			Iterator<Entry> it = entries.values().iterator();
+			if (!it.hasNext())
+				return;
+
+			Entry eldest = it.next();
+			if (eldest.lastUsed != stamp)
+				return;
+
+			it.remove();
+			removed(eldest);
+			evictionCount.incrementAndGet();
+		}
+
+		synchronized void clear() {
+			totalEntries.addAndGet(-entries.size());
+			totalBytes.addAndGet(-currentBytes);
+			entries.clear();
+			currentBytes = 0;
+		}
+
+		/**
+		 * Evict expired routes.
+		 */
+		private void evictExpired() {
+			if (timeToLiveMillis == NO_EXPIRY)
+				return;
+
+			long now = System.currentTimeMillis();
+			Iterator<Map.Entry<RouteEndpoints, Entry>> it = entries.entrySet().iterator();
+
+			while (it.hasNext()) {
+				Entry entry = it.next().getValue();
+				if (isExpired(entry, now)) {
+					it.remove();
+					removed(entry);
+					evictionCount.incrementAndGet();
+				}
+			}
+		}
+
+		private void added(Entry entry) {
+			currentBytes += entry.sizeInBytes;
+			totalEntries.incrementAndGet();
+			totalBytes.addAndGet(entry.sizeInBytes);
+		}
+
+		private void removed(Entry entry) {
+			currentBytes -= entry.sizeInBytes;
+			totalEntries.decrementAndGet();
+			totalBytes.addAndGet(-entry.sizeInBytes);
+		}
+	}
+
+	/**
+	 * A load in progress, shared by the threads waiting for it, and the number of them whose tokens
+	 * have not been cancelled.  Once that number falls to zero, the load's token is cancelled, and no
+	 * thread can join the load any longer.
+	 */
+	private static class Load extends FutureTask<RouteInfo> {
+		private final CancellationToken token;
+		private int waiting;
+
+		Load(CancellationToken token, Callable<RouteInfo> callable) {
+			super(callable);
+			this.token = token;
+		}
+
+		/**
+		 * Wait for the load, unless it is being cancelled.
+		 *
+		 * @return Whether the load was joined.
+		 */
+		synchronized boolean join() {
+			if (token.isCancelled())
+				return false;
+			waiting++;
+			return true;
+		}
+
+		/**
+		 * Stop waiting for the load, cancelling it if no other thread waits for it.
+		 */
+		void leave() {
+			synchronized (this) {
+				if (--waiting > 0 || isDone())
+					return;
+				// cancelled while holding the lock, so that no thread joins the load as it is abandoned
+				token.cancel();
+			}
+		}
+	}
+
+	/**
+	 * A cached route along with the bookkeeping needed to expire, weigh and evict it.
+	 */
+	private static class Entry {
+		final RouteInfo route;
+		final long createdMillis;
+		final long sizeInBytes;
+
+		/**
+		 * Stamp from the use clock of when the route was last added or used; guarded by its segment.
+		 */
+		long lastUsed;
+
+		Entry(RouteInfo route, long createdMillis, long lastUsed) {
+			this.route = route;
+			this.createdMillis = createdMillis;
+			this.sizeInBytes = route.getEstimatedSizeInBytes();
+			this.lastUsed = lastUsed;
+		}
+	}
+}
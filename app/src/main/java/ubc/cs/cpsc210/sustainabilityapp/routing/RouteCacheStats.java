@@ -0,0 +1,75 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+/**
+ * Snapshot of the size and usage counters of a {@link RouteCache}.
+ */
+public class RouteCacheStats {
+	private final int entryCount;
+	private final long sizeInBytes;
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final long loadCount;
+	private final long totalLoadTimeNanos;
+
+	public RouteCacheStats(int entryCount, long sizeInBytes, long hitCount, long missCount,
+			long evictionCount, long loadCount, long totalLoadTimeNanos) {
+		this.entryCount = entryCount;
+		this.sizeInBytes = sizeInBytes;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.evictionCount = evictionCount;
+		this.loadCount = loadCount;
+		this.totalLoadTimeNanos = totalLoadTimeNanos;
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	public long getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public long getLoadCount() {
+		return loadCount;
+	}
+
+	public long getTotalLoadTimeNanos() {
+		return totalLoadTimeNanos;
+	}
+
+	/**
+	 * @return Fraction of lookups that found a route in the cache, or 0 if there were no lookups.
+	 */
+	public double getHitRate() {
+		long lookups = hitCount + missCount;
+		return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+	}
+
+	/**
+	 * @return Average time taken to load a route that was not cached, in milliseconds.
+	 */
+	public double getAverageLoadTimeMillis() {
+		return loadCount == 0 ? 0.0 : totalLoadTimeNanos / (loadCount * 1E6);
+	}
+
+	@Override
+	public String toString() {
+		return "RouteCacheStats [entries=" + entryCount + ", bytes=" + sizeInBytes + ", hits=" + hitCount
+				+ ", misses=" + missCount + ", evictions=" + evictionCount + ", loads=" + loadCount
+				+ ", avgLoadMs=" + getAverageLoadTimeMillis() + "]";
+	}
+}
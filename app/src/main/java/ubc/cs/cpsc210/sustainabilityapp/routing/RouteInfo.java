@@ -1,22 +1,252 @@
 package ubc.cs.cpsc210.sustainabilityapp.routing;
 
+import java.util.AbstractList;
 import java.util.List;
 
+import ubc.cs.cpsc210.sustainabilityapp.geometry.LocalProjection;
+import ubc.cs.cpsc210.sustainabilityapp.geometry.PolylineCuller;
+import ubc.cs.cpsc210.sustainabilityapp.geometry.PolylineSimplifier;
 import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
 
 /**
- * Information on a route returned by an instance of RoutingService.
+ * Information on a route returned by an instance of RoutingService.  Instances are immutable.
+ *
+ * Waypoints are stored packed in a single int array, as interleaved latitude/longitude pairs in
+ * millionths of a degree (E6), which is the precision used by the map.  This costs 8 bytes per
+ * waypoint rather than an object per waypoint.  Use {@link #size()} with the indexed accessors to
+ * read the waypoints without allocating.
+ *
+ * For drawing, {@link #computeLevelsOfDetail()} gives the route simplified for each map zoom level,
+ * and {@link #cull(PolylineCuller)} the part of it in view.
  */
 public class RouteInfo {
-	private List<LatLong> waypoints;
+	/**
+	 * Greatest map zoom level for which a simplified route is precomputed; at greater zoom levels, 
+	 * the route is drawn with every waypoint.
+	 */
+	public final static int MAX_DETAIL_ZOOM_LEVEL = 18;
 
+	/**
+	 * Greatest distance, in pixels at the zoom level drawn, by which a simplified route may stray 
+	 * from the full route.
+	 */
+	private final static double DETAIL_TOLERANCE_PIXELS = 0.5;
+
+	private final int[] latLongsE6;
+
+	/**
+	 * @param waypoints The waypoints of the route, in order.
+	 */
 	public RouteInfo(List<LatLong> waypoints) {
-		this.waypoints = waypoints;
+		latLongsE6 = new int[waypoints.size() * 2];
+		int i = 0;
+		for (LatLong point : waypoints) {
+			latLongsE6[i++] = toE6(point.getLatitude());
+			latLongsE6[i++] = toE6(point.getLongitude());
+		}
+	}
+
+	/**
+	 * Create a route from packed waypoints.  The array is not copied, and must not be modified
+	 * afterwards.
+	 *
+	 * @param latLongsE6 The latitude and longitude of each waypoint in millionths of a degree, interleaved.
+	 */
+	public RouteInfo(int[] latLongsE6) {
+		if (latLongsE6.length % 2 != 0)
+			throw new IllegalArgumentException("Latitudes and longitudes must be paired");
+		this.latLongsE6 = latLongsE6;
+	}
+
+	/**
+	 * Create a route from interleaved latitude/longitude pairs.
+	 *
+	 * @param latLongs The latitude and longitude of each waypoint, interleaved.
+	 */
+	public static RouteInfo fromLatLongs(double[] latLongs) {
+		int[] latLongsE6 = new int[latLongs.length & ~1];
+		for (int i = 0; i < latLongsE6.length; i++)
+			latLongsE6[i] = toE6(latLongs[i]);
+		return new RouteInfo(latLongsE6);
+	}
+
+	/**
+	 * Join the routes of consecutive legs into one route passing through the given points.  For each
+	 * leg, the route contains the leg's start point, the leg's waypoints, and then its end point.
+	 *
+	 * @param points The points to pass through, in order.
+	 * @param legs The route from each point to the next; a null leg is left out of the joined route.
+	 */
+	public static RouteInfo join(List<LatLong> points, List<RouteInfo> legs) {
+		int size = 0;
+		for (RouteInfo leg : legs) {
+			if (leg != null)
+				size += leg.size() + 2;
+		}
+
+		int[] joined = new int[size * 2];
+		int pos = 0;
+		for (int i = 0; i < legs.size(); i++) {
+			RouteInfo leg = legs.get(i);
+			if (leg == null)
+				continue;
+
+			pos = putPoint(joined, pos, points.get(i));
+			System.arraycopy(leg.latLongsE6, 0, joined, pos, leg.latLongsE6.length);
+			pos += leg.latLongsE6.length;
+			pos = putPoint(joined, pos, points.get(i + 1));
+		}
+
+		return new RouteInfo(joined);
 	}
 
+	/**
+	 * @return The number of waypoints in the route.
+	 */
+	public int size() {
+		return latLongsE6.length / 2;
+	}
+
+	/**
+	 * @return The latitude of the waypoint at the given index, in millionths of a degree.
+	 */
+	public int getLatitudeE6(int index) {
+		return latLongsE6[2 * index];
+	}
+
+	/**
+	 * @return The longitude of the waypoint at the given index, in millionths of a degree.
+	 */
+	public int getLongitudeE6(int index) {
+		return latLongsE6[2 * index + 1];
+	}
+
+	public double getLatitude(int index) {
+		return latLongsE6[2 * index] / 1E6;
+	}
+
+	public double getLongitude(int index) {
+		return latLongsE6[2 * index + 1] / 1E6;
+	}
+
+	/**
+	 * @return A read-only view of the waypoints.  A new LatLong is created each time an element is
+	 *         read; prefer the indexed accessors where allocation matters.
+	 */
 	public List<LatLong> getWaypoints() {
-		return waypoints;
+		return new AbstractList<LatLong>() {
+			@Override
+			public LatLong get(int index) {
+				if (index < 0 || index >= size())
+					throw new IndexOutOfBoundsException("Index: " + index);
+				return new LatLong(getLatitude(index), getLongitude(index));
+			}
+
+			@Override
+			public int size() {
+				return RouteInfo.this.size();
+			}
+		};
+	}
+
+	/**
+	 * @return Approximate number of bytes of heap used by this route: the object, the packed
+	 *         array's header and 8 bytes per waypoint.
+	 */
+	public long getEstimatedSizeInBytes() {
+		return 32 + 4L * latLongsE6.length;
+	}
+
+	/**
+	 * @return Length of the path through the waypoints, in metres.
+	 */
+	public double getLengthInMetres() {
+		if (size() < 2)
+			return 0;
+
+		LocalProjection projection = new LocalProjection(getLatitude(0), getLongitude(0));
+		double length = 0;
+		double x = 0;
+		double y = 0;
+		for (int i = 1; i < size(); i++) {
+			double nextX = projection.toX(getLongitude(i));
+			double nextY = projection.toY(getLatitude(i));
+			length += Math.sqrt(LocalProjection.distanceSq(x, y, nextX, nextY));
+			x = nextX;
+			y = nextY;
+		}
+		return length;
+	}
+
+	/**
+	 * @return This route with the parts outside the culler's bounds culled, for drawing only the part 
+	 *         of the route in view; this route itself if no waypoint was culled.
+	 */
+	public RouteInfo cull(PolylineCuller culler) {
+		int[] culled = culler.cull(latLongsE6);
+		return culled == latLongsE6 ? this : new RouteInfo(culled);
+	}
+
+	/**
+	 * Simplify the route for drawing at each map zoom level up to {@link #MAX_DETAIL_ZOOM_LEVEL}: each
+	 * simplified route keeps only the waypoints needed to stay within half a pixel of the full route,
+	 * which is usually a small fraction of them when zoomed out.  At greater zoom levels, the full
+	 * route is drawn.
+	 * 
+	 * The simplified routes are not kept with this route, which may be cached and is weighed only by
+	 * its own waypoints; whoever draws the route keeps them for as long as it is drawn.
+	 * 
+	 * @return The simplified route for each zoom level, by zoom level.  Each has the same first and 
+	 *         last waypoints; it is this route itself if no waypoint can be left out.
+	 */
+	public RouteInfo[] computeLevelsOfDetail() {
+		RouteInfo[] levels = new RouteInfo[MAX_DETAIL_ZOOM_LEVEL + 1];
+		if (size() <= 2) {
+			for (int zoom = 0; zoom <= MAX_DETAIL_ZOOM_LEVEL; zoom++)
+				levels[zoom] = this;
+			return levels;
+		}
+		
+		int n = size();
+		LocalProjection projection = new LocalProjection(getLatitude(0), getLongitude(0));
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		for (int i = 0; i < n; i++) {
+			xs[i] = projection.toX(getLongitude(i));
+			ys[i] = projection.toY(getLatitude(i));
+		}
+		double[] significance = PolylineSimplifier.significance(xs, ys, n);
+		
+		// the most detailed levels are computed first, so that a level keeping the same waypoints as 
+		// the level above it can be shared
+		RouteInfo previous = this;
+		for (int zoom = MAX_DETAIL_ZOOM_LEVEL; zoom >= 0; zoom--) {
+			double tolerance = DETAIL_TOLERANCE_PIXELS * projection.metresPerPixel(zoom);
+			int kept = PolylineSimplifier.countKept(significance, tolerance);
+			
+			if (kept != previous.size()) {
+				int[] keptLatLongsE6 = new int[kept * 2];
+				int pos = 0;
+				for (int i = 0; i < n; i++) {
+					if (significance[i] > tolerance) {
+						keptLatLongsE6[pos++] = latLongsE6[2 * i];
+						keptLatLongsE6[pos++] = latLongsE6[2 * i + 1];
+					}
+				}
+				previous = new RouteInfo(keptLatLongsE6);
+			}
+			levels[zoom] = previous;
+		}
+		return levels;
+	}
+
+	private static int putPoint(int[] latLongsE6, int pos, LatLong point) {
+		latLongsE6[pos] = toE6(point.getLatitude());
+		latLongsE6[pos + 1] = toE6(point.getLongitude());
+		return pos + 2;
+	}
+
+	private static int toE6(double degrees) {
+		return (int) Math.round(degrees * 1E6);
 	}
-	
-	
 }
@@ -0,0 +1,17 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+/**
+ * Receives the legs of a multi-leg route as they are retrieved by
+ * {@link RoutingService#getRoutes(java.util.List, boolean, RouteLegListener)}.
+ */
+public interface RouteLegListener {
+
+	/**
+	 * Called, in order of the legs, once a leg and every leg before it has been retrieved.  Called on
+	 * the thread which requested the route.
+	 *
+	 * @param index Index of the leg; leg i runs from waypoint i to waypoint i + 1.
+	 * @param leg The leg, including its start and end waypoints, as it appears in the joined route.
+	 */
+	public void legRetrieved(int index, RouteInfo leg);
+}
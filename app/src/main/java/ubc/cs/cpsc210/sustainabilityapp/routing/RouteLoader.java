@@ -0,0 +1,21 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Loads a route that could not be found in a {@link RouteCache}.
+ */
+public interface RouteLoader {
+
+	/**
+	 * Load the route between the given endpoints.
+	 *
+	 * @param endpoints Endpoints of the route.
+	 * @param token Cancelled once nothing waits for the route any longer; never null.
+	 * @return Information on the route, including the waypoints.
+	 * @throws InterruptedIOException If the token is cancelled before the route is loaded.
+	 * @throws IOException If an error occurs while loading the route.
+	 */
+	public RouteInfo load(RouteEndpoints endpoints, CancellationToken token) throws IOException;
+}
@@ -0,0 +1,149 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs route work on a fixed number of shared threads, so that requesting a route does not start a
+ * thread of its own.  This class is thread-safe.
+ *
+ * Each task is submitted under a key, typically naming the overlay the route is displayed on; only
+ * the latest task for a key is wanted.  Submitting a task supersedes the previous task with the same
+ * key: if that task has not started, it is removed from the queue and never runs; if it is running,
+ * its {@link CancellationToken} is cancelled.  The queue therefore never holds more than one task per
+ * key.
+ */
+public class RouteScheduler {
+	/**
+	 * How long an idle thread is kept before it exits, so that a scheduler which is no longer used
+	 * holds no threads.
+	 */
+	private final static long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Latest task submitted under each key, until it finishes.  Guarded by this.
+	 */
+	private final Map<String, Job> latestJobs = new HashMap<String, Job>();
+
+	private final AtomicInteger peakQueueDepth = new AtomicInteger();
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong cancelledCount = new AtomicLong();
+	private final AtomicLong completedCount = new AtomicLong();
+
+	/**
+	 * @param threadCount Number of tasks which may run at once.
+	 */
+	public RouteScheduler(int threadCount) {
+		executor = new ThreadPoolExecutor(threadCount, threadCount, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger threadNumber = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "RouteScheduler-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Run a task, superseding the previous task submitted with the same key.
+	 *
+	 * @param key Identifies the work, such as the overlay the route is displayed on.
+	 * @param task The task.
+	 * @return The token passed to the task; cancelling it cancels the task.
+	 */
+	public CancellationToken submit(String key, RouteTask task) {
+		Job job = new Job(key, task);
+		submittedCount.incrementAndGet();
+
+		synchronized (this) {
+			Job previous = latestJobs.put(key, job);
+			if (previous != null) {
+				previous.token.cancel();
+				if (executor.remove(previous))
+					coalescedCount.incrementAndGet();
+			}
+		}
+
+		executor.execute(job);
+		updatePeakQueueDepth();
+		return job.token;
+	}
+
+	/**
+	 * Cancel every task, and stop the threads once running tasks have finished.
+	 */
+	public void shutdown() {
+		List<Job> jobs;
+		synchronized (this) {
+			jobs = new ArrayList<Job>(latestJobs.values());
+			latestJobs.clear();
+		}
+
+		for (Job job : jobs)
+			job.token.cancel();
+		executor.shutdown();
+	}
+
+	/**
+	 * @return A snapshot of the queue depth and the task counters.
+	 */
+	public RouteSchedulerStats getStats() {
+		return new RouteSchedulerStats(executor.getQueue().size(), peakQueueDepth.get(),
+				executor.getActiveCount(), submittedCount.get(), coalescedCount.get(), cancelledCount.get(),
+				completedCount.get());
+	}
+
+	private void updatePeakQueueDepth() {
+		int depth = executor.getQueue().size();
+		int peak;
+		while (depth > (peak = peakQueueDepth.get()) && !peakQueueDepth.compareAndSet(peak, depth))
+			;
+	}
+
+	/**
+	 * A submitted task and its token.
+	 */
+	private class Job implements Runnable {
+		private final String key;
+		private final RouteTask task;
+		private final CancellationToken token = new CancellationToken();
+
+		Job(String key, RouteTask task) {
+			this.key = key;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (!token.isCancelled())
+					task.run(token);
+			} finally {
+				synchronized (RouteScheduler.this) {
+					if (latestJobs.get(key) == this)
+						latestJobs.remove(key);
+				}
+
+				if (token.isCancelled())
+					cancelledCount.incrementAndGet();
+				else
+					completedCount.incrementAndGet();
+			}
+		}
+	}
+}
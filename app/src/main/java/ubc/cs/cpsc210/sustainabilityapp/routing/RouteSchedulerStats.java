@@ -0,0 +1,78 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+/**
+ * Snapshot of the queue and usage counters of a {@link RouteScheduler}.
+ */
+public class RouteSchedulerStats {
+	private final int queueDepth;
+	private final int peakQueueDepth;
+	private final int activeCount;
+	private final long submittedCount;
+	private final long coalescedCount;
+	private final long cancelledCount;
+	private final long completedCount;
+
+	public RouteSchedulerStats(int queueDepth, int peakQueueDepth, int activeCount, long submittedCount,
+			long coalescedCount, long cancelledCount, long completedCount) {
+		this.queueDepth = queueDepth;
+		this.peakQueueDepth = peakQueueDepth;
+		this.activeCount = activeCount;
+		this.submittedCount = submittedCount;
+		this.coalescedCount = coalescedCount;
+		this.cancelledCount = cancelledCount;
+		this.completedCount = completedCount;
+	}
+
+	/**
+	 * @return Number of tasks waiting for a thread.
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * @return Largest number of tasks seen waiting for a thread.
+	 */
+	public int getPeakQueueDepth() {
+		return peakQueueDepth;
+	}
+
+	/**
+	 * @return Approximate number of tasks running.
+	 */
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount;
+	}
+
+	/**
+	 * @return Number of tasks superseded before they started, which therefore never ran.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * @return Number of tasks cancelled while running.
+	 */
+	public long getCancelledCount() {
+		return cancelledCount;
+	}
+
+	/**
+	 * @return Number of tasks which ran to completion without being cancelled.
+	 */
+	public long getCompletedCount() {
+		return completedCount;
+	}
+
+	@Override
+	public String toString() {
+		return "RouteSchedulerStats [queued=" + queueDepth + ", peakQueued=" + peakQueueDepth + ", active="
+				+ activeCount + ", submitted=" + submittedCount + ", coalesced=" + coalescedCount
+				+ ", cancelled=" + cancelledCount + ", completed=" + completedCount + "]";
+	}
+}
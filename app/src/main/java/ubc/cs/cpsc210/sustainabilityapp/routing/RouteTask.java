@@ -0,0 +1,15 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+/**
+ * Work submitted to a {@link RouteScheduler}, typically retrieving a route and displaying it.
+ */
+public interface RouteTask {
+
+	/**
+	 * Do the work, stopping early if the token is cancelled.  Errors must be handled by the task.
+	 *
+	 * @param token Cancelled when the task is superseded by a newer task with the same key, or when
+	 *              the scheduler is shut down.
+	 */
+	public void run(CancellationToken token);
+}
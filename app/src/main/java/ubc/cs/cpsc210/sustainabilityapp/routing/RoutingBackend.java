@@ -0,0 +1,28 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Calculates walking routes between geographic locations on behalf of a {@link RoutingService}.
+ * Implementations must be thread-safe.
+ */
+public interface RoutingBackend {
+
+	/**
+	 * Calculate the route between the given endpoints.  If the token is cancelled meanwhile, the
+	 * calculation should be abandoned as soon as possible, such as by aborting a request in progress.
+	 * 
+	 * @param endpoints Endpoints of the route.
+	 * @param token Cancels the calculation; never null.
+	 * @return Information on the route calculated, including the waypoints.
+	 * @throws InterruptedIOException If the token is cancelled before the route is calculated.
+	 * @throws IOException If the route cannot be calculated.
+	 */
+	public RouteInfo route(RouteEndpoints endpoints, CancellationToken token) throws IOException;
+	
+	/**
+	 * Release any resources held by the backend.  The backend is not used afterwards.
+	 */
+	public void shutdown();
+}
@@ -1,28 +1,22 @@
 package ubc.cs.cpsc210.sustainabilityapp.routing;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-
-import org.apache.http.HttpVersion;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 //import android.util.Log;
 
@@ -32,54 +26,187 @@ import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
  * Wrapper around a service which calculates routes between geographic locations.  This class may 
  * be called concurrently from multiple threads -- it is thread-safe.
  * 
- * Currently, this class wraps the www.yournavigation.org API 
- * (<a href="http://wiki.openstreetmap.org/wiki/YOURS#Routing_API">http://wiki.openstreetmap.org/wiki/YOURS#Routing_API</a>).  
+ * Routes are calculated by a pluggable {@link RoutingBackend}.  By default, this is the 
+ * www.yournavigation.org API (see {@link YoursRoutingBackend}); the backend can be replaced, for 
+ * example by a {@link LocalRoutingBackend} which routes on the device.
  */
 public class RoutingService {
 //	private final static String LOG_TAG = "RoutingService";
-	private final static String URL_BASE = "http://yours.cs.ubc.ca/yours/api/1.0/gosmore.php?";
 	
 	/**
-	 * Caches routes retrieved by their endpoints.  Access to this map must be synchronized on the
-	 * map.
+	 * Default bounds of the route cache: enough for several long tours, while keeping memory use
+	 * bounded during a long session on the same device.
 	 */
-	private Map<RouteEndpoints, RouteInfo> routeCache = new HashMap<RouteEndpoints, RouteInfo>();
+	private final static int DEFAULT_CACHE_ENTRIES = 256;
+	private final static long DEFAULT_CACHE_BYTES = 4 * 1024 * 1024;
 	
-	/** 
-	 * Client for making HTTP requests to the API of the service.
+	/**
+	 * Maximum number of legs of a multi-leg route fetched concurrently, in addition to the calling 
+	 * thread, and how long an idle fetching thread is kept before it exits.
+	 */
+	private final static int LEG_FETCH_THREADS = 4;
+	private final static long LEG_FETCH_KEEP_ALIVE_SECONDS = 30;
+	
+	/**
+	 * Number of route requests, such as the tour and the route to the tour, retrieved at once by the 
+	 * route scheduler.
+	 */
+	private final static int ROUTE_SCHEDULER_THREADS = 2;
+	
+	/**
+	 * Caches routes retrieved by their endpoints.
+	 */
+	private final RouteCache routeCache;
+	
+	/**
+	 * Persistent second-level cache behind routeCache, or null if routes are not persisted.
+	 */
+	private volatile DiskRouteCache diskCache;
+	
+	/**
+	 * Calculates routes which are not cached.
+	 */
+	private volatile RoutingBackend backend;
+	
+	/**
+	 * Fetches the legs of multi-leg routes concurrently.  When all its threads are busy, further legs 
+	 * are fetched on the calling thread, which bounds the number of concurrent requests.  Once it is 
+	 * shut down, legs are refused (see {@link #submitLeg(Callable)}).
 	 */
-	private HttpClient client;
+	private final ExecutorService legExecutor;
+	
+	/**
+	 * Runs route requests on behalf of clients, so that they need not start threads of their own.
+	 */
+	private final RouteScheduler routeScheduler;
+	
+	/**
+	 * Loads routes from the service, recording the time taken in the route cache's counters.
+	 */
+	private final RouteLoader serviceLoader = new RouteLoader() {
+		@Override
+		public RouteInfo load(RouteEndpoints endpoints, CancellationToken token) throws IOException {
+			long loadStart = System.nanoTime();
+			RoutingBackend routeBackend = backend;
+			RouteInfo route;
+			try {
+				route = routeBackend.route(endpoints, token);
+			} catch (IOException e) {
+				// the backend may have been replaced, and shut down, while the route was calculated
+				if (token.isCancelled() || backend == routeBackend)
+					throw e;
+				route = backend.route(endpoints, token);
+			}
+			routeCache.recordLoad(System.nanoTime() - loadStart);
+			return route;
+		}
+	};
+	
+	/**
+	 * Loads routes missing from routeCache: from the disk cache if possible, otherwise from the 
+	 * service, in which case the route is also stored in the disk cache.
+	 */
+	private final RouteLoader cacheLoader = new RouteLoader() {
+		@Override
+		public RouteInfo load(RouteEndpoints endpoints, CancellationToken token) throws IOException {
+			DiskRouteCache disk = diskCache;
+			
+			// a failing disk cache must not stop routes being retrieved from the service
+			if (disk != null) {
+				try {
+					RouteInfo storedRoute = disk.get(endpoints);
+					if (storedRoute != null)
+						return storedRoute;
+				} catch (IOException e) {
+					System.out.println("Could not read route cache file");
+				}
+			}
+			
+			RouteInfo route = serviceLoader.load(endpoints, token);
+			
+			if (disk != null) {
+				try {
+					disk.put(endpoints, route);
+				} catch (IOException e) {
+					System.out.println("Could not write route cache file");
+				}
+			}
+			
+			return route;
+		}
+	};
 	
 	public RoutingService() {
-        // Create an HttpClient with the ThreadSafeClientConnManager.
-        // This connection manager must be used if more than one thread will
-        // be accessing the HttpClient.
-        HttpParams params = new BasicHttpParams();
-        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-        
-        SchemeRegistry schemeRegistry = new SchemeRegistry();
-        schemeRegistry.register(
-                new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-        
-        ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
-        client = new DefaultHttpClient(cm, params);
+		this(new RouteCache(DEFAULT_CACHE_ENTRIES, DEFAULT_CACHE_BYTES, RouteCache.NO_EXPIRY));
+	}
+	
+	/**
+	 * @param routeCache The cache used to store routes retrieved from the service.
+	 */
+	public RoutingService(RouteCache routeCache) {
+		this.routeCache = routeCache;
+		this.backend = new YoursRoutingBackend();
+		this.legExecutor = new ThreadPoolExecutor(0, LEG_FETCH_THREADS, LEG_FETCH_KEEP_ALIVE_SECONDS, 
+				TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new LegFetchThreadFactory(), 
+				new CallerRunsUnlessShutdownPolicy());
+		this.routeScheduler = new RouteScheduler(ROUTE_SCHEDULER_THREADS);
 	}
 	
 	public void shutdown() {
-		if (client != null) {
-			client.getConnectionManager().shutdown();
-		}
+		routeScheduler.shutdown();
+		legExecutor.shutdown();
+		backend.shutdown();
 	}
 	
 	/**
-	 * Calculate route for given start point and end point.  An internet connection must be available.
-	 * See {@link getRouteFromService} for further information on route generation.
+	 * Calculate routes which are not cached with the given backend from now on.  The previous 
+	 * backend is shut down; routes it fails to calculate as a result are calculated again with the 
+	 * new backend.
+	 * 
+	 * @param backend The new backend.
+	 */
+	public synchronized void setBackend(RoutingBackend backend) {
+		RoutingBackend previous = this.backend;
+		this.backend = backend;
+		if (previous != backend)
+			previous.shutdown();
+	}
+	
+	/**
+	 * Persist cached routes in the given disk cache, so that they survive process restarts.
+	 * 
+	 * @param diskCache The disk cache, or null to stop persisting routes.
+	 */
+	public void setDiskCache(DiskRouteCache diskCache) {
+		this.diskCache = diskCache;
+	}
+	
+	/**
+	 * @return Scheduler on which clients should run route requests, superseding requests which are 
+	 *         no longer wanted.
+	 */
+	public RouteScheduler getRouteScheduler() {
+		return routeScheduler;
+	}
+	
+	/**
+	 * @return A snapshot of the route cache's size and hit, miss, eviction and load-time counters.
+	 */
+	public RouteCacheStats getCacheStats() {
+		return routeCache.getStats();
+	}
+	
+	/**
+	 * Calculate route for given start point and end point.  See the current {@link RoutingBackend} 
+	 * for further information on route generation; with the default backend, an internet connection 
+	 * must be available.
 	 * 
 	 * @param start The start point of the route.
 	 * @param end The end point of the route.
 	 * @param useCache Indicates whether the service should return a cached route, if one exists.  
 	 *                 If this flag is set to true, and a cached route is not available, then the new 
-	 *                 route obtained from the server will be cached.
+	 *                 route obtained from the server will be cached.  Cached routes are looked up in 
+	 *                 memory first, then in the disk cache, if one has been set.
 	 * @return Information on the route calculated, including the waypoints.
 	 * @throws IOException If an error occurs while retrieving the route from the server.
 	 */
@@ -87,145 +214,320 @@ public class RoutingService {
 		
 		RouteEndpoints endpoints = new RouteEndpoints(start, end);
 		
-		if(useCache){
-			RouteInfo cachedRoute = getCachedRoute(endpoints);
-			
-			// if there is a route in the cache, return it and don't use the service
-			if(cachedRoute != null)
-				return cachedRoute;
-		}
-			
-		// if there is no route in the cache or useCache is false
-		RouteInfo routeFromService = getRouteFromService(endpoints);
-		
-		// if requested, store route from the service into the cache
+		// if there is a route in the cache, return it and don't use the service; concurrent 
+		// requests for the same uncached route share a single request to the service
 		if(useCache)
-			addRouteToCache(endpoints, routeFromService);
-		
-		return routeFromService;
+			return routeCache.get(endpoints, cacheLoader);
+			
+		// useCache is false
+		return serviceLoader.load(endpoints, new CancellationToken());
+	}
+	
+	/**
+	 * Calculate the route visiting each of the given points in order.  Legs which are cached are used 
+	 * immediately; the others are fetched concurrently, so that a route of many legs takes about as 
+	 * long to calculate as its slowest leg.  Cached routes are used, and new legs cached, as for 
+	 * {@link #getRoute(LatLong, LatLong, boolean)} with useCache set to true.
+	 * 
+	 * @param waypoints The points to visit, in order.
+	 * @return The route joining the legs, each running from one point to the next; see 
+	 *         {@link RouteInfo#join(List, List)}.
+	 * @throws IOException If an error occurs while retrieving any leg from the server; legs still 
+	 *                     being fetched are then cancelled.
+	 */
+	public RouteInfo getRoutes(List<LatLong> waypoints) throws IOException {
+		return getRoutes(waypoints, true);
 	}
 	
 	/**
-	 * Calculate route for given endpoints.  Currently, we use the www.yournavigation.org API
-	 * (<a href="http://wiki.openstreetmap.org/wiki/YOURS#Routing_API">http://wiki.openstreetmap.org/wiki/YOURS#Routing_API</a>), 
-	 * with result format set to geojson, vehicle set to foot and route type set to shortest (rather than fastest).  Using route 
-	 * type of fastest can result in different routes between the same two points, depending on the 
-	 * direction traveled.
+	 * Calculate the route visiting each of the given points in order, as for 
+	 * {@link #getRoutes(List)}.
 	 * 
-	 * Subclasses can override this method to connect to alternate routing services.
+	 * @param waypoints The points to visit, in order.
+	 * @param useCache Indicates whether cached legs should be used, as for 
+	 *                 {@link #getRoute(LatLong, LatLong, boolean)}.
+	 * @return The route joining the legs.
+	 * @throws IOException If an error occurs while retrieving any leg from the server.
+	 */
+	public RouteInfo getRoutes(List<LatLong> waypoints, boolean useCache) throws IOException {
+		return getRoutes(waypoints, useCache, null);
+	}
+	
+	/**
+	 * Calculate the route visiting each of the given points in order, as for 
+	 * {@link #getRoutes(List)}, passing each leg to a listener as soon as it and every leg before it 
+	 * have been retrieved.  A route can then be displayed progressively, starting as soon as its 
+	 * first leg is available.
 	 * 
-	 * @param endpoints Endpoints of the route.
-	 * @return Information on the route calculated, including waypoints.
-	 * @throws IOException If an error occurs while retrieving the route from the server.
+	 * @param waypoints The points to visit, in order.
+	 * @param useCache Indicates whether cached legs should be used, as for 
+	 *                 {@link #getRoute(LatLong, LatLong, boolean)}.
+	 * @param listener Receives the legs in order, on the calling thread; may be null.
+	 * @return The route joining the legs.
+	 * @throws IOException If an error occurs while retrieving any leg from the server; the legs 
+	 *                     before the failed one have been passed to the listener.
 	 */
-	private RouteInfo getRouteFromService(RouteEndpoints endpoints) throws IOException {
-
-		//API no longer hosted at UBC
-		//http://wiki.openstreetmap.org/wiki/YOURS
-		String url = URL_BASE + "format=geojson" + "&flat=" + endpoints.getStart().getLatitude() + "&flon="
-			+ endpoints.getStart().getLongitude() + "&tlat=" + endpoints.getEnd().getLatitude() +
-			"&tlon=" + endpoints.getEnd().getLongitude() + "&v=foot&fast=0&layer=mapnik";
-				
-			// flat = latitude of the starting location.
-			// flon = longitude of the starting location.
-			// tlat = latitude of the end location.
-			// tlon = longitude of the end location.
-			// v = the type of transport, possible options are: motorcar, bicycle or foot. Default is: motorcar.
-			// fast = 1 selects the fastest route, 0 the shortest route. Default is: 1. 
-			// format = specifies the format (KML or geoJSON) in which the route result is being sent back to 
-			// the client. This can either be kml or geojson. Default is: kml
-			// http://wiki.openstreetmap.org/wiki/YOURS
+	public RouteInfo getRoutes(List<LatLong> waypoints, boolean useCache, RouteLegListener listener) 
+			throws IOException {
+		return getRoutes(waypoints, useCache, listener, null);
+	}
+	
+	/**
+	 * Calculate the route visiting each of the given points in order, as for 
+	 * {@link #getRoutes(List, boolean, RouteLegListener)}, until the given token is cancelled.  Once 
+	 * it is, no further legs are fetched or passed to the listener, and the calling thread stops 
+	 * waiting.  Legs being fetched are aborted, unless another request is waiting for them too (see 
+	 * {@link RouteCache#load(RouteEndpoints, RouteLoader, CancellationToken)}).
+	 * 
+	 * @param waypoints The points to visit, in order.
+	 * @param useCache Indicates whether cached legs should be used.
+	 * @param listener Receives the legs in order, on the calling thread; may be null.
+	 * @param token Cancels the request; may be null.
+	 * @return The route joining the legs.
+	 * @throws InterruptedIOException If the token is cancelled before the route is complete.
+	 * @throws IOException If an error occurs while retrieving any leg from the server.
+	 */
+	public RouteInfo getRoutes(List<LatLong> waypoints, boolean useCache, RouteLegListener listener, 
+			CancellationToken token) throws IOException {
+		if (token == null)
+			token = new CancellationToken();
+		
+		final CancellationToken legToken = token;
+		int legCount = Math.max(0, waypoints.size() - 1);
+		List<RouteInfo> legs = new ArrayList<RouteInfo>(legCount);
+		final List<Future<RouteInfo>> fetches = new ArrayList<Future<RouteInfo>>(legCount);
+		int published = 0;
+		
+		// on cancellation, stop waiting for the legs being fetched
+		Runnable cancelFetches = new Runnable() {
+			@Override
+			public void run() {
+				cancelAll(fetches);
+			}
+		};
+		token.addCancelListener(cancelFetches);
 		
 		try {
-			// set up to get response from service
-			URI uri = new URI(url);
-			HttpGet request = new HttpGet(uri);
-			request.addHeader("X-Yours-client", "UBC CPSC 210");
-			BasicResponseHandler handler = new BasicResponseHandler();
-			
-			// get response from service
-			String responseString = client.execute(request, handler);
-			
-			// store response as JSONTokener
-			JSONObject response = (JSONObject) new JSONTokener(responseString).nextValue();
-						
-			return jsonTokenerToRouteInfo(response);
+			// start fetching every missing leg before waiting for any of them; as legs may be fetched 
+			// on this thread, publish those already available along the way
+			for (int i = 0; i < legCount; i++) {
+				token.throwIfCancelled();
+				
+				final RouteEndpoints endpoints = new RouteEndpoints(waypoints.get(i), waypoints.get(i + 1));
+				final boolean cacheLeg = useCache;
+				RouteInfo cached = useCache ? routeCache.get(endpoints) : null;
+				
+				legs.add(cached);
+				Future<RouteInfo> fetch = cached != null ? null : submitLeg(new Callable<RouteInfo>() {
+					@Override
+					public RouteInfo call() throws IOException {
+						return cacheLeg ? routeCache.load(endpoints, cacheLoader, legToken) 
+								: serviceLoader.load(endpoints, legToken);
+					}
+				});
+				synchronized (fetches) {
+					fetches.add(fetch);
+				}
+				
+				published = publishLegs(waypoints, legs, fetches, published, false, listener, token);
+			}
 			
-		} catch (URISyntaxException e) {
-			System.out.println("Malformed URI");
-			throw new IOException();
-		} catch (JSONException e) {
-			System.out.println("Poor response");
-			throw new IOException();
+			publishLegs(waypoints, legs, fetches, published, true, listener, token);
+		} finally {
+			// after a failure, the remaining legs are no longer needed
+			token.removeCancelListener(cancelFetches);
+			cancelAll(fetches);
 		}
+		
+		return RouteInfo.join(waypoints, legs);
 	}
-
+	
 	/**
-	 * Takes JSONTokener holding coordinates from service and extracts latitude and
-	 * longitude for each point and returns as RouteInfo object
+	 * Fill in the unknown distances of a walking distance matrix.  Distances are taken from cached 
+	 * routes where possible, in either direction; the other routes are fetched concurrently, as for 
+	 * {@link #getRoutes(List)}, and cached, so that a tour between the stops can then be routed 
+	 * from the cache.  Fetching N stops' distances from scratch takes N(N-1)/2 routes, but adding a 
+	 * stop to a complete matrix only N.
 	 * 
-	 * REQUIRES: coordinates string is formatted like "[latitude,longitude][latitude,longitude]..." 
-	 * @param response The JSONTokener response from the service
+	 * @param matrix The matrix; distances already known are not fetched again.
+	 * @param token Cancels the update; may be null.
+	 * @throws InterruptedIOException If the token is cancelled before the matrix is complete.
+	 * @throws IOException If an error occurs while retrieving a route from the server; the distances 
+	 *                     retrieved so far are kept in the matrix.
 	 */
-	private RouteInfo jsonTokenerToRouteInfo(JSONObject response) throws JSONException{
+	public void updateDistanceMatrix(WalkingDistanceMatrix matrix, CancellationToken token) throws IOException {
+		if (token == null)
+			token = new CancellationToken();
+		final CancellationToken fetchToken = token;
 		
-		// gets all coordinates from JSONException
-		String coordinates = response.getString("coordinates");
-		// list to store LatLong points
-		List<LatLong> points = new ArrayList<LatLong>();
-
-		// helper stores a string of characters read from coordinates
-		StringBuffer helper = new StringBuffer();
-		// lat and lon set to 0.0; easy to notice error if value does not change
-		Double lat = 0.0;
-		Double lon = 0.0;
+		List<RouteEndpoints> pairs = matrix.getUnknownPairs();
+		List<RouteEndpoints> fetchedPairs = new ArrayList<RouteEndpoints>();
+		final List<Future<RouteInfo>> fetches = new ArrayList<Future<RouteInfo>>();
 		
-		// for every character in coordinates
-		for(int i = 0; i <= coordinates.length() - 1; i++){
-			
-			// store current character temporarily  
-			char currentChar = coordinates.charAt(i);
- 
-			// if the current character is a number, decimal place
-			// or negative sign, add to helper
-			if(Character.isDigit(currentChar) || currentChar == '.' || currentChar == '-')
-				helper.append(currentChar);
-			// if a previous character exists
-			else if (i > 0){	
-				// store previous character temporarily 
-				char previousChar = coordinates.charAt(i - 1);
+		Runnable cancelFetches = new Runnable() {
+			@Override
+			public void run() {
+				cancelAll(fetches);
+			}
+		};
+		token.addCancelListener(cancelFetches);
+		
+		try {
+			for (final RouteEndpoints pair : pairs) {
+				token.throwIfCancelled();
 				
-				// assuming latitude and longitude are separated by a comma
-				if(currentChar == ',' && Character.isDigit(previousChar)){
-					// store latitude in lat and reset helper
-					lat = Double.valueOf(helper.toString());
-					helper = new StringBuffer();
+				// the pair is probed in both directions, but counted as a single lookup
+				RouteInfo cached = routeCache.peek(pair);
+				if (cached == null)
+					cached = routeCache.peek(new RouteEndpoints(pair.getEnd(), pair.getStart()));
+				routeCache.recordLookup(cached != null);
+				
+				if (cached != null) {
+					matrix.setDistance(pair.getStart(), pair.getEnd(), walkingDistance(pair, cached));
+					continue;
 				}
-				// if the character is neither a comma or a digit and comes after a digit,
-				// the character is assumed to be a ']' that comes after the longitude
-				else if (!Character.isDigit(currentChar) && Character.isDigit(previousChar)){
-					//store latitude and longitude in LatLong list and reset variables
-					lon = Double.valueOf(helper.toString());
-					points.add(new LatLong(lon, lat));
-					lat = 0.0;
-					lon = 0.0;
-					helper = new StringBuffer();
+				
+				Future<RouteInfo> fetch = submitLeg(new Callable<RouteInfo>() {
+					@Override
+					public RouteInfo call() throws IOException {
+						return routeCache.load(pair, cacheLoader, fetchToken);
+					}
+				});
+				synchronized (fetches) {
+					fetches.add(fetch);
 				}
-			}					
+				fetchedPairs.add(pair);
+			}
+			
+			for (int i = 0; i < fetchedPairs.size(); i++) {
+				RouteEndpoints pair = fetchedPairs.get(i);
+				RouteInfo route = awaitLeg(fetches.get(i));
+				token.throwIfCancelled();
+				matrix.setDistance(pair.getStart(), pair.getEnd(), walkingDistance(pair, route));
+			}
+		} finally {
+			token.removeCancelListener(cancelFetches);
+			cancelAll(fetches);
 		}
-		
-		return new RouteInfo(points);
 	}
 	
-	private RouteInfo getCachedRoute(RouteEndpoints endpoints) {
-		synchronized (routeCache) {
-			return routeCache.get(endpoints);
+	/**
+	 * @return Length of the walk between the endpoints along the given route, in metres.
+	 */
+	private static float walkingDistance(RouteEndpoints endpoints, RouteInfo route) {
+		List<LatLong> points = new ArrayList<LatLong>(2);
+		points.add(endpoints.getStart());
+		points.add(endpoints.getEnd());
+		return (float) RouteInfo.join(points, Collections.singletonList(route)).getLengthInMetres();
+	}
+	
+	/**
+	 * Collect retrieved legs in order, starting from the first leg not yet published, and pass them 
+	 * to the listener.
+	 * 
+	 * @param wait Whether to wait for legs which are still being fetched, or stop at the first one.
+	 * @return Index of the first leg not yet published.
+	 */
+	private static int publishLegs(List<LatLong> waypoints, List<RouteInfo> legs, 
+			List<Future<RouteInfo>> fetches, int next, boolean wait, RouteLegListener listener, 
+			CancellationToken token) throws IOException {
+		for (; next < legs.size(); next++) {
+			Future<RouteInfo> fetch;
+			synchronized (fetches) {
+				fetch = fetches.get(next);
+			}
+			
+			if (fetch != null) {
+				if (!wait && !fetch.isDone())
+					break;
+				legs.set(next, awaitLeg(fetch));
+			}
+			
+			token.throwIfCancelled();
+			if (listener != null)
+				listener.legRetrieved(next, 
+						RouteInfo.join(waypoints.subList(next, next + 2), legs.subList(next, next + 1)));
 		}
+		return next;
 	}
 	
-	private void addRouteToCache(RouteEndpoints endpoints, RouteInfo routeInfo) {
-		synchronized (routeCache) {
-			routeCache.put(endpoints, routeInfo);
+	/**
+	 * Start fetching a leg, on a thread of the leg executor, or on the calling thread if they are all 
+	 * busy.
+	 * 
+	 * @throws IOException If the service has been shut down, so that the leg would never be fetched.
+	 */
+	private Future<RouteInfo> submitLeg(Callable<RouteInfo> fetch) throws IOException {
+		try {
+			return legExecutor.submit(fetch);
+		} catch (RejectedExecutionException e) {
+			IOException ioe = new IOException("Routing service has been shut down");
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+	
+	/**
+	 * Stop waiting for the given legs.  Legs already being fetched are not interrupted here: those 
+	 * fetched for a cancelled token are aborted through the token, and the others, after a failure, 
+	 * complete in the background and are cached.
+	 */
+	private static void cancelAll(List<Future<RouteInfo>> fetches) {
+		synchronized (fetches) {
+			for (Future<RouteInfo> fetch : fetches) {
+				if (fetch != null)
+					fetch.cancel(false);
+			}
+		}
+	}
+	
+	private static RouteInfo awaitLeg(Future<RouteInfo> fetch) throws IOException {
+		try {
+			return fetch.get();
+		} catch (CancellationException e) {
+			throw new InterruptedIOException("Route request cancelled");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for route");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			IOException ioe = new IOException("Error retrieving route");
+			ioe.initCause(cause);
+			throw ioe;
+		}
+	}
+	
+	/**
+	 * Runs a leg on the calling thread when every leg fetching thread is busy, as 
+	 * {@link ThreadPoolExecutor.CallerRunsPolicy} does, but refuses it once the executor has been 
+	 * shut down, rather than silently dropping it and leaving its caller waiting forever.
+	 */
+	private static class CallerRunsUnlessShutdownPolicy implements RejectedExecutionHandler {
+		@Override
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+			if (executor.isShutdown())
+				throw new RejectedExecutionException("Leg executor has been shut down");
+			runnable.run();
+		}
+	}
+	
+	/**
+	 * Creates daemon threads for fetching legs, so that idle threads never keep the process alive.
+	 */
+	private static class LegFetchThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadCount = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "RouteLegFetcher-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
 		}
 	}
-}
\ No newline at end of file
+}
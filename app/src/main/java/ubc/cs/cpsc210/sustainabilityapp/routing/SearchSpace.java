@@ -0,0 +1,61 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.util.Arrays;
+
+/**
+ * Distances and parents of the nodes reached by a graph search, with the search's priority queue.
+ * A node's entries are only valid if its stamp equals the current search's stamp, so resetting is
+ * constant time and searches neither allocate nor clear arrays proportional to the graph.  This
+ * class is not thread-safe.
+ */
+class SearchSpace {
+	final int[] distance;
+	
+	/**
+	 * What the node was reached from: its parent node or the arc leading to it, depending on the search.
+	 */
+	final int[] parent;
+	final IntMinHeap heap;
+	
+	private final int[] reachedStamp;
+	private final int[] settledStamp;
+	private int stamp;
+
+	SearchSpace(int nodeCount) {
+		distance = new int[nodeCount];
+		parent = new int[nodeCount];
+		reachedStamp = new int[nodeCount];
+		settledStamp = new int[nodeCount];
+		heap = new IntMinHeap(256);
+		stamp = 0;
+	}
+
+	void reset() {
+		heap.clear();
+		stamp++;
+		if (stamp == Integer.MAX_VALUE) {
+			// stamps are about to wrap around; start again from a clean slate
+			Arrays.fill(reachedStamp, 0);
+			Arrays.fill(settledStamp, 0);
+			stamp = 1;
+		}
+	}
+
+	boolean isReached(int node) {
+		return reachedStamp[node] == stamp;
+	}
+
+	boolean isSettled(int node) {
+		return settledStamp[node] == stamp;
+	}
+
+	void reach(int node, int dist, int from) {
+		reachedStamp[node] = stamp;
+		distance[node] = dist;
+		parent[node] = from;
+	}
+
+	void settle(int node) {
+		settledStamp[node] = stamp;
+	}
+}
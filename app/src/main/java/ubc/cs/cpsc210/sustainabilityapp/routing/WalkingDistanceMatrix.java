@@ -0,0 +1,189 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+
+/**
+ * Walking distances between every pair of a set of stops, filled in by
+ * {@link RoutingService#updateDistanceMatrix(WalkingDistanceMatrix, CancellationToken)}.  Distances
+ * are stored in a flat float array, with the distance from stop i to stop j at index i * n + j, which
+ * can be passed straight to a tour optimizer.  This class is thread-safe.
+ *
+ * Stops can be added and removed at any time; the distances between the remaining stops are kept,
+ * and only the distances to new stops are unknown until the matrix is next updated.  Walking
+ * distances are taken to be the same in both directions.
+ */
+public class WalkingDistanceMatrix {
+	/**
+	 * Marks a distance which is not yet known.
+	 */
+	public final static float UNKNOWN = Float.NaN;
+
+	/**
+	 * Average walking speed, in metres per second, used to estimate walking times.
+	 */
+	public final static double WALKING_SPEED = 1.4;
+
+	private final List<LatLong> stops = new ArrayList<LatLong>();
+	private final Map<LatLong, Integer> indexOf = new HashMap<LatLong, Integer>();
+	private float[] distances = new float[0];
+
+	/**
+	 * Create an empty matrix.
+	 */
+	public WalkingDistanceMatrix() {
+	}
+
+	/**
+	 * Create a matrix with the same stops and distances as another, which can be changed without
+	 * changing the other.
+	 */
+	public WalkingDistanceMatrix(WalkingDistanceMatrix other) {
+		synchronized (other) {
+			stops.addAll(other.stops);
+			indexOf.putAll(other.indexOf);
+			distances = other.distances.clone();
+		}
+	}
+
+	/**
+	 * Change the stops to the given ones, keeping the known distances between stops which remain.
+	 * Stops are numbered in the order given.
+	 *
+	 * @return The number of pairs of stops whose distance is now unknown.
+	 */
+	public synchronized int setStops(List<LatLong> newStops) {
+		int n = newStops.size();
+		float[] newDistances = new float[n * n];
+		int unknown = 0;
+
+		for (int i = 0; i < n; i++) {
+			Integer oldI = indexOf.get(newStops.get(i));
+			for (int j = 0; j < n; j++) {
+				Integer oldJ = indexOf.get(newStops.get(j));
+				float distance;
+				if (i == j)
+					distance = 0;
+				else if (oldI != null && oldJ != null)
+					distance = distances[oldI * stops.size() + oldJ];
+				else
+					distance = UNKNOWN;
+
+				newDistances[i * n + j] = distance;
+				if (i < j && Float.isNaN(distance))
+					unknown++;
+			}
+		}
+
+		stops.clear();
+		stops.addAll(newStops);
+		indexOf.clear();
+		for (int i = 0; i < n; i++)
+			indexOf.put(newStops.get(i), i);
+		distances = newDistances;
+
+		return unknown;
+	}
+
+	/**
+	 * Add a stop, whose distances are unknown until the matrix is next updated.  Adding a stop already
+	 * in the matrix has no effect.
+	 */
+	public synchronized void addStop(LatLong stop) {
+		if (indexOf.containsKey(stop))
+			return;
+
+		List<LatLong> newStops = new ArrayList<LatLong>(stops);
+		newStops.add(stop);
+		setStops(newStops);
+	}
+
+	/**
+	 * Remove a stop, keeping the distances between the others.
+	 */
+	public synchronized void removeStop(LatLong stop) {
+		if (!indexOf.containsKey(stop))
+			return;
+
+		List<LatLong> newStops = new ArrayList<LatLong>(stops);
+		newStops.remove(stop);
+		setStops(newStops);
+	}
+
+	public synchronized int size() {
+		return stops.size();
+	}
+
+	/**
+	 * @return A copy of the stops, in matrix order.
+	 */
+	public synchronized List<LatLong> getStops() {
+		return new ArrayList<LatLong>(stops);
+	}
+
+	/**
+	 * @return The walking distance between two stops, in metres, or {@link #UNKNOWN}.
+	 */
+	public synchronized float getDistance(int from, int to) {
+		return distances[from * stops.size() + to];
+	}
+
+	/**
+	 * @return Estimated walking time between two stops, in seconds, or NaN if the distance is unknown.
+	 */
+	public synchronized float getWalkingTime(int from, int to) {
+		return (float) (getDistance(from, to) / WALKING_SPEED);
+	}
+
+	/**
+	 * @return A copy of the distances, as a flat array described above.
+	 */
+	public synchronized float[] getDistances() {
+		return distances.clone();
+	}
+
+	/**
+	 * @return true if every distance is known.
+	 */
+	public synchronized boolean isComplete() {
+		for (float distance : distances) {
+			if (Float.isNaN(distance))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return Pairs of stops whose distance is unknown, each pair once with the lower index first.
+	 */
+	synchronized List<RouteEndpoints> getUnknownPairs() {
+		List<RouteEndpoints> pairs = new ArrayList<RouteEndpoints>();
+		int n = stops.size();
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				if (Float.isNaN(distances[i * n + j]))
+					pairs.add(new RouteEndpoints(stops.get(i), stops.get(j)));
+			}
+		}
+		return pairs;
+	}
+
+	/**
+	 * Record the distance between two stops, in both directions.  Ignored if either stop has been
+	 * removed in the meantime.
+	 */
+	synchronized void setDistance(LatLong from, LatLong to, float distance) {
+		Integer i = indexOf.get(from);
+		Integer j = indexOf.get(to);
+		if (i == null || j == null)
+			return;
+
+		int n = stops.size();
+		distances[i * n + j] = distance;
+		distances[j * n + i] = distance;
+	}
+}
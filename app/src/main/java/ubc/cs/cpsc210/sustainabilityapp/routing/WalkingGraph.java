@@ -0,0 +1,241 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Immutable graph of walkable paths, used to calculate routes on the device.
+ *
+ * Nodes are numbered from 0 and stored as parallel primitive arrays of E6 coordinates.  Arcs are
+ * stored in compressed adjacency form: the arcs leaving node n are numbered from
+ * {@code getFirstArc(n)} up to (but excluding) {@code getFirstArc(n + 1)}.  Each arc has a head
+ * node and a length in centimetres.  Walking graphs are undirected, so every path between two
+ * nodes appears as an arc in each direction.
+ *
+ * The binary file format is a sequence of big-endian ints:
+ * <pre>
+ *   magic, version, node count N, arc count M,
+ *   N x (latitude E6, longitude E6),
+ *   (N + 1) x first arc,
+ *   M x arc head,
+ *   M x arc length (cm)
+ * </pre>
+ */
+public class WalkingGraph {
+	private final static int MAGIC = 0x55424347; // "UBCG"
+	private final static int VERSION = 1;
+
+	/**
+	 * Centimetres per millionth of a degree of latitude (and of longitude at the equator).
+	 */
+	final static double CM_PER_E6 = 11.132;
+
+	private final int[] latitudesE6;
+	private final int[] longitudesE6;
+	private final int[] firstArc;
+	private final int[] arcHead;
+	private final int[] arcLength;
+
+	/**
+	 * Length of a millionth of a degree of longitude relative to one of latitude, at the middle of the
+	 * graph; constant over the graph to the accuracy of the planar approximation.
+	 */
+	private final double longitudeScale;
+
+	/**
+	 * Create a graph from its arrays, which are not copied and must not be modified afterwards.
+	 *
+	 * @param latitudesE6 Latitude of each node, in millionths of a degree.
+	 * @param longitudesE6 Longitude of each node, in millionths of a degree.
+	 * @param firstArc Index of the first arc leaving each node, plus the total number of arcs at the end.
+	 * @param arcHead Node each arc leads to.
+	 * @param arcLength Length of each arc, in centimetres.
+	 */
+	public WalkingGraph(int[] latitudesE6, int[] longitudesE6, int[] firstArc, int[] arcHead, int[] arcLength) {
+		int nodeCount = latitudesE6.length;
+		int arcCount = arcHead.length;
+
+		if (longitudesE6.length != nodeCount || firstArc.length != nodeCount + 1
+				|| arcLength.length != arcCount || firstArc[0] != 0 || firstArc[nodeCount] != arcCount)
+			throw new IllegalArgumentException("Inconsistent graph arrays");
+
+		for (int n = 0; n < nodeCount; n++) {
+			if (firstArc[n] > firstArc[n + 1])
+				throw new IllegalArgumentException("Arcs are not grouped by node");
+		}
+		for (int a = 0; a < arcCount; a++) {
+			if (arcHead[a] < 0 || arcHead[a] >= nodeCount || arcLength[a] < 0)
+				throw new IllegalArgumentException("Invalid arc " + a);
+		}
+
+		this.latitudesE6 = latitudesE6;
+		this.longitudesE6 = longitudesE6;
+		this.firstArc = firstArc;
+		this.arcHead = arcHead;
+		this.arcLength = arcLength;
+
+		int minLatitudeE6 = Integer.MAX_VALUE;
+		int maxLatitudeE6 = Integer.MIN_VALUE;
+		for (int latitudeE6 : latitudesE6) {
+			minLatitudeE6 = Math.min(minLatitudeE6, latitudeE6);
+			maxLatitudeE6 = Math.max(maxLatitudeE6, latitudeE6);
+		}
+		this.longitudeScale = nodeCount == 0 ? 1.0
+				: Math.cos(Math.toRadians((minLatitudeE6 / 2.0 + maxLatitudeE6 / 2.0) / 1E6));
+	}
+
+	/**
+	 * Read a graph in the binary format described above.  The stream is not closed.
+	 *
+	 * @throws IOException If the stream cannot be read or does not hold a valid graph.
+	 */
+	public static WalkingGraph read(InputStream in) throws IOException {
+		IntBuffer ints = readInts(in);
+
+		if (ints.remaining() < 4 || ints.get() != MAGIC || ints.get() != VERSION)
+			throw new IOException("Not a walking graph");
+
+		int nodeCount = ints.get();
+		int arcCount = ints.get();
+		if (nodeCount < 0 || arcCount < 0 || ints.remaining() != 3 * nodeCount + 1 + 2 * arcCount)
+			throw new IOException("Truncated walking graph");
+
+		int[] latitudesE6 = new int[nodeCount];
+		int[] longitudesE6 = new int[nodeCount];
+		for (int n = 0; n < nodeCount; n++) {
+			latitudesE6[n] = ints.get();
+			longitudesE6[n] = ints.get();
+		}
+
+		int[] firstArc = new int[nodeCount + 1];
+		int[] arcHead = new int[arcCount];
+		int[] arcLength = new int[arcCount];
+		ints.get(firstArc);
+		ints.get(arcHead);
+		ints.get(arcLength);
+
+		try {
+			return new WalkingGraph(latitudesE6, longitudesE6, firstArc, arcHead, arcLength);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid walking graph: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Write the graph in the binary format described above.  The stream is not closed.
+	 */
+	public void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(getNodeCount());
+		data.writeInt(getArcCount());
+		for (int n = 0; n < getNodeCount(); n++) {
+			data.writeInt(latitudesE6[n]);
+			data.writeInt(longitudesE6[n]);
+		}
+		writeInts(data, firstArc);
+		writeInts(data, arcHead);
+		writeInts(data, arcLength);
+		data.flush();
+	}
+
+	public int getNodeCount() {
+		return latitudesE6.length;
+	}
+
+	public int getArcCount() {
+		return arcHead.length;
+	}
+
+	public int getLatitudeE6(int node) {
+		return latitudesE6[node];
+	}
+
+	public int getLongitudeE6(int node) {
+		return longitudesE6[node];
+	}
+
+	/**
+	 * @return Index of the first arc leaving the given node; {@code getFirstArc(getNodeCount())} is
+	 *         the number of arcs.
+	 */
+	public int getFirstArc(int node) {
+		return firstArc[node];
+	}
+
+	public int getArcHead(int arc) {
+		return arcHead[arc];
+	}
+
+	/**
+	 * @return Length of the given arc, in centimetres.
+	 */
+	public int getArcLength(int arc) {
+		return arcLength[arc];
+	}
+
+	/**
+	 * Find the node closest to the given location.
+	 *
+	 * @return The closest node, or -1 if the graph has no nodes.
+	 */
+	public int findNearestNode(int latitudeE6, int longitudeE6) {
+		return findNearest(latitudesE6, longitudesE6, latitudeE6, longitudeE6);
+	}
+
+	/**
+	 * @return Index of the point, of those given as parallel arrays of E6 coordinates, closest to
+	 *         the given location, or -1 if there are no points.
+	 */
+	static int findNearest(int[] latitudesE6, int[] longitudesE6, int latitudeE6, int longitudeE6) {
+		double lonScale = Math.cos(Math.toRadians(latitudeE6 / 1E6));
+		int nearest = -1;
+		double minDistSq = Double.MAX_VALUE;
+
+		for (int n = 0; n < latitudesE6.length; n++) {
+			double dLat = latitudesE6[n] - latitudeE6;
+			double dLon = (longitudesE6[n] - longitudeE6) * lonScale;
+			double distSq = dLat * dLat + dLon * dLon;
+			if (distSq < minDistSq) {
+				minDistSq = distSq;
+				nearest = n;
+			}
+		}
+
+		return nearest;
+	}
+
+	/**
+	 * @return Straight-line distance between two nodes in centimetres, using a planar approximation
+	 *         which is accurate over the distances found on campus.
+	 */
+	public double straightLineDistance(int from, int to) {
+		double dLat = latitudesE6[to] - latitudesE6[from];
+		double dLon = (longitudesE6[to] - longitudesE6[from]) * longitudeScale;
+		return Math.sqrt(dLat * dLat + dLon * dLon) * CM_PER_E6;
+	}
+
+	static IntBuffer readInts(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) != -1)
+			bytes.write(buffer, 0, count);
+
+		if (bytes.size() % 4 != 0)
+			throw new IOException("Truncated file");
+
+		return ByteBuffer.wrap(bytes.toByteArray()).asIntBuffer();
+	}
+
+	static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values)
+			out.writeInt(value);
+	}
+}
@@ -0,0 +1,170 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+/**
+ * Routing backend which wraps the www.yournavigation.org API 
+ * (<a href="http://wiki.openstreetmap.org/wiki/YOURS#Routing_API">http://wiki.openstreetmap.org/wiki/YOURS#Routing_API</a>).  
+ * An internet connection must be available.  This class is thread-safe.
+ */
+public class YoursRoutingBackend implements RoutingBackend {
+	private final static String URL_BASE = "http://yours.cs.ubc.ca/yours/api/1.0/gosmore.php?";
+	
+	/**
+	 * Maximum number of concurrent connections to the service; the legs of a tour are fetched 
+	 * concurrently, and the connection manager would otherwise allow only two.
+	 */
+	private final static int MAX_CONNECTIONS = 6;
+	
+	/**
+	 * Parsers for responses from the service; parsers are not thread-safe, so each thread gets its own.
+	 */
+	private final ThreadLocal<GeoJsonRouteParser> parser = new ThreadLocal<GeoJsonRouteParser>() {
+		@Override
+		protected GeoJsonRouteParser initialValue() {
+			return new GeoJsonRouteParser();
+		}
+	};
+	
+	/** 
+	 * Client for making HTTP requests to the API of the service.
+	 */
+	private HttpClient client;
+	
+	public YoursRoutingBackend() {
+        // Create an HttpClient with the ThreadSafeClientConnManager.
+        // This connection manager must be used if more than one thread will
+        // be accessing the HttpClient.
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS));
+        
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(
+                new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        
+        ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
+        client = new DefaultHttpClient(cm, params);
+	}
+	
+	@Override
+	public void shutdown() {
+		if (client != null) {
+			client.getConnectionManager().shutdown();
+		}
+	}
+	
+	/**
+	 * Calculate route for given endpoints.  Currently, we use the www.yournavigation.org API
+	 * (<a href="http://wiki.openstreetmap.org/wiki/YOURS#Routing_API">http://wiki.openstreetmap.org/wiki/YOURS#Routing_API</a>), 
+	 * with result format set to geojson, vehicle set to foot and route type set to shortest (rather than fastest).  Using route 
+	 * type of fastest can result in different routes between the same two points, depending on the 
+	 * direction traveled.
+	 * 
+	 * Other routing services can be used by giving RoutingService a different {@link RoutingBackend}.
+	 * 
+	 * Cancelling the token aborts the request, closing its connection, whether it is waiting for the
+	 * response or reading it.
+	 * 
+	 * @param endpoints Endpoints of the route.
+	 * @param token Cancels the request.
+	 * @return Information on the route calculated, including waypoints.
+	 * @throws InterruptedIOException If the token is cancelled before the route has been read.
+	 * @throws IOException If an error occurs while retrieving the route from the server.
+	 */
+	@Override
+	public RouteInfo route(RouteEndpoints endpoints, CancellationToken token) throws IOException {
+
+		//API no longer hosted at UBC
+		//http://wiki.openstreetmap.org/wiki/YOURS
+		String url = URL_BASE + "format=geojson" + "&flat=" + endpoints.getStart().getLatitude() + "&flon="
+			+ endpoints.getStart().getLongitude() + "&tlat=" + endpoints.getEnd().getLatitude() +
+			"&tlon=" + endpoints.getEnd().getLongitude() + "&v=foot&fast=0&layer=mapnik";
+				
+			// flat = latitude of the starting location.
+			// flon = longitude of the starting location.
+			// tlat = latitude of the end location.
+			// tlon = longitude of the end location.
+			// v = the type of transport, possible options are: motorcar, bicycle or foot. Default is: motorcar.
+			// fast = 1 selects the fastest route, 0 the shortest route. Default is: 1. 
+			// format = specifies the format (KML or geoJSON) in which the route result is being sent back to 
+			// the client. This can either be kml or geojson. Default is: kml
+			// http://wiki.openstreetmap.org/wiki/YOURS
+		
+		try {
+			// set up to get response from service
+			URI uri = new URI(url);
+			final HttpGet request = new HttpGet(uri);
+			request.addHeader("X-Yours-client", "UBC CPSC 210");
+			
+			// aborting the request makes the blocked call throw; if the token is already cancelled, 
+			// the request is aborted before it is sent
+			Runnable abort = new Runnable() {
+				@Override
+				public void run() {
+					request.abort();
+				}
+			};
+			token.addCancelListener(abort);
+			
+			try {
+				// get response from service
+				HttpResponse response = client.execute(request);
+				StatusLine status = response.getStatusLine();
+				HttpEntity entity = response.getEntity();
+				
+				try {
+					if (status.getStatusCode() >= 300)
+						throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase());
+					if (entity == null)
+						throw new IOException("Empty response");
+					
+					// parse coordinates straight from the response stream
+					InputStream content = entity.getContent();
+					try {
+						return RouteInfo.fromLatLongs(parser.get().parseLatLongs(content));
+					} finally {
+						content.close();
+					}
+				} finally {
+					// an aborted response's content cannot be consumed, and need not be
+					if (entity != null && !token.isCancelled())
+						entity.consumeContent();
+				}
+			} catch (IOException e) {
+				if (token.isCancelled())
+					throw new InterruptedIOException("Route request cancelled");
+				throw e;
+			} finally {
+				token.removeCancelListener(abort);
+			}
+			
+		} catch (URISyntaxException e) {
+			System.out.println("Malformed URI");
+			throw new IOException();
+		}
+	}
+}
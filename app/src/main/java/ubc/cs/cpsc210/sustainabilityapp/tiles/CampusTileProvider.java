@@ -0,0 +1,154 @@
+package ubc.cs.cpsc210.sustainabilityapp.tiles;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.osmdroid.tileprovider.IRegisterReceiver;
+import org.osmdroid.tileprovider.MapTileProviderArray;
+import org.osmdroid.tileprovider.constants.OpenStreetMapTileProviderConstants;
+import org.osmdroid.tileprovider.modules.IArchiveFile;
+import org.osmdroid.tileprovider.modules.INetworkAvailablityCheck;
+import org.osmdroid.tileprovider.modules.MapTileDownloader;
+import org.osmdroid.tileprovider.modules.MapTileFileArchiveProvider;
+import org.osmdroid.tileprovider.modules.MapTileFilesystemProvider;
+import org.osmdroid.tileprovider.modules.NetworkAvailabliltyCheck;
+import org.osmdroid.tileprovider.modules.TileWriter;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+/**
+ * Tile provider which serves tiles from an offline {@link TilePack} of the campus where it can, and
+ * otherwise, as osmdroid's basic provider does, from the tile cache or by downloading them.  Tiles
+ * in the pack are drawn without any network access.  If there is no pack, or it cannot be read,
+ * every tile comes from the cache or the network.
+ *
+ * A pack bundled with the application is installed in the default location by
+ * {@link #installPack(AssetManager, String, File)}.  Packs are built by {@link TilePackWriter}.
+ *
+ * A pack is opened once and shared by every provider in the process, as a map and its provider are
+ * created again whenever the map's fragment is, and detached whenever its view is.
+ */
+public class CampusTileProvider extends MapTileProviderArray {
+	private final static String LOG_TAG = "CampusTileProvider";
+
+	/**
+	 * Default location of the campus tile pack, alongside osmdroid's tile cache.
+	 */
+	public final static File DEFAULT_PACK_FILE =
+			new File(OpenStreetMapTileProviderConstants.OSMDROID_PATH, "ubc-campus.tilepack");
+
+	/**
+	 * Open packs by file.
+	 */
+	private final static Map<File, TilePack> openPacks = new HashMap<File, TilePack>();
+
+	/**
+	 * The pack tiles are served from, or null if there is none.
+	 */
+	private final TilePack pack;
+
+	public CampusTileProvider(Context context) {
+		this(new SimpleRegisterReceiver(context), new NetworkAvailabliltyCheck(context),
+				TileSourceFactory.DEFAULT_TILE_SOURCE, DEFAULT_PACK_FILE);
+	}
+
+	/**
+	 * @param packFile The tile pack; if it does not exist, tiles are only served from the cache and
+	 *                 the network.
+	 */
+	public CampusTileProvider(IRegisterReceiver registerReceiver, INetworkAvailablityCheck networkCheck,
+			ITileSource tileSource, File packFile) {
+		super(tileSource, registerReceiver);
+
+		pack = openPack(packFile);
+		if (pack != null) {
+			mTileProviderList.add(new MapTileFileArchiveProvider(registerReceiver, tileSource,
+					new IArchiveFile[] { new TilePackArchive(pack) }));
+		}
+
+		// the same fallback as osmdroid's basic provider
+		mTileProviderList.add(new MapTileFilesystemProvider(registerReceiver, tileSource));
+		mTileProviderList.add(new MapTileDownloader(tileSource, new TileWriter(), networkCheck));
+	}
+
+	/**
+	 * @return Whether tiles are served from a tile pack.
+	 */
+	public boolean hasPack() {
+		return pack != null;
+	}
+
+	/**
+	 * Install a tile pack bundled with the application, copying it from the assets to the given file
+	 * unless there is a pack there already.  The pack is copied to a temporary file which is then
+	 * renamed, so that a copy cut short is never opened.  Copying a pack takes a while, so this should
+	 * be called off the UI thread; maps created before the pack is installed get their tiles from the
+	 * cache and the network.
+	 *
+	 * @throws IOException If no pack is bundled, or it cannot be copied, as when external storage is
+	 *                     not mounted.
+	 */
+	public static void installPack(AssetManager assets, String assetName, File packFile) throws IOException {
+		if (packFile.isFile())
+			return;
+
+		InputStream in = assets.open(assetName);
+		try {
+			File directory = packFile.getParentFile();
+			if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Could not create " + directory);
+
+			File tempFile = new File(packFile.getPath() + ".tmp");
+			OutputStream out = new FileOutputStream(tempFile);
+			boolean copied = false;
+			try {
+				byte[] chunk = new byte[64 * 1024];
+				int n;
+				while ((n = in.read(chunk)) > 0)
+					out.write(chunk, 0, n);
+				copied = true;
+			} finally {
+				out.close();
+				if (!copied)
+					tempFile.delete();
+			}
+
+			if (!tempFile.renameTo(packFile)) {
+				tempFile.delete();
+				throw new IOException("Could not install tile pack " + packFile);
+			}
+		} finally {
+			in.close();
+		}
+		Log.i(LOG_TAG, "Installed tile pack " + packFile);
+	}
+
+	/**
+	 * @return The open pack in the given file, opening it if needed, or null if there is no pack or
+	 *         it cannot be opened.
+	 */
+	private static synchronized TilePack openPack(File packFile) {
+		TilePack pack = openPacks.get(packFile);
+		if (pack != null || !packFile.isFile())
+			return pack;
+
+		try {
+			pack = TilePack.open(packFile);
+			openPacks.put(packFile, pack);
+			return pack;
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Could not open tile pack " + packFile + ": " + e.getMessage());
+			return null;
+		}
+	}
+}
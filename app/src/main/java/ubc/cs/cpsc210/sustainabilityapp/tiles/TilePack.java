@@ -0,0 +1,190 @@
+package ubc.cs.cpsc210.sustainabilityapp.tiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only archive of pre-rendered map tiles, stored in a single file so that the map can be
+ * drawn without a network connection.  This class is thread-safe.
+ *
+ * For each zoom level, the pack covers a rectangle of tiles, numbered as in the usual slippy map
+ * scheme.  The file is laid out as:
+ * <pre>
+ *   int    magic number, "UBCT"
+ *   int    format version
+ *   UTF    name of the tile source the tiles were rendered from (as by DataOutput.writeUTF)
+ *   int    minimum zoom level, maximum zoom level
+ *   int[4] per zoom level: minimum x, minimum y, maximum x and maximum y of the tiles covered
+ *   long[] offset table: offset of each tile's image in the file, by zoom level, then row, then
+ *          column, followed by the offset of the end of the last image
+ *   byte[] tile images, in the same order
+ * </pre>
+ * A tile's image runs from its offset to the next tile's offset; a tile the pack does not have
+ * has an empty image.  Finding a tile therefore takes two reads from the offset table, which is
+ * memory-mapped, and one read of the image, at its position in the file.
+ *
+ * Packs are written by {@link TilePackWriter}.
+ */
+public class TilePack {
+	final static int MAGIC = 0x55424354; // "UBCT"
+	final static int VERSION = 1;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	private final String tileSourceName;
+	private final int minZoomLevel;
+	private final int maxZoomLevel;
+
+	/**
+	 * Tiles covered at each zoom level, from the minimum, as {min x, min y, max x, max y}.
+	 */
+	private final int[][] ranges;
+
+	/**
+	 * Index in the offset table of the first tile of each zoom level, from the minimum.
+	 */
+	private final int[] firstTiles;
+
+	private final LongBuffer offsets;
+
+	private TilePack(RandomAccessFile raf) throws IOException {
+		this.raf = raf;
+		this.channel = raf.getChannel();
+
+		if (raf.readInt() != MAGIC)
+			throw new IOException("Not a tile pack");
+		if (raf.readInt() != VERSION)
+			throw new IOException("Unsupported tile pack version");
+
+		tileSourceName = raf.readUTF();
+		minZoomLevel = raf.readInt();
+		maxZoomLevel = raf.readInt();
+		if (minZoomLevel < 0 || maxZoomLevel < minZoomLevel || maxZoomLevel > 30)
+			throw new IOException("Invalid tile pack zoom levels");
+
+		ranges = new int[maxZoomLevel - minZoomLevel + 1][4];
+		firstTiles = new int[ranges.length];
+		long tileCount = 0;
+		for (int level = 0; level < ranges.length; level++) {
+			for (int i = 0; i < 4; i++)
+				ranges[level][i] = raf.readInt();
+			firstTiles[level] = (int) tileCount;
+			tileCount += countTiles(ranges[level]);
+			if (tileCount > Integer.MAX_VALUE / 8 - 1)
+				throw new IOException("Invalid tile pack ranges");
+		}
+
+		long tableStart = raf.getFilePointer();
+		long tableBytes = (tileCount + 1) * 8;
+		if (tableStart + tableBytes > channel.size())
+			throw new IOException("Truncated tile pack");
+		offsets = channel.map(FileChannel.MapMode.READ_ONLY, tableStart, tableBytes).asLongBuffer();
+	}
+
+	/**
+	 * Open a tile pack.
+	 *
+	 * @throws IOException If the file cannot be read or is not a valid tile pack.
+	 */
+	public static TilePack open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return new TilePack(raf);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	public String getTileSourceName() {
+		return tileSourceName;
+	}
+
+	public int getMinZoomLevel() {
+		return minZoomLevel;
+	}
+
+	public int getMaxZoomLevel() {
+		return maxZoomLevel;
+	}
+
+	/**
+	 * @return Whether the pack covers the given tile; it may still not have an image for it.
+	 */
+	public boolean covers(int zoomLevel, int x, int y) {
+		if (zoomLevel < minZoomLevel || zoomLevel > maxZoomLevel)
+			return false;
+		int[] range = ranges[zoomLevel - minZoomLevel];
+		return x >= range[0] && y >= range[1] && x <= range[2] && y <= range[3];
+	}
+
+	/**
+	 * Read a tile's image.
+	 *
+	 * @return The image, or null if the pack does not have the tile.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public byte[] getTile(int zoomLevel, int x, int y) throws IOException {
+		if (!covers(zoomLevel, x, y))
+			return null;
+
+		int level = zoomLevel - minZoomLevel;
+		int[] range = ranges[level];
+		int index = firstTiles[level] + (y - range[1]) * (range[2] - range[0] + 1) + (x - range[0]);
+		long start = offsets.get(index);
+		long end = offsets.get(index + 1);
+		if (end <= start)
+			return null;
+		if (end - start > Integer.MAX_VALUE)
+			throw new IOException("Invalid tile pack offsets");
+
+		// positional reads do not move the channel's position, so concurrent reads do not interfere
+		ByteBuffer image = ByteBuffer.allocate((int) (end - start));
+		while (image.hasRemaining()) {
+			if (channel.read(image, start + image.position()) < 0)
+				throw new IOException("Truncated tile pack");
+		}
+		return image.array();
+	}
+
+	/**
+	 * Close the pack's file; tiles can no longer be read.
+	 */
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	/**
+	 * @return The number of tiles in a range given as {min x, min y, max x, max y}.
+	 */
+	static long countTiles(int[] range) {
+		if (range[2] < range[0] || range[3] < range[1])
+			return 0;
+		return (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+	}
+
+	/**
+	 * @return The column of the tile holding the given longitude at the given zoom level.
+	 */
+	public static int tileX(double longitude, int zoomLevel) {
+		int tiles = 1 << zoomLevel;
+		int x = (int) Math.floor((longitude + 180) / 360 * tiles);
+		return Math.max(0, Math.min(tiles - 1, x));
+	}
+
+	/**
+	 * @return The row of the tile holding the given latitude at the given zoom level, counting from
+	 *         the north.
+	 */
+	public static int tileY(double latitude, int zoomLevel) {
+		int tiles = 1 << zoomLevel;
+		double lat = Math.toRadians(latitude);
+		int y = (int) Math.floor((1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2 * tiles);
+		return Math.max(0, Math.min(tiles - 1, y));
+	}
+}
@@ -0,0 +1,42 @@
+package ubc.cs.cpsc210.sustainabilityapp.tiles;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.osmdroid.tileprovider.MapTile;
+import org.osmdroid.tileprovider.modules.IArchiveFile;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+
+/**
+ * Serves tiles from a {@link TilePack} to osmdroid's archive tile provider.  Tiles are only served
+ * for the tile source the pack was rendered from.
+ */
+public class TilePackArchive implements IArchiveFile {
+	private final TilePack pack;
+
+	public TilePackArchive(TilePack pack) {
+		this.pack = pack;
+	}
+
+	public TilePack getPack() {
+		return pack;
+	}
+
+	/**
+	 * @return The tile's image, or null if the pack does not have it, so that the next provider is
+	 *         tried.
+	 */
+	@Override
+	public InputStream getInputStream(ITileSource tileSource, MapTile tile) {
+		if (!pack.getTileSourceName().equals(tileSource.name()))
+			return null;
+
+		try {
+			byte[] image = pack.getTile(tile.getZoomLevel(), tile.getX(), tile.getY());
+			return image == null ? null : new ByteArrayInputStream(image);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
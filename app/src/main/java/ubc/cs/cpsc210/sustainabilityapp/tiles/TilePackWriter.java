@@ -0,0 +1,209 @@
+package ubc.cs.cpsc210.sustainabilityapp.tiles;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the tiles covering an area, at a range of zoom levels, into a {@link TilePack}.  Packs are
+ * built ahead of time on a development machine, for example from a directory of pre-rendered tiles,
+ * and bundled with the application, which installs them on the device (see
+ * {@link CampusTileProvider#installPack}):
+ * <pre>
+ *   java ubc.cs.cpsc210.sustainabilityapp.tiles.TilePackWriter tiles .png Mapnik app/src/main/assets/ubc_campus.tilepack
+ * </pre>
+ */
+public class TilePackWriter {
+	/**
+	 * Bounds of the UBC Vancouver campus, in degrees: south, west, north and east.
+	 */
+	public final static double[] CAMPUS_BOUNDS = { 49.2400, -123.2620, 49.2800, -123.2250 };
+
+	/**
+	 * Zoom levels of a campus pack: from the whole campus on a screen to the most detailed.
+	 */
+	public final static int CAMPUS_MIN_ZOOM_LEVEL = 13;
+	public final static int CAMPUS_MAX_ZOOM_LEVEL = 19;
+
+	/**
+	 * Provides the images of the tiles to pack.
+	 */
+	public interface TileLoader {
+		/**
+		 * @return The tile's image, or null if there is none.
+		 * @throws IOException If the image cannot be read.
+		 */
+		byte[] load(int zoomLevel, int x, int y) throws IOException;
+	}
+
+	private final String tileSourceName;
+	private final int minZoomLevel;
+	private final int maxZoomLevel;
+
+	/**
+	 * Tiles to pack at each zoom level, from the minimum, as {min x, min y, max x, max y}.
+	 */
+	private final int[][] ranges;
+
+	/**
+	 * @param tileSourceName Name of the tile source the tiles were rendered from.
+	 * @param minZoomLevel The least zoom level to pack.
+	 * @param maxZoomLevel The greatest zoom level to pack.
+	 * @param bounds Area to pack, in degrees: south, west, north and east.
+	 */
+	public TilePackWriter(String tileSourceName, int minZoomLevel, int maxZoomLevel, double[] bounds) {
+		if (minZoomLevel < 0 || maxZoomLevel < minZoomLevel || maxZoomLevel > 30)
+			throw new IllegalArgumentException("Invalid zoom levels");
+
+		this.tileSourceName = tileSourceName;
+		this.minZoomLevel = minZoomLevel;
+		this.maxZoomLevel = maxZoomLevel;
+		this.ranges = new int[maxZoomLevel - minZoomLevel + 1][];
+		for (int zoom = minZoomLevel; zoom <= maxZoomLevel; zoom++) {
+			// rows are counted from the north
+			ranges[zoom - minZoomLevel] = new int[] {
+					TilePack.tileX(bounds[1], zoom), TilePack.tileY(bounds[2], zoom),
+					TilePack.tileX(bounds[3], zoom), TilePack.tileY(bounds[0], zoom) };
+		}
+	}
+
+	/**
+	 * Create a writer for a pack of the campus.
+	 */
+	public static TilePackWriter forCampus(String tileSourceName) {
+		return new TilePackWriter(tileSourceName, CAMPUS_MIN_ZOOM_LEVEL, CAMPUS_MAX_ZOOM_LEVEL, CAMPUS_BOUNDS);
+	}
+
+	/**
+	 * Usage: TilePackWriter &lt;tile directory&gt; &lt;extension&gt; &lt;tile source name&gt; &lt;pack file&gt;
+	 *
+	 * Writes a pack of the campus from a directory laid out as zoom/x/y, as by
+	 * {@link #fromDirectory(File, String)}.  The tile source name must be the name of the osmdroid tile
+	 * source the map uses, such as "Mapnik", as the pack is only used for that source.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 4) {
+			System.err.println("Usage: TilePackWriter <tile directory> <extension> <tile source name> <pack file>");
+			System.exit(1);
+		}
+
+		long start = System.currentTimeMillis();
+		TilePackWriter writer = forCampus(args[2]);
+		File file = new File(args[3]);
+		int written = writer.write(file, fromDirectory(new File(args[0]), args[1]));
+
+		System.out.println("Packed " + written + " of " + writer.getTileCount() + " tiles, " + file.length()
+				+ " bytes, in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * @return The number of tiles the pack covers.
+	 */
+	public long getTileCount() {
+		long count = 0;
+		for (int[] range : ranges)
+			count += TilePack.countTiles(range);
+		return count;
+	}
+
+	/**
+	 * Write the pack, replacing the file if it exists.
+	 *
+	 * @param loader Provides the tiles' images; tiles it has no image for are left out of the pack.
+	 * @return The number of tiles written.
+	 * @throws IOException If the file cannot be written or the loader fails.
+	 */
+	public int write(File file, TileLoader loader) throws IOException {
+		long tileCount = getTileCount();
+		long[] offsets = new long[(int) tileCount + 1];
+		int written = 0;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(TilePack.MAGIC);
+			out.writeInt(TilePack.VERSION);
+			out.writeUTF(tileSourceName);
+			out.writeInt(minZoomLevel);
+			out.writeInt(maxZoomLevel);
+			for (int[] range : ranges) {
+				for (int i = 0; i < 4; i++)
+					out.writeInt(range[i]);
+			}
+
+			// the offset table is filled in once the images have been written
+			long tableStart = out.size();
+			for (int i = 0; i < offsets.length; i++)
+				out.writeLong(0);
+
+			long offset = tableStart + offsets.length * 8L;
+			int index = 0;
+			for (int level = 0; level < ranges.length; level++) {
+				int[] range = ranges[level];
+				for (int y = range[1]; y <= range[3]; y++) {
+					for (int x = range[0]; x <= range[2]; x++) {
+						offsets[index++] = offset;
+						byte[] image = loader.load(minZoomLevel + level, x, y);
+						if (image != null && image.length > 0) {
+							out.write(image);
+							offset += image.length;
+							written++;
+						}
+					}
+				}
+			}
+			offsets[index] = offset;
+			out.close();
+			out = null;
+
+			writeOffsets(file, tableStart, offsets);
+		} finally {
+			if (out != null)
+				out.close();
+		}
+
+		return written;
+	}
+
+	private static void writeOffsets(File file, long tableStart, long[] offsets) throws IOException {
+		ByteBuffer table = ByteBuffer.allocate(offsets.length * 8);
+		table.asLongBuffer().put(offsets);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(tableStart);
+			raf.write(table.array());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Create a loader which reads tiles from a directory laid out as zoom/x/y followed by the given
+	 * extension, as tile servers and osmdroid's tile cache lay them out.
+	 *
+	 * @param extension Extension of the tile files, such as ".png".
+	 */
+	public static TileLoader fromDirectory(final File directory, final String extension) {
+		return new TileLoader() {
+			@Override
+			public byte[] load(int zoomLevel, int x, int y) throws IOException {
+				File tile = new File(directory, zoomLevel + File.separator + x + File.separator + y + extension);
+				if (!tile.isFile())
+					return null;
+
+				byte[] image = new byte[(int) tile.length()];
+				RandomAccessFile in = new RandomAccessFile(tile, "r");
+				try {
+					in.readFully(image);
+				} finally {
+					in.close();
+				}
+				return image;
+			}
+		};
+	}
+}
@@ -0,0 +1,163 @@
+package ubc.cs.cpsc210.sustainabilityapp.geometry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Benchmark of {@link SpatialIndex} against the linear scan MapDisplayFragment used to find the
+ * closest POI, on random points over the campus.  Prints the average time of each kind of query,
+ * and checks the index's answers against brute force, before and after half the points are
+ * removed.  Run with: java SpatialIndexBenchmark
+ */
+public class SpatialIndexBenchmark {
+	private final static int[] SIZES = { 10000, 100000 };
+	private final static int QUERIES = 2000;
+	private final static int CHECKED_QUERIES = 200;
+	private final static int ROUNDS = 3;
+
+	private final static double CELL_SIZE = 50;
+	private final static int K = 10;
+	private final static double RADIUS = 100;
+
+	public static void main(String[] args) {
+		LocalProjection projection = LocalProjection.CAMPUS;
+
+		for (int n : SIZES) {
+			Random random = new Random(n);
+			double[] latitudes = new double[n];
+			double[] longitudes = new double[n];
+			SpatialIndex<Integer> index = new SpatialIndex<Integer>(projection, CELL_SIZE);
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				latitudes[i] = randomLatitude(random);
+				longitudes[i] = randomLongitude(random);
+				index.add(i, latitudes[i], longitudes[i]);
+			}
+			System.out.printf("%d points, built in %.1f ms%n", n, (System.nanoTime() - start) / 1E6);
+
+			double[] queryLatitudes = new double[QUERIES];
+			double[] queryLongitudes = new double[QUERIES];
+			for (int q = 0; q < QUERIES; q++) {
+				queryLatitudes[q] = randomLatitude(random);
+				queryLongitudes[q] = randomLongitude(random);
+			}
+
+			// the first round warms up the code under test
+			for (int round = 0; round < ROUNDS; round++) {
+				int[] scanned = new int[QUERIES];
+				int[] found = new int[QUERIES];
+
+				long t0 = System.nanoTime();
+				for (int q = 0; q < QUERIES; q++)
+					scanned[q] = linearNearest(latitudes, longitudes, queryLatitudes[q], queryLongitudes[q]);
+				long t1 = System.nanoTime();
+				for (int q = 0; q < QUERIES; q++)
+					found[q] = index.nearest(queryLatitudes[q], queryLongitudes[q]);
+				long t2 = System.nanoTime();
+				for (int q = 0; q < QUERIES; q++)
+					index.nearest(queryLatitudes[q], queryLongitudes[q], K);
+				long t3 = System.nanoTime();
+				for (int q = 0; q < QUERIES; q++)
+					index.withinRadius(queryLatitudes[q], queryLongitudes[q], RADIUS);
+				long t4 = System.nanoTime();
+
+				System.out.printf("linear scan %.1f us, nearest %.2f us, %d-nearest %.2f us, %.0f m radius %.2f us%n",
+						(t1 - t0) / 1E3 / QUERIES, (t2 - t1) / 1E3 / QUERIES, K, (t3 - t2) / 1E3 / QUERIES, RADIUS,
+						(t4 - t3) / 1E3 / QUERIES);
+
+				// the scan measures distance at a different reference latitude, so may break near-ties
+				// differently; the index's answer must be no further away
+				for (int q = 0; q < QUERIES; q++) {
+					double scannedDistance = projection.distance(queryLatitudes[q], queryLongitudes[q],
+							latitudes[scanned[q]], longitudes[scanned[q]]);
+					double foundDistance = projection.distance(queryLatitudes[q], queryLongitudes[q],
+							latitudes[found[q]], longitudes[found[q]]);
+					if (foundDistance > scannedDistance + 1E-6)
+						throw new IllegalStateException("Nearest point differs from the linear scan for query " + q);
+				}
+			}
+
+			List<Integer> points = new ArrayList<Integer>();
+			for (int i = 0; i < n; i++)
+				points.add(i);
+			check(index, points, projection, latitudes, longitudes, queryLatitudes, queryLongitudes);
+
+			List<Integer> kept = new ArrayList<Integer>();
+			for (int i = 0; i < n; i++) {
+				if (i % 2 == 0)
+					index.remove(i);
+				else
+					kept.add(i);
+			}
+			check(index, kept, projection, latitudes, longitudes, queryLatitudes, queryLongitudes);
+			System.out.printf("k-nearest and radius queries match brute force, before and after removing half%n");
+		}
+	}
+
+	private static double randomLatitude(Random random) {
+		return 49.25 + random.nextDouble() * 0.03;
+	}
+
+	private static double randomLongitude(Random random) {
+		return -123.26 + random.nextDouble() * 0.04;
+	}
+
+	/**
+	 * The linear scan MapDisplayFragment used to find the closest POI, comparing approximate squared
+	 * distances in degrees, scaled at the latitude of the first point.
+	 */
+	private static int linearNearest(double[] latitudes, double[] longitudes, double latitude, double longitude) {
+		double approxLatitude = latitudes[0];
+		int closest = -1;
+		double minDistValue = Double.MAX_VALUE;
+		for (int i = 0; i < latitudes.length; i++) {
+			double alpha = Math.cos(Math.PI * approxLatitude / 180.0);
+			double distValue = Math.pow(latitude - latitudes[i], 2) + Math.pow(alpha * (longitude - longitudes[i]), 2);
+			if (distValue < minDistValue) {
+				minDistValue = distValue;
+				closest = i;
+			}
+		}
+		return closest;
+	}
+
+	/**
+	 * Check the k-nearest and radius queries against the points which should be in the index, found
+	 * by brute force.
+	 */
+	private static void check(SpatialIndex<Integer> index, List<Integer> points, final LocalProjection projection,
+			final double[] latitudes, final double[] longitudes, double[] queryLatitudes, double[] queryLongitudes) {
+		if (index.size() != points.size())
+			throw new IllegalStateException("Index holds " + index.size() + " points, not " + points.size());
+
+		for (int q = 0; q < CHECKED_QUERIES; q++) {
+			final double latitude = queryLatitudes[q];
+			final double longitude = queryLongitudes[q];
+
+			List<Integer> sorted = new ArrayList<Integer>(points);
+			Collections.sort(sorted, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(projection.distance(latitude, longitude, latitudes[a], longitudes[a]),
+							projection.distance(latitude, longitude, latitudes[b], longitudes[b]));
+				}
+			});
+			if (!index.nearest(latitude, longitude, K).equals(sorted.subList(0, K)))
+				throw new IllegalStateException("k-nearest points differ from brute force for query " + q);
+
+			Set<Integer> within = new HashSet<Integer>();
+			for (int i : points) {
+				if (projection.distance(latitude, longitude, latitudes[i], longitudes[i]) <= RADIUS)
+					within.add(i);
+			}
+			List<Integer> found = index.withinRadius(latitude, longitude, RADIUS);
+			if (found.size() != within.size() || !within.containsAll(found))
+				throw new IllegalStateException("Points within radius differ from brute force for query " + q);
+		}
+	}
+}
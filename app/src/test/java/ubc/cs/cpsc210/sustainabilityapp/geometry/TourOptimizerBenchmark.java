@@ -0,0 +1,119 @@
+package ubc.cs.cpsc210.sustainabilityapp.geometry;
+
+import java.util.Random;
+
+/**
+ * Benchmark of {@link TourOptimizer} on random stops over the campus.  For each tour size, prints the
+ * average length of the tour in the order given, after the nearest-neighbour construction alone,
+ * and once optimized, with the average time taken to optimize.  Checks that small tours are
+ * optimized to the brute-force optimum.  Run with: java TourOptimizerBenchmark
+ */
+public class TourOptimizerBenchmark {
+	private final static int[] SIZES = { 5, 10, 20, 50, 100, 200 };
+	private final static int TOURS_PER_SIZE = 20;
+	private final static long BUDGET_MILLIS = 50;
+
+	private final static int BRUTE_FORCE_SIZE = 8;
+	private final static int BRUTE_FORCE_TOURS = 50;
+
+	public static void main(String[] args) {
+		Random random = new Random(5);
+		TourOptimizer optimizer = new TourOptimizer(BUDGET_MILLIS);
+		// with no time to improve the tour, the optimizer returns the nearest-neighbour tour
+		TourOptimizer nearestNeighbour = new TourOptimizer(0);
+
+		double worstGap = 0;
+		for (int trial = 0; trial < BRUTE_FORCE_TOURS; trial++) {
+			int n = BRUTE_FORCE_SIZE;
+			float[] distances = randomStops(random, n);
+			int[] tour = optimizer.optimize(distances, n);
+			checkTour(tour, n);
+			double optimum = bruteForceLength(distances, n);
+			worstGap = Math.max(worstGap, TourOptimizer.tourLength(tour, distances, n) / optimum - 1);
+		}
+		System.out.printf("%d stops, %d tours: worst gap to the brute-force optimum %.2f%%%n", BRUTE_FORCE_SIZE,
+				BRUTE_FORCE_TOURS, worstGap * 100);
+
+		// run once untimed, so that the timings are of compiled code
+		for (int pass = 0; pass < 2; pass++) {
+			if (pass == 1)
+				System.out.println("stops   given        NN   optimized   time");
+			for (int n : SIZES) {
+				double given = 0;
+				double nn = 0;
+				double optimized = 0;
+				long nanos = 0;
+				for (int trial = 0; trial < TOURS_PER_SIZE; trial++) {
+					float[] distances = randomStops(random, n);
+					int[] identity = new int[n];
+					for (int i = 0; i < n; i++)
+						identity[i] = i;
+					given += TourOptimizer.tourLength(identity, distances, n);
+					nn += TourOptimizer.tourLength(nearestNeighbour.optimize(distances, n), distances, n);
+
+					long start = System.nanoTime();
+					int[] tour = optimizer.optimize(distances, n);
+					nanos += System.nanoTime() - start;
+					checkTour(tour, n);
+					optimized += TourOptimizer.tourLength(tour, distances, n);
+				}
+				if (pass == 1)
+					System.out.printf("%5d %7.0f m %7.0f m %7.0f m %6.2f ms%n", n, given / TOURS_PER_SIZE,
+							nn / TOURS_PER_SIZE, optimized / TOURS_PER_SIZE, nanos / 1E6 / TOURS_PER_SIZE);
+			}
+		}
+	}
+
+	/**
+	 * @return The straight-line distance matrix of n random stops over the campus.
+	 */
+	private static float[] randomStops(Random random, int n) {
+		PointSet points = new PointSet(LocalProjection.CAMPUS, n);
+		for (int i = 0; i < n; i++)
+			points.add(49.25 + random.nextDouble() * 0.02, -123.26 + random.nextDouble() * 0.03);
+		float[] distances = new float[n * n];
+		points.distanceMatrix(distances);
+		return distances;
+	}
+
+	/**
+	 * Check that a tour visits every stop once, starting with stop 0.
+	 */
+	private static void checkTour(int[] tour, int n) {
+		if (tour.length != n || tour[0] != 0)
+			throw new IllegalStateException("Tour does not start with stop 0");
+		boolean[] seen = new boolean[n];
+		for (int stop : tour) {
+			if (seen[stop])
+				throw new IllegalStateException("Stop " + stop + " visited twice");
+			seen[stop] = true;
+		}
+	}
+
+	private static double bruteForceLength(float[] distances, int n) {
+		int[] tour = new int[n];
+		for (int i = 0; i < n; i++)
+			tour[i] = i;
+		return permute(tour, 1, distances, n, Double.MAX_VALUE);
+	}
+
+	/**
+	 * @return The length of the shortest tour with the given prefix, or best if shorter.
+	 */
+	private static double permute(int[] tour, int k, float[] distances, int n, double best) {
+		if (k == n)
+			return Math.min(best, TourOptimizer.tourLength(tour, distances, n));
+		for (int i = k; i < n; i++) {
+			swap(tour, k, i);
+			best = permute(tour, k + 1, distances, n, best);
+			swap(tour, k, i);
+		}
+		return best;
+	}
+
+	private static void swap(int[] a, int i, int j) {
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+}
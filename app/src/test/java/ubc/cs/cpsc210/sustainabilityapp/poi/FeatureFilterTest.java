@@ -0,0 +1,153 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.Feature;
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+
+/**
+ * Checks the matches {@link FeatureFilter} keeps up to date incrementally, and the
+ * {@link SortedIntArrays} operations it uses, against brute force.
+ */
+public class FeatureFilterTest {
+	private final static int POIS = 1000;
+	private final static int TOGGLES = 2000;
+
+	private final static Feature[] FEATURES = Feature.values();
+
+	/**
+	 * Chance of a POI having each feature, from common to rare, so that the filter intersects and
+	 * subtracts sets of very different sizes.
+	 */
+	private final static double[] FEATURE_CHANCES = { 0.6, 0.5, 0.4, 0.3, 0.2, 0.1, 0.04, 0.01 };
+
+	@Test
+	public void testAnyMatchesBruteForce() {
+		checkRandomToggles(FeatureFilter.Match.ANY);
+	}
+
+	@Test
+	public void testAllMatchesBruteForce() {
+		checkRandomToggles(FeatureFilter.Match.ALL);
+	}
+
+	/**
+	 * Features are checked and unchecked one at a time, as on the features tab, with the selection
+	 * occasionally replaced as a whole, as when the tab is resumed; after each change the filter's
+	 * matches, and whether it reported them changed, agree with a scan of every POI.
+	 */
+	private void checkRandomToggles(FeatureFilter.Match match) {
+		Random random = new Random(match.ordinal());
+		IndexedPOIRegistry registry = new IndexedPOIRegistry(randomPOIs(random));
+		FeatureFilter filter = new FeatureFilter(registry, match);
+		List<PointOfInterest> before = filter.getMatches();
+		assertEquals(0, before.size());
+
+		for (int toggle = 0; toggle < TOGGLES; toggle++) {
+			boolean changed;
+			if (random.nextInt(20) == 0) {
+				List<Feature> features = new ArrayList<Feature>();
+				for (Feature feature : FEATURES) {
+					if (random.nextBoolean())
+						features.add(feature);
+				}
+				changed = filter.setSelectedFeatures(features);
+			} else {
+				Feature feature = FEATURES[random.nextInt(FEATURES.length)];
+				if ((filter.getSelectedFeatures() & (1L << feature.ordinal())) == 0)
+					changed = filter.select(feature);
+				else
+					changed = filter.deselect(feature);
+			}
+
+			List<PointOfInterest> expected = bruteForce(registry, filter.getSelectedFeatures(), match);
+			List<PointOfInterest> actual = filter.getMatches();
+			assertEquals("Matches after toggle " + toggle, expected, actual);
+			assertEquals(expected.size(), filter.getMatchCount());
+			assertEquals("Whether matches changed after toggle " + toggle, !expected.equals(before), changed);
+			before = expected;
+		}
+	}
+
+	/**
+	 * Intersections, unions and differences of random sorted sets, some far larger than others,
+	 * hold the same elements as those of tree sets.
+	 */
+	@Test
+	public void testSortedIntArraysMatchSets() {
+		Random random = new Random(22);
+		for (int round = 0; round < TOGGLES; round++) {
+			TreeSet<Integer> a = randomSet(random, random.nextInt(50));
+			TreeSet<Integer> b = randomSet(random, random.nextInt(4) == 0 ? random.nextInt(2000) : random.nextInt(50));
+			int[] sortedA = toArray(a);
+			int[] sortedB = toArray(b);
+
+			TreeSet<Integer> both = new TreeSet<Integer>(a);
+			both.retainAll(b);
+			TreeSet<Integer> either = new TreeSet<Integer>(a);
+			either.addAll(b);
+			TreeSet<Integer> onlyA = new TreeSet<Integer>(a);
+			onlyA.removeAll(b);
+
+			assertArrayEquals(toArray(both), SortedIntArrays.intersect(sortedA, sortedB));
+			assertArrayEquals(toArray(both), SortedIntArrays.intersect(sortedB, sortedA));
+			assertArrayEquals(toArray(either), SortedIntArrays.union(sortedA, sortedB));
+			assertArrayEquals(toArray(onlyA), SortedIntArrays.difference(sortedA, sortedB));
+		}
+	}
+
+	private static List<PointOfInterest> bruteForce(IndexedPOIRegistry registry, long selected,
+			FeatureFilter.Match match) {
+		List<PointOfInterest> matches = new ArrayList<PointOfInterest>();
+		if (selected == 0)
+			return matches;
+
+		for (int number = 0; number < registry.size(); number++) {
+			long features = registry.getFeatureMask(number) & selected;
+			if (match == FeatureFilter.Match.ANY ? features != 0 : features == selected)
+				matches.add(registry.get(number));
+		}
+		return matches;
+	}
+
+	private static List<PointOfInterest> randomPOIs(Random random) {
+		List<PointOfInterest> pois = new ArrayList<PointOfInterest>(POIS);
+		for (int i = 0; i < POIS; i++) {
+			PointOfInterest poi = new PointOfInterest("poi" + i, "POI " + i);
+			poi.setLatLong(new LatLong(49.25 + random.nextDouble() * 0.025, -123.26 + random.nextDouble() * 0.03));
+			List<Feature> features = new ArrayList<Feature>();
+			for (int feature = 0; feature < FEATURES.length; feature++) {
+				if (random.nextDouble() < FEATURE_CHANCES[feature % FEATURE_CHANCES.length])
+					features.add(FEATURES[feature]);
+			}
+			poi.setFeatures(features);
+			pois.add(poi);
+		}
+		return pois;
+	}
+
+	private static TreeSet<Integer> randomSet(Random random, int size) {
+		TreeSet<Integer> set = new TreeSet<Integer>();
+		int range = Math.max(1, size * 3);
+		while (set.size() < size)
+			set.add(random.nextInt(range));
+		return set;
+	}
+
+	private static int[] toArray(TreeSet<Integer> set) {
+		int[] array = new int[set.size()];
+		int i = 0;
+		for (int value : set)
+			array[i++] = value;
+		return array;
+	}
+}
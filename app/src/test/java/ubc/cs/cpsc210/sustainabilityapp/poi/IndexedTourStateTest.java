@@ -0,0 +1,167 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.Feature;
+import ubc.cs.cpsc210.sustainabilityapp.model.KeyValueStore;
+import ubc.cs.cpsc210.sustainabilityapp.model.POIRegistry;
+import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+import ubc.cs.cpsc210.sustainabilityapp.model.TourState;
+
+public class IndexedTourStateTest {
+	private final static int OPERATIONS = 2000;
+
+	private final static Feature[] FEATURES = Feature.values();
+
+	private POIRegistry registry;
+	private IndexedPOIRegistry index;
+	private MapStore expectedStore;
+	private MapStore actualStore;
+	private TourState expected;
+	private IndexedTourState actual;
+
+	@Before
+	public void setUp() {
+		registry = POIRegistry.getDefault();
+		index = new IndexedPOIRegistry(registry.getPointsByLocation());
+		expectedStore = new MapStore();
+		actualStore = new MapStore();
+		expected = new TourState(registry, expectedStore);
+		actual = new IndexedTourState(index, actualStore);
+	}
+
+	/**
+	 * With nothing stored, every POI and every feature is selected.
+	 */
+	@Test
+	public void testEmptyStoreSelectsEverything() {
+		assertSameState();
+		assertEquals(registry.getPointsByLocation(), actual.getSelectedPOIs());
+		assertEquals(Arrays.asList(FEATURES), actual.getSelectedFeatures());
+	}
+
+	/**
+	 * Random selections of POIs and features, including those made through a feature filter as the
+	 * features tab makes them, leave the same selections, and the same entries in the store, as
+	 * TourState does.
+	 */
+	@Test
+	public void testRandomSelectionsMatchTourState() {
+		Random random = new Random(24);
+		List<PointOfInterest> pois = registry.getPointsByLocation();
+		FeatureFilter filter = new FeatureFilter(index, FeatureFilter.Match.ANY);
+
+		for (int operation = 0; operation < OPERATIONS; operation++) {
+			switch (random.nextInt(4)) {
+			case 0:
+				// POIs in any order, possibly more than once, as the POI tab and map select them
+				List<PointOfInterest> selectedPOIs = new ArrayList<PointOfInterest>();
+				int count = random.nextInt(pois.size() + 2);
+				for (int i = 0; i < count; i++)
+					selectedPOIs.add(pois.get(random.nextInt(pois.size())));
+				expected.setSelectedPOIs(selectedPOIs);
+				actual.setSelectedPOIs(selectedPOIs);
+				break;
+
+			case 1:
+				List<Feature> selectedFeatures = randomFeatures(random);
+				expected.setSelectedFeatures(selectedFeatures);
+				actual.setSelectedFeatures(selectedFeatures);
+				break;
+
+			case 2:
+				// a feature checked or unchecked on the features tab
+				Feature feature = FEATURES[random.nextInt(FEATURES.length)];
+				if ((filter.getSelectedFeatures() & (1L << feature.ordinal())) == 0)
+					filter.select(feature);
+				else
+					filter.deselect(feature);
+				expected.setSelectedFeatures(IndexedPOIRegistry.features(filter.getSelectedFeatures()));
+				actual.setSelectedFeatures(filter);
+				break;
+
+			default:
+				// the selections stored by an earlier run, as the features tab reads them on resume
+				filter.setSelectedFeatures(actual.getSelectedFeatures());
+				break;
+			}
+
+			assertSameState();
+		}
+	}
+
+	/**
+	 * Each reads the selections the other has stored.
+	 */
+	@Test
+	public void testReadsTourStateEntries() {
+		Random random = new Random(7);
+		for (int operation = 0; operation < OPERATIONS / 10; operation++) {
+			expected.setSelectedFeatures(randomFeatures(random));
+			IndexedTourState reader = new IndexedTourState(index, expectedStore);
+			assertEquals(expected.getSelectedPOIs(), reader.getSelectedPOIs());
+			assertEquals(expected.getSelectedFeatures(), reader.getSelectedFeatures());
+
+			actual.setSelectedFeatures(randomFeatures(random));
+			TourState tourStateReader = new TourState(registry, actualStore);
+			assertEquals(actual.getSelectedPOIs(), tourStateReader.getSelectedPOIs());
+			assertEquals(actual.getSelectedFeatures(), tourStateReader.getSelectedFeatures());
+		}
+	}
+
+	private void assertSameState() {
+		assertEquals(expected.getSelectedPOIs(), actual.getSelectedPOIs());
+		assertEquals(expected.getSelectedFeatures(), actual.getSelectedFeatures());
+		// POIs selected by feature may be stored in a different order, which they are not read in
+		assertEquals(expectedStore.sortedValues(), actualStore.sortedValues());
+	}
+
+	private static List<Feature> randomFeatures(Random random) {
+		List<Feature> features = new ArrayList<Feature>();
+		for (Feature feature : FEATURES) {
+			if (random.nextBoolean())
+				features.add(feature);
+		}
+		Collections.shuffle(features, random);
+		return features;
+	}
+
+	/**
+	 * Store keeping copies of the lists put in memory.
+	 */
+	private static class MapStore implements KeyValueStore {
+		final Map<String, List<String>> values = new HashMap<String, List<String>>();
+
+		@Override
+		public void putStringList(String key, List<String> value) {
+			values.put(key, new ArrayList<String>(value));
+		}
+
+		@Override
+		public List<String> getStringList(String key) {
+			List<String> value = values.get(key);
+			return value == null ? null : new ArrayList<String>(value);
+		}
+
+		Map<String, List<String>> sortedValues() {
+			Map<String, List<String>> sorted = new HashMap<String, List<String>>();
+			for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+				List<String> value = new ArrayList<String>(entry.getValue());
+				Collections.sort(value);
+				sorted.put(entry.getKey(), value);
+			}
+			return sorted;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+
+public class POISearchIndexTest {
+	private final static int RANDOM_POIS = 500;
+	private final static int RANDOM_QUERIES = 1000;
+
+	private final static String[] WORDS = { "solar", "parasol", "energy", "green", "roof", "house",
+		"hall", "water", "rain", "garden", "wood", "centre", "library", "lab", "biofuel", "heat" };
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("poi-search", ".idx");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * Matches in the name rank above those in the address, and those above matches in the
+	 * description; whole terms rank above the starts of terms, and those above matches within
+	 * terms; ties are listed alphabetically.
+	 */
+	@Test
+	public void testRanking() {
+		POISearchIndex index = POISearchIndex.build(new IndexedPOIRegistry(Arrays.asList(
+				poi("house", "Solar House", null, null),
+				poi("way", "Zed Building", "12 Solar Way", null),
+				poi("panels", "Forestry", null, "Roof of solar panels"),
+				poi("solarium", "Solarium", null, null),
+				poi("parasolar", "Parasolar Hall", null, null),
+				poi("beta", "Beta Solar", null, null),
+				poi("alpha", "Alpha Solar", null, null),
+				poi("library", "Library", "Main Mall", "Books"))));
+
+		assertEquals(Arrays.asList("alpha", "beta", "house", "solarium", "way", "parasolar", "panels"),
+				ids(index.search("solar")));
+		assertEquals(Arrays.asList("alpha", "beta", "house"), ids(index.search("SOLAR", 3)));
+
+		// every query term must match, and each adds to the score
+		assertEquals(Arrays.asList("parasolar"), ids(index.search("solar hall")));
+		assertEquals(Arrays.asList("house"), ids(index.search("house solar")));
+		assertEquals(0, index.search("solar books").size());
+		assertEquals(0, index.search(" , ").size());
+	}
+
+	/**
+	 * Query terms match the starts of terms; those of three or more characters also match within
+	 * terms.
+	 */
+	@Test
+	public void testPrefixAndWithinTermMatches() {
+		POISearchIndex index = POISearchIndex.build(new IndexedPOIRegistry(Arrays.asList(
+				poi("house", "Solar House", null, null),
+				poi("parasolar", "Parasolar Hall", null, null),
+				poi("lab", "Lab", "Agronomy Road", "Solar-powered"))));
+
+		// "so" is too short to be looked for within terms
+		assertEquals(Arrays.asList("house", "lab"), ids(index.search("so")));
+		assertEquals(Arrays.asList("house", "parasolar", "lab"), ids(index.search("sol")));
+		// found only within terms, so names tie and are listed alphabetically
+		assertEquals(Arrays.asList("parasolar", "house", "lab"), ids(index.search("ola")));
+		assertEquals(Arrays.asList("parasolar"), ids(index.search("paras")));
+		assertEquals(Arrays.asList("lab"), ids(index.search("power")));
+		assertEquals(Arrays.asList("lab"), ids(index.search("owe")));
+		assertEquals(0, index.search("ow").size());
+		assertEquals(0, index.search("solars").size());
+	}
+
+	/**
+	 * Random queries match the same POIs as a scan of every term of every POI.
+	 */
+	@Test
+	public void testMatchesBruteForce() {
+		Random random = new Random(23);
+		List<PointOfInterest> pois = new ArrayList<PointOfInterest>();
+		for (int i = 0; i < RANDOM_POIS; i++)
+			pois.add(poi("poi" + i, randomText(random, 1, 3), randomText(random, 0, 2), randomText(random, 0, 8)));
+		IndexedPOIRegistry registry = new IndexedPOIRegistry(pois);
+		POISearchIndex index = POISearchIndex.build(registry);
+
+		for (int q = 0; q < RANDOM_QUERIES; q++) {
+			StringBuilder query = new StringBuilder();
+			int terms = 1 + random.nextInt(2);
+			for (int t = 0; t < terms; t++) {
+				String word = WORDS[random.nextInt(WORDS.length)];
+				int start = random.nextInt(word.length());
+				int end = start + 1 + random.nextInt(word.length() - start);
+				query.append(word.substring(start, end)).append(' ');
+			}
+
+			Set<PointOfInterest> expected = new HashSet<PointOfInterest>();
+			for (PointOfInterest poi : pois) {
+				if (matches(poi, query.toString()))
+					expected.add(poi);
+			}
+			List<PointOfInterest> found = index.search(query.toString());
+			assertEquals("Query \"" + query + "\"", expected, new HashSet<PointOfInterest>(found));
+			assertEquals("Query \"" + query + "\" found a POI twice", expected.size(), found.size());
+		}
+	}
+
+	/**
+	 * An index written to a file is opened again while its POIs are unchanged; once they have
+	 * changed, it is rebuilt and written again.
+	 */
+	@Test
+	public void testReopenOrRebuild() throws IOException {
+		List<PointOfInterest> pois = Arrays.asList(
+				poi("house", "Solar House", null, "Heat from the sun"),
+				poi("hall", "Green Hall", "Main Mall", null));
+		IndexedPOIRegistry registry = new IndexedPOIRegistry(pois);
+		POISearchIndex.build(registry).write(file);
+
+		POISearchIndex reopened = POISearchIndex.open(file, registry);
+		assertEquals(Arrays.asList("house"), ids(reopened.search("heat")));
+		assertEquals(Arrays.asList("hall"), ids(POISearchIndex.openOrBuild(file, registry).search("mall")));
+
+		// a POI whose description has changed makes the index out of date
+		IndexedPOIRegistry changed = new IndexedPOIRegistry(Arrays.asList(
+				poi("house", "Solar House", null, "Warmth from the sun"),
+				poi("hall", "Green Hall", "Main Mall", null)));
+		assertOpenFails(changed, "out of date");
+
+		POISearchIndex rebuilt = POISearchIndex.openOrBuild(file, changed);
+		assertEquals(Arrays.asList("house"), ids(rebuilt.search("warmth")));
+		assertEquals(0, rebuilt.search("heat").size());
+		// written again, so that it opens next time
+		assertEquals(Arrays.asList("house"), ids(POISearchIndex.open(file, changed).search("warmth")));
+
+		// a truncated file is rebuilt too
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() / 2);
+		} finally {
+			raf.close();
+		}
+		assertOpenFails(changed, "Truncated");
+		assertEquals(Arrays.asList("hall"), ids(POISearchIndex.openOrBuild(file, changed).search("green")));
+		assertEquals(Arrays.asList("hall"), ids(POISearchIndex.open(file, changed).search("green")));
+	}
+
+	private void assertOpenFails(IndexedPOIRegistry registry, String reason) {
+		try {
+			POISearchIndex.open(file, registry);
+			fail("Expected the index not to open");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(reason));
+		}
+	}
+
+	/**
+	 * @return Whether each term of the query is a whole term, the start of a term or, if it has three
+	 *         or more characters, within a term of the POI's name, address or description.
+	 */
+	private static boolean matches(PointOfInterest poi, String query) {
+		List<String> terms = new ArrayList<String>();
+		terms.addAll(POISearchIndex.tokenize(poi.getDisplayName()));
+		terms.addAll(POISearchIndex.tokenize(poi.getAddress()));
+		terms.addAll(POISearchIndex.tokenize(poi.getDescription()));
+
+		List<String> queryTerms = POISearchIndex.tokenize(query);
+		if (queryTerms.isEmpty())
+			return false;
+		for (String queryTerm : queryTerms) {
+			boolean found = false;
+			for (String term : terms) {
+				if (term.startsWith(queryTerm) || (queryTerm.length() >= 3 && term.contains(queryTerm)))
+					found = true;
+			}
+			if (!found)
+				return false;
+		}
+		return true;
+	}
+
+	private static String randomText(Random random, int minWords, int maxWords) {
+		StringBuilder text = new StringBuilder();
+		int words = minWords + random.nextInt(maxWords - minWords + 1);
+		for (int i = 0; i < words; i++) {
+			String word = WORDS[random.nextInt(WORDS.length)];
+			// some words are run together, so that query terms are found within them
+			text.append(word).append(random.nextInt(4) == 0 ? "" : " ");
+		}
+		return text.length() == 0 ? null : text.toString();
+	}
+
+	private static PointOfInterest poi(String id, String name, String address, String description) {
+		PointOfInterest poi = new PointOfInterest(id, name);
+		poi.setLatLong(new LatLong(49.26, -123.25));
+		poi.setAddress(address);
+		poi.setDescription(description);
+		return poi;
+	}
+
+	private static List<String> ids(List<PointOfInterest> pois) {
+		List<String> ids = new ArrayList<String>();
+		for (PointOfInterest poi : pois)
+			ids.add(poi.getId());
+		return ids;
+	}
+}
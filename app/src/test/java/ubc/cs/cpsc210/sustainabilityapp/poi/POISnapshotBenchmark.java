@@ -0,0 +1,166 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.Feature;
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+import ubc.cs.cpsc210.sustainabilityapp.model.POIRegistry;
+import ubc.cs.cpsc210.sustainabilityapp.model.PointOfInterest;
+
+/**
+ * Cold-start benchmark of loading the POI index from a {@link POISnapshot} against building it from
+ * the POIs themselves, for the default POI registry and for synthetic POIs built in code.  Each
+ * load runs in a fresh JVM, timed from its main method to the POIs being listed alphabetically, as
+ * the POI tab does; prints the median of several JVMs, with the NIO classes a snapshot is mapped
+ * with loaded beforehand, as the tile pack and route cache load them in the application, and
+ * without.  Run with: java POISnapshotBenchmark
+ */
+public class POISnapshotBenchmark {
+	private final static int RUNS = 9;
+	private final static int SYNTHETIC_POIS = 10000;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			runChild(args);
+			return;
+		}
+
+		File registrySnapshot = File.createTempFile("registry", ".snapshot");
+		File syntheticSnapshot = File.createTempFile("synthetic", ".snapshot");
+		File nioFile = File.createTempFile("nio", ".tmp");
+		registrySnapshot.deleteOnExit();
+		syntheticSnapshot.deleteOnExit();
+		nioFile.deleteOnExit();
+
+		List<PointOfInterest> registryPOIs = POIRegistry.getDefault().getPointsByLocation();
+		writeSnapshot(registryPOIs, registrySnapshot);
+		writeSnapshot(syntheticPOIs(SYNTHETIC_POIS), syntheticSnapshot);
+		writeSnapshot(registryPOIs.subList(0, 1), nioFile);
+		checkSnapshot(registryPOIs, registrySnapshot);
+
+		for (String nio : new String[] { nioFile.getPath(), "-" }) {
+			System.out.println(nio.equals("-") ? "NIO not preloaded" : "NIO preloaded");
+			System.out.printf("  %d POIs (default registry): registry %.1f ms, snapshot %.1f ms%n",
+					registryPOIs.size(), medianMillis("registry", nio, "-"),
+					medianMillis("snapshot", nio, registrySnapshot.getPath()));
+			System.out.printf("  %d synthetic POIs: built in code %.1f ms, snapshot %.1f ms%n",
+					SYNTHETIC_POIS, medianMillis("synthetic", nio, "-"),
+					medianMillis("snapshot", nio, syntheticSnapshot.getPath()));
+		}
+	}
+
+	/**
+	 * Load the POI index in a fresh JVM, and print the time taken in nanoseconds.
+	 *
+	 * @param args The source of the POIs (registry, synthetic or snapshot), a file to map before
+	 *             timing starts, or "-", and the snapshot file, or "-".
+	 */
+	private static void runChild(String[] args) throws IOException {
+		if (!args[1].equals("-"))
+			map(new File(args[1])).close();
+
+		long start = System.nanoTime();
+		IndexedPOIRegistry index;
+		if (args[0].equals("registry"))
+			index = new IndexedPOIRegistry(POIRegistry.getDefault().getPointsByLocation());
+		else if (args[0].equals("synthetic"))
+			index = new IndexedPOIRegistry(syntheticPOIs(SYNTHETIC_POIS));
+		else
+			index = new IndexedPOIRegistry(POISnapshot.open(new File(args[2])));
+
+		int length = 0;
+		for (PointOfInterest poi : index.getPointsAlphabetical())
+			length += poi.getDisplayName().length();
+		long elapsed = System.nanoTime() - start;
+
+		if (length == 0)
+			throw new IllegalStateException("No POIs loaded");
+		System.out.println(elapsed);
+	}
+
+	private static RandomAccessFile map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		return raf;
+	}
+
+	private static double medianMillis(String source, String nio, String snapshot) throws Exception {
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		long[] times = new long[RUNS];
+		for (int run = 0; run < RUNS; run++) {
+			Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					POISnapshotBenchmark.class.getName(), source, nio, snapshot).redirectErrorStream(true).start();
+			BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+			String line = out.readLine();
+			String last = line;
+			while (line != null) {
+				last = line;
+				line = out.readLine();
+			}
+			if (process.waitFor() != 0)
+				throw new IllegalStateException("Benchmark JVM failed: " + last);
+			times[run] = Long.parseLong(last.trim());
+		}
+		Arrays.sort(times);
+		return times[RUNS / 2] / 1E6;
+	}
+
+	private static void writeSnapshot(List<PointOfInterest> pois, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			POISnapshot.write(pois, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Check that the snapshot lists the same POIs as the registry, in both orders.
+	 */
+	private static void checkSnapshot(List<PointOfInterest> pois, File file) throws IOException {
+		IndexedPOIRegistry built = new IndexedPOIRegistry(pois);
+		IndexedPOIRegistry loaded = new IndexedPOIRegistry(POISnapshot.open(file));
+		for (IndexedPOIRegistry.Order order : IndexedPOIRegistry.Order.values()) {
+			List<PointOfInterest> expected = built.getPoints(order);
+			List<PointOfInterest> actual = loaded.getPoints(order);
+			for (int i = 0; i < expected.size(); i++) {
+				if (!expected.get(i).getId().equals(actual.get(i).getId()))
+					throw new IllegalStateException("Snapshot lists POIs in a different " + order + " order");
+			}
+		}
+	}
+
+	/**
+	 * @return POIs spread over the campus, with random text and features, in no particular order.
+	 */
+	private static List<PointOfInterest> syntheticPOIs(int n) {
+		Random random = new Random(n);
+		Feature[] features = Feature.values();
+		List<PointOfInterest> pois = new ArrayList<PointOfInterest>(n);
+		for (int i = 0; i < n; i++) {
+			PointOfInterest poi = new PointOfInterest("poi" + i, "Building " + random.nextInt(n));
+			poi.setLatLong(new LatLong(49.25 + random.nextDouble() * 0.025, -123.26 + random.nextDouble() * 0.03));
+			poi.setAddress(random.nextInt(9999) + " Main Mall");
+			poi.setDescription("Description of building " + i);
+			List<Feature> poiFeatures = new ArrayList<Feature>();
+			for (Feature feature : features) {
+				if (random.nextInt(4) == 0)
+					poiFeatures.add(feature);
+			}
+			poi.setFeatures(poiFeatures);
+			pois.add(poi);
+		}
+		return pois;
+	}
+}
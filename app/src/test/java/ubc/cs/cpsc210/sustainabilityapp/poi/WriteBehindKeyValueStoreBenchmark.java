@@ -0,0 +1,140 @@
+package ubc.cs.cpsc210.sustainabilityapp.poi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.KeyValueStore;
+
+/**
+ * Benchmark of {@link WriteBehindKeyValueStore} with its default delays, over a store which rewrites
+ * and syncs a file on every put, standing in for SharedPreferences.commit().  First times taps which
+ * each store the selected POIs and features, writing synchronously and writing behind.  Then puts
+ * values steadily for longer than the longest delay, and prints when, and on which thread, each
+ * write is made.  Run with: java WriteBehindKeyValueStoreBenchmark
+ */
+public class WriteBehindKeyValueStoreBenchmark {
+	private final static int TAPS = 20;
+	private final static long TAP_INTERVAL_MILLIS = 120;
+
+	private final static int STEADY_PUTS = 80;
+	private final static long STEADY_INTERVAL_MILLIS = 50;
+
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("tourstate", ".txt");
+		file.deleteOnExit();
+
+		// the first round warms up the code under test
+		for (int round = 0; round < 2; round++) {
+			for (int mode = 0; mode < 2; mode++) {
+				FileStore disk = new FileStore(file);
+				WriteBehindKeyValueStore writeBehind = new WriteBehindKeyValueStore(disk);
+				KeyValueStore store = mode == 0 ? disk : writeBehind;
+
+				List<String> selectedPOIs = new ArrayList<String>();
+				long total = 0;
+				long worst = 0;
+				for (int tap = 0; tap < TAPS; tap++) {
+					selectedPOIs.add(Integer.toString(tap * 37));
+					long start = System.nanoTime();
+					store.putStringList("SelectedPOIs", selectedPOIs);
+					store.putStringList("SelectedFeatures", Collections.<String>emptyList());
+					long elapsed = System.nanoTime() - start;
+					total += elapsed;
+					worst = Math.max(worst, elapsed);
+
+					if (!store.getStringList("SelectedPOIs").equals(selectedPOIs))
+						throw new IllegalStateException("Value read is not the latest put");
+					Thread.sleep(TAP_INTERVAL_MILLIS);
+				}
+				int tapWrites = disk.getWrites();
+				writeBehind.flush();
+				if (!disk.getStringList("SelectedPOIs").equals(selectedPOIs))
+					throw new IllegalStateException("Latest value not written");
+
+				if (round == 1)
+					System.out.printf("%s: %d taps, %.1f ms on the UI thread, worst tap %.2f ms; "
+							+ "%d writes during the taps, %d in total%n", mode == 0 ? "synchronous" : "write-behind",
+							TAPS, total / 1E6, worst / 1E6, tapWrites, disk.getWrites());
+			}
+		}
+
+		FileStore disk = new FileStore(file);
+		WriteBehindKeyValueStore writeBehind = new WriteBehindKeyValueStore(disk);
+		long start = System.nanoTime();
+		disk.recordWritesFrom(start);
+		for (int put = 0; put < STEADY_PUTS; put++) {
+			writeBehind.putStringList("SelectedPOIs", Collections.singletonList(Integer.toString(put)));
+			Thread.sleep(STEADY_INTERVAL_MILLIS);
+		}
+		long lastPutMillis = (System.nanoTime() - start) / 1000000;
+		while (writeBehind.hasPendingWrites())
+			Thread.sleep(STEADY_INTERVAL_MILLIS);
+
+		System.out.printf("%d puts every %d ms, the last at %d ms, with delays of %d ms and at most %d ms:%n",
+				STEADY_PUTS, STEADY_INTERVAL_MILLIS, lastPutMillis, WriteBehindKeyValueStore.DEFAULT_DELAY_MILLIS,
+				WriteBehindKeyValueStore.DEFAULT_MAX_DELAY_MILLIS);
+		for (String write : disk.getWriteLog())
+			System.out.println("  " + write);
+	}
+
+	/**
+	 * Store which rewrites and syncs its file on every put, logging the time and thread of each put
+	 * once asked to.
+	 */
+	private static class FileStore implements KeyValueStore {
+		private final File file;
+		private final Map<String, List<String>> values = new HashMap<String, List<String>>();
+		private final List<String> writeLog = new ArrayList<String>();
+		private int writes;
+		private long logStartNanos = -1;
+
+		FileStore(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public synchronized void putStringList(String key, List<String> value) {
+			values.put(key, new ArrayList<String>(value));
+			writes++;
+			try {
+				FileOutputStream out = new FileOutputStream(file);
+				try {
+					out.write(values.toString().getBytes("UTF-8"));
+					out.getFD().sync();
+				} finally {
+					out.close();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+
+			if (logStartNanos >= 0)
+				writeLog.add(String.format("write at %d ms on %s", (System.nanoTime() - logStartNanos) / 1000000,
+						Thread.currentThread().getName()));
+		}
+
+		@Override
+		public synchronized List<String> getStringList(String key) {
+			List<String> value = values.get(key);
+			return value == null ? null : new ArrayList<String>(value);
+		}
+
+		synchronized int getWrites() {
+			return writes;
+		}
+
+		synchronized void recordWritesFrom(long startNanos) {
+			logStartNanos = startNanos;
+		}
+
+		synchronized List<String> getWriteLog() {
+			return new ArrayList<String>(writeLog);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+
+/**
+ * Checks the walking distances of routes calculated by {@link LocalRoutingBackend} (A*) and by
+ * {@link ContractionHierarchyRouter} against a plain Dijkstra search, on random walking graphs.
+ */
+public class ContractionHierarchyTest {
+	private final static int GRAPHS = 5;
+	private final static int NODES = 300;
+	private final static int EXTRA_ARCS = 2;
+	private final static int QUERIES = 500;
+
+	/**
+	 * Routes found by A* and by the contraction hierarchy are as short as Dijkstra's, and follow
+	 * arcs of the graph.
+	 */
+	@Test
+	public void testRoutesAreShortest() throws IOException {
+		for (int seed = 0; seed < GRAPHS; seed++) {
+			Random random = new Random(seed);
+			WalkingGraph graph = randomGraph(random, NODES, true);
+			RoutingBackend aStar = new LocalRoutingBackend(graph);
+			RoutingBackend hierarchy = new ContractionHierarchyRouter(new ContractionHierarchyBuilder(graph).build());
+
+			for (int query = 0; query < QUERIES; query++) {
+				int source = random.nextInt(NODES);
+				int target = random.nextInt(NODES);
+				RouteEndpoints endpoints = new RouteEndpoints(location(graph, source), location(graph, target));
+				long shortest = dijkstra(graph, source, target);
+
+				String message = "Graph " + seed + ", route from " + source + " to " + target;
+				assertEquals(message + " by A*", shortest,
+						pathLength(graph, aStar.route(endpoints, new CancellationToken()), source, target));
+				assertEquals(message + " by contraction hierarchy", shortest,
+						pathLength(graph, hierarchy.route(endpoints, new CancellationToken()), source, target));
+			}
+		}
+	}
+
+	/**
+	 * Neither finds a route between nodes which no path joins.
+	 */
+	@Test
+	public void testNoRouteBetweenComponents() throws IOException {
+		Random random = new Random(42);
+		WalkingGraph graph = randomGraph(random, NODES, false);
+		RoutingBackend[] backends = { new LocalRoutingBackend(graph),
+				new ContractionHierarchyRouter(new ContractionHierarchyBuilder(graph).build()) };
+
+		// the graph is built as two components: the even nodes and the odd nodes
+		RouteEndpoints endpoints = new RouteEndpoints(location(graph, 0), location(graph, 1));
+		assertEquals(Long.MAX_VALUE, dijkstra(graph, 0, 1));
+		for (RoutingBackend backend : backends) {
+			try {
+				backend.route(endpoints, new CancellationToken());
+				fail("Expected no route from " + backend.getClass().getSimpleName());
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Build a graph of nodes at distinct random locations on campus, joined by arcs in both
+	 * directions at least as long as the straight line between their ends.  Each node is joined to
+	 * an earlier node, so the graph is connected, and to a few nearby nodes.
+	 *
+	 * @param connected Whether the graph is connected; if not, no arc joins an even node to an odd one.
+	 */
+	private static WalkingGraph randomGraph(Random random, int nodeCount, boolean connected) {
+		int[] latitudesE6 = new int[nodeCount];
+		int[] longitudesE6 = new int[nodeCount];
+		Set<Long> locations = new HashSet<Long>();
+		for (int n = 0; n < nodeCount; n++) {
+			do {
+				latitudesE6[n] = 49250000 + random.nextInt(25000);
+				longitudesE6[n] = -123260000 + random.nextInt(30000);
+			} while (!locations.add(((long) latitudesE6[n] << 32) | (longitudesE6[n] & 0xFFFFFFFFL)));
+		}
+
+		// a provisional graph without arcs measures the straight-line distances
+		int[] noArcs = new int[nodeCount + 1];
+		WalkingGraph points = new WalkingGraph(latitudesE6, longitudesE6, noArcs, new int[0], new int[0]);
+
+		List<Map<Integer, Integer>> arcs = new ArrayList<Map<Integer, Integer>>();
+		for (int n = 0; n < nodeCount; n++)
+			arcs.add(new HashMap<Integer, Integer>());
+
+		int step = connected ? 1 : 2;
+		for (int n = step; n < nodeCount; n++) {
+			addArc(arcs, points, random, n, n - step * (1 + random.nextInt(n / step)));
+			for (int i = 0; i < EXTRA_ARCS; i++) {
+				int other = nearby(points, random, n, step);
+				if (other != n)
+					addArc(arcs, points, random, n, other);
+			}
+		}
+
+		int[] firstArc = new int[nodeCount + 1];
+		for (int n = 0; n < nodeCount; n++)
+			firstArc[n + 1] = firstArc[n] + arcs.get(n).size();
+		int[] arcHead = new int[firstArc[nodeCount]];
+		int[] arcLength = new int[firstArc[nodeCount]];
+		for (int n = 0; n < nodeCount; n++) {
+			int arc = firstArc[n];
+			for (Map.Entry<Integer, Integer> entry : arcs.get(n).entrySet()) {
+				arcHead[arc] = entry.getKey();
+				arcLength[arc] = entry.getValue();
+				arc++;
+			}
+		}
+
+		return new WalkingGraph(latitudesE6, longitudesE6, firstArc, arcHead, arcLength);
+	}
+
+	/**
+	 * @return The closest of a few random nodes to the given node with the same parity step.
+	 */
+	private static int nearby(WalkingGraph points, Random random, int node, int step) {
+		int nearest = node;
+		double nearestDistance = Double.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			int other = node % step + step * random.nextInt(points.getNodeCount() / step);
+			double distance = points.straightLineDistance(node, other);
+			if (other != node && distance < nearestDistance) {
+				nearest = other;
+				nearestDistance = distance;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Join two nodes in both directions, by a path up to half as long again as the straight line.
+	 */
+	private static void addArc(List<Map<Integer, Integer>> arcs, WalkingGraph points, Random random, int from, int to) {
+		int length = (int) Math.ceil(points.straightLineDistance(from, to) * (1 + random.nextDouble() / 2));
+		if (arcs.get(from).containsKey(to))
+			length = Math.min(length, arcs.get(from).get(to));
+		arcs.get(from).put(to, length);
+		arcs.get(to).put(from, length);
+	}
+
+	private static LatLong location(WalkingGraph graph, int node) {
+		return new LatLong(graph.getLatitudeE6(node) / 1E6, graph.getLongitudeE6(node) / 1E6);
+	}
+
+	/**
+	 * @return Length of the shortest path between two nodes, by a plain Dijkstra search, or
+	 *         Long.MAX_VALUE if there is none.
+	 */
+	private static long dijkstra(WalkingGraph graph, int source, int target) {
+		long[] distance = new long[graph.getNodeCount()];
+		Arrays.fill(distance, Long.MAX_VALUE);
+		distance[source] = 0;
+		PriorityQueue<long[]> queue = new PriorityQueue<long[]>(16, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+			}
+		});
+		queue.add(new long[] { 0, source });
+
+		while (!queue.isEmpty()) {
+			long[] entry = queue.remove();
+			int node = (int) entry[1];
+			if (entry[0] > distance[node])
+				continue;
+			if (node == target)
+				return entry[0];
+
+			for (int arc = graph.getFirstArc(node), end = graph.getFirstArc(node + 1); arc < end; arc++) {
+				int head = graph.getArcHead(arc);
+				long newDistance = entry[0] + graph.getArcLength(arc);
+				if (newDistance < distance[head]) {
+					distance[head] = newDistance;
+					queue.add(new long[] { newDistance, head });
+				}
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return Length of the path a route's waypoints take through the graph, checking that it runs
+	 *         from the source to the target along arcs of the graph.
+	 */
+	private static long pathLength(WalkingGraph graph, RouteInfo route, int source, int target) {
+		Map<Long, Integer> nodes = new HashMap<Long, Integer>();
+		for (int n = 0; n < graph.getNodeCount(); n++)
+			nodes.put(((long) graph.getLatitudeE6(n) << 32) | (graph.getLongitudeE6(n) & 0xFFFFFFFFL), n);
+
+		int[] path = new int[route.size()];
+		for (int i = 0; i < route.size(); i++) {
+			Integer node = nodes.get(((long) route.getLatitudeE6(i) << 32) | (route.getLongitudeE6(i) & 0xFFFFFFFFL));
+			assertTrue("Waypoint " + i + " is not a node", node != null);
+			path[i] = node;
+		}
+		assertEquals(source, path[0]);
+		assertEquals(target, path[path.length - 1]);
+
+		long length = 0;
+		for (int i = 1; i < path.length; i++) {
+			int shortestArc = -1;
+			for (int arc = graph.getFirstArc(path[i - 1]), end = graph.getFirstArc(path[i - 1] + 1); arc < end; arc++) {
+				if (graph.getArcHead(arc) == path[i] && (shortestArc == -1 || graph.getArcLength(arc) < graph.getArcLength(shortestArc)))
+					shortestArc = arc;
+			}
+			assertTrue("No arc from " + path[i - 1] + " to " + path[i], shortestArc != -1);
+			length += graph.getArcLength(shortestArc);
+		}
+		return length;
+	}
+}
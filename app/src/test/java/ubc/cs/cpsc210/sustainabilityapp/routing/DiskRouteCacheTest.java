@@ -0,0 +1,223 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+
+/**
+ * Checks what {@link DiskRouteCache} keeps of a file which has been torn or corrupted, as after a
+ * crash mid-write, and of one which is compacted.
+ */
+public class DiskRouteCacheTest {
+	private final static long MAX_BYTES = 1 << 20;
+	private final static int HEADER_BYTES = 8;
+
+	/**
+	 * Length of the record of a route with two points: length, endpoints, point count, points, CRC.
+	 */
+	private final static int RECORD_BYTES = 4 + 4 * 8 + 4 + 2 * 8 + 4;
+
+	private File file;
+	private File other;
+
+	/**
+	 * A file only ever opened with a small size cap, as caches are shared by file.
+	 */
+	private File capped;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("routes", ".cache");
+		other = File.createTempFile("routes", ".cache");
+		capped = File.createTempFile("routes", ".cache");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		DiskRouteCache.open(file, MAX_BYTES).close();
+		DiskRouteCache.open(other, MAX_BYTES).close();
+		DiskRouteCache.open(capped, MAX_BYTES).close();
+		file.delete();
+		other.delete();
+		capped.delete();
+	}
+
+	/**
+	 * A record cut short anywhere, even within its length, is dropped along with nothing else, and
+	 * the file is truncated to the records before it so that new records follow them.
+	 */
+	@Test
+	public void testTornTailIsTruncated() throws IOException {
+		for (int cut = 1; cut < RECORD_BYTES; cut++) {
+			DiskRouteCache cache = DiskRouteCache.open(file, MAX_BYTES);
+			for (int i = 0; i < 3; i++)
+				cache.put(endpoints(i), route(i, 0));
+			cache.close();
+
+			setLength(HEADER_BYTES + 3 * RECORD_BYTES - cut);
+
+			assertEquals("Cut " + cut, 2, cache.size());
+			assertRoute(cache, 0, 0);
+			assertRoute(cache, 1, 0);
+			assertNull(cache.get(endpoints(2)));
+			assertEquals(HEADER_BYTES + 2 * RECORD_BYTES, file.length());
+
+			cache.put(endpoints(3), route(3, 0));
+			cache.close();
+			assertEquals(3, cache.size());
+			assertRoute(cache, 3, 0);
+
+			cache.close();
+			file.delete();
+		}
+	}
+
+	/**
+	 * A record which fails its checksum ends the valid part of the file: it, and every record after
+	 * it, is dropped, even those which are intact.
+	 */
+	@Test
+	public void testEverythingAfterCorruptRecordIsDropped() throws IOException {
+		DiskRouteCache cache = DiskRouteCache.open(file, MAX_BYTES);
+		for (int i = 0; i < 4; i++)
+			cache.put(endpoints(i), route(i, 0));
+		cache.close();
+
+		// flip a bit in a point of the second record
+		flipByte(HEADER_BYTES + RECORD_BYTES + RECORD_BYTES - 8);
+
+		assertEquals(1, cache.size());
+		assertRoute(cache, 0, 0);
+		for (int i = 1; i < 4; i++)
+			assertNull(cache.get(endpoints(i)));
+		assertEquals(HEADER_BYTES + RECORD_BYTES, file.length());
+
+		// the dropped routes can be stored again, and survive a reopen
+		cache.put(endpoints(2), route(2, 1));
+		cache.close();
+		assertEquals(2, cache.size());
+		assertRoute(cache, 0, 0);
+		assertRoute(cache, 2, 1);
+
+		// a damaged header starts the file again
+		cache.close();
+		flipByte(0);
+		assertEquals(0, cache.size());
+		assertEquals(HEADER_BYTES, file.length());
+	}
+
+	/**
+	 * A route stored more than once, as when two files are appended, is read as its newest record;
+	 * compaction keeps only that record, and drops the oldest routes until the file is no longer than
+	 * its fill target.
+	 */
+	@Test
+	public void testCompactionKeepsNewestRecords() throws IOException {
+		DiskRouteCache cache = DiskRouteCache.open(file, MAX_BYTES);
+		for (int i = 0; i < 3; i++)
+			cache.put(endpoints(i), route(i, 0));
+		cache.close();
+
+		// a second version of route 0, appended after the others
+		DiskRouteCache otherCache = DiskRouteCache.open(other, MAX_BYTES);
+		otherCache.put(endpoints(0), route(0, 1));
+		otherCache.close();
+		appendRecords(other);
+
+		assertEquals(3, cache.size());
+		assertRoute(cache, 0, 1);
+		assertRoute(cache, 1, 0);
+		assertRoute(cache, 2, 0);
+		cache.close();
+
+		// routes 1, 2 and 0 are live; storing route 3 takes the file over its cap, and then the file
+		// is still over its fill target until route 1, the oldest, is dropped
+		long maxBytes = HEADER_BYTES + 5 * RECORD_BYTES - 1;
+		assertTrue(file.renameTo(capped));
+		DiskRouteCache cappedCache = DiskRouteCache.open(capped, maxBytes);
+		assertEquals(3, cappedCache.size());
+		cappedCache.put(endpoints(3), route(3, 0));
+
+		long target = (long) (maxBytes * DiskRouteCache.COMPACTED_FILL);
+		assertTrue(capped.length() <= target);
+		assertEquals(HEADER_BYTES + 3 * RECORD_BYTES, capped.length());
+		assertEquals(3, cappedCache.size());
+
+		cappedCache.close();
+		assertEquals(3, cappedCache.size());
+		assertNull(cappedCache.get(endpoints(1)));
+		assertRoute(cappedCache, 0, 1);
+		assertRoute(cappedCache, 2, 0);
+		assertRoute(cappedCache, 3, 0);
+		assertEquals(HEADER_BYTES + 3 * RECORD_BYTES, capped.length());
+	}
+
+	private void assertRoute(DiskRouteCache cache, int endpoints, int version) throws IOException {
+		RouteInfo expected = route(endpoints, version);
+		RouteInfo actual = cache.get(endpoints(endpoints));
+		assertNotNull("Route " + endpoints, actual);
+		assertEquals(expected.getWaypoints(), actual.getWaypoints());
+	}
+
+	private void setLength(long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void flipByte(long offset) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(offset);
+			int b = raf.read();
+			raf.seek(offset);
+			raf.write(b ^ 0x01);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Append the records of another cache file, without its header, to the file.
+	 */
+	private void appendRecords(File from) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(from, "r");
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			byte[] records = new byte[(int) in.length() - HEADER_BYTES];
+			in.seek(HEADER_BYTES);
+			in.readFully(records);
+			out.seek(out.length());
+			out.write(records);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	private static RouteEndpoints endpoints(int i) {
+		return new RouteEndpoints(new LatLong(49.26, -123.25 + i * 0.001), new LatLong(49.265, -123.25 + i * 0.001));
+	}
+
+	/**
+	 * @return A two-point route for the given endpoints; different versions take different paths.
+	 */
+	private static RouteInfo route(int endpoints, int version) {
+		int longitudeE6 = -123250000 + endpoints * 1000 + version * 10;
+		return new RouteInfo(new int[] { 49260000, longitudeE6, 49265000, longitudeE6 });
+	}
+}
@@ -0,0 +1,110 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+
+/**
+ * Benchmark of {@link GeoJsonRouteParser} against the character scan RoutingService used before it,
+ * on a long route in the YOURS service's GeoJSON format.  Checks that both parsers read the same
+ * coordinates, then prints the average time each takes per route.  The time of the old parser does
+ * not include the JSONObject parse which extracted the coordinates string before the scan.  Run
+ * with: java GeoJsonRouteParserBenchmark
+ */
+public class GeoJsonRouteParserBenchmark {
+	private final static int POINTS = 20000;
+	private final static int ROUTES_PER_ROUND = 200;
+	private final static int ROUNDS = 3;
+
+	public static void main(String[] args) throws IOException {
+		byte[] response = routeResponse(new Random(1), POINTS);
+		GeoJsonRouteParser parser = new GeoJsonRouteParser();
+
+		double[] latLongs = parser.parseLatLongs(new ByteArrayInputStream(response));
+		List<LatLong> points = scanCoordinates(coordinatesOf(response));
+		if (latLongs.length != 2 * points.size())
+			throw new IllegalStateException("Parsers read different numbers of points");
+		for (int i = 0; i < points.size(); i++) {
+			if (latLongs[2 * i] != points.get(i).getLatitude() || latLongs[2 * i + 1] != points.get(i).getLongitude())
+				throw new IllegalStateException("Parsers differ at point " + i);
+		}
+		System.out.printf("%d points, %d bytes: coordinates equal%n", points.size(), response.length);
+
+		// the first round warms up the code under test
+		for (int round = 0; round < ROUNDS; round++) {
+			long count = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < ROUTES_PER_ROUND; i++)
+				count += scanCoordinates(coordinatesOf(response)).size();
+			long scanned = System.nanoTime();
+			for (int i = 0; i < ROUTES_PER_ROUND; i++)
+				count += parser.parseLatLongs(new ByteArrayInputStream(response)).length / 2;
+			long parsed = System.nanoTime();
+
+			if (count != 2L * ROUTES_PER_ROUND * POINTS)
+				throw new IllegalStateException("Parsers read the wrong number of points");
+			System.out.printf("character scan %.2f ms/route, streaming parser %.2f ms/route%n",
+					(scanned - start) / 1E6 / ROUTES_PER_ROUND, (parsed - scanned) / 1E6 / ROUTES_PER_ROUND);
+		}
+	}
+
+	/**
+	 * @return A route response of random points over the campus, with the service's
+	 *         longitude-first coordinates.
+	 */
+	private static byte[] routeResponse(Random random, int points) throws IOException {
+		StringBuilder json = new StringBuilder("{\"type\":\"LineString\",\"crs\":{\"type\":\"name\","
+				+ "\"properties\":{\"name\":\"urn:ogc:def:crs:EPSG:4326\"}},\"coordinates\":[\n");
+		for (int i = 0; i < points; i++) {
+			if (i > 0)
+				json.append(",\n");
+			json.append(String.format(Locale.US, "[%.6f, %.6f]", -123.25 + random.nextDouble() * 0.05,
+					49.25 + random.nextDouble() * 0.05));
+		}
+		json.append("],\"properties\":{\"distance\":\"2.5\",\"description\":\"\"}}");
+		return json.toString().getBytes("UTF-8");
+	}
+
+	/**
+	 * @return The coordinates member of a route response, as the old parser received it.
+	 */
+	private static String coordinatesOf(byte[] response) throws IOException {
+		String json = new String(response, "UTF-8");
+		return json.substring(json.indexOf("[\n"), json.indexOf("],\"properties\"") + 1);
+	}
+
+	/**
+	 * The character scan RoutingService used to read the coordinates of a route.
+	 */
+	private static List<LatLong> scanCoordinates(String coordinates) {
+		List<LatLong> points = new ArrayList<LatLong>();
+		StringBuffer helper = new StringBuffer();
+		Double lat = 0.0;
+		Double lon = 0.0;
+
+		for (int i = 0; i <= coordinates.length() - 1; i++) {
+			char currentChar = coordinates.charAt(i);
+			if (Character.isDigit(currentChar) || currentChar == '.' || currentChar == '-') {
+				helper.append(currentChar);
+			} else if (i > 0) {
+				char previousChar = coordinates.charAt(i - 1);
+				if (currentChar == ',' && Character.isDigit(previousChar)) {
+					lat = Double.valueOf(helper.toString());
+					helper = new StringBuffer();
+				} else if (!Character.isDigit(currentChar) && Character.isDigit(previousChar)) {
+					lon = Double.valueOf(helper.toString());
+					points.add(new LatLong(lon, lat));
+					lat = 0.0;
+					lon = 0.0;
+					helper = new StringBuffer();
+				}
+			}
+		}
+		return points;
+	}
+}
@@ -0,0 +1,430 @@
+package ubc.cs.cpsc210.sustainabilityapp.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ubc.cs.cpsc210.sustainabilityapp.model.LatLong;
+
+public class RouteCacheTest {
+	private final static int THREADS = 16;
+	private final static int KEYS = 8;
+	private final static int ROUNDS = 200;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Threads asking for the same routes at once, some of them after other threads' loads have
+	 * completed, load each route only once, and all get the route loaded.
+	 */
+	@Test
+	public void testConcurrentGetsLoadEachRouteOnce() throws Exception {
+		final List<RouteEndpoints> keys = new ArrayList<RouteEndpoints>();
+		for (int i = 0; i < KEYS; i++)
+			keys.add(new RouteEndpoints(new LatLong(49.26 + i * 0.001, -123.25), new LatLong(49.27, -123.24 - i * 0.001)));
+
+		for (int round = 0; round < ROUNDS; round++) {
+			final RouteCache cache = new RouteCache(1000, 1L << 20, RouteCache.NO_EXPIRY);
+			final AtomicInteger[] loadCounts = new AtomicInteger[KEYS];
+			for (int i = 0; i < KEYS; i++)
+				loadCounts[i] = new AtomicInteger();
+
+			final RouteLoader loader = new RouteLoader() {
+				@Override
+				public RouteInfo load(RouteEndpoints endpoints, CancellationToken token) throws IOException {
+					loadCounts[keys.indexOf(endpoints)].incrementAndGet();
+					// let other threads miss while the load is in progress, or just after it completes
+					Thread.yield();
+					return route(endpoints);
+				}
+			};
+
+			final CyclicBarrier start = new CyclicBarrier(THREADS);
+			List<Future<List<RouteInfo>>> results = new ArrayList<Future<List<RouteInfo>>>();
+			for (int t = 0; t < THREADS; t++) {
+				final int offset = t;
+				results.add(executor.submit(new Callable<List<RouteInfo>>() {
+					@Override
+					public List<RouteInfo> call() throws Exception {
+						start.await();
+						List<RouteInfo> routes = new ArrayList<RouteInfo>();
+						for (int i = 0; i < KEYS; i++)
+							routes.add(cache.get(keys.get((offset + i) % KEYS), loader));
+						return routes;
+					}
+				}));
+			}
+
+			RouteInfo[] loaded = new RouteInfo[KEYS];
+			for (int t = 0; t < THREADS; t++) {
+				List<RouteInfo> routes = results.get(t).get(10, TimeUnit.SECONDS);
+				for (int i = 0; i < KEYS; i++) {
+					int key = (t + i) % KEYS;
+					if (loaded[key] == null)
+						loaded[key] = routes.get(i);
+					assertSame("Threads got different routes for key " + key, loaded[key], routes.get(i));
+				}
+			}
+
+			for (int i = 0; i < KEYS; i++)
+				assertEquals("Loads of key " + i + " in round " + round, 1, loadCounts[i].get());
+		}
+	}
+
+	/**
+	 * Every thread waiting on a failed load gets its error, and nothing is cached.
+	 */
+	@Test
+	public void testFailedLoadIsSharedAndNotCached() throws Exception {
+		final RouteCache cache = new RouteCache(1000, 1L << 20, RouteCache.NO_EXPIRY);
+		final RouteEndpoints key = new RouteEndpoints(new LatLong(49.26, -123.25), new LatLong(49.27, -123.24));
+		final CyclicBarrier start = new CyclicBarrier(THREADS);
+		final AtomicInteger loadCount = new AtomicInteger();
+
+		final RouteLoader loader = new RouteLoader() {
+			@Override
+			public RouteInfo load(RouteEndpoints endpoints, CancellationToken token) throws IOException {
+				loadCount.incrementAndGet();
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IOException("Route service not available");
+			}
+		};
+
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for (int t = 0; t < THREADS; t++) {
+			results.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					start.await();
+					cache.get(key, loader);
+					return null;
+				}
+			}));
+		}
+
+		for (Future<Void> result : results) {
+			try {
+				result.get(10, TimeUnit.SECONDS);
+				fail("Expected the load's error");
+			} catch (ExecutionException e) {
+				assertEquals(IOException.class, e.getCause().getClass());
+			}
+		}
+
+		// threads which missed after the load failed may have loaded again, but most shared it
+		assertEquals(0, cache.getStats().getEntryCount());
+		if (loadCount.get() >= THREADS)
+			fail("Failed load was not shared: " + loadCount.get() + " loads");
+	}
+
+	/**
+	 * A shared load runs on while any thread waiting for it has not been cancelled, and is cancelled
+	 * once all of them have been.
+	 */
+	@Test
+	public void testLoadIsCancelledOnceEveryWaiterIsCancelled() throws Exception {
+		final RouteCache cache = new RouteCache(1000, 1L << 20, RouteCache.NO_EXPIRY);
+		final RouteEndpoints key = new RouteEndpoints(new LatLong(49.26, -123.25), new LatLong(49.27, -123.24));
+		final CountDownLatch loadStarted = new CountDownLatch(1);
+		final CountDownLatch loadCancelled = new CountDownLatch(1);
+
+		final RouteLoader loader = new RouteLoader() {
+			@Override
+			public RouteInfo load(RouteEndpoints endpoints, CancellationToken token) throws IOException {
+				token.addCancelListener(new Runnable() {
+					@Override
+					public void run() {
+						loadCancelled.countDown();
+					}
+				});
+				loadStarted.countDown();
+				try {
+					loadCancelled.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				token.throwIfCancelled();
+				return route(endpoints);
+			}
+		};
+
+		final CancellationToken first = new CancellationToken();
+		final CancellationToken second = new CancellationToken();
+		Future<RouteInfo> firstResult = executor.submit(new Callable<RouteInfo>() {
+			@Override
+			public RouteInfo call() throws Exception {
+				return cache.load(key, loader, first);
+			}
+		});
+		assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+		Future<RouteInfo> secondResult = executor.submit(new Callable<RouteInfo>() {
+			@Override
+			public RouteInfo call() throws Exception {
+				return cache.load(key, loader, second);
+			}
+		});
+
+		// the second thread is given time to join the load before the first leaves it
+		Thread.sleep(100);
+		first.cancel();
+		assertFalse("Load cancelled while a thread still waits for it",
+				loadCancelled.await(100, TimeUnit.MILLISECONDS));
+
+		second.cancel();
+		assertTrue("Load not cancelled once no thread waits for it",
+				loadCancelled.await(10, TimeUnit.SECONDS));
+		for (Future<RouteInfo> result : Arrays.asList(firstResult, secondResult)) {
+			try {
+				result.get(10, TimeUnit.SECONDS);
+				fail("Expected the load to be cancelled");
+			} catch (ExecutionException e) {
+				assertEquals(InterruptedIOException.class, e.getCause().getClass());
+			}
+		}
+		assertEquals(0, cache.getStats().getEntryCount());
+	}
+
+	/**
+	 * Peeking at the cache counts neither a hit nor a miss; the caller counts its own lookups.
+	 */
+	@Test
+	public void testPeekIsNotCounted() {
+		RouteCache cache = new RouteCache(1000, 1L << 20, RouteCache.NO_EXPIRY);
+		RouteEndpoints key = new RouteEndpoints(new LatLong(49.26, -123.25), new LatLong(49.27, -123.24));
+		RouteEndpoints reverse = new RouteEndpoints(key.getEnd(), key.getStart());
+
+		assertNull(cache.peek(key));
+		RouteInfo route = route(key);
+		cache.put(key, route);
+		assertNull(cache.peek(reverse));
+		assertSame(route, cache.peek(key));
+		assertEquals(0, cache.getStats().getHitCount());
+		assertEquals(0, cache.getStats().getMissCount());
+
+		cache.recordLookup(true);
+		cache.recordLookup(false);
+		assertEquals(1, cache.getStats().getHitCount());
+		assertEquals(1, cache.getStats().getMissCount());
+	}
+
+	/**
+	 * The bounds apply to the cache as a whole, not to each of its segments: however routes fall into
+	 * segments, the cache fills up to its bounds and no further, keeping the routes added last.
+	 */
+	@Test
+	public void testBoundsAreGlobal() {
+		List<RouteEndpoints> keys = new ArrayList<RouteEndpoints>();
+		for (int i = 0; i < 100; i++)
+			keys.add(new RouteEndpoints(new LatLong(49.26 + i * 0.001, -123.25), new LatLong(49.27, -123.24)));
+		long routeBytes = route(keys.get(0)).getEstimatedSizeInBytes();
+
+		RouteCache byEntries = new RouteCache(10, 1L << 20, RouteCache.NO_EXPIRY);
+		RouteCache byBytes = new RouteCache(1000, 10 * routeBytes, RouteCache.NO_EXPIRY);
+		for (RouteCache cache : Arrays.asList(byEntries, byBytes)) {
+			for (int i = 0; i < keys.size(); i++) {
+				cache.put(keys.get(i), route(keys.get(i)));
+				assertEquals(Math.min(i + 1, 10), cache.getStats().getEntryCount());
+				assertEquals(Math.min(i + 1, 10) * routeBytes, cache.getStats().getSizeInBytes());
+			}
+			assertEquals(keys.size() - 10, cache.getStats().getEvictionCount());
+			assertNotNull(cache.peek(keys.get(keys.size() - 1)));
+
+			cache.clear();
+			assertEquals(0, cache.getStats().getEntryCount());
+			for (int i = 0; i < 10; i++)
+				cache.put(keys.get(i), route(keys.get(i)));
+			assertEquals(10, cache.getStats().getEntryCount());
+			assertEquals(keys.size() - 10, cache.getStats().getEvictionCount());
+		}
+	}
+
+	/**
+	 * However routes fall into segments, the route evicted is the least recently used in the cache:
+	 * after every route but one has been used, adding a route evicts that one.
+	 */
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		Random random = new Random(1);
+		List<RouteEndpoints> keys = keys(17);
+
+		for (int trial = 0; trial < 200; trial++) {
+			RouteCache cache = new RouteCache(16, 1L << 20, RouteCache.NO_EXPIRY);
+			for (int i = 0; i < 16; i++)
+				cache.put(keys.get(i), route(keys.get(i)));
+
+			int unused = random.nextInt(16);
+			List<RouteEndpoints> used = new ArrayList<RouteEndpoints>(keys.subList(0, 16));
+			used.remove(unused);
+			Collections.shuffle(used, random);
+			for (RouteEndpoints key : used)
+				assertNotNull(cache.get(key));
+
+			cache.put(keys.get(16), route(keys.get(16)));
+			assertNull("Trial " + trial, cache.peek(keys.get(unused)));
+			for (RouteEndpoints key : used)
+				assertNotNull("Trial " + trial, cache.peek(key));
+		}
+	}
+
+	/**
+	 * Random lookups, peeks and additions of routes of different sizes leave the cache holding the
+	 * same routes as an access-ordered map trimmed to the same bounds, oldest first.
+	 */
+	@Test
+	public void testMatchesLeastRecentlyUsedMap() {
+		final int maxEntries = 16;
+		final long maxBytes = 2000;
+		Random random = new Random(2);
+		List<RouteEndpoints> keys = keys(40);
+		RouteCache cache = new RouteCache(maxEntries, maxBytes, RouteCache.NO_EXPIRY);
+		LinkedHashMap<RouteEndpoints, RouteInfo> expected = new LinkedHashMap<RouteEndpoints, RouteInfo>(16, 0.75f, true);
+		long expectedBytes = 0;
+
+		for (int operation = 0; operation < 5000; operation++) {
+			RouteEndpoints key = keys.get(random.nextInt(keys.size()));
+			switch (random.nextInt(3)) {
+			case 0:
+				assertSame(expected.get(key), cache.get(key));
+				break;
+
+			case 1:
+				// peeking does not make a route more recently used
+				assertSame(peek(expected, key), cache.peek(key));
+				break;
+
+			default:
+				RouteInfo route = route(key, 2 + random.nextInt(19));
+				RouteInfo previous = expected.remove(key);
+				if (previous != null)
+					expectedBytes -= previous.getEstimatedSizeInBytes();
+				expected.put(key, route);
+				expectedBytes += route.getEstimatedSizeInBytes();
+
+				Iterator<RouteInfo> eldest = expected.values().iterator();
+				while (expected.size() > maxEntries || expectedBytes > maxBytes) {
+					expectedBytes -= eldest.next().getEstimatedSizeInBytes();
+					eldest.remove();
+				}
+
+				cache.put(key, route);
+				break;
+			}
+
+			RouteCacheStats stats = cache.getStats();
+			assertEquals("Routes after operation " + operation, expected.size(), stats.getEntryCount());
+			assertEquals("Bytes after operation " + operation, expectedBytes, stats.getSizeInBytes());
+			assertTrue(stats.getSizeInBytes() <= maxBytes);
+		}
+	}
+
+	/**
+	 * Routes expire a fixed time after they are cached, however often they are used meanwhile, and
+	 * are then missing and evicted.
+	 */
+	@Test
+	public void testExpiredRoutesAreMissing() throws InterruptedException {
+		RouteCache cache = new RouteCache(1000, 1L << 20, 200);
+		List<RouteEndpoints> keys = keys(2);
+		cache.put(keys.get(0), route(keys.get(0)));
+		assertNotNull(cache.get(keys.get(0)));
+
+		Thread.sleep(120);
+		cache.put(keys.get(1), route(keys.get(1)));
+		assertNotNull(cache.get(keys.get(0)));
+		assertEquals(2, cache.getStats().getEntryCount());
+
+		Thread.sleep(120);
+		assertNull(cache.get(keys.get(0)));
+		assertNull(cache.peek(keys.get(0)));
+		assertNotNull(cache.peek(keys.get(1)));
+		assertEquals(1, cache.getStats().getEntryCount());
+		assertEquals(1, cache.getStats().getEvictionCount());
+
+		Thread.sleep(120);
+		assertNull(cache.get(keys.get(1)));
+		assertEquals(0, cache.getStats().getEntryCount());
+		assertEquals(0, cache.getStats().getSizeInBytes());
+		assertEquals(2, cache.getStats().getEvictionCount());
+	}
+
+	/**
+	 * @return The route for the key in an access-ordered map, found without accessing it.
+	 */
+	private static RouteInfo peek(LinkedHashMap<RouteEndpoints, RouteInfo> map, RouteEndpoints key) {
+		for (Map.Entry<RouteEndpoints, RouteInfo> entry : map.entrySet()) {
+			if (entry.getKey().equals(key))
+				return entry.getValue();
+		}
+		return null;
+	}
+
+	private static List<RouteEndpoints> keys(int count) {
+		List<RouteEndpoints> keys = new ArrayList<RouteEndpoints>();
+		for (int i = 0; i < count; i++)
+			keys.add(new RouteEndpoints(new LatLong(49.26 + i * 0.001, -123.25), new LatLong(49.27, -123.24)));
+		return keys;
+	}
+
+	/**
+	 * @return A route between the endpoints through the given number of points.
+	 */
+	private static RouteInfo route(RouteEndpoints endpoints, int pointCount) {
+		List<LatLong> waypoints = new ArrayList<LatLong>();
+		for (int i = 0; i < pointCount; i++) {
+			double fraction = i / (pointCount - 1.0);
+			waypoints.add(new LatLong(
+					endpoints.getStart().getLatitude() + fraction * (endpoints.getEnd().getLatitude() - endpoints.getStart().getLatitude()),
+					endpoints.getStart().getLongitude() + fraction * (endpoints.getEnd().getLongitude() - endpoints.getStart().getLongitude())));
+		}
+		return new RouteInfo(waypoints);
+	}
+
+	private static RouteInfo route(RouteEndpoints endpoints) {
+		List<LatLong> waypoints = new ArrayList<LatLong>();
+		waypoints.add(endpoints.getStart());
+		waypoints.add(endpoints.getEnd());
+		return new RouteInfo(waypoints);
+	}
+}